@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.util.io.Streams;
+import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Parses the html markup files of wicket-examples and wicket-extensions with
+ * {@link XmlPullParser}, pulling every element (tags, text, comments etc.) of each file. The files
+ * are read from the source directories below <code>root</code>, which by default is the root of
+ * the Wicket checkout when the benchmark is run from this module's directory. Running the class
+ * directly adds the GC profiler, which reports the allocation rate (
+ * <code>gc.alloc.rate.norm</code> is the number of bytes allocated per operation). With the shaded
+ * jar add the profiler explicitly:
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar MarkupParsingBenchmark -prof gc
+ * </pre>
+ * 
+ * To compare Wicket versions, run the benchmark built against each of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarkupParsingBenchmark
+{
+	private static final String[] SOURCES = { "wicket-examples/src/main/java",
+			"wicket-extensions/src/main/java" };
+
+	/**
+	 * Directory containing the wicket-examples and wicket-extensions modules.
+	 */
+	@Param( { "../.." })
+	public String root;
+
+	private byte[][] files;
+
+	/**
+	 * Reads the markup files.
+	 * 
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		List<File> found = new ArrayList<File>();
+		for (String source : SOURCES)
+		{
+			File dir = new File(root, source);
+			if (!dir.isDirectory())
+			{
+				throw new IllegalStateException("Markup sources not found: " +
+					dir.getAbsolutePath() + ", set the root parameter with -p root=<dir>");
+			}
+			collect(dir, found);
+		}
+		Collections.sort(found);
+
+		files = new byte[found.size()][];
+		for (int i = 0; i < files.length; i++)
+		{
+			InputStream in = new FileInputStream(found.get(i));
+			try
+			{
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				Streams.copy(in, out);
+				files[i] = out.toByteArray();
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+	}
+
+	private static void collect(File dir, List<File> found)
+	{
+		for (File file : dir.listFiles())
+		{
+			if (file.isDirectory())
+			{
+				collect(file, found);
+			}
+			else if (file.getName().endsWith(".html"))
+			{
+				found.add(file);
+			}
+		}
+	}
+
+	/**
+	 * @return number of elements found
+	 * @throws IOException
+	 * @throws ResourceStreamNotFoundException
+	 * @throws ParseException
+	 */
+	@Benchmark
+	public int parse() throws IOException, ResourceStreamNotFoundException, ParseException
+	{
+		int elements = 0;
+		for (byte[] file : files)
+		{
+			XmlPullParser parser = new XmlPullParser();
+			parser.parse(new ByteArrayInputStream(file), "UTF-8");
+			while (parser.next())
+			{
+				elements++;
+			}
+		}
+		return elements;
+	}
+
+	/**
+	 * Runs the benchmark with the GC profiler.
+	 * 
+	 * @param args
+	 * @throws RunnerException
+	 */
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(MarkupParsingBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build()).run();
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
+import org.apache.wicket.protocol.http.pagestore.SerializedPagesCache.SerializedPageWithSession;
+import org.apache.wicket.util.lang.Objects;
+
+/**
+ * The previous implementation of {@link SerializedPagesCache}, a single list of soft references
+ * scanned under one lock (pagemap names are compared null safe). Kept only as the baseline for {@link SerializedPagesCacheBenchmark}.
+ */
+class ListScanSerializedPagesCache
+{
+	/**
+	 * Construct.
+	 * 
+	 * @param size
+	 */
+	public ListScanSerializedPagesCache(final int size)
+	{
+		this.size = size;
+		cache = new ArrayList<SoftReference<SerializedPageWithSession>>(size);
+	}
+
+	private final int size;
+
+	private final List<SoftReference<SerializedPageWithSession>> cache;
+
+	SerializedPageWithSession removePage(Page page)
+	{
+		if (size > 0)
+		{
+			synchronized (cache)
+			{
+				for (Iterator<SoftReference<SerializedPageWithSession>> i = cache.iterator(); i.hasNext();)
+				{
+					SoftReference<SerializedPageWithSession> ref = i.next();
+					SerializedPageWithSession entry = ref.get();
+					if (entry != null && entry.page.get() == page)
+					{
+						i.remove();
+						return entry;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	SerializedPageWithSession getPage(Page page)
+	{
+		SerializedPageWithSession result = null;
+		if (size > 0)
+		{
+			synchronized (cache)
+			{
+				for (Iterator<SoftReference<SerializedPageWithSession>> i = cache.iterator(); i.hasNext();)
+				{
+					SoftReference<SerializedPageWithSession> ref = i.next();
+					SerializedPageWithSession entry = ref.get();
+					if (entry != null && entry.page.get() == page)
+					{
+						i.remove();
+						result = entry;
+						break;
+					}
+				}
+
+				if (result != null)
+				{
+					cache.add(new SoftReference<SerializedPageWithSession>(result));
+				}
+			}
+		}
+		return result;
+	}
+
+	SerializedPageWithSession getPage(String sessionId, int pageId, String pageMapName,
+		int version, int ajaxVersion)
+	{
+		if (size > 0)
+		{
+			synchronized (cache)
+			{
+				for (Iterator<SoftReference<SerializedPageWithSession>> i = cache.iterator(); i.hasNext();)
+				{
+					SoftReference<SerializedPageWithSession> ref = i.next();
+					SerializedPageWithSession entry = ref.get();
+					if (entry != null && entry.sessionId.equals(sessionId) &&
+						entry.pageId == pageId && Objects.equal(entry.pageMapName, pageMapName) &&
+						entry.versionNumber == version && entry.ajaxVersionNumber == ajaxVersion)
+					{
+						return entry;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Store the serialized page in cache
+	 * 
+	 * @return serialized page
+	 * @param sessionId
+	 * @param page
+	 * @param pagesList
+	 */
+	SerializedPageWithSession storePage(String sessionId, Page page, List<SerializedPage> pagesList)
+	{
+		SerializedPageWithSession entry = new SerializedPageWithSession(sessionId, page, pagesList);
+		SoftReference<SerializedPageWithSession> ref = new SoftReference<SerializedPageWithSession>(
+			entry);
+
+		if (size > 0)
+		{
+			synchronized (cache)
+			{
+				removePage(page);
+				cache.add(ref);
+				if (cache.size() > size)
+				{
+					cache.remove(0);
+				}
+			}
+		}
+
+		return entry;
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
+import org.apache.wicket.protocol.http.pagestore.SerializedPagesCache.SerializedPageWithSession;
+import org.apache.wicket.util.tester.WicketTester;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the lock striped {@link SerializedPagesCache} with the previous single lock
+ * implementation ({@link ListScanSerializedPagesCache}) under contention. Every operation stores
+ * a page and then looks it up both by instance (as done on session replication) and by id.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar SerializedPagesCacheBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializedPagesCacheBenchmark
+{
+	private static final int SESSIONS = 64;
+
+	/**
+	 * Cache implementation to measure.
+	 */
+	@Param( { "striped", "listScan" })
+	public String implementation;
+
+	/**
+	 * Number of distinct pages the operations are spread over.
+	 */
+	@Param( { "1000" })
+	public int pageCount;
+
+	private WicketTester tester;
+
+	private Page[] pages;
+
+	private List<List<SerializedPage>> serialized;
+
+	private Cache cache;
+
+	/**
+	 * Common view of both cache implementations.
+	 */
+	private interface Cache
+	{
+		SerializedPageWithSession storePage(String sessionId, Page page, List<SerializedPage> data);
+
+		SerializedPageWithSession getPage(Page page);
+
+		SerializedPageWithSession getPage(String sessionId, int pageId, String pageMapName,
+			int version, int ajaxVersion);
+	}
+
+	/**
+	 * Page used by the benchmark.
+	 */
+	public static class BenchmarkPage extends WebPage
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Creates the pages and the cache.
+	 */
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		tester = new WicketTester();
+		tester.setupRequestAndResponse();
+
+		pages = new Page[pageCount];
+		serialized = new ArrayList<List<SerializedPage>>(pageCount);
+		for (int i = 0; i < pageCount; ++i)
+		{
+			pages[i] = new BenchmarkPage();
+			List<SerializedPage> list = new ArrayList<SerializedPage>(1);
+			list.add(new SerializedPage(pages[i].getNumericId(), pages[i].getPageMapName(),
+				pages[i].getCurrentVersionNumber(), pages[i].getAjaxVersionNumber(),
+				new byte[1024]));
+			serialized.add(list);
+		}
+
+		// the size limit is smaller than the page count so that entries get evicted
+		final int size = pageCount / 2;
+		if ("striped".equals(implementation))
+		{
+			final SerializedPagesCache striped = new SerializedPagesCache(size);
+			cache = new Cache()
+			{
+				public SerializedPageWithSession storePage(String sessionId, Page page,
+					List<SerializedPage> data)
+				{
+					return striped.storePage(sessionId, page, data);
+				}
+
+				public SerializedPageWithSession getPage(Page page)
+				{
+					return striped.getPage(page);
+				}
+
+				public SerializedPageWithSession getPage(String sessionId, int pageId,
+					String pageMapName, int version, int ajaxVersion)
+				{
+					return striped.getPage(sessionId, pageId, pageMapName, version, ajaxVersion);
+				}
+			};
+		}
+		else
+		{
+			final ListScanSerializedPagesCache listScan = new ListScanSerializedPagesCache(size);
+			cache = new Cache()
+			{
+				public SerializedPageWithSession storePage(String sessionId, Page page,
+					List<SerializedPage> data)
+				{
+					return listScan.storePage(sessionId, page, data);
+				}
+
+				public SerializedPageWithSession getPage(Page page)
+				{
+					return listScan.getPage(page);
+				}
+
+				public SerializedPageWithSession getPage(String sessionId, int pageId,
+					String pageMapName, int version, int ajaxVersion)
+				{
+					return listScan.getPage(sessionId, pageId, pageMapName, version, ajaxVersion);
+				}
+			};
+		}
+
+		// initialize the cache entry class while the application is attached to the thread
+		cache.storePage("session0", pages[0], serialized.get(0));
+	}
+
+	/**
+	 * Releases the tester.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		tester.destroy();
+	}
+
+	private Object storeAndLookup()
+	{
+		int index = ThreadLocalRandom.current().nextInt(pageCount);
+		Page page = pages[index];
+		String sessionId = "session" + (index % SESSIONS);
+
+		cache.storePage(sessionId, page, serialized.get(index));
+		SerializedPageWithSession byInstance = cache.getPage(page);
+		SerializedPageWithSession byId = cache.getPage(sessionId, page.getNumericId(),
+			page.getPageMapName(), page.getCurrentVersionNumber(), page.getAjaxVersionNumber());
+		return byInstance != null ? byInstance : byId;
+	}
+
+	/**
+	 * @return last looked up entry
+	 */
+	@Benchmark
+	@Threads(1)
+	public Object threads1()
+	{
+		return storeAndLookup();
+	}
+
+	/**
+	 * @return last looked up entry
+	 */
+	@Benchmark
+	@Threads(8)
+	public Object threads8()
+	{
+		return storeAndLookup();
+	}
+
+	/**
+	 * @return last looked up entry
+	 */
+	@Benchmark
+	@Threads(32)
+	public Object threads32()
+	{
+		return storeAndLookup();
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.IOException;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.apache.wicket.util.lang.Generics;
+
+import sun.misc.Unsafe;
+
+/**
+ * The previous field access path of {@link ClassStreamHandler}, one {@link FieldAndIndex} object
+ * per field that reads or writes the field through a virtual call. Kept only as the baseline for
+ * {@link ObjectStreamBenchmark.Fields}.
+ */
+class FieldAndIndexFields
+{
+	private static Unsafe unsafe;
+
+	static
+	{
+		try
+		{
+			Class<?>[] classes = ObjectStreamClass.class.getDeclaredClasses();
+			for (int i = 0; i < classes.length; i++)
+			{
+				if (classes[i].getName().equals("java.io.ObjectStreamClass$FieldReflector"))
+				{
+					Field unsafeField = classes[i].getDeclaredField("unsafe");
+					unsafeField.setAccessible(true);
+
+					unsafe = (Unsafe)unsafeField.get(null);
+					break;
+				}
+			}
+		}
+		catch (Throwable e)
+		{
+			// e.printStackTrace()
+		}
+	}
+
+	private final List<FieldAndIndex> fields = Generics.newArrayList();
+
+	/**
+	 * Construct.
+	 *
+	 * @param cls
+	 */
+	FieldAndIndexFields(Class<?> cls)
+	{
+		fillFields(cls);
+	}
+
+	/**
+	 * @param cls
+	 */
+	private void fillFields(Class<?> cls)
+	{
+		if (cls == null)
+		{
+			return;
+		}
+		Field[] fields = cls.getDeclaredFields();
+		for (int i = 0; i < fields.length; i++)
+		{
+			Field field = fields[i];
+			field.setAccessible(true);
+			if (!Modifier.isStatic(field.getModifiers()) &&
+				!Modifier.isTransient(field.getModifiers()))
+			{
+				FieldAndIndex fai = null;
+				Class<?> clz = field.getType();
+				if (clz == boolean.class)
+				{
+					fai = new BooleanFieldAndIndex(field);
+				}
+				else if (clz == byte.class)
+				{
+					fai = new ByteFieldAndIndex(field);
+				}
+				else if (clz == short.class)
+				{
+					fai = new ShortFieldAndIndex(field);
+				}
+				else if (clz == char.class)
+				{
+					fai = new CharFieldAndIndex(field);
+				}
+				else if (clz == int.class)
+				{
+					fai = new IntFieldAndIndex(field);
+				}
+				else if (clz == long.class)
+				{
+					fai = new LongFieldAndIndex(field);
+				}
+				else if (clz == float.class)
+				{
+					fai = new FloatFieldAndIndex(field);
+				}
+				else if (clz == double.class)
+				{
+					fai = new DoubleFieldAndIndex(field);
+				}
+				else
+				{
+					fai = new ObjectFieldAndIndex(field);
+				}
+				this.fields.add(fai);
+			}
+		}
+		cls = cls.getSuperclass();
+		if (cls != Object.class)
+		{
+			fillFields(cls);
+		}
+	}
+
+	/**
+	 * @param woos
+	 * @param obj
+	 * @throws WicketSerializeableException
+	 */
+	public void writeFields(WicketObjectOutputStream woos, Object obj)
+		throws WicketSerializeableException
+	{
+		FieldAndIndex fai = null;
+		try
+		{
+			for (int i = 0; i < fields.size(); i++)
+			{
+				fai = fields.get(i);
+				fai.writeField(obj, woos);
+			}
+		}
+		catch (WicketSerializeableException wse)
+		{
+			wse.addTrace(fai.field.getName());
+			throw wse;
+		}
+		catch (Exception ex)
+		{
+			String field = fai == null || fai.field == null ? "" : fai.field.getName();
+			String msg = "Error writing field: " + field + " for object class: " + obj.getClass();
+			throw new WicketSerializeableException(msg, ex);
+		}
+	}
+
+	/**
+	 * @param wois
+	 * @param object
+	 * @throws WicketSerializeableException
+	 */
+	public void readFields(WicketObjectInputStream wois, Object object)
+		throws WicketSerializeableException
+	{
+		FieldAndIndex fai = null;
+		try
+		{
+			for (int i = 0; i < fields.size(); i++)
+			{
+				fai = fields.get(i);
+				fai.readField(object, wois);
+			}
+		}
+		catch (WicketSerializeableException wse)
+		{
+			wse.addTrace(fai.field.getName());
+			throw wse;
+		}
+		catch (Exception ex)
+		{
+			throw new WicketSerializeableException("Error reading field: " + fai.field.getName() +
+				" for object class: " + object.getClass(), ex);
+		}
+	}
+
+	private abstract class FieldAndIndex
+	{
+		final Field field;
+		final long index;
+
+		FieldAndIndex(Field field)
+		{
+			this.field = field;
+			index = unsafe.objectFieldOffset(field);
+		}
+
+		public abstract void writeField(Object object, WicketObjectOutputStream dos)
+			throws IOException;
+
+		public abstract void readField(Object object, WicketObjectInputStream dos)
+			throws IOException, ClassNotFoundException;
+	}
+
+	private final class BooleanFieldAndIndex extends FieldAndIndex
+	{
+		BooleanFieldAndIndex(Field field)
+		{
+			super(field);
+		}
+
+		@Override
+		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		{
+			dos.writeBoolean(unsafe.getBoolean(object, index));
+		}
+
+		@Override
+		public void readField(Object object, WicketObjectInputStream dos) throws IOException
+		{
+			unsafe.putBoolean(object, index, dos.readBoolean());
+		}
+	}
+
+	private final class ByteFieldAndIndex extends FieldAndIndex
+	{
+		ByteFieldAndIndex(Field field)
+		{
+			super(field);
+		}
+
+		@Override
+		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		{
+			dos.writeByte(unsafe.getByte(object, index));
+		}
+
+		@Override
+		public void readField(Object object, WicketObjectInputStream dos) throws IOException
+		{
+			unsafe.putByte(object, index, dos.readByte());
+		}
+	}
+
+	private final class ShortFieldAndIndex extends FieldAndIndex
+	{
+		ShortFieldAndIndex(Field field)
+		{
+			super(field);
+		}
+
+		@Override
+		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		{
+			dos.writeShort(unsafe.getShort(object, index));
+		}
+
+		@Override
+		public void readField(Object object, WicketObjectInputStream dos) throws IOException
+		{
+			unsafe.putShort(object, index, dos.readShort());
+		}
+	}
+
+	private final class CharFieldAndIndex extends FieldAndIndex
+	{
+		CharFieldAndIndex(Field field)
+		{
+			super(field);
+		}
+
+		@Override
+		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		{
+			dos.writeChar(unsafe.getChar(object, index));
+		}
+
+		@Override
+		public void readField(Object object, WicketObjectInputStream dos) throws IOException
+		{
+			unsafe.putChar(object, index, dos.readChar());
+		}
+	}
+
+	private final class IntFieldAndIndex extends FieldAndIndex
+	{
+		IntFieldAndIndex(Field field)
+		{
+			super(field);
+		}
+
+		@Override
+		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		{
+			dos.writeInt(unsafe.getInt(object, index));
+		}
+
+		@Override
+		public void readField(Object object, WicketObjectInputStream dos) throws IOException
+		{
+			unsafe.putInt(object, index, dos.readInt());
+		}
+	}
+
+	private final class LongFieldAndIndex extends FieldAndIndex
+	{
+		LongFieldAndIndex(Field field)
+		{
+			super(field);
+		}
+
+		@Override
+		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		{
+			dos.writeLong(unsafe.getLong(object, index));
+		}
+
+		@Override
+		public void readField(Object object, WicketObjectInputStream dos) throws IOException
+		{
+			unsafe.putLong(object, index, dos.readLong());
+		}
+	}
+
+	private final class FloatFieldAndIndex extends FieldAndIndex
+	{
+		FloatFieldAndIndex(Field field)
+		{
+			super(field);
+		}
+
+		@Override
+		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		{
+			dos.writeFloat(unsafe.getFloat(object, index));
+		}
+
+		@Override
+		public void readField(Object object, WicketObjectInputStream dos) throws IOException
+		{
+			unsafe.putFloat(object, index, dos.readFloat());
+		}
+	}
+
+	private final class DoubleFieldAndIndex extends FieldAndIndex
+	{
+		DoubleFieldAndIndex(Field field)
+		{
+			super(field);
+		}
+
+		@Override
+		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		{
+			dos.writeDouble(unsafe.getDouble(object, index));
+		}
+
+		@Override
+		public void readField(Object object, WicketObjectInputStream dos) throws IOException
+		{
+			unsafe.putDouble(object, index, dos.readDouble());
+		}
+	}
+
+	private final class ObjectFieldAndIndex extends FieldAndIndex
+	{
+		ObjectFieldAndIndex(Field field)
+		{
+			super(field);
+		}
+
+		@Override
+		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		{
+			dos.writeObject(unsafe.getObject(object, index));
+		}
+
+		@Override
+		public void readField(Object object, WicketObjectInputStream dos) throws IOException,
+			ClassNotFoundException
+		{
+			unsafe.putObject(object, index, dos.readObject());
+		}
+	}
+}
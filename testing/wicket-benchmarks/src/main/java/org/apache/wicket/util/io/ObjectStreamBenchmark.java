@@ -0,0 +1,456 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.form.CheckBox;
+import org.apache.wicket.markup.html.form.DropDownChoice;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.html.form.TextArea;
+import org.apache.wicket.markup.html.form.TextField;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.CompoundPropertyModel;
+import org.apache.wicket.model.PropertyModel;
+import org.apache.wicket.util.tester.WicketTester;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization and deserialization throughput of {@link WicketObjectOutputStream} /
+ * {@link WicketObjectInputStream} compared with the JDK object streams. The pages are modelled
+ * after the guestbook and form input examples. {@link Fields} compares the field access of
+ * {@link ClassStreamHandler} with the previous one ({@link FieldAndIndexFields}) in the same run.
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar ObjectStreamBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObjectStreamBenchmark
+{
+	/**
+	 * Stream implementation to measure.
+	 */
+	@Param( { "wicket", "jdk" })
+	public String implementation;
+
+	/**
+	 * Page to serialize.
+	 */
+	@Param( { "guestbook", "forminput" })
+	public String page;
+
+	private WicketTester tester;
+
+	private ClassDictionary dictionary;
+
+	private Page instance;
+
+	private byte[] serialized;
+
+	/**
+	 * Guestbook comment.
+	 */
+	public static class Comment implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String text;
+
+		private Date date = new Date();
+
+		/**
+		 * @return text
+		 */
+		public String getText()
+		{
+			return text;
+		}
+
+		/**
+		 * @param text
+		 */
+		public void setText(String text)
+		{
+			this.text = text;
+		}
+
+		/**
+		 * @return date
+		 */
+		public Date getDate()
+		{
+			return date;
+		}
+
+		/**
+		 * @param date
+		 */
+		public void setDate(Date date)
+		{
+			this.date = date;
+		}
+	}
+
+	/**
+	 * Form with a text area and list of comments.
+	 */
+	public static class GuestBookPage extends WebPage
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final List<Comment> comments = new ArrayList<Comment>();
+
+		/**
+		 * Construct.
+		 */
+		public GuestBookPage()
+		{
+			for (int i = 0; i < 50; i++)
+			{
+				Comment comment = new Comment();
+				comment.setText("Comment number " + i + " in the guestbook");
+				comments.add(comment);
+			}
+
+			Form<Comment> form = new Form<Comment>("commentForm",
+				new CompoundPropertyModel<Comment>(new Comment()));
+			form.add(new TextArea<String>("text"));
+			add(form);
+
+			ListView<Comment> listView = new ListView<Comment>("comments", comments)
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void populateItem(ListItem<Comment> item)
+				{
+					populateComment(item);
+				}
+			};
+			add(listView);
+
+			// create the items the same way as the first render would
+			for (int i = 0; i < comments.size(); i++)
+			{
+				ListItem<Comment> item = new ListItem<Comment>(i, new PropertyModel<Comment>(
+					comments, Integer.toString(i)));
+				populateComment(item);
+				listView.add(item);
+			}
+		}
+
+		private static void populateComment(ListItem<Comment> item)
+		{
+			Comment comment = item.getModelObject();
+			item.add(new Label("date", new PropertyModel<Date>(comment, "date")));
+			item.add(new Label("text", comment.getText()));
+		}
+	}
+
+	/**
+	 * Form bean of {@link FormInputPage}.
+	 */
+	public static class FormInputModel implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String text = "some text";
+
+		private Integer integer = new Integer(12);
+
+		private Double number = new Double(1.5);
+
+		private boolean checked = true;
+
+		private String site = "Apache";
+
+		private int counter;
+
+		private long timestamp = System.currentTimeMillis();
+	}
+
+	/**
+	 * Form with several kinds of inputs.
+	 */
+	public static class FormInputPage extends WebPage
+	{
+		private static final long serialVersionUID = 1L;
+
+		private static final List<String> SITES = Arrays.asList(new String[] { "Apache",
+				"Wicket", "Java", "Servlet" });
+
+		/**
+		 * Construct.
+		 */
+		public FormInputPage()
+		{
+			FormInputModel bean = new FormInputModel();
+			Form<FormInputModel> form = new Form<FormInputModel>("inputForm",
+				new CompoundPropertyModel<FormInputModel>(bean));
+			form.add(new TextField<String>("text"));
+			form.add(new TextField<Integer>("integer", Integer.class));
+			form.add(new TextField<Double>("number", Double.class));
+			form.add(new CheckBox("checked"));
+			form.add(new DropDownChoice<String>("site", SITES));
+			add(form);
+
+			for (int i = 0; i < 20; i++)
+			{
+				add(new Link<Void>("link" + i)
+				{
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					public void onClick()
+					{
+					}
+				});
+				add(new Label("label" + i, "Label " + i));
+			}
+		}
+	}
+
+	/**
+	 * Creates the page and its serialized form.
+	 * 
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		tester = new WicketTester();
+		tester.setupRequestAndResponse();
+		dictionary = new ClassDictionary();
+		instance = "guestbook".equals(page) ? new GuestBookPage() : new FormInputPage();
+		serialized = serialize();
+	}
+
+	/**
+	 * Releases the tester.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		tester.destroy();
+	}
+
+	/**
+	 * @return serialized page
+	 * @throws IOException
+	 */
+	@Benchmark
+	public byte[] serialize() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream stream = "wicket".equals(implementation)
+			? new WicketObjectOutputStream(out, dictionary) : new ObjectOutputStream(out);
+		stream.writeObject(instance);
+		stream.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return deserialized page
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@Benchmark
+	public Object deserialize() throws IOException, ClassNotFoundException
+	{
+		ByteArrayInputStream in = new ByteArrayInputStream(serialized);
+		ObjectInputStream stream = "wicket".equals(implementation)
+			? new WicketObjectInputStream(in, dictionary) : new ObjectInputStream(in);
+		Object result = stream.readObject();
+		stream.close();
+		return result;
+	}
+
+	/**
+	 * Writes and reads the fields of the form beans of both pages with the field layout of
+	 * {@link ClassStreamHandler} and with the previous per field objects of
+	 * {@link FieldAndIndexFields}. The beans are alternated so that all field types are accessed
+	 * from the same call sites, as when serializing a page.
+	 */
+	@State(Scope.Benchmark)
+	public static class Fields
+	{
+		private static final int BEANS = 100;
+
+		/**
+		 * Field access to measure.
+		 */
+		@Param( { "layout", "fieldAndIndex" })
+		public String implementation;
+
+		private ClassDictionary dictionary;
+
+		private Object[] beans;
+
+		private Object[] targets;
+
+		private FieldAccess[] accesses;
+
+		private byte[] serialized;
+
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		/**
+		 * Common view of both field access implementations.
+		 */
+		private interface FieldAccess
+		{
+			void write(WicketObjectOutputStream out, Object object) throws IOException;
+
+			void read(WicketObjectInputStream in, Object object) throws IOException;
+		}
+
+		/**
+		 * Creates the beans and their serialized fields.
+		 * 
+		 * @throws IOException
+		 */
+		@Setup(Level.Trial)
+		public void setUp() throws IOException
+		{
+			dictionary = new ClassDictionary();
+			beans = new Object[BEANS];
+			targets = new Object[BEANS];
+			accesses = new FieldAccess[BEANS];
+			for (int i = 0; i < BEANS; i++)
+			{
+				if (i % 2 == 0)
+				{
+					Comment comment = new Comment();
+					comment.setText("Comment number " + i + " in the guestbook");
+					beans[i] = comment;
+					targets[i] = new Comment();
+				}
+				else
+				{
+					beans[i] = new FormInputModel();
+					targets[i] = new FormInputModel();
+				}
+				accesses[i] = newFieldAccess(beans[i].getClass());
+			}
+			serialized = write();
+		}
+
+		private FieldAccess newFieldAccess(Class<?> cls) throws IOException
+		{
+			if ("layout".equals(implementation))
+			{
+				final ClassStreamHandler handler = ClassStreamHandler.lookup(cls);
+				return new FieldAccess()
+				{
+					public void write(WicketObjectOutputStream out, Object object)
+						throws IOException
+					{
+						handler.writeFields(out, object);
+					}
+
+					public void read(WicketObjectInputStream in, Object object) throws IOException
+					{
+						handler.readFields(in, object);
+					}
+				};
+			}
+			else
+			{
+				final FieldAndIndexFields fields = new FieldAndIndexFields(cls);
+				return new FieldAccess()
+				{
+					public void write(WicketObjectOutputStream out, Object object)
+						throws IOException
+					{
+						fields.writeFields(out, object);
+					}
+
+					public void read(WicketObjectInputStream in, Object object) throws IOException
+					{
+						fields.readFields(in, object);
+					}
+				};
+			}
+		}
+
+		/**
+		 * @return serialized fields of the beans
+		 * @throws IOException
+		 */
+		@Benchmark
+		public byte[] write() throws IOException
+		{
+			buffer.reset();
+			WicketObjectOutputStream out = new WicketObjectOutputStream(buffer, dictionary);
+			for (int i = 0; i < BEANS; i++)
+			{
+				accesses[i].write(out, beans[i]);
+			}
+			out.close();
+			return buffer.toByteArray();
+		}
+
+		/**
+		 * @return beans the fields have been read into
+		 * @throws IOException
+		 */
+		@Benchmark
+		public Object[] read() throws IOException
+		{
+			WicketObjectInputStream in = new WicketObjectInputStream(new ByteArrayInputStream(
+				serialized), dictionary);
+			for (int i = 0; i < BEANS; i++)
+			{
+				accesses[i].read(in, targets[i]);
+			}
+			in.close();
+			return targets;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.util.io.pages.DataTablePage;
+import org.apache.wicket.util.io.pages.FormComponentsPage;
+import org.apache.wicket.util.io.pages.TreePage;
+import org.apache.wicket.util.tester.WicketTester;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Serialization and deserialization of rendered pages with {@link WicketObjectOutputStream} /
+ * {@link WicketObjectInputStream} and with the JDK object streams. The pages are rendered by
+ * {@link WicketTester} first, so their component trees look like the ones stored after a request:
+ * <ul>
+ * <li><code>datatable</code> - two data tables with 100 rows of detachable models each</li>
+ * <li><code>form</code> - form with 400 form components</li>
+ * <li><code>tree</code> - expanded tree with 1093 nodes</li>
+ * </ul>
+ * Besides the throughput, the size of the serialized page is reported as the <code>bytes</code>
+ * counter. Running the class directly adds the GC profiler, which reports the allocation rate (
+ * <code>gc.alloc.rate.norm</code> is the number of bytes allocated per operation). With the shaded
+ * jar add the profiler explicitly:
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar PageSerializationBenchmark -prof gc
+ * </pre>
+ * 
+ * To compare Wicket versions, run the benchmark built against each of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PageSerializationBenchmark
+{
+	/**
+	 * Stream implementation to measure.
+	 */
+	@Param( { "wicket", "jdk" })
+	public String implementation;
+
+	/**
+	 * Page to serialize.
+	 */
+	@Param( { "datatable", "form", "tree" })
+	public String page;
+
+	private WicketTester tester;
+
+	private ClassDictionary dictionary;
+
+	private Page instance;
+
+	private byte[] serialized;
+
+	/**
+	 * Size of the serialized page, reported next to the throughput.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class SizeCounter
+	{
+		/**
+		 * Bytes produced by serializing the page once.
+		 */
+		public long bytes;
+	}
+
+	/**
+	 * Renders the page and creates its serialized form.
+	 * 
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		tester = new WicketTester();
+		dictionary = new ClassDictionary();
+		if ("datatable".equals(page))
+		{
+			tester.startPage(DataTablePage.class);
+		}
+		else if ("form".equals(page))
+		{
+			tester.startPage(FormComponentsPage.class);
+		}
+		else if ("tree".equals(page))
+		{
+			tester.startPage(TreePage.class);
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unknown page " + page);
+		}
+		instance = tester.getLastRenderedPage();
+		tester.setupRequestAndResponse();
+		serialized = writePage();
+	}
+
+	/**
+	 * Releases the tester.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		tester.destroy();
+	}
+
+	private byte[] writePage() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream stream = "wicket".equals(implementation)
+			? new WicketObjectOutputStream(out, dictionary) : new ObjectOutputStream(out);
+		stream.writeObject(instance);
+		stream.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param counter
+	 * @return serialized page
+	 * @throws IOException
+	 */
+	@Benchmark
+	public byte[] serialize(SizeCounter counter) throws IOException
+	{
+		byte[] result = writePage();
+		counter.bytes = result.length;
+		return result;
+	}
+
+	/**
+	 * @param counter
+	 * @return deserialized page
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@Benchmark
+	public Object deserialize(SizeCounter counter) throws IOException, ClassNotFoundException
+	{
+		ByteArrayInputStream in = new ByteArrayInputStream(serialized);
+		ObjectInputStream stream = "wicket".equals(implementation)
+			? new WicketObjectInputStream(in, dictionary) : new ObjectInputStream(in);
+		Object result = stream.readObject();
+		stream.close();
+		counter.bytes = serialized.length;
+		return result;
+	}
+
+	/**
+	 * Runs the benchmark with the GC profiler.
+	 * 
+	 * @param args
+	 * @throws RunnerException
+	 */
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(PageSerializationBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build()).run();
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io.pages;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.wicket.extensions.markup.html.repeater.data.table.DefaultDataTable;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.IColumn;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.PropertyColumn;
+import org.apache.wicket.extensions.markup.html.repeater.util.SortableDataProvider;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.model.Model;
+
+/**
+ * Two sortable data tables of contacts with 100 rows each, modelled after the data table example
+ * of wicket-examples.
+ */
+public class DataTablePage extends WebPage
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final List<Contact> CONTACTS = new ArrayList<Contact>();
+
+	static
+	{
+		for (int i = 0; i < 500; i++)
+		{
+			CONTACTS.add(new Contact(i, "First" + i, "Last" + i, "contact" + i + "@example.com",
+				"555-" + (1000 + i)));
+		}
+	}
+
+	/**
+	 * Contact shown in the tables.
+	 */
+	public static class Contact implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final long id;
+		private final String firstName;
+		private final String lastName;
+		private final String email;
+		private final String phone;
+		private final Date created = new Date();
+
+		Contact(long id, String firstName, String lastName, String email, String phone)
+		{
+			this.id = id;
+			this.firstName = firstName;
+			this.lastName = lastName;
+			this.email = email;
+			this.phone = phone;
+		}
+
+		/**
+		 * @return id
+		 */
+		public long getId()
+		{
+			return id;
+		}
+
+		/**
+		 * @return first name
+		 */
+		public String getFirstName()
+		{
+			return firstName;
+		}
+
+		/**
+		 * @return last name
+		 */
+		public String getLastName()
+		{
+			return lastName;
+		}
+
+		/**
+		 * @return email
+		 */
+		public String getEmail()
+		{
+			return email;
+		}
+
+		/**
+		 * @return phone
+		 */
+		public String getPhone()
+		{
+			return phone;
+		}
+
+		/**
+		 * @return creation date
+		 */
+		public Date getCreated()
+		{
+			return created;
+		}
+	}
+
+	/**
+	 * Model that keeps only the contact id when detached.
+	 */
+	private static class ContactModel extends LoadableDetachableModel<Contact>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int id;
+
+		ContactModel(Contact contact)
+		{
+			super(contact);
+			id = (int)contact.getId();
+		}
+
+		@Override
+		protected Contact load()
+		{
+			return CONTACTS.get(id);
+		}
+	}
+
+	/**
+	 * Data provider of the contacts.
+	 */
+	private static class ContactDataProvider extends SortableDataProvider<Contact>
+	{
+		private static final long serialVersionUID = 1L;
+
+		ContactDataProvider()
+		{
+			setSort("lastName", true);
+		}
+
+		public Iterator<Contact> iterator(int first, int count)
+		{
+			return CONTACTS.subList(first, first + count).iterator();
+		}
+
+		public int size()
+		{
+			return CONTACTS.size();
+		}
+
+		public IModel<Contact> model(Contact object)
+		{
+			return new ContactModel(object);
+		}
+
+		public void detach()
+		{
+		}
+	}
+
+	/**
+	 * Construct.
+	 */
+	public DataTablePage()
+	{
+		add(newTable("contacts"));
+		add(newTable("otherContacts"));
+	}
+
+	private static DefaultDataTable<Contact> newTable(String id)
+	{
+		List<IColumn<Contact>> columns = new ArrayList<IColumn<Contact>>();
+		columns.add(new PropertyColumn<Contact>(new Model<String>("ID"), "id"));
+		columns.add(new PropertyColumn<Contact>(new Model<String>("First Name"), "firstName",
+			"firstName"));
+		columns.add(new PropertyColumn<Contact>(new Model<String>("Last Name"), "lastName",
+			"lastName"));
+		columns.add(new PropertyColumn<Contact>(new Model<String>("Email"), "email"));
+		columns.add(new PropertyColumn<Contact>(new Model<String>("Phone"), "phone"));
+		columns.add(new PropertyColumn<Contact>(new Model<String>("Created"), "created"));
+		return new DefaultDataTable<Contact>(id, columns, new ContactDataProvider(), 100);
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io.pages;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.form.CheckBox;
+import org.apache.wicket.markup.html.form.DropDownChoice;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.html.form.TextField;
+import org.apache.wicket.markup.repeater.RepeatingView;
+import org.apache.wicket.model.PropertyModel;
+
+/**
+ * Form with 100 rows of four form components each, bound to a list of beans.
+ */
+public class FormComponentsPage extends WebPage
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final List<String> CATEGORIES = Arrays.asList(new String[] { "None", "Low",
+			"Medium", "High", "Critical" });
+
+	/**
+	 * Bean edited by one row of the form.
+	 */
+	public static class Row implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String name;
+		private Integer amount;
+		private Boolean enabled = Boolean.TRUE;
+		private String category = "Medium";
+
+		Row(int index)
+		{
+			name = "Row " + index;
+			amount = new Integer(index * 10);
+		}
+	}
+
+	private final List<Row> rows = new ArrayList<Row>();
+
+	/**
+	 * Construct.
+	 */
+	public FormComponentsPage()
+	{
+		Form<Void> form = new Form<Void>("form");
+		add(form);
+
+		RepeatingView repeater = new RepeatingView("rows");
+		form.add(repeater);
+		for (int i = 0; i < 100; i++)
+		{
+			Row row = new Row(i);
+			rows.add(row);
+
+			WebMarkupContainer item = new WebMarkupContainer(repeater.newChildId());
+			repeater.add(item);
+			item.add(new Label("label", row.name));
+			item.add(new TextField<String>("name", new PropertyModel<String>(row, "name")));
+			item.add(new TextField<Integer>("amount", new PropertyModel<Integer>(row, "amount"),
+				Integer.class));
+			item.add(new CheckBox("enabled", new PropertyModel<Boolean>(row, "enabled")));
+			item.add(new DropDownChoice<String>("category", new PropertyModel<String>(row,
+				"category"), CATEGORIES));
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io.pages;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.tree.LinkTree;
+
+/**
+ * Fully expanded tree of depth 7 with three children per node.
+ */
+public class TreePage extends WebPage
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Construct.
+	 */
+	public TreePage()
+	{
+		DefaultMutableTreeNode root = new DefaultMutableTreeNode("root");
+		addChildren(root, 1);
+
+		LinkTree tree = new LinkTree("tree", new DefaultTreeModel(root));
+		tree.getTreeState().expandAll();
+		add(tree);
+	}
+
+	private static void addChildren(DefaultMutableTreeNode parent, int depth)
+	{
+		if (depth < 7)
+		{
+			for (int i = 0; i < 3; i++)
+			{
+				DefaultMutableTreeNode child = new DefaultMutableTreeNode(parent.getUserObject() +
+					"." + i);
+				parent.add(child);
+				addChildren(child, depth + 1);
+			}
+		}
+	}
+}
@@ -59,6 +59,7 @@ public final class InspectorPage extends WebPage
 		add(new PageView("page", entry == null ? null : entry.getPage()));
 		add(new Image("bug"));
 		add(new BookmarkablePageLink("allsessions", LiveSessionsPage.class));
+		add(new BookmarkablePageLink("serializedsizes", SerializedSizesPage.class));
 		add(new Label("wicketVersion", getApplication().getFrameworkSettings().getVersion()));
 	}
 
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.examples.debug;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.image.Image;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.AbstractReadOnlyModel;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.settings.IDebugSettings;
+import org.apache.wicket.util.io.SerializedSizeProfiler;
+import org.apache.wicket.util.io.SerializedSizeProfiler.Entry;
+import org.apache.wicket.util.lang.Bytes;
+
+
+/**
+ * Shows the component paths, model classes and page classes with most serialized bytes, as
+ * recorded by the application's {@link SerializedSizeProfiler}.
+ */
+public class SerializedSizesPage extends WebPage
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int TOP_COUNT = 50;
+
+	private static final int KIND_COMPONENTS = 0;
+
+	private static final int KIND_MODELS = 1;
+
+	private static final int KIND_PAGES = 2;
+
+	/**
+	 * Construct.
+	 */
+	public SerializedSizesPage()
+	{
+		add(new Image("bug"));
+
+		add(new ApplicationView("application", Application.get()));
+
+		Link<Void> link = new Link<Void>("togglelink")
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void onClick()
+			{
+				IDebugSettings settings = Application.get().getDebugSettings();
+				if (settings.getSerializedSizeProfiler() == null)
+				{
+					settings.setSerializedSizeProfiler(new SerializedSizeProfiler());
+				}
+				else
+				{
+					settings.setSerializedSizeProfiler(null);
+				}
+			}
+		};
+		link.add(new Label("toggletext", new Model<String>()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public String getObject()
+			{
+				return getProfiler() == null ? "Enable profiling" : "Disable profiling";
+			}
+		}));
+		add(link);
+
+		add(new Label("profiledPages", new Model<Long>()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Long getObject()
+			{
+				SerializedSizeProfiler profiler = getProfiler();
+				return profiler == null ? 0 : profiler.getProfiledCount();
+			}
+		}));
+
+		add(newEntriesView("components", KIND_COMPONENTS));
+		add(newEntriesView("models", KIND_MODELS));
+		add(newEntriesView("pages", KIND_PAGES));
+	}
+
+	private ListView<Entry> newEntriesView(String id, final int kind)
+	{
+		IModel<List<Entry>> model = new AbstractReadOnlyModel<List<Entry>>()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public List<Entry> getObject()
+			{
+				SerializedSizeProfiler profiler = getProfiler();
+				if (profiler == null)
+				{
+					return Collections.emptyList();
+				}
+				switch (kind)
+				{
+					case KIND_COMPONENTS :
+						return profiler.getTopComponents(TOP_COUNT);
+					case KIND_MODELS :
+						return profiler.getTopModels(TOP_COUNT);
+					default :
+						return profiler.getTopPages(TOP_COUNT);
+				}
+			}
+		};
+		return new ListView<Entry>(id, model)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void populateItem(ListItem<Entry> item)
+			{
+				Entry entry = item.getModelObject();
+				item.add(new Label("name", entry.getName()));
+				item.add(new Label("count", String.valueOf(entry.getCount())));
+				item.add(new Label("bytes", Bytes.bytes(entry.getBytes()).toString()));
+				item.add(new Label("average", Bytes.bytes(entry.getAverageBytes()).toString()));
+				item.add(new Label("max", Bytes.bytes(entry.getMaxBytes()).toString()));
+			}
+		};
+	}
+
+	SerializedSizeProfiler getProfiler()
+	{
+		return Application.get().getDebugSettings().getSerializedSizeProfiler();
+	}
+
+	/**
+	 * @see org.apache.wicket.Component#isVersioned()
+	 */
+	@Override
+	public boolean isVersioned()
+	{
+		return false;
+	}
+}
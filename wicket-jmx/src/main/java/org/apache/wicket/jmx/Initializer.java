@@ -197,6 +197,13 @@ public class Initializer implements IInitializer, IDestroyer
 			RequestLogger sessionsBean = new RequestLogger(application);
 			ObjectName sessionsBeanName = new ObjectName(domain + ":type=RequestLogger");
 			register(sessionsBean, sessionsBeanName);
+
+			register(new SessionLocks(application), new ObjectName(domain + ":type=SessionLocks"));
+
+			register(new SerializedSizeProfiler(application), new ObjectName(domain +
+				":type=SerializedSizeProfiler"));
+
+			register(new MarkupCache(application), new ObjectName(domain + ":type=MarkupCache"));
 		}
 		catch (MalformedObjectNameException e)
 		{
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.jmx;
+
+import java.io.IOException;
+
+import org.apache.wicket.markup.BoundedCacheImplementation;
+import org.apache.wicket.markup.IMarkupCache;
+import org.apache.wicket.markup.Markup;
+import org.apache.wicket.markup.MarkupCache.ICache;
+
+/**
+ * Exposes the statistics of a bounded {@link org.apache.wicket.markup.MarkupCache} for JMX.
+ * 
+ * @see org.apache.wicket.settings.IMarkupSettings#setMarkupCacheMaxSize(long)
+ */
+public class MarkupCache implements MarkupCacheMBean
+{
+	private final org.apache.wicket.Application application;
+
+	/**
+	 * Construct.
+	 * 
+	 * @param application
+	 *            The application
+	 */
+	public MarkupCache(org.apache.wicket.Application application)
+	{
+		this.application = application;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.MarkupCacheMBean#getMaxSize()
+	 */
+	public Long getMaxSize() throws IOException
+	{
+		BoundedCacheImplementation<CharSequence, Markup> cache = getCache();
+		return cache != null ? new Long(cache.getMaxWeight()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.MarkupCacheMBean#getSize()
+	 */
+	public Long getSize() throws IOException
+	{
+		BoundedCacheImplementation<CharSequence, Markup> cache = getCache();
+		return cache != null ? new Long(cache.getWeight()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.MarkupCacheMBean#getCount()
+	 */
+	public Integer getCount() throws IOException
+	{
+		BoundedCacheImplementation<CharSequence, Markup> cache = getCache();
+		return cache != null ? new Integer(cache.size()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.MarkupCacheMBean#getHitCount()
+	 */
+	public Long getHitCount() throws IOException
+	{
+		BoundedCacheImplementation<CharSequence, Markup> cache = getCache();
+		return cache != null ? new Long(cache.getHitCount()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.MarkupCacheMBean#getMissCount()
+	 */
+	public Long getMissCount() throws IOException
+	{
+		BoundedCacheImplementation<CharSequence, Markup> cache = getCache();
+		return cache != null ? new Long(cache.getMissCount()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.MarkupCacheMBean#getEvictionCount()
+	 */
+	public Long getEvictionCount() throws IOException
+	{
+		BoundedCacheImplementation<CharSequence, Markup> cache = getCache();
+		return cache != null ? new Long(cache.getEvictionCount()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.MarkupCacheMBean#resetStatistics()
+	 */
+	public void resetStatistics() throws IOException
+	{
+		BoundedCacheImplementation<CharSequence, Markup> cache = getCache();
+		if (cache != null)
+		{
+			cache.resetStatistics();
+		}
+	}
+
+	/**
+	 * Gets the bounded cache of the application's markup cache.
+	 * 
+	 * @return cache or <code>null</code> if the markup cache is not bounded
+	 */
+	@SuppressWarnings("unchecked")
+	protected BoundedCacheImplementation<CharSequence, Markup> getCache()
+	{
+		IMarkupCache markupCache = application.getMarkupSettings().getMarkupCache();
+		if (markupCache instanceof org.apache.wicket.markup.MarkupCache)
+		{
+			ICache<CharSequence, Markup> cache = ((org.apache.wicket.markup.MarkupCache)markupCache).getMarkupCache();
+			if (cache instanceof BoundedCacheImplementation)
+			{
+				return (BoundedCacheImplementation<CharSequence, Markup>)cache;
+			}
+		}
+		return null;
+	}
+}
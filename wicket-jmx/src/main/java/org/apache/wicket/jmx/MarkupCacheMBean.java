@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.jmx;
+
+import java.io.IOException;
+
+/**
+ * Interface for exposing the statistics of a bounded markup cache.
+ */
+public interface MarkupCacheMBean
+{
+	/**
+	 * Gets the maximum size of the cached markup in characters.
+	 * 
+	 * @return maximum size or <code>null</code> if the markup cache is not bounded
+	 * @throws IOException
+	 */
+	Long getMaxSize() throws IOException;
+
+	/**
+	 * Gets the size of the cached markup in characters.
+	 * 
+	 * @return size or <code>null</code> if the markup cache is not bounded
+	 * @throws IOException
+	 */
+	Long getSize() throws IOException;
+
+	/**
+	 * Gets the number of cached markup files.
+	 * 
+	 * @return number of cached markup files or <code>null</code> if the markup cache is not
+	 *         bounded
+	 * @throws IOException
+	 */
+	Integer getCount() throws IOException;
+
+	/**
+	 * Gets the number of lookups that found cached markup.
+	 * 
+	 * @return hit count or <code>null</code> if the markup cache is not bounded
+	 * @throws IOException
+	 */
+	Long getHitCount() throws IOException;
+
+	/**
+	 * Gets the number of lookups that didn't find cached markup.
+	 * 
+	 * @return miss count or <code>null</code> if the markup cache is not bounded
+	 * @throws IOException
+	 */
+	Long getMissCount() throws IOException;
+
+	/**
+	 * Gets the number of markup files evicted because the maximum size was exceeded.
+	 * 
+	 * @return eviction count or <code>null</code> if the markup cache is not bounded
+	 * @throws IOException
+	 */
+	Long getEvictionCount() throws IOException;
+
+	/**
+	 * Resets the hit, miss and eviction counts.
+	 * 
+	 * @throws IOException
+	 */
+	void resetStatistics() throws IOException;
+}
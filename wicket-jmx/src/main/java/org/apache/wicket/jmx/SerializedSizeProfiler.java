@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.jmx;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.wicket.util.io.SerializedSizeProfiler.Entry;
+
+/**
+ * Exposes {@link org.apache.wicket.util.io.SerializedSizeProfiler} for JMX.
+ */
+public class SerializedSizeProfiler implements SerializedSizeProfilerMBean
+{
+	private static final int TOP_COUNT = 20;
+
+	private final org.apache.wicket.Application application;
+
+	/**
+	 * Construct.
+	 * 
+	 * @param application
+	 *            The application
+	 */
+	public SerializedSizeProfiler(org.apache.wicket.Application application)
+	{
+		this.application = application;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SerializedSizeProfilerMBean#getSampleRate()
+	 */
+	public Integer getSampleRate() throws IOException
+	{
+		org.apache.wicket.util.io.SerializedSizeProfiler profiler = getProfiler();
+		return profiler != null ? new Integer(profiler.getSampleRate()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SerializedSizeProfilerMBean#getSampledCount()
+	 */
+	public Long getSampledCount() throws IOException
+	{
+		org.apache.wicket.util.io.SerializedSizeProfiler profiler = getProfiler();
+		return profiler != null ? new Long(profiler.getSampledCount()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SerializedSizeProfilerMBean#getProfiledCount()
+	 */
+	public Long getProfiledCount() throws IOException
+	{
+		org.apache.wicket.util.io.SerializedSizeProfiler profiler = getProfiler();
+		return profiler != null ? new Long(profiler.getProfiledCount()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SerializedSizeProfilerMBean#getTopComponents()
+	 */
+	public String[] getTopComponents() throws IOException
+	{
+		org.apache.wicket.util.io.SerializedSizeProfiler profiler = getProfiler();
+		return profiler != null ? toStrings(profiler.getTopComponents(TOP_COUNT)) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SerializedSizeProfilerMBean#getTopModels()
+	 */
+	public String[] getTopModels() throws IOException
+	{
+		org.apache.wicket.util.io.SerializedSizeProfiler profiler = getProfiler();
+		return profiler != null ? toStrings(profiler.getTopModels(TOP_COUNT)) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SerializedSizeProfilerMBean#getTopPages()
+	 */
+	public String[] getTopPages() throws IOException
+	{
+		org.apache.wicket.util.io.SerializedSizeProfiler profiler = getProfiler();
+		return profiler != null ? toStrings(profiler.getTopPages(TOP_COUNT)) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SerializedSizeProfilerMBean#start(int)
+	 */
+	public void start(int sampleRate) throws IOException
+	{
+		application.getDebugSettings().setSerializedSizeProfiler(
+			new org.apache.wicket.util.io.SerializedSizeProfiler(sampleRate, 1000));
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SerializedSizeProfilerMBean#stop()
+	 */
+	public void stop() throws IOException
+	{
+		application.getDebugSettings().setSerializedSizeProfiler(null);
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SerializedSizeProfilerMBean#reset()
+	 */
+	public void reset() throws IOException
+	{
+		org.apache.wicket.util.io.SerializedSizeProfiler profiler = getProfiler();
+		if (profiler != null)
+		{
+			profiler.clear();
+		}
+	}
+
+	private static String[] toStrings(List<Entry> entries)
+	{
+		String[] result = new String[entries.size()];
+		for (int i = 0; i < result.length; ++i)
+		{
+			result[i] = entries.get(i).toString();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the profiler of the application.
+	 * 
+	 * @return profiler or <code>null</code> if not enabled
+	 */
+	protected org.apache.wicket.util.io.SerializedSizeProfiler getProfiler()
+	{
+		return application.getDebugSettings().getSerializedSizeProfiler();
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.jmx;
+
+import java.io.IOException;
+
+/**
+ * Interface for exposing the serialized size profiler.
+ */
+public interface SerializedSizeProfilerMBean
+{
+	/**
+	 * Gets every how many stored pages one is profiled.
+	 * 
+	 * @return sample rate or <code>null</code> if the profiler is not enabled
+	 * @throws IOException
+	 */
+	Integer getSampleRate() throws IOException;
+
+	/**
+	 * Gets the number of stored pages offered to the profiler.
+	 * 
+	 * @return number of sampled pages or <code>null</code> if the profiler is not enabled
+	 * @throws IOException
+	 */
+	Long getSampledCount() throws IOException;
+
+	/**
+	 * Gets the number of profiled pages.
+	 * 
+	 * @return number of profiled pages or <code>null</code> if the profiler is not enabled
+	 * @throws IOException
+	 */
+	Long getProfiledCount() throws IOException;
+
+	/**
+	 * Gets the component paths with most serialized bytes, one line per path.
+	 * 
+	 * @return top component paths or <code>null</code> if the profiler is not enabled
+	 * @throws IOException
+	 */
+	String[] getTopComponents() throws IOException;
+
+	/**
+	 * Gets the model classes with most serialized bytes, one line per class.
+	 * 
+	 * @return top model classes or <code>null</code> if the profiler is not enabled
+	 * @throws IOException
+	 */
+	String[] getTopModels() throws IOException;
+
+	/**
+	 * Gets the page classes with most serialized bytes, one line per class.
+	 * 
+	 * @return top page classes or <code>null</code> if the profiler is not enabled
+	 * @throws IOException
+	 */
+	String[] getTopPages() throws IOException;
+
+	/**
+	 * Enables the profiler, replacing the current one (and its statistics) if there is any.
+	 * 
+	 * @param sampleRate
+	 *            every n-th stored page is profiled
+	 * @throws IOException
+	 */
+	void start(int sampleRate) throws IOException;
+
+	/**
+	 * Disables the profiler.
+	 * 
+	 * @throws IOException
+	 */
+	void stop() throws IOException;
+
+	/**
+	 * Resets the statistics.
+	 * 
+	 * @throws IOException
+	 */
+	void reset() throws IOException;
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.jmx;
+
+import java.io.IOException;
+
+import org.apache.wicket.session.AbstractSessionLockStrategy;
+import org.apache.wicket.session.ISessionLockStrategy;
+import org.apache.wicket.session.SessionLockMetrics;
+
+/**
+ * Exposes {@link SessionLockMetrics} of the application's session lock strategy for JMX.
+ */
+public class SessionLocks implements SessionLocksMBean
+{
+	private final org.apache.wicket.Application application;
+
+	/**
+	 * Construct.
+	 * 
+	 * @param application
+	 *            The application
+	 */
+	public SessionLocks(org.apache.wicket.Application application)
+	{
+		this.application = application;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SessionLocksMBean#getSessionLockStrategy()
+	 */
+	public String getSessionLockStrategy() throws IOException
+	{
+		ISessionLockStrategy strategy = application.getRequestCycleSettings()
+			.getSessionLockStrategy();
+		return strategy != null ? strategy.getClass().getName() : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SessionLocksMBean#getAcquiredCount()
+	 */
+	public Long getAcquiredCount() throws IOException
+	{
+		SessionLockMetrics metrics = getMetrics();
+		return metrics != null ? new Long(metrics.getAcquiredCount()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SessionLocksMBean#getTimeoutCount()
+	 */
+	public Long getTimeoutCount() throws IOException
+	{
+		SessionLockMetrics metrics = getMetrics();
+		return metrics != null ? new Long(metrics.getTimeoutCount()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SessionLocksMBean#getTotalWaitTime()
+	 */
+	public Long getTotalWaitTime() throws IOException
+	{
+		SessionLockMetrics metrics = getMetrics();
+		return metrics != null ? new Long(metrics.getTotalWaitTime()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SessionLocksMBean#getMaxWaitTime()
+	 */
+	public Long getMaxWaitTime() throws IOException
+	{
+		SessionLockMetrics metrics = getMetrics();
+		return metrics != null ? new Long(metrics.getMaxWaitTime()) : null;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SessionLocksMBean#getWaitTimeHistogram()
+	 */
+	public String[] getWaitTimeHistogram() throws IOException
+	{
+		SessionLockMetrics metrics = getMetrics();
+		if (metrics == null)
+		{
+			return null;
+		}
+		long[] bounds = metrics.getBucketBounds();
+		long[] histogram = metrics.getHistogram();
+		String[] result = new String[histogram.length];
+		for (int i = 0; i < histogram.length; ++i)
+		{
+			String range = i < bounds.length ? "< " + bounds[i] + "ms" : ">= " +
+				bounds[bounds.length - 1] + "ms";
+			result[i] = range + ": " + histogram[i];
+		}
+		return result;
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.SessionLocksMBean#reset()
+	 */
+	public void reset() throws IOException
+	{
+		SessionLockMetrics metrics = getMetrics();
+		if (metrics != null)
+		{
+			metrics.reset();
+		}
+	}
+
+	/**
+	 * Gets the statistics of the current strategy.
+	 * 
+	 * @return statistics or <code>null</code> if the strategy doesn't collect them
+	 */
+	protected SessionLockMetrics getMetrics()
+	{
+		ISessionLockStrategy strategy = application.getRequestCycleSettings()
+			.getSessionLockStrategy();
+		if (strategy instanceof AbstractSessionLockStrategy)
+		{
+			return ((AbstractSessionLockStrategy<?>)strategy).getMetrics();
+		}
+		return null;
+	}
+}
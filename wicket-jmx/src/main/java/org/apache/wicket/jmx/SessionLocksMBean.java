@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.jmx;
+
+import java.io.IOException;
+
+/**
+ * Interface for exposing session lock wait statistics.
+ */
+public interface SessionLocksMBean
+{
+	/**
+	 * Gets the class of the session lock strategy.
+	 * 
+	 * @return class of the strategy or <code>null</code> if requests synchronize on the session
+	 * @throws IOException
+	 */
+	String getSessionLockStrategy() throws IOException;
+
+	/**
+	 * Gets the number of acquired session locks.
+	 * <p>
+	 * Only available if the strategy collects statistics.
+	 * </p>
+	 * 
+	 * @return number of acquired locks
+	 * @throws IOException
+	 */
+	Long getAcquiredCount() throws IOException;
+
+	/**
+	 * Gets the number of requests that gave up waiting for the session lock.
+	 * <p>
+	 * Only available if the strategy collects statistics.
+	 * </p>
+	 * 
+	 * @return number of timeouts
+	 * @throws IOException
+	 */
+	Long getTimeoutCount() throws IOException;
+
+	/**
+	 * Gets the total time spent waiting for session locks.
+	 * <p>
+	 * Only available if the strategy collects statistics.
+	 * </p>
+	 * 
+	 * @return wait time in milliseconds
+	 * @throws IOException
+	 */
+	Long getTotalWaitTime() throws IOException;
+
+	/**
+	 * Gets the longest wait for a session lock.
+	 * <p>
+	 * Only available if the strategy collects statistics.
+	 * </p>
+	 * 
+	 * @return wait time in milliseconds
+	 * @throws IOException
+	 */
+	Long getMaxWaitTime() throws IOException;
+
+	/**
+	 * Gets the histogram of session lock wait times, one line per bucket.
+	 * <p>
+	 * Only available if the strategy collects statistics.
+	 * </p>
+	 * 
+	 * @return histogram
+	 * @throws IOException
+	 */
+	String[] getWaitTimeHistogram() throws IOException;
+
+	/**
+	 * Resets the statistics.
+	 * 
+	 * @throws IOException
+	 */
+	void reset() throws IOException;
+}
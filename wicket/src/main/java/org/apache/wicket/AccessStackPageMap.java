@@ -18,6 +18,8 @@ package org.apache.wicket;
 
 import java.util.Iterator;
 
+import org.apache.wicket.session.ISessionLockStrategy;
+import org.apache.wicket.session.ISessionLockStrategy.ILock;
 import org.apache.wicket.session.pagemap.IPageMapEntry;
 import org.apache.wicket.util.collections.ArrayListStack;
 import org.slf4j.Logger;
@@ -193,23 +195,37 @@ public class AccessStackPageMap extends PageMap implements IClusterable
 		}
 		// Remove entry from session
 		Session session = getSession();
-		synchronized (session)
+		ISessionLockStrategy lockStrategy = Application.exists() ? Application.get()
+			.getRequestCycleSettings()
+			.getSessionLockStrategy() : null;
+		ILock lock = lockStrategy != null ? lockStrategy.lockSession(session) : null;
+		try
 		{
-			session.removeAttribute(attributeForId(entry.getNumericId()));
-
-			// Remove page from acccess stack
-			final Iterator<Access> stack = accessStack.iterator();
-			while (stack.hasNext())
+			synchronized (session)
 			{
-				final Access access = stack.next();
-				if (access.id == entry.getNumericId())
+				session.removeAttribute(attributeForId(entry.getNumericId()));
+
+				// Remove page from acccess stack
+				final Iterator<Access> stack = accessStack.iterator();
+				while (stack.hasNext())
 				{
-					stack.remove();
+					final Access access = stack.next();
+					if (access.id == entry.getNumericId())
+					{
+						stack.remove();
+					}
 				}
-			}
 
-			// Let the session know we changed the pagemap
-			dirty();
+				// Let the session know we changed the pagemap
+				dirty();
+			}
+		}
+		finally
+		{
+			if (lock != null)
+			{
+				lock.unlock();
+			}
 		}
 	}
 
@@ -28,10 +28,12 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
+import org.apache.wicket.application.ApplicationWarmup;
 import org.apache.wicket.application.IComponentInstantiationListener;
 import org.apache.wicket.application.IComponentOnAfterRenderListener;
 import org.apache.wicket.application.IComponentOnBeforeRenderListener;
 import org.apache.wicket.markup.IMarkupCache;
+import org.apache.wicket.markup.PrecompiledMarkup;
 import org.apache.wicket.markup.html.IHeaderContributor;
 import org.apache.wicket.markup.html.IHeaderResponse;
 import org.apache.wicket.markup.html.image.resource.DefaultButtonImageResourceFactory;
@@ -65,6 +67,7 @@ import org.apache.wicket.settings.ISecuritySettings;
 import org.apache.wicket.settings.ISessionSettings;
 import org.apache.wicket.settings.Settings;
 import org.apache.wicket.util.convert.ConverterLocator;
+import org.apache.wicket.util.io.AsyncSerializableChecker;
 import org.apache.wicket.util.lang.Classes;
 import org.apache.wicket.util.lang.Objects;
 import org.apache.wicket.util.lang.PropertyResolver;
@@ -638,6 +641,21 @@ public abstract class Application
 		callInitializers();
 	}
 
+	/**
+	 * THIS METHOD IS NOT PART OF THE WICKET PUBLIC API. DO NOT CALL.
+	 * 
+	 * Preloads the caches for the packages registered with
+	 * {@link IApplicationSettings#addWarmupPackage(String)}, if any.
+	 */
+	public final void warmUp()
+	{
+		List<String> packageNames = getApplicationSettings().getWarmupPackages();
+		if (!packageNames.isEmpty())
+		{
+			new ApplicationWarmup(this).warmUp(packageNames);
+		}
+	}
+
 	/**
 	 * THIS METHOD IS NOT PART OF THE WICKET PUBLIC API. DO NOT CALL.
 	 * 
@@ -904,6 +922,11 @@ public abstract class Application
 		// collected (WICKET-625)
 		PropertyResolver.destroy(this);
 		getMarkupSettings().getMarkupCache().shutdown();
+		AsyncSerializableChecker serializableChecker = getDebugSettings().getSerializableChecker();
+		if (serializableChecker != null)
+		{
+			serializableChecker.destroy();
+		}
 
 		onDestroy();
 		callDestroyers();
@@ -946,6 +969,23 @@ public abstract class Application
 
 		sessionStore = newSessionStore();
 		converterLocator = newConverterLocator();
+
+		// Load markup precompiled at build time, if any
+		try
+		{
+			PrecompiledMarkup precompiledMarkup = PrecompiledMarkup.load(getApplicationSettings()
+				.getClassResolver()
+				.getResources(PrecompiledMarkup.RESOURCE_NAME));
+			if (precompiledMarkup != null)
+			{
+				getMarkupSettings().setPrecompiledMarkup(precompiledMarkup);
+				log.info("Loaded " + precompiledMarkup.size() + " precompiled markup files");
+			}
+		}
+		catch (IOException e)
+		{
+			log.warn("Unable to load precompiled markup, markup will be parsed", e);
+		}
 	}
 
 	/**
@@ -127,6 +127,20 @@ abstract class ComponentSourceEntry implements IClusterable
 		System.out.println("Info: " + componentInfo);
 	}
 
+	/**
+	 * Creates a ComponentSourceEntry instance for a component whose complete state (including
+	 * markup ids and indexes) is kept by the component source.
+	 * 
+	 * @param id
+	 * @param componentSource
+	 */
+	ComponentSourceEntry(String id, IComponentSource componentSource)
+	{
+		this.id = id;
+		this.componentSource = componentSource;
+		componentInfo = null;
+	}
+
 	/**
 	 * The subclass of this method calls private method on {@link MarkupContainer}, so it needs to
 	 * be implemented by a markup container inner class
@@ -155,9 +169,12 @@ abstract class ComponentSourceEntry implements IClusterable
 			component.setParent(parent);
 		}
 
-		component.beforeRender();
+		if (componentInfo != null)
+		{
+			component.beforeRender();
 
-		parseComponentInfo(parent, componentInfo, component);
+			parseComponentInfo(parent, componentInfo, component);
+		}
 
 		return component;
 	};
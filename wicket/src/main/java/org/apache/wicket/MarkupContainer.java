@@ -1444,8 +1444,16 @@ public abstract class MarkupContainer extends Component
 			{
 				log.debug("Rendering raw markup");
 			}
-			getResponse().write(element.toCharSequence());
-			markupStream.next();
+			final Response response = getResponse();
+			if (response.isEncodedWriteSupported())
+			{
+				markupStream.writeEncodedRawMarkup(response);
+			}
+			else
+			{
+				response.write(element.toCharSequence());
+				markupStream.next();
+			}
 		}
 	}
 
@@ -1599,6 +1607,11 @@ public abstract class MarkupContainer extends Component
 			super(container, component, componentSource);
 		}
 
+		private ComponentSourceEntry(String id, IComponentSource componentSource)
+		{
+			super(id, componentSource);
+		}
+
 		private static final long serialVersionUID = 1L;
 
 		@Override
@@ -1608,6 +1621,43 @@ public abstract class MarkupContainer extends Component
 		}
 	}
 
+	/**
+	 * Returns the child at the given index without reconstructing it.
+	 * 
+	 * @param index
+	 * @return the child component or the entry the child will be reconstructed from
+	 */
+	final Object getChildEntry(int index)
+	{
+		return children_get(index, false);
+	}
+
+	/**
+	 * Replaces the child at the given index without reconstructing or notifying it.
+	 * 
+	 * @param index
+	 * @param entry
+	 *            a child component or an entry created by
+	 *            {@link #newChildEntry(String, IComponentSource)}
+	 */
+	final void setChildEntry(int index, Object entry)
+	{
+		children_set(index, entry, false);
+	}
+
+	/**
+	 * Creates an entry that reconstructs the child with given id from the component source the
+	 * first time the child is accessed.
+	 * 
+	 * @param id
+	 * @param componentSource
+	 * @return entry that can be passed to {@link #setChildEntry(int, Object)}
+	 */
+	static Object newChildEntry(String id, IComponentSource componentSource)
+	{
+		return new ComponentSourceEntry(id, componentSource);
+	}
+
 	/**
 	 * 
 	 * @see org.apache.wicket.Component#detachChildren()
@@ -0,0 +1,534 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wicket.SerializedComponentSource.SharedObjectReference;
+import org.apache.wicket.util.io.ByteArrayOutputStream;
+import org.apache.wicket.util.io.ByteArrayOutputStreamPool;
+import org.apache.wicket.util.io.IObjectReplacer;
+import org.apache.wicket.util.lang.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits a page into separately serialized component subtrees before the page is serialized, so
+ * that a deserialized page only deserializes the components that are actually accessed. A listener
+ * request on such page only restores the components on the path to the listener and the
+ * components that are rendered in the response.
+ * <p>
+ * Every minimal subtree with at least the given number of components is serialized to its own
+ * byte array and replaced in its parent by an entry that restores the subtree when a child with
+ * the subtree's id is requested from the parent. Objects shared between a subtree and the rest of
+ * the page (e.g. models, the page itself or components outside of the subtree) are replaced by
+ * references into a table that is serialized with the page, so object identities are preserved
+ * after the page is deserialized. Subtrees whose components are referenced from outside of the
+ * subtree are left in the page, as they could not be restored independently. The subtrees are
+ * written with the streams of the configured object stream factory.
+ * <p>
+ * The dehydrator changes the live page: {@link #restore()} must always be called after the page
+ * has been serialized. Therefore it may only be used by the request that owns the page, while no
+ * other thread can access it. It must not be combined with serialization that runs outside of
+ * the request, such as deferred serialization or session replication, which is why page stores
+ * only dehydrate pages stored by the request itself. The asynchronous serializable checker is
+ * safe, as it takes its snapshots on the request thread.
+ * 
+ * <pre>
+ * PageDehydrator dehydrator = new PageDehydrator(50);
+ * dehydrator.dehydrate(page);
+ * try
+ * {
+ * 	data = Objects.objectToByteArray(page);
+ * }
+ * finally
+ * {
+ * 	dehydrator.restore();
+ * }
+ * </pre>
+ */
+public final class PageDehydrator
+{
+	// how many times the subtrees are written after some of them had to be left in the page
+	private static final int MAX_ITERATIONS = 4;
+
+	// written instead of components of subtrees that have to stay in the page
+	private static final SharedObjectReference EXTERNAL = new SharedObjectReference(-1);
+
+	// owner of objects written with the rest of the page
+	private static final Object REST = new Object();
+
+	// target of the serialization of the rest of the page, which is only done to find shared objects
+	private static final OutputStream DISCARD = new OutputStream()
+	{
+		@Override
+		public void write(int b)
+		{
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+		}
+	};
+
+	private final int minComponents;
+
+	private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+	/**
+	 * Construct.
+	 * 
+	 * @param minComponents
+	 *            minimal number of components in a separately serialized subtree
+	 */
+	public PageDehydrator(int minComponents)
+	{
+		if (minComponents < 1)
+		{
+			throw new IllegalArgumentException("minComponents must be greater than zero");
+		}
+		this.minComponents = minComponents;
+	}
+
+	/**
+	 * Replaces component subtrees of the page with entries holding the serialized subtrees.
+	 * 
+	 * @param page
+	 */
+	public void dehydrate(Page page)
+	{
+		restore();
+
+		List<Component> roots = new ArrayList<Component>();
+		select(page, roots);
+
+		try
+		{
+			for (int i = 0; i < MAX_ITERATIONS && !roots.isEmpty(); ++i)
+			{
+				install(roots);
+
+				Pass pass = new Pass();
+				if (pass.run(page))
+				{
+					return;
+				}
+
+				restore();
+				roots.removeAll(pass.pinned.keySet());
+			}
+		}
+		catch (IOException e)
+		{
+			// the page will fail to serialize with a proper error message
+			log.debug("Could not dehydrate page " + page.getClass().getName(), e);
+		}
+		catch (RuntimeException e)
+		{
+			log.debug("Could not dehydrate page " + page.getClass().getName(), e);
+		}
+		restore();
+	}
+
+	/**
+	 * Puts the original components back to the page.
+	 */
+	public void restore()
+	{
+		for (int i = chunks.size(); i-- > 0;)
+		{
+			Chunk chunk = chunks.get(i);
+			chunk.parent.setChildEntry(chunk.index, chunk.root);
+		}
+		chunks.clear();
+	}
+
+	/**
+	 * @return number of subtrees that are serialized separately
+	 */
+	public int getDehydratedCount()
+	{
+		return chunks.size();
+	}
+
+	/**
+	 * Collects minimal subtrees that have at least minComponents components.
+	 * 
+	 * @param component
+	 * @param roots
+	 * @return number of components in the subtree or -1 if the subtree can't be part of another
+	 *         dehydrated subtree
+	 */
+	private int select(Component component, List<Component> roots)
+	{
+		int size = 1;
+		boolean blocked = false;
+		if (component instanceof MarkupContainer)
+		{
+			MarkupContainer container = (MarkupContainer)component;
+			for (int i = 0; i < container.size(); ++i)
+			{
+				Object child = container.getChildEntry(i);
+				int childSize = child instanceof Component ? select((Component)child, roots) : -1;
+				if (childSize < 0)
+				{
+					blocked = true;
+				}
+				else
+				{
+					size += childSize;
+				}
+			}
+		}
+		if (blocked)
+		{
+			return -1;
+		}
+		if (size >= minComponents && component.getParent() != null)
+		{
+			roots.add(component);
+			return -1;
+		}
+		return size;
+	}
+
+	/**
+	 * Replaces the subtrees with entries.
+	 * 
+	 * @param roots
+	 */
+	private void install(List<Component> roots)
+	{
+		for (Component root : roots)
+		{
+			MarkupContainer parent = root.getParent();
+			int index = indexOf(parent, root);
+			SerializedComponentSource source = new SerializedComponentSource();
+			parent.setChildEntry(index, MarkupContainer.newChildEntry(root.getId(), source));
+			chunks.add(new Chunk(parent, index, root, source));
+		}
+	}
+
+	private static int indexOf(MarkupContainer parent, Component child)
+	{
+		for (int i = 0; i < parent.size(); ++i)
+		{
+			if (parent.getChildEntry(i) == child)
+			{
+				return i;
+			}
+		}
+		throw new IllegalStateException("Component " + child.getPath() +
+			" not found in its parent");
+	}
+
+	/**
+	 * Returns whether the object can be serialized in more streams without losing identity.
+	 * 
+	 * @param object
+	 * @return <code>true</code> if the object is immutable
+	 */
+	private static boolean isImmutable(Object object)
+	{
+		return object instanceof String || object instanceof Integer || object instanceof Long ||
+			object instanceof Boolean || object instanceof Character || object instanceof Short ||
+			object instanceof Byte || object instanceof Double || object instanceof Float ||
+			object instanceof BigInteger || object instanceof BigDecimal ||
+			object instanceof Locale || object instanceof Enum;
+	}
+
+	/**
+	 * Dehydrated subtree.
+	 */
+	private static final class Chunk
+	{
+		private final MarkupContainer parent;
+		private final int index;
+		private final Component root;
+		private final SerializedComponentSource source;
+
+		private byte[] data;
+
+		private Chunk(MarkupContainer parent, int index, Component root,
+			SerializedComponentSource source)
+		{
+			this.parent = parent;
+			this.index = index;
+			this.root = root;
+			this.source = source;
+		}
+
+		/**
+		 * Writes the subtree without the parent.
+		 * 
+		 * @param replacer
+		 * @throws IOException
+		 */
+		private void write(IObjectReplacer replacer) throws IOException
+		{
+			ByteArrayOutputStreamPool pool = Objects.getSerializationBufferPool();
+			ByteArrayOutputStream bytes = pool.acquire();
+			ObjectOutputStream out = Objects.newObjectOutputStream(bytes, replacer);
+			root.setParent(null);
+			try
+			{
+				out.writeObject(root);
+			}
+			finally
+			{
+				root.setParent(parent);
+				out.close();
+			}
+			data = bytes.toByteArray();
+			pool.release(bytes);
+		}
+	}
+
+	/**
+	 * Writes the subtrees while finding the objects they share with each other and with the rest of
+	 * the page. The rest of the page is serialized first without keeping the data, so objects of
+	 * the page are replaced with references as soon as a subtree reaches them. A subtree is only
+	 * written again if an object written inline in it turns out to be shared by a later subtree.
+	 */
+	private final class Pass
+	{
+		// chunk or REST that serialized the object first
+		private final Map<Object, Object> owners = new IdentityHashMap<Object, Object>();
+
+		private final Map<Object, SharedObjectReference> sharedSet = new IdentityHashMap<Object, SharedObjectReference>();
+
+		private final List<Object> shared = new ArrayList<Object>();
+
+		// roots of chunks that must stay in the page
+		private final Map<Component, Object> pinned = new IdentityHashMap<Component, Object>();
+
+		private final Map<Component, Chunk> componentChunks = new IdentityHashMap<Component, Chunk>();
+
+		// chunks written with objects that have been shared since
+		private final Set<Chunk> dirty = new LinkedHashSet<Chunk>();
+
+		private Pass()
+		{
+			for (Chunk chunk : chunks)
+			{
+				register(chunk.root, chunk);
+			}
+		}
+
+		private void register(Component component, Chunk chunk)
+		{
+			componentChunks.put(component, chunk);
+			if (component instanceof MarkupContainer)
+			{
+				MarkupContainer container = (MarkupContainer)component;
+				for (int i = 0; i < container.size(); ++i)
+				{
+					register((Component)container.getChildEntry(i), chunk);
+				}
+			}
+		}
+
+		private SharedObjectReference share(Object object)
+		{
+			SharedObjectReference reference = sharedSet.get(object);
+			if (reference == null)
+			{
+				reference = new SharedObjectReference(shared.size());
+				shared.add(object);
+				sharedSet.put(object, reference);
+			}
+			return reference;
+		}
+
+		/**
+		 * Writes the subtrees and passes the shared objects table to their sources.
+		 * 
+		 * @param page
+		 * @return <code>false</code> if some subtrees must stay in the page
+		 * @throws IOException
+		 */
+		private boolean run(Page page) throws IOException
+		{
+			writeRest(page);
+			for (int i = 0; i < chunks.size() && pinned.isEmpty(); ++i)
+			{
+				write(chunks.get(i));
+			}
+
+			// objects that were written inline in a subtree before they were shared are written
+			// with the page now, so the page must not reach other objects written inline
+			int checked = 0;
+			while (pinned.isEmpty())
+			{
+				if (checked < shared.size())
+				{
+					List<Object> objects = new ArrayList<Object>();
+					for (; checked < shared.size(); ++checked)
+					{
+						Object object = shared.get(checked);
+						if (owners.get(object) != REST)
+						{
+							objects.add(object);
+						}
+					}
+					writeRest(objects.toArray());
+				}
+				else if (!dirty.isEmpty())
+				{
+					List<Chunk> rewrite = new ArrayList<Chunk>(dirty);
+					dirty.clear();
+					for (Chunk chunk : rewrite)
+					{
+						write(chunk);
+					}
+				}
+				else
+				{
+					Object[] table = shared.toArray();
+					for (Chunk chunk : chunks)
+					{
+						chunk.source.setData(chunk.data, table);
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Serializes objects of the rest of the page without keeping the data.
+		 * 
+		 * @param object
+		 * @throws IOException
+		 */
+		private void writeRest(Object object) throws IOException
+		{
+			ObjectOutputStream out = Objects.newObjectOutputStream(DISCARD, new Replacer()
+			{
+				public Object replaceObject(Object obj)
+				{
+					if (isImmutable(obj))
+					{
+						return obj;
+					}
+					Chunk chunk = componentChunks.get(obj);
+					if (chunk != null)
+					{
+						pinned.put(chunk.root, chunk);
+						return EXTERNAL;
+					}
+					Object owner = owners.get(obj);
+					if (owner == null)
+					{
+						owners.put(obj, REST);
+					}
+					else if (owner != REST && !sharedSet.containsKey(obj))
+					{
+						share(obj);
+						dirty.add((Chunk)owner);
+					}
+					return obj;
+				}
+			});
+			try
+			{
+				out.writeObject(object);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+
+		/**
+		 * Serializes the subtree, replacing the shared objects with references.
+		 * 
+		 * @param chunk
+		 * @throws IOException
+		 */
+		private void write(final Chunk chunk) throws IOException
+		{
+			chunk.write(new Replacer()
+			{
+				public Object replaceObject(Object obj)
+				{
+					if (isImmutable(obj))
+					{
+						return obj;
+					}
+					SharedObjectReference reference = sharedSet.get(obj);
+					if (reference != null)
+					{
+						return reference;
+					}
+					if (obj instanceof Component)
+					{
+						Chunk other = componentChunks.get(obj);
+						if (other == null)
+						{
+							return share(obj);
+						}
+						else if (other != chunk)
+						{
+							pinned.put(other.root, other);
+							return EXTERNAL;
+						}
+					}
+					Object owner = owners.get(obj);
+					if (owner == null)
+					{
+						owners.put(obj, chunk);
+					}
+					else if (owner != chunk)
+					{
+						if (owner != REST)
+						{
+							dirty.add((Chunk)owner);
+						}
+						return share(obj);
+					}
+					return obj;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Replacer used for writing only.
+	 */
+	private static abstract class Replacer implements IObjectReplacer
+	{
+		public Object resolveObject(Object object)
+		{
+			return object;
+		}
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(PageDehydrator.class);
+}
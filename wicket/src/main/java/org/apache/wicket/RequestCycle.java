@@ -39,6 +39,7 @@ import org.apache.wicket.request.target.component.PageRequestTarget;
 import org.apache.wicket.request.target.component.listener.BehaviorRequestTarget;
 import org.apache.wicket.request.target.component.listener.ListenerInterfaceRequestTarget;
 import org.apache.wicket.request.target.resource.SharedResourceRequestTarget;
+import org.apache.wicket.session.ISessionLockStrategy.ILock;
 import org.apache.wicket.util.collections.ArrayListStack;
 import org.apache.wicket.util.string.AppendingStringBuffer;
 import org.apache.wicket.util.string.Strings;
@@ -249,6 +250,9 @@ public abstract class RequestCycle
 	/** the time that this request cycle object was created. */
 	private final long startTime = System.currentTimeMillis();
 
+	/** lock of the page the request targets, held until the request cycle is detached */
+	private transient ILock pageLock;
+
 	/** The application object. */
 	protected final Application application;
 
@@ -1144,6 +1148,18 @@ public abstract class RequestCycle
 			log.error("Exception occurred during threadDetach", re);
 		}
 
+		if (pageLock != null)
+		{
+			try
+			{
+				pageLock.unlock();
+			}
+			catch (RuntimeException re)
+			{
+				log.error("Exception occurred while releasing the page lock", re);
+			}
+			pageLock = null;
+		}
 	}
 
 	/**
@@ -1322,6 +1338,25 @@ public abstract class RequestCycle
 
 	private boolean handled = true;
 
+	/**
+	 * INTERNAL. This method is not part of public Wicket Api. Do not call it. Keeps the lock of
+	 * the page the request targets, so that it is held while the request is processed and the
+	 * response rendered. The lock is released when the request cycle is detached.
+	 * 
+	 * @param lock
+	 *            lock acquired from the
+	 *            {@link org.apache.wicket.settings.IRequestCycleSettings#getSessionLockStrategy()
+	 *            session lock strategy}
+	 */
+	public final void setPageLock(ILock lock)
+	{
+		if (pageLock != null)
+		{
+			pageLock.unlock();
+		}
+		pageLock = lock;
+	}
+
 	/**
 	 * Loop through the processing steps starting from the current one.
 	 */
@@ -132,6 +132,17 @@ public abstract class Response
 	 */
 	public abstract OutputStream getOutputStream();
 
+	/**
+	 * Returns true if text which has been encoded already can be written with
+	 * {@link #writeEncoded(byte[])}. The default implementation always returns false.
+	 * 
+	 * @return True if this response accepts encoded text
+	 */
+	public boolean isEncodedWriteSupported()
+	{
+		return false;
+	}
+
 	/**
 	 * Returns true if a redirection has occurred. The default implementation always returns false
 	 * since redirect is not implemented by default.
@@ -239,6 +250,20 @@ public abstract class Response
 	 */
 	public abstract void write(final CharSequence string);
 
+	/**
+	 * Writes text which has been encoded in the {@link #getCharacterEncoding() character encoding}
+	 * of this response already. May only be called if {@link #isEncodedWriteSupported()} returns
+	 * true.
+	 * 
+	 * @param bytes
+	 *            The encoded text
+	 */
+	public void writeEncoded(final byte[] bytes)
+	{
+		throw new UnsupportedOperationException(getClass().getName() +
+			" does not support writing encoded text");
+	}
+
 	/**
 	 * Either throws the exception wrapped as {@link WicketRuntimeException} or silently ignores it.
 	 * This method should ignore IO related exceptions like connection reset by peer or broken pipe.
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+import org.apache.wicket.util.io.IObjectReplacer;
+import org.apache.wicket.util.lang.Objects;
+
+/**
+ * Component source that keeps the component serialized in its own byte array, so that it is only
+ * deserialized when the component is accessed. Objects the component shares with the rest of the
+ * page (including components outside of the serialized subtree) are not part of the data; they
+ * are referenced by their index in a table that is serialized together with the page. The data
+ * is written and read with the streams of the configured object stream factory.
+ * 
+ * @see PageDehydrator
+ */
+final class SerializedComponentSource implements IComponentSource
+{
+	private static final long serialVersionUID = 1L;
+
+	private byte[] data;
+
+	private Object[] sharedObjects;
+
+	/**
+	 * Construct.
+	 */
+	SerializedComponentSource()
+	{
+	}
+
+	/**
+	 * Sets the serialized component and the table of objects shared with the rest of the page.
+	 * 
+	 * @param data
+	 * @param sharedObjects
+	 */
+	void setData(byte[] data, Object[] sharedObjects)
+	{
+		this.data = data;
+		this.sharedObjects = sharedObjects;
+	}
+
+	/**
+	 * @see org.apache.wicket.IComponentSource#restoreComponent(java.lang.String)
+	 */
+	public Component restoreComponent(String id)
+	{
+		try
+		{
+			ObjectInputStream in = Objects.newObjectInputStream(new ByteArrayInputStream(data),
+				new IObjectReplacer()
+				{
+					public Object replaceObject(Object object)
+					{
+						return object;
+					}
+
+					public Object resolveObject(Object object)
+					{
+						if (object instanceof SharedObjectReference)
+						{
+							return sharedObjects[((SharedObjectReference)object).index];
+						}
+						return object;
+					}
+				});
+			try
+			{
+				return (Component)in.readObject();
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new WicketRuntimeException("Could not restore component " + id, e);
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new WicketRuntimeException("Could not restore component " + id, e);
+		}
+	}
+
+	/**
+	 * Written in place of an object that is shared with the rest of the page.
+	 */
+	static final class SharedObjectReference implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int index;
+
+		/**
+		 * Construct.
+		 * 
+		 * @param index
+		 *            index in the shared objects table
+		 */
+		SharedObjectReference(int index)
+		{
+			this.index = index;
+		}
+	}
+}
@@ -28,6 +28,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.apache.wicket.application.IClassResolver;
 import org.apache.wicket.authorization.IAuthorizationStrategy;
@@ -35,7 +36,9 @@ import org.apache.wicket.feedback.FeedbackMessage;
 import org.apache.wicket.feedback.FeedbackMessages;
 import org.apache.wicket.protocol.http.IgnoreAjaxRequestException;
 import org.apache.wicket.request.ClientInfo;
+import org.apache.wicket.session.ISessionLockStrategy;
 import org.apache.wicket.session.ISessionStore;
+import org.apache.wicket.session.ISessionLockStrategy.ILock;
 import org.apache.wicket.util.lang.Objects;
 import org.apache.wicket.util.string.AppendingStringBuffer;
 import org.apache.wicket.util.string.Strings;
@@ -345,6 +348,12 @@ public abstract class Session implements IClusterable
 	 */
 	private transient Map<String, Object> temporarySessionAttributes;
 
+	/** Locks of the session lock strategy, kept only for this session instance */
+	private transient volatile Object lockStrategyData;
+
+	private static final AtomicReferenceFieldUpdater<Session, Object> lockStrategyDataUpdater = AtomicReferenceFieldUpdater.newUpdater(
+		Session.class, Object.class, "lockStrategyData");
+
 	/** A linked list for last used pagemap queue */
 	private final LinkedList/* <IPageMap> */<IPageMap> usedPageMaps = new LinkedList<IPageMap>();
 
@@ -1049,6 +1058,35 @@ public abstract class Session implements IClusterable
 		return this;
 	}
 
+	/**
+	 * THIS METHOD IS NOT PART OF THE WICKET PUBLIC API. DO NOT CALL IT.
+	 * <p>
+	 * Returns the data (locks) kept for this session instance by the
+	 * {@link org.apache.wicket.session.ISessionLockStrategy}.
+	 * 
+	 * @return lock strategy data or <code>null</code>
+	 */
+	public final Object getLockStrategyData()
+	{
+		return lockStrategyData;
+	}
+
+	/**
+	 * THIS METHOD IS NOT PART OF THE WICKET PUBLIC API. DO NOT CALL IT.
+	 * <p>
+	 * Atomically sets the data kept for this session instance by the
+	 * {@link org.apache.wicket.session.ISessionLockStrategy} if the current data is the expected
+	 * one.
+	 * 
+	 * @param expect
+	 * @param update
+	 * @return <code>true</code> if the data has been set
+	 */
+	public final boolean compareAndSetLockStrategyData(Object expect, Object update)
+	{
+		return lockStrategyDataUpdater.compareAndSet(this, expect, update);
+	}
+
 	/**
 	 * THIS METHOD IS NOT PART OF THE WICKET PUBLIC API. DO NOT CALL IT.
 	 * <p>
@@ -1383,6 +1421,59 @@ public abstract class Session implements IClusterable
 	{
 		List<Page> touchedPages = Session.touchedPages.get();
 		Session.touchedPages.set(null);
+
+		try
+		{
+			if (touchedPages != null || dirty || Session.dirtyObjects.get() != null)
+			{
+				// storing the pages and attributes mutates the session
+				ISessionLockStrategy lockStrategy = getApplication().getRequestCycleSettings()
+					.getSessionLockStrategy();
+				ILock lock = lockStrategy != null ? lockStrategy.lockSession(this) : null;
+				try
+				{
+					update(touchedPages);
+				}
+				finally
+				{
+					if (lock != null)
+					{
+						lock.unlock();
+					}
+				}
+			}
+		}
+		finally
+		{
+			Session.dirtyObjects.set(null);
+			if (pageMapsUsedInRequest != null)
+			{
+				synchronized (pageMapsUsedInRequest)
+				{
+					Thread t = Thread.currentThread();
+					Iterator<Entry<IPageMap, PageMapsUsedInRequestEntry>> it = pageMapsUsedInRequest.entrySet()
+						.iterator();
+					while (it.hasNext())
+					{
+						Entry<IPageMap, PageMapsUsedInRequestEntry> entry = it.next();
+						if ((entry.getValue()).thread == t)
+						{
+							it.remove();
+						}
+					}
+					pageMapsUsedInRequest.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores the pages touched in the request and the dirty objects in the session.
+	 * 
+	 * @param touchedPages
+	 */
+	private void update(List<Page> touchedPages)
+	{
 		if (touchedPages != null)
 		{
 			for (int i = 0; i < touchedPages.size(); i++)
@@ -1459,25 +1550,6 @@ public abstract class Session implements IClusterable
 				setAttribute(entry.getKey(), entry.getValue());
 			}
 		}
-
-		if (pageMapsUsedInRequest != null)
-		{
-			synchronized (pageMapsUsedInRequest)
-			{
-				Thread t = Thread.currentThread();
-				Iterator<Entry<IPageMap, PageMapsUsedInRequestEntry>> it = pageMapsUsedInRequest.entrySet()
-					.iterator();
-				while (it.hasNext())
-				{
-					Entry<IPageMap, PageMapsUsedInRequestEntry> entry = it.next();
-					if ((entry.getValue()).thread == t)
-					{
-						it.remove();
-					}
-				}
-				pageMapsUsedInRequest.notifyAll();
-			}
-		}
 	}
 
 	/**
@@ -184,6 +184,17 @@ public class AjaxRequestTarget implements IPageRequestTarget
 			throw new UnsupportedOperationException("Cannot get output stream on StringResponse");
 		}
 
+		/**
+		 * Always returns false, the contents are buffered and escaped as chars.
+		 * 
+		 * @see org.apache.wicket.protocol.http.WebResponse#isEncodedWriteSupported()
+		 */
+		@Override
+		public boolean isEncodedWriteSupported()
+		{
+			return false;
+		}
+
 		/**
 		 * @return true if any escaping has been performed, false otherwise
 		 */
@@ -0,0 +1,532 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.application;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.Component;
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.markup.IMarkupCache;
+import org.apache.wicket.markup.MarkupCache;
+import org.apache.wicket.markup.html.IPackageResourceGuard;
+import org.apache.wicket.markup.html.PackageResource;
+import org.apache.wicket.resource.IPropertiesFactory;
+import org.apache.wicket.util.resource.locator.ResourceNameIterator;
+import org.apache.wicket.util.time.Duration;
+import org.apache.wicket.util.time.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Preloads the caches of an application at start, so that the first requests after a deploy do not
+ * have to load markup, properties and package resources. The given packages and their sub packages
+ * are scanned for classes and resources, which are then loaded in parallel:
+ * <ul>
+ * <li>the markup of the markup containers is loaded into the {@link MarkupCache}, see
+ * {@link MarkupCache#preloadMarkup(Class, Locale, String, String)}</li>
+ * <li>the properties of the components and their superclasses are loaded into the
+ * {@link IPropertiesFactory} cache, from which the {@link org.apache.wicket.Localizer} gets its
+ * strings</li>
+ * <li>the other resources of the packages are bound once as {@link PackageResource}s, scoped by
+ * the first component class of their package</li>
+ * </ul>
+ * Markup and properties are loaded for the default locale and without style. Classes and
+ * resources which can not be loaded are logged and skipped.
+ *
+ * @see org.apache.wicket.settings.IApplicationSettings#addWarmupPackage(String)
+ */
+public class ApplicationWarmup
+{
+	/** Log for reporting. */
+	private static final Logger log = LoggerFactory.getLogger(ApplicationWarmup.class);
+
+	/** Extensions of markup and properties files, which are not bound as package resources */
+	private static final String[] COMPONENT_RESOURCE_TYPES = new String[] { "html", "xml",
+			"properties" };
+
+	private final Application application;
+
+	private final int threads;
+
+	private final AtomicInteger markupCount = new AtomicInteger();
+
+	/** Paths of the properties files found */
+	private final Set<String> propertiesPaths = Collections.synchronizedSet(new HashSet<String>());
+
+	private final AtomicInteger resourceCount = new AtomicInteger();
+
+	/**
+	 * Construct that uses a thread per available processor.
+	 *
+	 * @param application
+	 */
+	public ApplicationWarmup(Application application)
+	{
+		this(application, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Construct.
+	 *
+	 * @param application
+	 * @param threads
+	 *            number of threads loading the caches
+	 */
+	public ApplicationWarmup(Application application, int threads)
+	{
+		if (application == null)
+		{
+			throw new IllegalArgumentException("Argument 'application' may not be null.");
+		}
+		if (threads < 1)
+		{
+			throw new IllegalArgumentException("Argument 'threads' must be at least 1.");
+		}
+		this.application = application;
+		this.threads = threads;
+	}
+
+	/**
+	 * Scans the packages and preloads the caches. Returns when all caches have been loaded.
+	 *
+	 * @param packageNames
+	 *            names of the packages to scan
+	 * @return the time the warm-up took
+	 */
+	public Duration warmUp(Collection<String> packageNames)
+	{
+		Time start = Time.now();
+
+		Set<String> classPaths = new TreeSet<String>();
+		Set<String> resourcePaths = new TreeSet<String>();
+		for (String packageName : packageNames)
+		{
+			scan(packageName.replace('.', '/'), classPaths, resourcePaths);
+		}
+
+		// initialize the classes before any markup is parsed, as components register their wicket
+		// tags in static initializers
+		List<Class<? extends Component>> components = new ArrayList<Class<? extends Component>>();
+		Map<String, Class<?>> scopes = new HashMap<String, Class<?>>();
+		for (String classPath : classPaths)
+		{
+			Class<? extends Component> c = loadComponentClass(classPath.replace('/', '.'));
+			if (c != null)
+			{
+				components.add(c);
+				String dir = getDirectory(classPath);
+				if (c.getEnclosingClass() == null && !scopes.containsKey(dir))
+				{
+					scopes.put(dir, c);
+				}
+			}
+		}
+
+		List<Runnable> tasks = new ArrayList<Runnable>(components.size() + resourcePaths.size());
+		for (final Class<? extends Component> component : components)
+		{
+			tasks.add(new Runnable()
+			{
+				public void run()
+				{
+					preloadMarkup(component);
+					preloadProperties(component);
+				}
+			});
+		}
+		for (final String resourcePath : resourcePaths)
+		{
+			if (isComponentResource(resourcePath, classPaths))
+			{
+				continue;
+			}
+			String dir = getDirectory(resourcePath);
+			while (dir.length() > 0 && !scopes.containsKey(dir))
+			{
+				dir = getDirectory(dir);
+			}
+			final Class<?> scope = scopes.get(dir);
+			if (scope != null)
+			{
+				final String name = resourcePath.substring(dir.length() + 1);
+				tasks.add(new Runnable()
+				{
+					public void run()
+					{
+						bindResource(scope, name);
+					}
+				});
+			}
+		}
+		run(tasks);
+
+		Duration duration = Duration.elapsed(start);
+		log.info("Warm-up of " + packageNames + " took " + duration + ": preloaded " +
+			markupCount + " markup files, " + propertiesPaths.size() + " properties files and " +
+			resourceCount + " package resources of " + components.size() + " components");
+		return duration;
+	}
+
+	/**
+	 * @return number of markup files loaded into the markup cache
+	 */
+	public int getMarkupCount()
+	{
+		return markupCount.get();
+	}
+
+	/**
+	 * @return number of properties files loaded into the properties factory
+	 */
+	public int getPropertiesCount()
+	{
+		return propertiesPaths.size();
+	}
+
+	/**
+	 * @return number of resources bound as package resources
+	 */
+	public int getResourceCount()
+	{
+		return resourceCount.get();
+	}
+
+	/**
+	 * Loads the markup of a component into the markup cache.
+	 *
+	 * @param component
+	 */
+	protected void preloadMarkup(Class<? extends Component> component)
+	{
+		IMarkupCache markupCache = application.getMarkupSettings().getMarkupCache();
+		if (markupCache instanceof MarkupCache &&
+			MarkupContainer.class.isAssignableFrom(component))
+		{
+			try
+			{
+				if (((MarkupCache)markupCache).preloadMarkup(
+					component.asSubclass(MarkupContainer.class), Locale.getDefault(), null, "html"))
+				{
+					markupCount.incrementAndGet();
+				}
+			}
+			catch (Exception e)
+			{
+				log.warn("Unable to preload markup of " + component.getName() + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * Loads the properties of a component and its superclasses into the properties factory.
+	 *
+	 * @param component
+	 */
+	protected void preloadProperties(Class<? extends Component> component)
+	{
+		IPropertiesFactory propertiesFactory = application.getResourceSettings()
+			.getPropertiesFactory();
+		for (Class<?> c = component; Component.class.isAssignableFrom(c); c = c.getSuperclass())
+		{
+			ResourceNameIterator iter = new ResourceNameIterator(c.getName().replace('.', '/'),
+				null, Locale.getDefault(), null);
+			while (iter.hasNext())
+			{
+				String path = iter.next();
+				if (propertiesFactory.load(c, path) != null)
+				{
+					propertiesPaths.add(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Binds a resource as package resource.
+	 *
+	 * @param scope
+	 *            the component class of the resource's package the resource is scoped by
+	 * @param name
+	 *            name of the resource relative to the package
+	 */
+	protected void bindResource(Class<?> scope, String name)
+	{
+		IPackageResourceGuard guard = application.getResourceSettings().getPackageResourceGuard();
+		if (!guard.accept(scope, name))
+		{
+			return;
+		}
+		try
+		{
+			PackageResource.bind(application, scope, name);
+			resourceCount.incrementAndGet();
+		}
+		catch (RuntimeException e)
+		{
+			log.warn("Unable to bind package resource " + name + ": " + e);
+		}
+	}
+
+	/**
+	 * Runs the tasks on a thread pool and waits for them to finish.
+	 */
+	private void run(List<Runnable> tasks)
+	{
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0,
+			TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+			{
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "Wicket-Warmup-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		try
+		{
+			List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+			for (final Runnable task : tasks)
+			{
+				futures.add(executor.submit(new Runnable()
+				{
+					public void run()
+					{
+						Application.set(application);
+						try
+						{
+							task.run();
+						}
+						catch (RuntimeException e)
+						{
+							log.warn("Warm-up task failed", e);
+						}
+						finally
+						{
+							Application.unset();
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			log.warn("Warm-up interrupted");
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			log.warn("Warm-up failed", e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Collects the paths of the classes, without <code>.class</code> extension, and of the other
+	 * resources of a package and its sub packages.
+	 */
+	private void scan(String packagePath, Set<String> classPaths, Set<String> resourcePaths)
+	{
+		Iterator<URL> urls = application.getApplicationSettings().getClassResolver().getResources(
+			packagePath);
+		while (urls.hasNext())
+		{
+			URL url = urls.next();
+			try
+			{
+				if ("file".equals(url.getProtocol()))
+				{
+					scanDirectory(new File(url.toURI()), packagePath, classPaths, resourcePaths);
+				}
+				else
+				{
+					URLConnection connection = url.openConnection();
+					if (connection instanceof JarURLConnection)
+					{
+						scanJarFile(((JarURLConnection)connection).getJarFile(), packagePath,
+							classPaths, resourcePaths);
+					}
+					else
+					{
+						log.warn("Unable to scan " + url + " for warm-up");
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				log.warn("Unable to scan " + url + " for warm-up: " + e);
+			}
+			catch (URISyntaxException e)
+			{
+				log.warn("Unable to scan " + url + " for warm-up: " + e);
+			}
+		}
+	}
+
+	private static void scanDirectory(File dir, String path, Set<String> classPaths,
+		Set<String> resourcePaths)
+	{
+		File[] files = dir.listFiles();
+		if (files == null)
+		{
+			return;
+		}
+		for (File file : files)
+		{
+			if (file.isDirectory())
+			{
+				scanDirectory(file, path + "/" + file.getName(), classPaths, resourcePaths);
+			}
+			else
+			{
+				add(path + "/" + file.getName(), classPaths, resourcePaths);
+			}
+		}
+	}
+
+	private static void scanJarFile(JarFile jarFile, String path, Set<String> classPaths,
+		Set<String> resourcePaths)
+	{
+		String prefix = path + "/";
+		Enumeration<JarEntry> entries = jarFile.entries();
+		while (entries.hasMoreElements())
+		{
+			JarEntry entry = entries.nextElement();
+			if (!entry.isDirectory() && entry.getName().startsWith(prefix))
+			{
+				add(entry.getName(), classPaths, resourcePaths);
+			}
+		}
+	}
+
+	private static void add(String path, Set<String> classPaths, Set<String> resourcePaths)
+	{
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		if (name.startsWith("."))
+		{
+			return;
+		}
+		if (name.endsWith(".class"))
+		{
+			classPaths.add(path.substring(0, path.length() - ".class".length()));
+		}
+		else
+		{
+			resourcePaths.add(path);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the resource is a markup or properties file of a class, which
+	 *         are named after the class, optionally followed by style, variation and locale
+	 */
+	private static boolean isComponentResource(String resourcePath, Set<String> classPaths)
+	{
+		int dot = resourcePath.lastIndexOf('.');
+		int slash = resourcePath.lastIndexOf('/');
+		if (dot <= slash || !isComponentResourceType(resourcePath.substring(dot + 1)))
+		{
+			return false;
+		}
+		String name = resourcePath.substring(0, dot);
+		while (!classPaths.contains(name))
+		{
+			int index = name.lastIndexOf('_');
+			if (index <= slash)
+			{
+				return false;
+			}
+			name = name.substring(0, index);
+		}
+		return true;
+	}
+
+	private static boolean isComponentResourceType(String extension)
+	{
+		for (String type : COMPONENT_RESOURCE_TYPES)
+		{
+			if (type.equals(extension))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String getDirectory(String path)
+	{
+		int slash = path.lastIndexOf('/');
+		return slash < 0 ? "" : path.substring(0, slash);
+	}
+
+	/**
+	 * @return the initialized class if it is a {@link Component}, <code>null</code> otherwise
+	 */
+	private Class<? extends Component> loadComponentClass(String name)
+	{
+		try
+		{
+			Class<?> c = application.getApplicationSettings().getClassResolver().resolveClass(
+				name);
+			if (Component.class.isAssignableFrom(c))
+			{
+				return Class.forName(c.getName(), true, c.getClassLoader()).asSubclass(
+					Component.class);
+			}
+		}
+		catch (Throwable e)
+		{
+			log.warn("Unable to load class " + name + " for warm-up: " + e);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,490 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.markup.MarkupCache.ICache;
+
+/**
+ * Cache implementation for {@link MarkupCache} that limits the total weight of its entries. When
+ * the maximum weight is exceeded, the least recently used entries are evicted. The cache keeps
+ * hit, miss and eviction counts.
+ * <p>
+ * The entries are spread over segments guarded by their own locks, so lookups of different keys
+ * don't contend. Every access stamps the entry with a global counter and the eviction removes the
+ * entry with the oldest stamp of all segments.
+ * 
+ * @param <K>
+ *            The key type
+ * @param <V>
+ *            The value type
+ */
+public class BoundedCacheImplementation<K, V> implements ICache<K, V>
+{
+	/**
+	 * Computes the weight of a cache entry.
+	 * 
+	 * @param <K>
+	 * @param <V>
+	 */
+	public interface IWeigher<K, V>
+	{
+		/**
+		 * @param key
+		 * @param value
+		 * @return weight of the entry, must not be negative
+		 */
+		int weigh(K key, V value);
+	}
+
+	/**
+	 * Notified when entries are evicted because the maximum weight has been exceeded. Not notified
+	 * for entries removed with {@link ICache#remove(Object)} or {@link ICache#clear()}.
+	 * 
+	 * @param <K>
+	 * @param <V>
+	 */
+	public interface IEvictionListener<K, V>
+	{
+		/**
+		 * Called once for all entries evicted by a put, without holding any cache lock.
+		 * 
+		 * @param evicted
+		 *            evicted entries, least recently used first
+		 */
+		void onEvicted(Map<K, V> evicted);
+	}
+
+	// must be a power of two
+	private static final int SEGMENTS = 16;
+
+	private final long maxWeight;
+
+	private final IWeigher<? super K, ? super V> weigher;
+
+	private volatile IEvictionListener<K, V> evictionListener;
+
+	private final Segment<K, V>[] segments;
+
+	/** source of the access stamps */
+	private final AtomicLong clock = new AtomicLong();
+
+	private final AtomicLong weight = new AtomicLong();
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * Construct.
+	 * 
+	 * @param maxWeight
+	 *            maximum total weight of the entries
+	 * @param weigher
+	 *            computes the weight of the entries
+	 */
+	@SuppressWarnings("unchecked")
+	public BoundedCacheImplementation(long maxWeight, IWeigher<? super K, ? super V> weigher)
+	{
+		if (maxWeight <= 0)
+		{
+			throw new IllegalArgumentException("Parameter 'maxWeight' must be positive");
+		}
+		if (weigher == null)
+		{
+			throw new IllegalArgumentException("Parameter 'weigher' must not be null");
+		}
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < segments.length; i++)
+		{
+			segments[i] = new Segment<K, V>();
+		}
+	}
+
+	/**
+	 * @param evictionListener
+	 *            listener notified about evicted entries or <code>null</code>
+	 */
+	public void setEvictionListener(IEvictionListener<K, V> evictionListener)
+	{
+		this.evictionListener = evictionListener;
+	}
+
+	private Segment<K, V> segmentFor(Object key)
+	{
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * @see org.apache.wicket.markup.MarkupCache.ICache#clear()
+	 */
+	public void clear()
+	{
+		for (Segment<K, V> segment : segments)
+		{
+			synchronized (segment)
+			{
+				for (Entry<V> entry : segment.entries.values())
+				{
+					weight.addAndGet(-entry.weight);
+					count.decrementAndGet();
+				}
+				segment.entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.markup.MarkupCache.ICache#containsKey(java.lang.Object)
+	 */
+	public boolean containsKey(K key)
+	{
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment)
+		{
+			return segment.entries.containsKey(key);
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.markup.MarkupCache.ICache#get(java.lang.Object)
+	 */
+	public V get(K key)
+	{
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment)
+		{
+			Entry<V> entry = segment.entries.remove(key);
+			if (entry != null)
+			{
+				// move to the end
+				segment.entries.put(key, entry);
+				entry.stamp = clock.incrementAndGet();
+				hitCount.incrementAndGet();
+				return entry.value;
+			}
+		}
+		missCount.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Gets the value without counting a hit or a miss and without marking the entry as recently
+	 * used.
+	 * 
+	 * @param key
+	 * @return cached object for key <code>key</code> or null if no matches
+	 */
+	public V peek(K key)
+	{
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment)
+		{
+			Entry<V> entry = segment.entries.get(key);
+			return entry != null ? entry.value : null;
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the keys, least recently used first. Removing keys through its
+	 * iterator removes them from the cache.
+	 * 
+	 * @see org.apache.wicket.markup.MarkupCache.ICache#getKeys()
+	 */
+	public Collection<K> getKeys()
+	{
+		TreeMap<Long, K> byStamp = new TreeMap<Long, K>();
+		for (Segment<K, V> segment : segments)
+		{
+			synchronized (segment)
+			{
+				for (Map.Entry<K, Entry<V>> entry : segment.entries.entrySet())
+				{
+					byStamp.put(new Long(entry.getValue().stamp), entry.getKey());
+				}
+			}
+		}
+		final List<K> keys = new ArrayList<K>(byStamp.values());
+		return new AbstractCollection<K>()
+		{
+			@Override
+			public Iterator<K> iterator()
+			{
+				final Iterator<K> iterator = keys.iterator();
+				return new Iterator<K>()
+				{
+					private K current;
+
+					public boolean hasNext()
+					{
+						return iterator.hasNext();
+					}
+
+					public K next()
+					{
+						current = iterator.next();
+						return current;
+					}
+
+					public void remove()
+					{
+						iterator.remove();
+						BoundedCacheImplementation.this.remove(current);
+					}
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return keys.size();
+			}
+		};
+	}
+
+	/**
+	 * @see org.apache.wicket.markup.MarkupCache.ICache#put(java.lang.Object, java.lang.Object)
+	 */
+	public void put(K key, V value)
+	{
+		Entry<V> entry = new Entry<V>(value, weigher.weigh(key, value));
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment)
+		{
+			Entry<V> previous = segment.entries.remove(key);
+			segment.entries.put(key, entry);
+			entry.stamp = clock.incrementAndGet();
+			if (previous != null)
+			{
+				weight.addAndGet(entry.weight - previous.weight);
+			}
+			else
+			{
+				weight.addAndGet(entry.weight);
+				count.incrementAndGet();
+			}
+		}
+
+		Map<K, V> evicted = null;
+		while (weight.get() > maxWeight && count.get() > 1)
+		{
+			if (evicted == null)
+			{
+				evicted = new LinkedHashMap<K, V>();
+			}
+			if (!evictEldest(entry, evicted))
+			{
+				break;
+			}
+		}
+
+		IEvictionListener<K, V> listener = evictionListener;
+		if (evicted != null && !evicted.isEmpty() && listener != null)
+		{
+			listener.onEvicted(evicted);
+		}
+	}
+
+	/**
+	 * Removes the least recently used entry of all segments.
+	 * 
+	 * @param added
+	 *            entry that must not be evicted
+	 * @param evicted
+	 *            map the evicted entry is put to
+	 * @return <code>false</code> if there is no entry to evict
+	 */
+	private boolean evictEldest(Entry<V> added, Map<K, V> evicted)
+	{
+		while (true)
+		{
+			Segment<K, V> oldest = null;
+			Entry<V> candidate = null;
+			for (Segment<K, V> segment : segments)
+			{
+				synchronized (segment)
+				{
+					Entry<V> eldest = segment.eldest();
+					if (eldest != null && eldest != added &&
+						(candidate == null || eldest.stamp < candidate.stamp))
+					{
+						oldest = segment;
+						candidate = eldest;
+					}
+				}
+			}
+			if (oldest == null)
+			{
+				return false;
+			}
+
+			synchronized (oldest)
+			{
+				Iterator<Map.Entry<K, Entry<V>>> iterator = oldest.entries.entrySet().iterator();
+				if (iterator.hasNext())
+				{
+					Map.Entry<K, Entry<V>> eldest = iterator.next();
+					if (eldest.getValue() == candidate)
+					{
+						K key = eldest.getKey();
+						iterator.remove();
+						weight.addAndGet(-candidate.weight);
+						count.decrementAndGet();
+						evictionCount.incrementAndGet();
+						evicted.put(key, candidate.value);
+						return true;
+					}
+				}
+			}
+			// the segment has been changed meanwhile, look again
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.markup.MarkupCache.ICache#remove(java.lang.Object)
+	 */
+	public boolean remove(K key)
+	{
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment)
+		{
+			Entry<V> entry = segment.entries.remove(key);
+			if (entry != null)
+			{
+				weight.addAndGet(-entry.weight);
+				count.decrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.markup.MarkupCache.ICache#size()
+	 */
+	public int size()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @see org.apache.wicket.markup.MarkupCache.ICache#shutdown()
+	 */
+	public void shutdown()
+	{
+		clear();
+	}
+
+	/**
+	 * @return maximum total weight of the entries
+	 */
+	public long getMaxWeight()
+	{
+		return maxWeight;
+	}
+
+	/**
+	 * @return total weight of the entries
+	 */
+	public long getWeight()
+	{
+		return weight.get();
+	}
+
+	/**
+	 * @return number of lookups that found an entry
+	 */
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	/**
+	 * @return number of lookups that didn't find an entry
+	 */
+	public long getMissCount()
+	{
+		return missCount.get();
+	}
+
+	/**
+	 * @return number of entries evicted because the maximum weight has been exceeded
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.get();
+	}
+
+	/**
+	 * Resets the hit, miss and eviction counts.
+	 */
+	public void resetStatistics()
+	{
+		hitCount.set(0);
+		missCount.set(0);
+		evictionCount.set(0);
+	}
+
+	/**
+	 * Part of the cache with its own lock.
+	 */
+	private static final class Segment<K, V>
+	{
+		/** entries, least recently used first; guarded by the segment */
+		private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>();
+
+		private Entry<V> eldest()
+		{
+			Iterator<Entry<V>> iterator = entries.values().iterator();
+			return iterator.hasNext() ? iterator.next() : null;
+		}
+	}
+
+	private static final class Entry<V>
+	{
+		private final V value;
+		private final int weight;
+
+		/** value of the clock when the entry was last used; guarded by its segment */
+		private long stamp;
+
+		private Entry(V value, int weight)
+		{
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+}
@@ -869,4 +869,12 @@ public class ComponentTag extends MarkupElement
 		}
 		userData.put(key, value);
 	}
+
+	/**
+	 * @return all user data or <code>null</code>
+	 */
+	final Map<String, Object> getUserDataMap()
+	{
+		return userData;
+	}
 }
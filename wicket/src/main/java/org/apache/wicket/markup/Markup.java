@@ -16,15 +16,18 @@
  */
 package org.apache.wicket.markup;
 
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.util.string.AppendingStringBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +66,9 @@ public class Markup
 	 */
 	private StringBuffer currentPath;
 
+	/** The raw markup encoded in the character encoding it has been written with most recently */
+	private volatile EncodedRawMarkup encodedRawMarkup;
+
 	/**
 	 * Constructor
 	 * 
@@ -122,6 +128,55 @@ public class Markup
 		return markupElements.size();
 	}
 
+	/**
+	 * Gets the raw markup at the index provided, merged with all raw markup directly following it,
+	 * encoded in the given character encoding. The bytes are cached, so that every raw markup
+	 * section is encoded once only as long as the encoding doesn't change.
+	 * 
+	 * @param index
+	 *            Index of the first raw markup element
+	 * @param encoding
+	 *            The character encoding
+	 * @return The encoded raw markup
+	 */
+	final byte[] getEncodedRawMarkup(final int index, final String encoding)
+	{
+		EncodedRawMarkup encoded = encodedRawMarkup;
+		if ((encoded == null) || !encoded.encoding.equals(encoding))
+		{
+			encoded = new EncodedRawMarkup(encoding, size());
+			encodedRawMarkup = encoded;
+		}
+
+		// Concurrent requests might encode the same markup twice, but the result is the same
+		byte[] bytes = encoded.bytes.get(index);
+		if (bytes == null)
+		{
+			CharSequence text = get(index).toCharSequence();
+			int end = index + 1;
+			if ((end < size()) && (get(end) instanceof RawMarkup))
+			{
+				final AppendingStringBuffer buf = new AppendingStringBuffer(text);
+				for (; (end < size()) && (get(end) instanceof RawMarkup); end++)
+				{
+					buf.append(get(end).toCharSequence());
+				}
+				text = buf;
+			}
+
+			try
+			{
+				bytes = text.toString().getBytes(encoding);
+			}
+			catch (UnsupportedEncodingException e)
+			{
+				throw new WicketRuntimeException("Unsupported encoding: " + encoding, e);
+			}
+			encoded.bytes.set(index, bytes);
+		}
+		return bytes;
+	}
+
 	/**
 	 * Add a MarkupElement
 	 * 
@@ -335,6 +390,7 @@ public class Markup
 	{
 		// Reset
 		componentMap = null;
+		encodedRawMarkup = null;
 
 		if (markupElements != null)
 		{
@@ -382,4 +438,21 @@ public class Markup
 
 		return buf.toString();
 	}
+
+	/**
+	 * The encoded raw markup sections of a markup, indexed by the index of their first element.
+	 */
+	private static final class EncodedRawMarkup
+	{
+		private final String encoding;
+
+		/** The slots are read and set by concurrent requests */
+		private final AtomicReferenceArray<byte[]> bytes;
+
+		private EncodedRawMarkup(final String encoding, final int size)
+		{
+			this.encoding = encoding;
+			bytes = new AtomicReferenceArray<byte[]>(size);
+		}
+	}
 }
@@ -18,7 +18,13 @@ package org.apache.wicket.markup;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.wicket.Application;
@@ -26,11 +32,12 @@ import org.apache.wicket.MarkupContainer;
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.markup.loader.DefaultMarkupLoader;
 import org.apache.wicket.markup.loader.IMarkupLoader;
+import org.apache.wicket.markup.loader.SimpleMarkupLoader;
 import org.apache.wicket.settings.IMarkupSettings;
 import org.apache.wicket.util.listener.IChangeListener;
 import org.apache.wicket.util.resource.IResourceStream;
 import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
-import org.apache.wicket.util.watch.IModifiable;
+import org.apache.wicket.util.resource.locator.IResourceStreamLocator;
 import org.apache.wicket.util.watch.ModificationWatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,9 +65,19 @@ public class MarkupCache implements IMarkupCache
 	/** Map of markup tags by class (exactly what is in the file). */
 	private final ICache<CharSequence, Markup> markupCache;
 
-	/** Map of markup tags by class (exactly what is in the file). */
+	/**
+	 * Map of cache keys to the location of their markup. The markup is only removed by its
+	 * location, so a bounded cache may evict a key independently of its markup: the markup is found
+	 * by its location again the next time the key is requested.
+	 */
 	private final ICache<CharSequence, CharSequence> markupKeyCache;
 
+	/** Locations of markup derived from a base markup by the location of the base markup. */
+	private final ConcurrentHashMap<String, Set<String>> derivedMarkup = new ConcurrentHashMap<String, Set<String>>();
+
+	/** Markup resources watched for changes by the location of their markup. */
+	private final ConcurrentHashMap<String, MarkupResourceStream> watchedMarkup = new ConcurrentHashMap<String, MarkupResourceStream>();
+
 	/** The markup cache key provider used by MarkupCache */
 	private IMarkupCacheKeyProvider markupCacheKeyProvider;
 
@@ -78,6 +95,7 @@ public class MarkupCache implements IMarkupCache
 	 * 
 	 * @param application
 	 */
+	@SuppressWarnings("unchecked")
 	public MarkupCache(Application application)
 	{
 		this.application = application;
@@ -88,6 +106,25 @@ public class MarkupCache implements IMarkupCache
 		{
 			throw new WicketRuntimeException("The map used to cache markup must not be null");
 		}
+
+		if (markupCache instanceof BoundedCacheImplementation)
+		{
+			BoundedCacheImplementation<CharSequence, Markup> boundedCache = (BoundedCacheImplementation<CharSequence, Markup>)markupCache;
+			boundedCache.setEvictionListener(new BoundedCacheImplementation.IEvictionListener<CharSequence, Markup>()
+			{
+				public void onEvicted(Map<CharSequence, Markup> evicted)
+				{
+					if (log.isDebugEnabled())
+					{
+						log.debug("Evicted from cache: " + evicted.keySet());
+					}
+
+					// markup derived from the evicted markup must not outlive it, as it would not
+					// be removed if the evicted markup changes
+					removeDependentMarkup(evicted.keySet());
+				}
+			});
+		}
 	}
 
 	/**
@@ -97,6 +134,22 @@ public class MarkupCache implements IMarkupCache
 	{
 		markupCache.clear();
 		markupKeyCache.clear();
+		derivedMarkup.clear();
+		if (watchedMarkup.isEmpty() == false)
+		{
+			final ModificationWatcher watcher = application.getResourceSettings()
+				.getResourceWatcher(true);
+			Iterator<MarkupResourceStream> iter = watchedMarkup.values().iterator();
+			while (iter.hasNext())
+			{
+				MarkupResourceStream resourceStream = iter.next();
+				iter.remove();
+				if (watcher != null)
+				{
+					watcher.remove(resourceStream);
+				}
+			}
+		}
 	}
 
 	/**
@@ -124,79 +177,138 @@ public class MarkupCache implements IMarkupCache
 			log.debug("Remove from cache: cacheKey=" + cacheKey);
 		}
 
-		// Remove the markup and any other markup which depends on it
-		// (inheritance)
 		String locationString = (String)markupKeyCache.get(cacheKey);
-		Markup markup = markupCache.get(locationString);
+		return locationString != null ? removeMarkupAt(locationString) : null;
+	}
+
+	/**
+	 * Removes the markup at a location and any other markup which depends on it (inheritance).
+	 * 
+	 * @param locationString
+	 * @return the removed markup or <code>null</code> if there was none
+	 */
+	private Markup removeMarkupAt(final String locationString)
+	{
+		Markup markup = peek(locationString);
 		if (markup != null)
 		{
 			markupCache.remove(locationString);
+			removeDependentMarkup(Collections.singleton(locationString));
+		}
+		return markup;
+	}
 
-			// In practice markup inheritance has probably not more than 3 or 4
-			// levels. And since markup reloading is only enabled in development
-			// mode, this max 4 iterations of the outer loop shouldn't be a
-			// problem.
-			int count;
-			do
-			{
-				count = 0;
+	/**
+	 * Removes markup derived from removed markup and the watcher entries of removed markup
+	 * resources.
+	 * 
+	 * @param removed
+	 *            the locations of the markup removed from the cache
+	 */
+	private void removeDependentMarkup(final Collection<? extends CharSequence> removed)
+	{
+		ModificationWatcher watcher = null;
+		LinkedList<String> locations = new LinkedList<String>();
+		for (CharSequence locationString : removed)
+		{
+			locations.add(locationString.toString());
+		}
+		while (locations.isEmpty() == false)
+		{
+			String locationString = locations.removeFirst();
 
-				// If a base markup file has been removed from the cache, than
-				// the derived markup should be removed as well.
-				Iterator<CharSequence> iter = markupCache.getKeys().iterator();
-				while (iter.hasNext())
+			// Note that you can not use Application.get() since the markup may be removed from
+			// a ModificationWatcher thread which has no associated Application.
+			MarkupResourceStream resourceStream = watchedMarkup.remove(locationString);
+			if (resourceStream != null)
+			{
+				if (watcher == null)
 				{
-					Markup cacheMarkup = markupCache.get(iter.next());
-					MarkupResourceData resourceData = cacheMarkup.getMarkupResourceData()
-						.getBaseMarkupResourceData();
-					if (resourceData != null)
-					{
-						String baseCacheKey = resourceData.getResource().getCacheKey();
-						String baseLocationString = (String)markupKeyCache.get(baseCacheKey);
-						if (baseLocationString != null &&
-							markupCache.get(baseLocationString) == null)
-						{
-							if (log.isDebugEnabled())
-							{
-								log.debug("Remove from cache: cacheKey=" +
-									cacheMarkup.getMarkupResourceData().getResource().getCacheKey());
-							}
-
-							iter.remove();
-							count++;
-						}
-					}
+					watcher = application.getResourceSettings().getResourceWatcher(true);
+				}
+				if (watcher != null)
+				{
+					watcher.remove(resourceStream);
 				}
 			}
-			while (count > 0);
 
-			// And now remove all watcher entries associated with markup
-			// resources no longer in the cache. Note that you can not use
-			// Application.get() since removeMarkup() will be call from a
-			// ModificationWatcher thread which has no associated Application.
-			final ModificationWatcher watcher = application.getResourceSettings()
-				.getResourceWatcher(true);
-			if (watcher != null)
+			// If a base markup file has been removed from the cache, than the derived markup
+			// should be removed as well.
+			Set<String> derived = derivedMarkup.remove(locationString);
+			if (derived != null)
 			{
-				Iterator<IModifiable> iter = watcher.getEntries().iterator();
-				while (iter.hasNext())
+				synchronized (derived)
 				{
-					IModifiable modifiable = iter.next();
-					if (modifiable instanceof MarkupResourceStream)
+					for (String derivedLocationString : derived)
 					{
-						MarkupResourceStream resourceStream = (MarkupResourceStream)modifiable;
-						String resourceCacheKey = resourceStream.getCacheKey();
-						String resouceLocationString = (String)markupKeyCache.get(resourceCacheKey);
-						if (resouceLocationString != null &&
-							markupCache.containsKey(resouceLocationString) == false)
+						if (markupCache.remove(derivedLocationString) && log.isDebugEnabled())
 						{
-							iter.remove();
+							log.debug("Remove from cache: location=" + derivedLocationString);
 						}
+						locations.add(derivedLocationString);
 					}
 				}
 			}
 		}
-		return markup;
+	}
+
+	/**
+	 * Registers markup as derived from its base markup, so that it is removed together with the
+	 * base markup.
+	 * 
+	 * @param locationString
+	 *            the location of the markup in the cache
+	 * @param markup
+	 */
+	private void addDerivedMarkup(final String locationString, final Markup markup)
+	{
+		MarkupResourceData resourceData = markup.getMarkupResourceData();
+		MarkupResourceData baseResourceData = (resourceData != null)
+			? resourceData.getBaseMarkupResourceData() : null;
+		if (baseResourceData == null || baseResourceData.getResource() == null)
+		{
+			return;
+		}
+		String baseLocationString = baseResourceData.getResource().locationAsString();
+		if (baseLocationString == null)
+		{
+			baseLocationString = baseResourceData.getResource().getCacheKey();
+			if (baseLocationString == null)
+			{
+				return;
+			}
+		}
+
+		Set<String> derived = derivedMarkup.get(baseLocationString);
+		if (derived == null)
+		{
+			Set<String> newDerived = Collections.synchronizedSet(new HashSet<String>());
+			derived = derivedMarkup.putIfAbsent(baseLocationString, newDerived);
+			if (derived == null)
+			{
+				derived = newDerived;
+			}
+		}
+		derived.add(locationString);
+
+		// the base markup may have been removed meanwhile
+		if (markupCache.containsKey(baseLocationString) == false)
+		{
+			removeDependentMarkup(Collections.singleton(baseLocationString));
+		}
+	}
+
+	/**
+	 * Gets cached markup without affecting eviction order or statistics of a bounded cache.
+	 */
+	@SuppressWarnings("unchecked")
+	private Markup peek(final CharSequence locationString)
+	{
+		if (markupCache instanceof BoundedCacheImplementation)
+		{
+			return ((BoundedCacheImplementation<CharSequence, Markup>)markupCache).peek(locationString);
+		}
+		return markupCache.get(locationString);
 	}
 
 	/**
@@ -253,7 +365,7 @@ public class MarkupCache implements IMarkupCache
 	 * 
 	 * @return cache implementation
 	 */
-	protected final ICache<CharSequence, Markup> getMarkupCache()
+	public final ICache<CharSequence, Markup> getMarkupCache()
 	{
 		return markupCache;
 	}
@@ -327,6 +439,89 @@ public class MarkupCache implements IMarkupCache
 		return markup;
 	}
 
+	/**
+	 * Loads the markup associated with a container class into the cache without a container
+	 * instance, e.g. to warm up the cache at application start. The markup is cached by its
+	 * location, like markup shared by several containers, and is found there once a container
+	 * requests it.
+	 * <p>
+	 * Markup is not preloaded if it extends a base markup, as merged markup is cached per
+	 * container, if the markup loader has been replaced, as the markup might be loaded differently,
+	 * or if resources are watched for changes, as the markup would not be reloaded when it
+	 * changes.
+	 *
+	 * @param containerClass
+	 *            the container class, instances of which will request the markup
+	 * @param locale
+	 *            the locale of the markup or <code>null</code>
+	 * @param style
+	 *            the style of the markup or <code>null</code>
+	 * @param markupType
+	 *            the markup type, e.g. <code>html</code>
+	 * @return <code>true</code> if markup was loaded into the cache
+	 * @throws IOException
+	 * @throws ResourceStreamNotFoundException
+	 */
+	public final boolean preloadMarkup(final Class<? extends MarkupContainer> containerClass,
+		final Locale locale, final String style, final String markupType) throws IOException,
+		ResourceStreamNotFoundException
+	{
+		if (getMarkupLoader() instanceof DefaultMarkupLoader == false ||
+			application.getResourceSettings().getResourcePollFrequency() != null)
+		{
+			return false;
+		}
+
+		// Locate the markup like DefaultMarkupResourceStreamProvider does
+		final IResourceStreamLocator locator = application.getResourceSettings()
+			.getResourceStreamLocator();
+		MarkupResourceStream markupResourceStream = null;
+		for (Class<?> markupClass = containerClass; markupClass != MarkupContainer.class &&
+			markupResourceStream == null; markupClass = markupClass.getSuperclass())
+		{
+			String path = markupClass.getName().replace('.', '/');
+			IResourceStream resourceStream = locator.locate(containerClass, path, style, locale,
+				markupType);
+			if (resourceStream != null)
+			{
+				markupResourceStream = new MarkupResourceStream(resourceStream, new ContainerInfo(
+					containerClass, locale, style, null, markupType), markupClass);
+			}
+		}
+		if (markupResourceStream == null)
+		{
+			return false;
+		}
+
+		String locationString = markupResourceStream.locationAsString();
+		if (locationString == null || markupCache.containsKey(locationString))
+		{
+			return false;
+		}
+
+		Markup markup = new SimpleMarkupLoader().loadMarkup(null, markupResourceStream, null,
+			false);
+		for (int i = 0; i < markup.size(); i++)
+		{
+			MarkupElement elem = markup.get(i);
+			if (elem instanceof WicketTag && ((WicketTag)elem).isExtendTag())
+			{
+				return false;
+			}
+		}
+
+		if (markupCache.containsKey(locationString))
+		{
+			return false;
+		}
+		if (log.isDebugEnabled())
+		{
+			log.debug("Preloaded markup: " + locationString);
+		}
+		markupCache.put(locationString, markup);
+		return true;
+	}
+
 	/**
 	 * Will be called if the markup was not in the cache yet but could not be found either.
 	 * <p>
@@ -466,7 +661,9 @@ public class MarkupCache implements IMarkupCache
 				}
 				// add the markup to the cache.
 				markupKeyCache.put(cacheKey, locationString);
-				return putIntoCache(locationString, container, markup);
+				markup = putIntoCache(locationString, container, markup);
+				addDerivedMarkup(locationString, markup);
+				return markup;
 			}
 			return markup;
 		}
@@ -528,6 +725,8 @@ public class MarkupCache implements IMarkupCache
 				.getResourceWatcher(true);
 			if (watcher != null)
 			{
+				final String watchedLocationString = locationString;
+				watchedMarkup.put(watchedLocationString, markupResourceStream);
 				watcher.add(markupResourceStream, new IChangeListener()
 				{
 					public void onChange()
@@ -540,7 +739,8 @@ public class MarkupCache implements IMarkupCache
 						// Remove the markup from the cache. It will be reloaded
 						// next time when the markup is requested.
 						watcher.remove(markupResourceStream);
-						removeMarkup(cacheKey);
+						watchedMarkup.remove(watchedLocationString, markupResourceStream);
+						removeMarkupAt(watchedLocationString);
 					}
 				});
 			}
@@ -612,7 +812,9 @@ public class MarkupCache implements IMarkupCache
 
 	/**
 	 * Allows you to change the map implementation which will hold the cache data. By default it is
-	 * a ConcurrentHashMap() in order to allow multiple thread to access the data in a secure way.
+	 * a ConcurrentHashMap() in order to allow multiple thread to access the data in a secure way, or
+	 * a {@link BoundedCacheImplementation} if {@link IMarkupSettings#getMarkupCacheMaxSize()} is
+	 * set.
 	 * 
 	 * @param <K>
 	 * @param <V>
@@ -621,9 +823,56 @@ public class MarkupCache implements IMarkupCache
 	 */
 	protected <K, V> ICache<K, V> newCacheImplementation()
 	{
+		long maxSize = application.getMarkupSettings().getMarkupCacheMaxSize();
+		if (maxSize > 0)
+		{
+			return new BoundedCacheImplementation<K, V>(maxSize, MarkupWeigher.INSTANCE);
+		}
 		return new DefaultCacheImplementation<K, V>();
 	}
 
+	/**
+	 * Weighs cached markup by its length in characters, and cached keys by the length of the key
+	 * and the value.
+	 */
+	private static final class MarkupWeigher
+		implements
+			BoundedCacheImplementation.IWeigher<Object, Object>
+	{
+		private static final MarkupWeigher INSTANCE = new MarkupWeigher();
+
+		public int weigh(Object key, Object value)
+		{
+			int weight = length(key);
+			if (value instanceof Markup)
+			{
+				Markup markup = (Markup)value;
+				for (int i = 0; i < markup.size(); i++)
+				{
+					MarkupElement element = markup.get(i);
+					if (element instanceof ComponentTag)
+					{
+						weight += ((ComponentTag)element).getLength();
+					}
+					else
+					{
+						weight += length(element.toCharSequence());
+					}
+				}
+			}
+			else
+			{
+				weight += length(value);
+			}
+			return weight;
+		}
+
+		private static int length(Object object)
+		{
+			return object instanceof CharSequence ? ((CharSequence)object).length() : 1;
+		}
+	}
+
 	/**
 	 * MarkupCache allows you to implement you own cache implementation. ICache is the interface the
 	 * implementation must comply with.
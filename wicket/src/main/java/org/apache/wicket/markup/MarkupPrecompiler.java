@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.protocol.http.MockWebApplication;
+import org.apache.wicket.protocol.http.WebApplication;
+import org.apache.wicket.util.io.Streams;
+import org.apache.wicket.util.resource.FileResourceStream;
+import org.apache.wicket.util.tester.BaseWicketTester;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses all markup files of a class directory at build time and writes the result to a file that
+ * can be loaded by {@link PrecompiledMarkup}. Markup files are <code>html</code> and
+ * <code>xml</code> files named after a {@link MarkupContainer} subclass, optionally followed by
+ * style, variation and locale, e.g. <code>HomePage.html</code> or <code>HomePage_de.html</code>.
+ * As the result of parsing depends on the container, the markup files of a class and its
+ * superclasses are parsed for each concrete container class of the directory.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * java org.apache.wicket.markup.MarkupPrecompiler &lt;classes directory&gt; &lt;output file&gt; [application class]
+ * </pre>
+ * 
+ * The markup is parsed with the settings of the given application class, which should be the
+ * application the markup is used by. Precompiled markup is only used if the settings at runtime
+ * match, so the <code>wicket.configuration</code> system property should be set to the
+ * configuration of the deployed application.
+ */
+public final class MarkupPrecompiler
+{
+	/** Log for reporting. */
+	private static final Logger log = LoggerFactory.getLogger(MarkupPrecompiler.class);
+
+	/** Extensions of the files that are precompiled */
+	private static final String[] MARKUP_TYPES = new String[] { "html", "xml" };
+
+	private final File classesDir;
+
+	private final PrecompiledMarkup precompiledMarkup = new PrecompiledMarkup();
+
+	/**
+	 * Construct.
+	 * 
+	 * @param classesDir
+	 *            root directory of classes and markup files
+	 */
+	public MarkupPrecompiler(File classesDir)
+	{
+		this.classesDir = classesDir;
+	}
+
+	/**
+	 * Parses all markup files in the classes directory for all containers of the classes directory
+	 * that use them. Must be called with an active application.
+	 * 
+	 * @return precompiled markup
+	 */
+	public PrecompiledMarkup precompile()
+	{
+		List<Class<?>> containers = new ArrayList<Class<?>>();
+		Map<Class<?>, List<String>> markupFiles = new HashMap<Class<?>, List<String>>();
+		scan(classesDir, "", containers, markupFiles);
+
+		// the result of parsing depends on the container class, so the markup of a class and its
+		// superclasses is parsed for every container
+		for (Class<?> containerClass : containers)
+		{
+			for (Class<?> c = containerClass; c != null; c = c.getSuperclass())
+			{
+				List<String> paths = markupFiles.get(c);
+				if (paths != null)
+				{
+					for (String path : paths)
+					{
+						precompile(path, containerClass, c);
+					}
+				}
+			}
+		}
+		return precompiledMarkup;
+	}
+
+	private void scan(File dir, String path, List<Class<?>> containers,
+		Map<Class<?>, List<String>> markupFiles)
+	{
+		File[] files = dir.listFiles();
+		if (files == null)
+		{
+			return;
+		}
+		String packageName = path.replace('/', '.');
+		for (File file : files)
+		{
+			String name = file.getName();
+			int dot = name.lastIndexOf('.');
+			if (file.isDirectory())
+			{
+				scan(file, path + name + "/", containers, markupFiles);
+			}
+			else if (dot <= 0 || name.startsWith("."))
+			{
+				continue;
+			}
+			else if (name.endsWith(".class"))
+			{
+				Class<?> c = loadClass(packageName + name.substring(0, dot));
+				if (c != null && !Modifier.isAbstract(c.getModifiers()))
+				{
+					containers.add(c);
+				}
+			}
+			else if (isMarkupType(name.substring(dot + 1)))
+			{
+				Class<?> c = getMarkupClass(packageName, name.substring(0, dot));
+				if (c != null)
+				{
+					List<String> paths = markupFiles.get(c);
+					if (paths == null)
+					{
+						paths = new ArrayList<String>();
+						markupFiles.put(c, paths);
+					}
+					paths.add(path + name);
+				}
+			}
+		}
+	}
+
+	private static boolean isMarkupType(String extension)
+	{
+		for (String type : MARKUP_TYPES)
+		{
+			if (type.equals(extension))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the class of a markup file name without extension by stripping style, variation and
+	 * locale.
+	 */
+	private Class<?> getMarkupClass(String packageName, String name)
+	{
+		while (true)
+		{
+			if (new File(classesDir, (packageName + name).replace('.', '/') + ".class").isFile())
+			{
+				return loadClass(packageName + name);
+			}
+			int index = name.lastIndexOf('_');
+			if (index <= 0)
+			{
+				return null;
+			}
+			name = name.substring(0, index);
+		}
+	}
+
+	/**
+	 * @return the initialized class if it is a {@link MarkupContainer}, <code>null</code>
+	 *         otherwise
+	 */
+	private static Class<?> loadClass(String name)
+	{
+		try
+		{
+			Class<?> c = Application.get()
+				.getApplicationSettings()
+				.getClassResolver()
+				.resolveClass(name);
+			if (MarkupContainer.class.isAssignableFrom(c))
+			{
+				// initialize the class as components register their wicket tags in static
+				// initializers
+				return Class.forName(c.getName(), true, c.getClassLoader());
+			}
+		}
+		catch (Throwable e)
+		{
+			log.warn("Unable to load class " + name + ": " + e);
+		}
+		return null;
+	}
+
+	private void precompile(String path, Class<?> containerClass, Class<?> markupClass)
+	{
+		File file = new File(classesDir, path);
+		try
+		{
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			InputStream in = new FileInputStream(file);
+			try
+			{
+				Streams.copy(in, content);
+			}
+			finally
+			{
+				in.close();
+			}
+
+			String extension = path.substring(path.lastIndexOf('.') + 1);
+			MarkupResourceStream resourceStream = new MarkupResourceStream(new FileResourceStream(
+				file), new ContainerInfo(containerClass, null, null, null, extension), markupClass);
+			Markup markup = Application.get()
+				.getMarkupSettings()
+				.getMarkupParserFactory()
+				.newMarkupParser(resourceStream)
+				.parse();
+			precompiledMarkup.add(containerClass, path, content.toByteArray(), markup);
+		}
+		catch (Exception e)
+		{
+			log.warn("Skipping markup " + path + " of " + containerClass.getName() + ": " + e);
+		}
+	}
+
+	/**
+	 * Precompiles markup of a classes directory.
+	 * 
+	 * @param args
+	 *            classes directory, output file and optionally the application class
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: MarkupPrecompiler <classes directory> <output file> " +
+				"[application class]");
+			System.exit(1);
+		}
+
+		WebApplication application;
+		if (args.length > 2)
+		{
+			application = (WebApplication)Class.forName(args[2]).newInstance();
+		}
+		else
+		{
+			application = new BaseWicketTester.DummyWebApplication();
+		}
+
+		MockWebApplication mock = new MockWebApplication(application, null);
+		try
+		{
+			PrecompiledMarkup precompiled = new MarkupPrecompiler(new File(args[0])).precompile();
+
+			File output = new File(args[1]);
+			output.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(output);
+			try
+			{
+				precompiled.write(out);
+			}
+			finally
+			{
+				out.close();
+			}
+			log.info("Precompiled " + precompiled.size() + " markup files to " + output);
+		}
+		finally
+		{
+			mock.destroy();
+		}
+	}
+}
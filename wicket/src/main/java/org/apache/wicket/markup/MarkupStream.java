@@ -17,6 +17,7 @@
 package org.apache.wicket.markup;
 
 import org.apache.wicket.Component;
+import org.apache.wicket.Response;
 import org.apache.wicket.util.resource.IResourceStream;
 import org.apache.wicket.util.string.Strings;
 
@@ -405,6 +406,28 @@ public final class MarkupStream
 		}
 	}
 
+	/**
+	 * Writes the raw markup at the current position, merged with all raw markup directly following
+	 * it, to the response as bytes encoded in the character encoding of the response. Moves to the
+	 * first element after the raw markup. The response must support encoded text, see
+	 * {@link Response#isEncodedWriteSupported()}.
+	 * 
+	 * @param response
+	 *            The response to write to
+	 */
+	public final void writeEncodedRawMarkup(final Response response)
+	{
+		response.writeEncoded(markup.getEncodedRawMarkup(currentIndex,
+			response.getCharacterEncoding()));
+
+		MarkupElement element;
+		do
+		{
+			element = next();
+		}
+		while (element instanceof RawMarkup);
+	}
+
 	/**
 	 * Skips any markup at the current position until the wicket tag name is found.
 	 * 
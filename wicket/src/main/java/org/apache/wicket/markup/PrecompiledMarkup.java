@@ -0,0 +1,706 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.Component;
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.behavior.IBehavior;
+import org.apache.wicket.markup.parser.XmlTag;
+import org.apache.wicket.settings.IMarkupSettings;
+import org.apache.wicket.util.io.Streams;
+import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Markup that has been parsed at build time (see {@link MarkupPrecompiler}), stored in a compact
+ * binary form. The markup is looked up by the class of the container and the path of the markup
+ * file, as the result of parsing depends on the container; it is only used if the markup file
+ * has the same content and the markup settings are the same as when the markup was precompiled,
+ * otherwise the markup is parsed as usual.
+ * <p>
+ * Precompiled markup of all {@link #RESOURCE_NAME} resources on the classpath is loaded when the
+ * application starts.
+ * 
+ * @see IMarkupSettings#setPrecompiledMarkup(PrecompiledMarkup)
+ */
+public final class PrecompiledMarkup
+{
+	/** Log for reporting. */
+	private static final Logger log = LoggerFactory.getLogger(PrecompiledMarkup.class);
+
+	/** Name of the classpath resources the precompiled markup is loaded from */
+	public static final String RESOURCE_NAME = "META-INF/wicket/precompiled-markup.bin";
+
+	private static final int MAGIC = 0x574d4b50;
+
+	private static final int VERSION = 1;
+
+	private static final byte RAW_MARKUP = 0;
+	private static final byte COMPONENT_TAG = 1;
+	private static final byte WICKET_TAG = 2;
+
+	private static final byte FLAG_AUTOLINK = 0x01;
+	private static final byte FLAG_MODIFIED = 0x02;
+	private static final byte FLAG_AUTO_COMPONENT = 0x04;
+	private static final byte FLAG_NO_CLOSE_TAG = 0x08;
+	private static final byte FLAG_NAME_CHANGED = 0x10;
+
+	/** entries by container class name */
+	private final Map<String, List<Entry>> entries = new HashMap<String, List<Entry>>();
+
+	private int size;
+
+	/**
+	 * Construct.
+	 */
+	public PrecompiledMarkup()
+	{
+	}
+
+	/**
+	 * Loads and merges precompiled markup from the given resources.
+	 * 
+	 * @param resources
+	 * @return precompiled markup or <code>null</code> if there are no resources
+	 * @throws IOException
+	 */
+	public static PrecompiledMarkup load(Iterator<URL> resources) throws IOException
+	{
+		PrecompiledMarkup result = null;
+		while (resources.hasNext())
+		{
+			URL url = resources.next();
+			InputStream in = url.openStream();
+			try
+			{
+				if (result == null)
+				{
+					result = new PrecompiledMarkup();
+				}
+				result.read(in);
+			}
+			finally
+			{
+				in.close();
+			}
+			if (log.isDebugEnabled())
+			{
+				log.debug("Loaded precompiled markup from " + url);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the markup settings that affect the result of parsing as a string.
+	 * 
+	 * @param application
+	 * @return settings fingerprint
+	 */
+	static String getSettingsFingerprint(Application application)
+	{
+		IMarkupSettings settings = application.getMarkupSettings();
+		return application.getFrameworkSettings().getVersion() + ";" +
+			settings.getMarkupParserFactory().getClass().getName() + ";" +
+			settings.getDefaultMarkupEncoding() + ";" + settings.getStripComments() + ";" +
+			settings.getCompressWhitespace() + ";" + settings.getStripWicketTags() + ";" +
+			settings.getAutomaticLinking();
+	}
+
+	/**
+	 * @return number of precompiled markup files
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Adds parsed markup. The markup must have been parsed with the settings of the current
+	 * application.
+	 * 
+	 * @param containerClass
+	 *            class of the container the markup has been parsed for
+	 * @param path
+	 *            path of the markup file relative to the classpath root
+	 * @param content
+	 *            content of the markup file
+	 * @param markup
+	 *            parsed markup
+	 * @throws IllegalArgumentException
+	 *             if the markup contains elements that can't be precompiled
+	 */
+	public void add(Class<?> containerClass, String path, byte[] content, Markup markup)
+	{
+		byte[] data;
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			writeMarkup(out, markup);
+			out.close();
+			data = bytes.toByteArray();
+		}
+		catch (IOException e)
+		{
+			throw new IllegalArgumentException("Markup " + path + " can't be precompiled: " +
+				e.getMessage());
+		}
+
+		add(containerClass.getName(), new Entry(path, checksum(content), content.length,
+			getSettingsFingerprint(Application.get()), data));
+	}
+
+	private void add(String containerClass, Entry entry)
+	{
+		List<Entry> list = entries.get(containerClass);
+		if (list == null)
+		{
+			list = new ArrayList<Entry>(1);
+			entries.put(containerClass, list);
+		}
+		list.add(entry);
+		++size;
+	}
+
+	/**
+	 * Returns the precompiled markup for given markup resource stream if its content and the
+	 * markup settings are the same as when it was precompiled.
+	 * 
+	 * @param resourceStream
+	 * @return markup or <code>null</code> if the markup must be parsed
+	 */
+	public Markup getMarkup(MarkupResourceStream resourceStream)
+	{
+		ContainerInfo containerInfo = resourceStream.getContainerInfo();
+		String location = resourceStream.locationAsString();
+		if (containerInfo == null || containerInfo.getContainerClass() == null || location == null)
+		{
+			return null;
+		}
+
+		List<Entry> list = entries.get(containerInfo.getContainerClass().getName());
+		if (list == null)
+		{
+			return null;
+		}
+
+		location = location.replace('\\', '/');
+		for (Entry entry : list)
+		{
+			if (location.endsWith("/" + entry.path) || location.equals(entry.path))
+			{
+				return entry.getMarkup(resourceStream);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the precompiled markup.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(OutputStream out) throws IOException
+	{
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(size);
+		for (Map.Entry<String, List<Entry>> e : entries.entrySet())
+		{
+			for (Entry entry : e.getValue())
+			{
+				data.writeUTF(e.getKey());
+				data.writeUTF(entry.path);
+				data.writeLong(entry.checksum);
+				data.writeInt(entry.length);
+				data.writeUTF(entry.fingerprint);
+				data.writeInt(entry.data.length);
+				data.write(entry.data);
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * Reads precompiled markup written by {@link #write(OutputStream)} and adds it to this
+	 * instance.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public void read(InputStream in) throws IOException
+	{
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC)
+		{
+			throw new IOException("Not a precompiled markup stream");
+		}
+		int version = data.readInt();
+		if (version != VERSION)
+		{
+			log.warn("Ignoring precompiled markup of unsupported version " + version);
+			return;
+		}
+		int count = data.readInt();
+		for (int i = 0; i < count; ++i)
+		{
+			String containerClass = data.readUTF();
+			String path = data.readUTF();
+			long checksum = data.readLong();
+			int length = data.readInt();
+			String fingerprint = data.readUTF().intern();
+			byte[] bytes = new byte[data.readInt()];
+			data.readFully(bytes);
+			add(containerClass, new Entry(path, checksum, length, fingerprint, bytes));
+		}
+	}
+
+	private static long checksum(byte[] content)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		return crc.getValue();
+	}
+
+	/**
+	 * Precompiled markup file
+	 */
+	private static final class Entry
+	{
+		private final String path;
+		private final long checksum;
+		private final int length;
+		private final String fingerprint;
+		private final byte[] data;
+
+		private Entry(String path, long checksum, int length, String fingerprint, byte[] data)
+		{
+			this.path = path;
+			this.checksum = checksum;
+			this.length = length;
+			this.fingerprint = fingerprint;
+			this.data = data;
+		}
+
+		private Markup getMarkup(MarkupResourceStream resourceStream)
+		{
+			if (!fingerprint.equals(getSettingsFingerprint(Application.get())))
+			{
+				if (log.isDebugEnabled())
+				{
+					log.debug("Markup settings changed, parsing " + resourceStream);
+				}
+				return null;
+			}
+
+			try
+			{
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try
+				{
+					Streams.copy(resourceStream.getInputStream(), bytes);
+				}
+				finally
+				{
+					resourceStream.close();
+				}
+				byte[] content = bytes.toByteArray();
+				if (content.length != length || checksum(content) != checksum)
+				{
+					if (log.isDebugEnabled())
+					{
+						log.debug("Markup changed since it was precompiled, parsing " +
+							resourceStream);
+					}
+					return null;
+				}
+
+				return readMarkup(new DataInputStream(new ByteArrayInputStream(data)),
+					resourceStream);
+			}
+			catch (IOException e)
+			{
+				log.warn("Unable to read precompiled markup of " + resourceStream, e);
+			}
+			catch (ResourceStreamNotFoundException e)
+			{
+				log.warn("Unable to read markup " + resourceStream, e);
+			}
+			catch (ClassNotFoundException e)
+			{
+				log.warn("Unable to read precompiled markup of " + resourceStream, e);
+			}
+			catch (RuntimeException e)
+			{
+				log.warn("Unable to read precompiled markup of " + resourceStream, e);
+			}
+			return null;
+		}
+	}
+
+	private static void writeMarkup(DataOutputStream out, Markup markup) throws IOException
+	{
+		MarkupResourceData resourceData = markup.getMarkupResourceData();
+		writeString(out, resourceData.getEncoding());
+		writeString(out, resourceData.getXmlDeclaration());
+		writeString(out, resourceData.getWicketNamespace());
+
+		Map<MarkupElement, Integer> indexes = new IdentityHashMap<MarkupElement, Integer>();
+		out.writeInt(markup.size());
+		for (int i = 0; i < markup.size(); ++i)
+		{
+			MarkupElement element = markup.get(i);
+			indexes.put(element, new Integer(i));
+			if (element.getClass() == RawMarkup.class)
+			{
+				out.writeByte(RAW_MARKUP);
+				writeString(out, element.toCharSequence());
+			}
+			else if (element.getClass() == ComponentTag.class ||
+				element.getClass() == WicketTag.class)
+			{
+				out.writeByte(element instanceof WicketTag ? WICKET_TAG : COMPONENT_TAG);
+				writeTag(out, (ComponentTag)element, indexes);
+			}
+			else
+			{
+				throw new IOException("unsupported markup element " + element.getClass().getName());
+			}
+		}
+	}
+
+	private static void writeTag(DataOutputStream out, ComponentTag tag,
+		Map<MarkupElement, Integer> indexes) throws IOException
+	{
+		XmlTag xmlTag = tag.getXmlTag();
+		writeString(out, xmlTag.getNamespace());
+		writeString(out, xmlTag.getName());
+		out.writeByte(xmlTag.isOpen() ? 0 : (xmlTag.isClose() ? 1 : 2));
+		out.writeInt(xmlTag.getPos());
+		out.writeInt(xmlTag.getLength());
+		out.writeInt(xmlTag.getLineNumber());
+		out.writeInt(xmlTag.getColumnNumber());
+
+		if (xmlTag.hasAttributes())
+		{
+			writeString(out, null);
+			Map<String, Object> attributes = xmlTag.getAttributes();
+			out.writeInt(attributes.size());
+			for (Map.Entry<String, Object> attribute : attributes.entrySet())
+			{
+				writeString(out, attribute.getKey());
+				Object value = attribute.getValue();
+				writeString(out, value != null ? value.toString() : null);
+			}
+		}
+		else
+		{
+			writeString(out, xmlTag.toCharSequence());
+			out.writeInt(0);
+		}
+
+		int openTag = -1;
+		if (tag.getOpenTag() != null)
+		{
+			Integer index = indexes.get(tag.getOpenTag());
+			if (index == null)
+			{
+				throw new IOException("open tag of " + tag + " is not part of the markup");
+			}
+			openTag = index.intValue();
+		}
+		out.writeInt(openTag);
+
+		writeString(out, tag.getId());
+		byte flags = 0;
+		if (tag.isAutolinkEnabled())
+		{
+			flags |= FLAG_AUTOLINK;
+		}
+		if (tag.isModified())
+		{
+			flags |= FLAG_MODIFIED;
+		}
+		if (tag.isAutoComponentTag())
+		{
+			flags |= FLAG_AUTO_COMPONENT;
+		}
+		if (tag.hasNoCloseTag())
+		{
+			flags |= FLAG_NO_CLOSE_TAG;
+		}
+		if (xmlTag.getNameChanged())
+		{
+			flags |= FLAG_NAME_CHANGED;
+		}
+		out.writeByte(flags);
+
+		Class<? extends Component> markupClass = tag.getMarkupClass();
+		writeString(out, markupClass != null ? markupClass.getName() : null);
+
+		ArrayList<IBehavior> behaviors = null;
+		if (tag.hasBehaviors())
+		{
+			behaviors = new ArrayList<IBehavior>();
+			for (Iterator<? extends IBehavior> i = tag.getBehaviors(); i.hasNext();)
+			{
+				behaviors.add(i.next());
+			}
+		}
+		writeObject(out, behaviors);
+
+		Map<String, Object> userData = tag.getUserDataMap();
+		writeObject(out, userData != null ? new HashMap<String, Object>(userData) : null);
+	}
+
+	private static Markup readMarkup(DataInputStream in, MarkupResourceStream resourceStream)
+		throws IOException, ClassNotFoundException
+	{
+		MarkupResourceData resourceData = new MarkupResourceData();
+		resourceData.setResource(resourceStream);
+		resourceData.setEncoding(readString(in));
+		resourceData.setXmlDeclaration(readString(in));
+		String namespace = readString(in);
+		if (!ComponentTag.DEFAULT_WICKET_NAMESPACE.equals(namespace))
+		{
+			resourceData.setWicketNamespace(namespace);
+		}
+
+		Markup markup = new Markup(resourceData);
+		int count = in.readInt();
+		ComponentTag[] tags = new ComponentTag[count];
+		for (int i = 0; i < count; ++i)
+		{
+			byte kind = in.readByte();
+			if (kind == RAW_MARKUP)
+			{
+				markup.addMarkupElement(new RawMarkup(readString(in)));
+			}
+			else
+			{
+				tags[i] = readTag(in, kind, tags, i);
+				markup.addMarkupElement(tags[i]);
+			}
+		}
+		markup.makeImmutable();
+		return markup;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ComponentTag readTag(DataInputStream in, byte kind, ComponentTag[] tags,
+		int index) throws IOException, ClassNotFoundException
+	{
+		String namespace = readString(in);
+		String name = readString(in);
+		byte type = in.readByte();
+		int pos = in.readInt();
+		int length = in.readInt();
+		int lineNumber = in.readInt();
+		int columnNumber = in.readInt();
+		String text = readString(in);
+
+		XmlTag xmlTag = new XmlTag(namespace, name, type == 0 ? XmlTag.OPEN : (type == 1
+			? XmlTag.CLOSE : XmlTag.OPEN_CLOSE), pos, length, lineNumber, columnNumber, text);
+		int attributes = in.readInt();
+		for (int i = 0; i < attributes; ++i)
+		{
+			String key = readString(in);
+			xmlTag.getAttributes().put(key, readString(in));
+		}
+
+		ComponentTag tag = kind == WICKET_TAG ? new WicketTag(xmlTag) : new ComponentTag(xmlTag);
+		int openTag = in.readInt();
+		if (openTag == index)
+		{
+			// open-close tags refer to themselves
+			tag.setOpenTag(tag);
+		}
+		else if (openTag != -1)
+		{
+			tag.setOpenTag(tags[openTag]);
+		}
+
+		String id = readString(in);
+		if (id != null)
+		{
+			tag.setId(id);
+		}
+		byte flags = in.readByte();
+		tag.enableAutolink((flags & FLAG_AUTOLINK) != 0);
+		tag.setModified((flags & FLAG_MODIFIED) != 0);
+		tag.setAutoComponentTag((flags & FLAG_AUTO_COMPONENT) != 0);
+		tag.setHasNoCloseTag((flags & FLAG_NO_CLOSE_TAG) != 0);
+		if ((flags & FLAG_NAME_CHANGED) != 0)
+		{
+			xmlTag.setName(name);
+		}
+
+		String markupClass = readString(in);
+		if (markupClass != null)
+		{
+			tag.setMarkupClass((Class<? extends Component>)resolve(markupClass));
+		}
+
+		List<IBehavior> behaviors = (List<IBehavior>)readObject(in);
+		if (behaviors != null)
+		{
+			for (IBehavior behavior : behaviors)
+			{
+				tag.addBehavior(behavior);
+			}
+		}
+
+		Map<String, Object> userData = (Map<String, Object>)readObject(in);
+		if (userData != null)
+		{
+			for (Map.Entry<String, Object> entry : userData.entrySet())
+			{
+				tag.setUserData(entry.getKey(), entry.getValue());
+			}
+		}
+		return tag;
+	}
+
+	private static void writeObject(DataOutputStream out, Serializable object) throws IOException
+	{
+		if (object == null)
+		{
+			out.writeInt(-1);
+		}
+		else
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			oos.writeObject(object);
+			oos.close();
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+		}
+	}
+
+	private static Object readObject(DataInputStream in) throws IOException,
+		ClassNotFoundException
+	{
+		int length = in.readInt();
+		if (length == -1)
+		{
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))
+		{
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+				ClassNotFoundException
+			{
+				Class<?> candidate = resolve(desc.getName());
+				return candidate != null ? candidate : super.resolveClass(desc);
+			}
+		};
+		try
+		{
+			return ois.readObject();
+		}
+		finally
+		{
+			ois.close();
+		}
+	}
+
+	/**
+	 * Resolves a class through the class resolver of the application.
+	 * 
+	 * @param className
+	 * @return class, never <code>null</code>
+	 * @throws ClassNotFoundException
+	 */
+	private static Class<?> resolve(String className) throws ClassNotFoundException
+	{
+		try
+		{
+			Class<?> candidate = Application.get()
+				.getApplicationSettings()
+				.getClassResolver()
+				.resolveClass(className);
+			if (candidate == null)
+			{
+				throw new ClassNotFoundException(className);
+			}
+			return candidate;
+		}
+		catch (WicketRuntimeException e)
+		{
+			if (e.getCause() instanceof ClassNotFoundException)
+			{
+				throw (ClassNotFoundException)e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, CharSequence string) throws IOException
+	{
+		if (string == null)
+		{
+			out.writeInt(-1);
+		}
+		else
+		{
+			byte[] bytes = string.toString().getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length == -1)
+		{
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
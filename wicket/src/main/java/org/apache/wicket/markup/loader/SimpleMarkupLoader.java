@@ -22,11 +22,13 @@ import org.apache.wicket.Application;
 import org.apache.wicket.MarkupContainer;
 import org.apache.wicket.markup.Markup;
 import org.apache.wicket.markup.MarkupResourceStream;
+import org.apache.wicket.markup.PrecompiledMarkup;
+import org.apache.wicket.settings.IMarkupSettings;
 import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
 
 /**
- * Load the markup via the MarkupParser, not more, not less. Caching is provided separately as well
- * as Inherited-Markup merging.
+ * Load the markup via the MarkupParser, not more, not less, unless up to date precompiled markup is
+ * available. Caching is provided separately as well as Inherited-Markup merging.
  * 
  * @author Juergen Donnerstag
  */
@@ -49,7 +51,16 @@ public class SimpleMarkupLoader implements IMarkupLoader
 		final MarkupResourceStream markupResourceStream, final IMarkupLoader baseLoader,
 		final boolean enforceReload) throws IOException, ResourceStreamNotFoundException
 	{
-		return Application.get().getMarkupSettings().getMarkupParserFactory().newMarkupParser(
-			markupResourceStream).parse();
+		IMarkupSettings settings = Application.get().getMarkupSettings();
+		PrecompiledMarkup precompiled = settings.getPrecompiledMarkup();
+		if (precompiled != null)
+		{
+			Markup markup = precompiled.getMarkup(markupResourceStream);
+			if (markup != null)
+			{
+				return markup;
+			}
+		}
+		return settings.getMarkupParserFactory().newMarkupParser(markupResourceStream).parse();
 	}
 }
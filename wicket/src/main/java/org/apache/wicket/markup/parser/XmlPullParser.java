@@ -25,14 +25,16 @@ import java.text.ParseException;
 import org.apache.wicket.markup.MarkupElement;
 import org.apache.wicket.util.io.FullyBufferedReader;
 import org.apache.wicket.util.io.XmlReader;
-import org.apache.wicket.util.parse.metapattern.parsers.TagNameParser;
-import org.apache.wicket.util.parse.metapattern.parsers.VariableAssignmentParser;
 import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
 
 
 /**
  * A fairly shallow markup pull parser which parses a markup string of a given type of markup (for
  * example, html, xml, vxml or wml) into ComponentTag and RawMarkup tokens.
+ * <p>
+ * The parser scans the characters of the buffered input directly and only works with offsets into
+ * it. Strings are created for the tag text and the attribute values only, while tag names,
+ * namespaces and attribute names are taken from a shared table of interned names.
  * 
  * @author Jonathan Locke
  * @author Juergen Donnerstag
@@ -72,13 +74,19 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 	 */
 	private FullyBufferedReader input;
 
+	/** Size of the table of interned names, must be a power of two */
+	private static final int NAMES_SIZE = 1024;
+
+	/**
+	 * Interned tag names, namespaces and attribute names, indexed by the hash of their characters.
+	 * A slot simply gets overwritten when another name with the same index is found.
+	 */
+	private static final String[] names = new String[NAMES_SIZE];
+
 	/** temporary variable which will hold the name of the closing tag. */
 	private String skipUntilText;
 
-	/** The last substring selected from the input */
-	private CharSequence lastText;
-
-	/** The type of what is in lastText */
+	/** The type of the last element found */
 	private int lastType = NOT_INITIALIZED;
 
 	/** If lastType == TAG, than ... */
@@ -141,9 +149,8 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 		final int tagNameLen = skipUntilText.length();
 
 		int pos = input.getPosition() - 1;
-		String endTagText = null;
-		int lastPos = 0;
-		while (!skipUntilText.equalsIgnoreCase(endTagText))
+		int lastPos;
+		do
 		{
 			pos = input.find("</", pos + 1);
 			if ((pos == -1) || ((pos + (tagNameLen + 2)) >= input.size()))
@@ -154,11 +161,10 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 			}
 
 			lastPos = pos + 2;
-			endTagText = input.getSubstring(lastPos, lastPos + tagNameLen).toString();
 		}
+		while (!input.startsWith(lastPos, skipUntilText, true));
 
 		input.setPosition(pos);
-		lastText = input.getSubstring(startIndex, pos);
 		lastType = BODY;
 
 		// Check that the tag is properly closed
@@ -202,13 +208,11 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 			if (openBracketIndex == -1)
 			{
 				// There is no next matching tag.
-				lastText = input.getSubstring(-1);
 				input.setPosition(input.size());
 				lastType = BODY;
 				return true;
 			}
 
-			lastText = input.getSubstring(openBracketIndex);
 			input.setPosition(openBracketIndex);
 			lastType = BODY;
 			return true;
@@ -225,22 +229,20 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 					input.getPosition());
 		}
 
-		// Get the complete tag text
-		lastText = input.getSubstring(openBracketIndex, closeBracketIndex + 1);
-
-		// Get the tagtext between open and close brackets
-		String tagText = lastText.subSequence(1, lastText.length() - 1).toString();
-		if (tagText.length() == 0)
+		// The tag text in between the open and close brackets
+		int tagStart = openBracketIndex + 1;
+		int tagEnd = closeBracketIndex;
+		if (tagStart == tagEnd)
 		{
 			throw new ParseException("Found empty tag: '<>' at position " + openBracketIndex, input
 					.getPosition());
 		}
 
 		// Handle special tags like <!-- and <![CDATA ...
-		final char firstChar = tagText.charAt(0);
+		final char firstChar = input.charAt(tagStart);
 		if ((firstChar == '!') || (firstChar == '?'))
 		{
-			specialTagHandling(tagText, openBracketIndex, closeBracketIndex);
+			specialTagHandling(openBracketIndex, closeBracketIndex);
 			return true;
 		}
 
@@ -248,16 +250,16 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 		final XmlTag.Type type;
 
 		// If the tag ends in '/', it's a "simple" tag like <foo/>
-		if (tagText.endsWith("/"))
+		if (input.charAt(tagEnd - 1) == '/')
 		{
 			type = XmlTag.OPEN_CLOSE;
-			tagText = tagText.substring(0, tagText.length() - 1);
+			tagEnd--;
 		}
-		else if (tagText.startsWith("/"))
+		else if (firstChar == '/')
 		{
 			// The tag text starts with a '/', it's a simple close tag
 			type = XmlTag.CLOSE;
-			tagText = tagText.substring(1);
+			tagStart++;
 		}
 		else
 		{
@@ -266,16 +268,14 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 
 			// If open tag and starts with "s" like "script" or "style", than
 			// ...
-			if ((tagText.length() > 5) &&
-					((tagText.charAt(0) == 's') || (tagText.charAt(0) == 'S')))
+			if ((tagEnd - tagStart > 5) && ((firstChar == 's') || (firstChar == 'S')))
 			{
-				final String lowerCase = tagText.substring(0, 6).toLowerCase();
-				if (lowerCase.startsWith("script"))
+				if (input.startsWith(tagStart, "script", true))
 				{
 					// prepare to skip everything between the open and close tag
 					skipUntilText = "script";
 				}
-				else if (lowerCase.startsWith("style"))
+				else if (input.startsWith(tagStart, "style", true))
 				{
 					// prepare to skip everything between the open and close tag
 					skipUntilText = "style";
@@ -285,14 +285,14 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 
 		// Parse remaining tag text, obtaining a tag object or null
 		// if it's invalid
-		lastTag = parseTagText(tagText);
+		lastTag = parseTagText(tagStart, tagEnd);
 		if (lastTag != null)
 		{
 			// Populate tag fields
 			lastTag.type = type;
 			lastTag.pos = openBracketIndex;
-			lastTag.length = lastText.length();
-			lastTag.text = lastText;
+			lastTag.length = closeBracketIndex + 1 - openBracketIndex;
+			lastTag.text = input.getSubstring(openBracketIndex, closeBracketIndex + 1);
 			lastTag.lineNumber = input.getLineNumber();
 			lastTag.columnNumber = input.getColumnNumber();
 
@@ -311,16 +311,17 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 	/**
 	 * Handle special tags like <!-- --> or <![CDATA[..]]> or <?xml>
 	 * 
-	 * @param tagText
 	 * @param openBracketIndex
 	 * @param closeBracketIndex
 	 * @throws ParseException
 	 */
-	private void specialTagHandling(String tagText, final int openBracketIndex,
-			int closeBracketIndex) throws ParseException
+	private void specialTagHandling(final int openBracketIndex, int closeBracketIndex)
+			throws ParseException
 	{
+		final int tagStart = openBracketIndex + 1;
+
 		// Handle comments
-		if (tagText.startsWith("!--"))
+		if (input.startsWith(tagStart, "!--", false))
 		{
 			// Normal comment section.
 			// Skip ahead to "-->". Note that you can not simply test for
@@ -335,12 +336,12 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 			}
 
 			pos += 3;
-			lastText = input.getSubstring(openBracketIndex, pos);
 			lastType = COMMENT;
 
 			// Conditional comment? <!--[if ...]>..<![endif]-->
-			if (tagText.startsWith("!--[if ") && tagText.endsWith("]") &&
-					lastText.toString().endsWith("<![endif]-->"))
+			if (input.startsWith(tagStart, "!--[if ", false) &&
+					(input.charAt(closeBracketIndex - 1) == ']') &&
+					input.startsWith(pos - 12, "<![endif]-->", false))
 			{
 				// Actually it is no longer a comment. It is now
 				// up to the browser to select the section appropriate.
@@ -354,7 +355,8 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 		}
 
 		// The closing tag of a conditional comment <!--[if IE]>...<![endif]-->
-		if (tagText.equals("![endif]--"))
+		if ((closeBracketIndex - tagStart == 10) &&
+				input.startsWith(tagStart, "![endif]--", false))
 		{
 			lastType = COMMENT;
 			input.setPosition(closeBracketIndex + 1);
@@ -363,42 +365,35 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 
 		// CDATA sections might contain "<" which is not part of an XML tag.
 		// Make sure escaped "<" are treated right
-		if (tagText.startsWith("!["))
+		if (input.startsWith(tagStart, "![CDATA[", true))
 		{
-			final String startText = (tagText.length() <= 8 ? tagText : tagText.substring(0, 8));
-			if (startText.toUpperCase().equals("![CDATA["))
+			int pos1 = openBracketIndex;
+			do
 			{
-				int pos1 = openBracketIndex;
-				do
-				{
-					// Get index of closing tag and advance past the tag
-					closeBracketIndex = findChar('>', pos1);
+				// Get index of closing tag and advance past the tag
+				closeBracketIndex = findChar('>', pos1);
 
-					if (closeBracketIndex == -1)
-					{
-						throw new ParseException("No matching close bracket at line:" +
-								input.getLineNumber() + " column:" + input.getColumnNumber(), input
-								.getPosition());
-					}
-
-					// Get the tagtext between open and close brackets
-					tagText = input.getSubstring(openBracketIndex + 1, closeBracketIndex)
-							.toString();
-
-					pos1 = closeBracketIndex + 1;
+				if (closeBracketIndex == -1)
+				{
+					throw new ParseException("No matching close bracket at line:" +
+							input.getLineNumber() + " column:" + input.getColumnNumber(), input
+							.getPosition());
 				}
-				while (tagText.endsWith("]]") == false);
-
-				// Move to position after the tag
-				input.setPosition(closeBracketIndex + 1);
 
-				lastText = tagText;
-				lastType = CDATA;
-				return;
+				pos1 = closeBracketIndex + 1;
 			}
+			while ((closeBracketIndex - tagStart < 2) ||
+					(input.charAt(closeBracketIndex - 1) != ']') ||
+					(input.charAt(closeBracketIndex - 2) != ']'));
+
+			// Move to position after the tag
+			input.setPosition(closeBracketIndex + 1);
+
+			lastType = CDATA;
+			return;
 		}
 
-		if (tagText.charAt(0) == '?')
+		if (input.charAt(tagStart) == '?')
 		{
 			lastType = PROCESSING_INSTRUCTION;
 
@@ -573,82 +568,282 @@ public final class XmlPullParser extends AbstractMarkupFilter implements IXmlPul
 	}
 
 	/**
-	 * Parses the text between tags. For example, "a href=foo.html".
+	 * Parses the text between tags. For example, "a href=foo.html". The tag name may be prefixed
+	 * with a namespace and may be followed by attributes. An attribute is a name, optionally with a
+	 * namespace, with an optional value which is either quoted or consists of letters, digits, '_',
+	 * '-' and '.' only. Any other characters in between the attributes are skipped.
 	 * 
-	 * @param tagText
-	 *            The text between tags
+	 * @param start
+	 *            The index of the first char of the text between tags
+	 * @param end
+	 *            The index after the last char of the text between tags
 	 * @return A new Tag object or null if the tag is invalid
 	 * @throws ParseException
 	 */
-	private XmlTag parseTagText(final String tagText) throws ParseException
+	private XmlTag parseTagText(final int start, final int end) throws ParseException
 	{
-		// Get the length of the tagtext
-		final int tagTextLength = tagText.length();
-
-		// If we match tagname pattern
-		final TagNameParser tagnameParser = new TagNameParser(tagText);
-		if (tagnameParser.matcher().lookingAt())
+		// The tag name must be right at the start
+		if ((start == end) || !isNameStart(input.charAt(start)))
 		{
-			final XmlTag tag = new XmlTag();
+			return null;
+		}
 
-			// Extract the tag from the pattern matcher
-			tag.name = tagnameParser.getName();
-			tag.namespace = tagnameParser.getNamespace();
+		final XmlTag tag = new XmlTag();
 
-			// Are we at the end? Then there are no attributes, so we just
-			// return the tag
-			int pos = tagnameParser.matcher().end(0);
-			if (pos == tagTextLength)
-			{
-				return tag;
-			}
+		int pos = scanNamespace(start, end);
+		if (pos != -1)
+		{
+			tag.namespace = getName(start, pos).toLowerCase();
+			pos++;
+		}
+		else
+		{
+			pos = start;
+		}
+		final int nameEnd = scanName(pos, end);
+		tag.name = getName(pos, nameEnd);
+		pos = nameEnd;
 
-			// Extract attributes
-			final VariableAssignmentParser attributeParser = new VariableAssignmentParser(tagText);
-			while (attributeParser.matcher().find(pos))
+		// Extract attributes
+		while (pos < end)
+		{
+			// Skip anything up to the start of the next attribute name
+			while (!isNameStart(input.charAt(pos)))
 			{
-				// Get key and value using attribute pattern
-				String value = attributeParser.getValue();
-
-				// In case like <html xmlns:wicket> will the value be null
-				if (value == null)
+				if (++pos == end)
 				{
-					value = "";
+					return tag;
 				}
+			}
 
-				// Set new position to end of attribute
-				pos = attributeParser.matcher().end(0);
+			// Get key, including the optional namespace
+			final int keyStart = pos;
+			pos = scanNamespace(keyStart, end);
+			pos = scanName((pos != -1) ? pos + 1 : keyStart, end);
+			final String key = getName(keyStart, pos);
 
-				// Chop off double quotes or single quotes
-				if (value.startsWith("\"") || value.startsWith("\'"))
+			// Get the optional value. In case like <html xmlns:wicket> will the value be empty
+			String value = "";
+			int valueStart = skipWhitespace(pos, end);
+			if ((valueStart < end) && (input.charAt(valueStart) == '='))
+			{
+				valueStart = skipWhitespace(valueStart + 1, end);
+				int valueEnd = scanValue(valueStart, end);
+				if (valueEnd != -1)
 				{
-					value = value.substring(1, value.length() - 1);
+					pos = valueEnd;
+
+					// Chop off double quotes or single quotes
+					final char ch = input.charAt(valueStart);
+					if ((ch == '"') || (ch == '\''))
+					{
+						valueStart++;
+						valueEnd--;
+					}
+
+					// Trim whitespace
+					while ((valueStart < valueEnd) && (input.charAt(valueStart) <= ' '))
+					{
+						valueStart++;
+					}
+					while ((valueStart < valueEnd) && (input.charAt(valueEnd - 1) <= ' '))
+					{
+						valueEnd--;
+					}
+					if (valueStart < valueEnd)
+					{
+						value = input.getSubstring(valueStart, valueEnd).toString();
+					}
 				}
+			}
+
+			// Put the attribute in the attributes hash
+			if (null != tag.put(key, value))
+			{
+				throw new ParseException("Same attribute found twice: " + key, input.getPosition());
+			}
 
-				// Trim trailing whitespace
-				value = value.trim();
+			pos = skipWhitespace(pos, end);
+		}
 
-				// Get key
-				final String key = attributeParser.getKey();
+		return tag;
+	}
 
-				// Put the attribute in the attributes hash
-				if (null != tag.put(key, value))
-				{
-					throw new ParseException("Same attribute found twice: " + key, input
-							.getPosition());
-				}
+	/**
+	 * Scans an optional namespace like "wicket:" which must be followed by a name.
+	 * 
+	 * @param start
+	 *            The index of the first char, which must be a valid first char of a name
+	 * @param end
+	 *            The index after the last char which may be scanned
+	 * @return The index of the colon following the namespace or -1 if there is no namespace
+	 */
+	private int scanNamespace(final int start, final int end)
+	{
+		int pos = start + 1;
+		while ((pos < end) && isVariableChar(input.charAt(pos)))
+		{
+			pos++;
+		}
+		if ((pos + 1 < end) && (input.charAt(pos) == ':') && isNameStart(input.charAt(pos + 1)))
+		{
+			return pos;
+		}
+		return -1;
+	}
 
-				// The input has to match exactly (no left over junk after
-				// attributes)
-				if (pos == tagTextLength)
+	/**
+	 * Scans a tag or attribute name without namespace.
+	 * 
+	 * @param start
+	 *            The index of the first char, which must be a valid first char of a name
+	 * @param end
+	 *            The index after the last char which may be scanned
+	 * @return The index after the last char of the name
+	 */
+	private int scanName(final int start, final int end)
+	{
+		int pos = start + 1;
+		while (pos < end)
+		{
+			final char ch = input.charAt(pos);
+			if (!isVariableChar(ch) && (ch != '.') && (ch != '-'))
+			{
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Scans an attribute value which is either a quoted string or a sequence of letters, digits,
+	 * '_', '-' and '.'.
+	 * 
+	 * @param start
+	 *            The index of the first char of the value
+	 * @param end
+	 *            The index after the last char which may be scanned
+	 * @return The index after the last char of the value (including the closing quote) or -1 if
+	 *         there is no valid value
+	 */
+	private int scanValue(final int start, final int end)
+	{
+		if (start == end)
+		{
+			return -1;
+		}
+
+		final char first = input.charAt(start);
+		if ((first == '"') || (first == '\''))
+		{
+			for (int pos = start + 1; pos < end; pos++)
+			{
+				if (input.charAt(pos) == first)
 				{
-					return tag;
+					return pos + 1;
 				}
 			}
+			return -1;
+		}
 
-			return tag;
+		int pos = start;
+		while (pos < end)
+		{
+			final char ch = input.charAt(pos);
+			if (!isVariableChar(ch) && (ch != '.') && (ch != '-'))
+			{
+				break;
+			}
+			pos++;
 		}
+		return (pos > start) ? pos : -1;
+	}
 
-		return null;
+	/**
+	 * @param start
+	 *            The index to start at
+	 * @param end
+	 *            The index after the last char which may be scanned
+	 * @return The index of the first char which is not whitespace, or end
+	 */
+	private int skipWhitespace(int start, final int end)
+	{
+		while (start < end)
+		{
+			switch (input.charAt(start))
+			{
+				case ' ' :
+				case '\t' :
+				case '\n' :
+				case '\u000B' :
+				case '\f' :
+				case '\r' :
+					start++;
+					break;
+
+				default :
+					return start;
+			}
+		}
+		return start;
+	}
+
+	/**
+	 * Gets the interned name in between the indexes provided. Names found before are taken from
+	 * the table of names, so no String has to be created for them.
+	 * 
+	 * @param start
+	 *            The index of the first char of the name
+	 * @param end
+	 *            The index after the last char of the name
+	 * @return The interned name
+	 */
+	private String getName(final int start, final int end)
+	{
+		final int length = end - start;
+		int hash = 0;
+		for (int i = start; i < end; i++)
+		{
+			hash = 31 * hash + input.charAt(i);
+		}
+		hash ^= (hash >>> 16);
+		final int index = hash & (NAMES_SIZE - 1);
+
+		final String name = names[index];
+		if ((name != null) && (name.length() == length))
+		{
+			int i = 0;
+			while ((i < length) && (name.charAt(i) == input.charAt(start + i)))
+			{
+				i++;
+			}
+			if (i == length)
+			{
+				return name;
+			}
+		}
+
+		final String interned = input.getSubstring(start, end).toString().intern();
+		names[index] = interned;
+		return interned;
+	}
+
+	/**
+	 * @param ch
+	 * @return true if the char may be the first char of a name
+	 */
+	private static boolean isNameStart(final char ch)
+	{
+		return ((ch >= 'a') && (ch <= 'z')) || ((ch >= 'A') && (ch <= 'Z')) || (ch == '_');
+	}
+
+	/**
+	 * @param ch
+	 * @return true if the char may be part of a namespace (a letter, a digit or '_')
+	 */
+	private static boolean isVariableChar(final char ch)
+	{
+		return isNameStart(ch) || ((ch >= '0') && (ch <= '9'));
 	}
 }
@@ -112,6 +112,34 @@ public class XmlTag extends MarkupElement
 		super();
 	}
 
+	/**
+	 * Construct a tag with the properties the parser would assign, e.g. when reading markup that
+	 * has been parsed before.
+	 * 
+	 * @param namespace
+	 * @param name
+	 * @param type
+	 * @param pos
+	 * @param length
+	 * @param lineNumber
+	 * @param columnNumber
+	 * @param text
+	 *            full text of the tag
+	 */
+	public XmlTag(final String namespace, final String name, final Type type, final int pos,
+		final int length, final int lineNumber, final int columnNumber, final CharSequence text)
+	{
+		super();
+		this.namespace = namespace;
+		this.name = name;
+		this.type = type;
+		this.pos = pos;
+		this.length = length;
+		this.lineNumber = lineNumber;
+		this.columnNumber = columnNumber;
+		this.text = text;
+	}
+
 	/**
 	 * Gets whether this tag closes the provided open tag.
 	 * 
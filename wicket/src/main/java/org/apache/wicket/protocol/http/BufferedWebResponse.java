@@ -35,6 +35,9 @@ public class BufferedWebResponse extends WebResponse
 	/** Buffer to hold page */
 	private AppendingStringBuffer buffer = new AppendingStringBuffer(4096);
 
+	/** Whether the buffer has already been flushed */
+	private boolean closed;
+
 	/**
 	 * Constructor for testing harness.
 	 */
@@ -55,10 +58,16 @@ public class BufferedWebResponse extends WebResponse
 
 	/**
 	 * Flushes the response buffer by doing a redirect or writing out the buffer. NOTE: The servlet
-	 * container will close the response output stream.
+	 * container will close the response output stream. Subsequent calls do nothing.
 	 */
 	public void close()
 	{
+		if (closed)
+		{
+			return;
+		}
+		closed = true;
+
 		// If a redirection was specified
 		if (redirectURL != null)
 		{
@@ -102,6 +111,16 @@ public class BufferedWebResponse extends WebResponse
 		this.redirectURL = encodeURL(url).toString();
 	}
 
+	/**
+	 * Always returns false, as the response filters work on the buffered chars.
+	 * 
+	 * @see org.apache.wicket.protocol.http.WebResponse#isEncodedWriteSupported()
+	 */
+	public boolean isEncodedWriteSupported()
+	{
+		return false;
+	}
+
 	/**
 	 * Writes string to response output.
 	 * 
@@ -25,8 +25,10 @@ import javax.servlet.http.HttpSession;
 import org.apache.wicket.AccessStackPageMap;
 import org.apache.wicket.Application;
 import org.apache.wicket.IPageMap;
+import org.apache.wicket.Page;
 import org.apache.wicket.Request;
 import org.apache.wicket.Session;
+import org.apache.wicket.util.io.AsyncSerializableChecker;
 
 
 /**
@@ -156,6 +158,18 @@ public class HttpSessionStore extends AbstractHttpSessionStore
 			}
 
 			httpSession.setAttribute(attributeName, value);
+
+			// pages are serialized by the container, so check a sample of them for
+			// non-serializable objects before replication fails
+			if (value instanceof Page)
+			{
+				AsyncSerializableChecker checker = application.getDebugSettings()
+					.getSerializableChecker();
+				if (checker != null)
+				{
+					checker.sample(value);
+				}
+			}
 		}
 	}
 
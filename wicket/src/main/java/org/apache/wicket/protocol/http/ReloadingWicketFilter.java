@@ -23,6 +23,7 @@ import javax.servlet.ServletException;
 
 import org.apache.wicket.Session;
 import org.apache.wicket.application.ReloadingClassLoader;
+import org.apache.wicket.util.io.ClassStreamHandler;
 import org.apache.wicket.util.listener.IChangeListener;
 
 
@@ -152,6 +153,8 @@ public class ReloadingWicketFilter extends WicketFilter
 			{
 				// Remove the ModificationWatcher from the current reloading class loader
 				reloadingClassLoader.destroy();
+				// Drop the serialization metadata of the old classes
+				ClassStreamHandler.unregister(reloadingClassLoader);
 
 				/*
 				 * Create a new classloader, as there is no way to clear a ClassLoader's cache. This
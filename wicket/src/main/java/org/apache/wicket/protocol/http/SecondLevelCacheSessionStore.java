@@ -150,6 +150,27 @@ public class SecondLevelCacheSessionStore extends HttpSessionStore
 
 	};
 
+	/**
+	 * PageStores that can postpone the serialization of pages stored during request until the end
+	 * of the request. The pages are then serialized after the pagemap locks have been released and
+	 * the response has been flushed to the client, which shortens both the time the locks are held
+	 * and the response time. Until the deferred pages are stored, the pagestore must serialize them
+	 * on demand when they are accessed by other request.
+	 */
+	public static interface IDeferredSerializationPageStore extends IPageStore
+	{
+		/**
+		 * @return whether the current request has pages waiting to be serialized
+		 */
+		boolean hasDeferredPages();
+
+		/**
+		 * Serializes and stores the pages whose serialization has been deferred by the current
+		 * request.
+		 */
+		void storeDeferredPages();
+	}
+
 	/**
 	 * Some PageStores might want to preprocess page before serialization. For example if the
 	 * PageStore serializes page, it might keep the serialized page during the request. So when the
@@ -287,14 +308,16 @@ public class SecondLevelCacheSessionStore extends HttpSessionStore
 			}
 
 			String sessionId = getSession().getId();
-			if (getLastPage() != null && getLastPage().getNumericId() == id)
+			Page lastPage = getLastPage();
+			if (lastPage != null && lastPage.getNumericId() == id)
 			{
-				page = versionNumber != -1 ? getLastPage().getVersion(versionNumber)
-					: getLastPage();
+				// ask the page store if it is ready saving the page. This must happen before
+				// getting the version, which can modify the page that might be still waiting for
+				// serialization
+				getStore().pageAccessed(sessionId, lastPage);
+				page = versionNumber != -1 ? lastPage.getVersion(versionNumber) : lastPage;
 				if (page != null)
 				{
-					// ask the page store if it is ready saving the page.
-					getStore().pageAccessed(sessionId, page);
 					pages.put(id, page);
 					return page;
 				}
@@ -695,6 +718,39 @@ public class SecondLevelCacheSessionStore extends HttpSessionStore
 	public void onEndRequest(Request request)
 	{
 		super.onEndRequest(request);
+
+		IPageStore store = getStore();
+		if (store instanceof IDeferredSerializationPageStore &&
+			((IDeferredSerializationPageStore)store).hasDeferredPages())
+		{
+			// let the client have the response before spending time with serialization
+			flushResponse();
+			((IDeferredSerializationPageStore)store).storeDeferredPages();
+		}
+	}
+
+	/**
+	 * Writes the response of current request to the client.
+	 */
+	private void flushResponse()
+	{
+		RequestCycle requestCycle = RequestCycle.get();
+		if (requestCycle != null && requestCycle.getResponse() instanceof WebResponse)
+		{
+			WebResponse response = (WebResponse)requestCycle.getResponse();
+			response.close();
+			if (response.getHttpServletResponse() != null)
+			{
+				try
+				{
+					response.getHttpServletResponse().flushBuffer();
+				}
+				catch (IOException e)
+				{
+					log.debug("Error flushing the response", e);
+				}
+			}
+		}
 	}
 
 	/**
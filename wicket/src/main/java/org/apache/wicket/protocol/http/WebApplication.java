@@ -50,6 +50,7 @@ import org.apache.wicket.util.file.IResourceFinder;
 import org.apache.wicket.util.file.WebApplicationPath;
 import org.apache.wicket.util.lang.Generics;
 import org.apache.wicket.util.lang.PackageName;
+import org.apache.wicket.util.string.Strings;
 import org.apache.wicket.util.watch.ModificationWatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -513,7 +514,8 @@ public abstract class WebApplication extends Application
 	 * the parameter is "development" (which is default), settings appropriate for development are
 	 * set. If it's "deployment" , deployment settings are used. If development is specified and a
 	 * "sourceFolder" init parameter is also set, then resources in that folder will be polled for
-	 * changes.
+	 * changes. The packages of the comma separated "warmupPackages" init parameter are registered
+	 * for the warm-up of the caches at application start.
 	 */
 	@Override
 	protected void internalInit()
@@ -538,6 +540,20 @@ public abstract class WebApplication extends Application
 			getResourceSettings().addResourceFolder(resourceFolder);
 		}
 
+		// Add optional packages to warm up at application start, comma separated
+		String warmupPackages = getInitParameter("warmupPackages");
+		if (warmupPackages != null)
+		{
+			for (String packageName : Strings.split(warmupPackages, ','))
+			{
+				packageName = packageName.trim();
+				if (packageName.length() > 0)
+				{
+					getApplicationSettings().addWarmupPackage(packageName);
+				}
+			}
+		}
+
 		// Configure the app.
 		configure();
 	}
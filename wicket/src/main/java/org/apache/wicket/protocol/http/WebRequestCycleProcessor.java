@@ -34,6 +34,8 @@ import org.apache.wicket.request.AbstractRequestCycleProcessor;
 import org.apache.wicket.request.IRequestCodingStrategy;
 import org.apache.wicket.request.RequestParameters;
 import org.apache.wicket.request.target.basic.EmptyAjaxRequestTarget;
+import org.apache.wicket.session.ISessionLockStrategy;
+import org.apache.wicket.session.ISessionLockStrategy.ILock;
 import org.apache.wicket.util.string.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,62 +78,27 @@ public class WebRequestCycleProcessor extends AbstractRequestCycleProcessor
 		else if (requestParameters.getComponentPath() != null)
 		{
 			// marks whether or not we will be processing this request
-			boolean processRequest = true;
-			synchronized (requestCycle.getSession())
+			boolean processRequest;
+			Session session = requestCycle.getSession();
+			ISessionLockStrategy lockStrategy = requestCycle.getApplication()
+				.getRequestCycleSettings()
+				.getSessionLockStrategy();
+			if (lockStrategy == null)
 			{
-				// we need to check if this request has been flagged as
-				// process-only-if-path-is-active and if so make sure this
-				// condition is met
-				if (requestParameters.isOnlyProcessIfPathActive())
+				synchronized (session)
 				{
-					// this request has indeed been flagged as
-					// process-only-if-path-is-active
-
-					Session session = Session.get();
-					IPageMap pageMap = session.pageMapForName(requestParameters.getPageMapName(),
-						false);
-					if (pageMap == null)
-					{
-						// requested pagemap no longer exists - ignore this
-						// request
-						processRequest = false;
-					}
-					else if (pageMap instanceof AccessStackPageMap)
-					{
-						AccessStackPageMap accessStackPageMap = (AccessStackPageMap)pageMap;
-						if (accessStackPageMap.getAccessStack().size() > 0)
-						{
-							final Access access = (Access)accessStackPageMap.getAccessStack()
-								.peek();
-
-							final int pageId = Integer.parseInt(Strings.firstPathComponent(
-								requestParameters.getComponentPath(), Component.PATH_SEPARATOR));
-
-							if (pageId != access.getId())
-							{
-								// the page is no longer the active page
-								// - ignore this request
-								processRequest = false;
-							}
-							else
-							{
-								final int version = requestParameters.getVersionNumber();
-								if (version != Page.LATEST_VERSION &&
-									version != access.getVersion())
-								{
-									// version is no longer the active version -
-									// ignore this request
-									processRequest = false;
-								}
-							}
-						}
-					}
-					else
-					{
-						// TODO also this should work..
-					}
+					processRequest = isPathActive(session, requestParameters);
 				}
 			}
+			else
+			{
+				// the page is locked until the request cycle is detached, so that other requests
+				// to the page wait until the response has been rendered
+				ILock lock = lockStrategy.lockPage(session, requestParameters.getPageMapName(),
+					getPageId(requestParameters));
+				requestCycle.setPageLock(lock);
+				processRequest = isPathActive(session, requestParameters);
+			}
 			if (processRequest)
 			{
 				try
@@ -222,6 +189,83 @@ public class WebRequestCycleProcessor extends AbstractRequestCycleProcessor
 		return target;
 	}
 
+	/**
+	 * Checks whether the request flagged as process-only-if-path-active points to the active page
+	 * of its pagemap. Must be called while holding the session (or page) lock.
+	 * 
+	 * @param session
+	 * @param requestParameters
+	 * @return <code>false</code> if the request should be ignored
+	 */
+	private boolean isPathActive(Session session, RequestParameters requestParameters)
+	{
+		// we need to check if this request has been flagged as
+		// process-only-if-path-is-active and if so make sure this
+		// condition is met
+		if (requestParameters.isOnlyProcessIfPathActive())
+		{
+			// this request has indeed been flagged as
+			// process-only-if-path-is-active
+
+			IPageMap pageMap = session.pageMapForName(requestParameters.getPageMapName(), false);
+			if (pageMap == null)
+			{
+				// requested pagemap no longer exists - ignore this
+				// request
+				return false;
+			}
+			else if (pageMap instanceof AccessStackPageMap)
+			{
+				AccessStackPageMap accessStackPageMap = (AccessStackPageMap)pageMap;
+				if (accessStackPageMap.getAccessStack().size() > 0)
+				{
+					final Access access = (Access)accessStackPageMap.getAccessStack().peek();
+
+					final int pageId = Integer.parseInt(Strings.firstPathComponent(
+						requestParameters.getComponentPath(), Component.PATH_SEPARATOR));
+
+					if (pageId != access.getId())
+					{
+						// the page is no longer the active page
+						// - ignore this request
+						return false;
+					}
+					else
+					{
+						final int version = requestParameters.getVersionNumber();
+						if (version != Page.LATEST_VERSION && version != access.getVersion())
+						{
+							// version is no longer the active version -
+							// ignore this request
+							return false;
+						}
+					}
+				}
+			}
+			else
+			{
+				// TODO also this should work..
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param requestParameters
+	 * @return id of the page the component path points to or -1
+	 */
+	private int getPageId(RequestParameters requestParameters)
+	{
+		try
+		{
+			return Integer.parseInt(Strings.firstPathComponent(
+				requestParameters.getComponentPath(), Component.PATH_SEPARATOR));
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
 	/**
 	 * @see org.apache.wicket.request.AbstractRequestCycleProcessor#newRequestCodingStrategy()
 	 */
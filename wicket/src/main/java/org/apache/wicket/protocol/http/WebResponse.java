@@ -18,11 +18,19 @@ package org.apache.wicket.protocol.http;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.Locale;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.wicket.Application;
 import org.apache.wicket.Response;
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.util.string.AppendingStringBuffer;
@@ -55,6 +63,21 @@ public class WebResponse extends Response
 	/** Is the request an ajax request? */
 	private boolean ajax;
 
+	/**
+	 * Whether all text is encoded and written to the output stream instead of the writer,
+	 * determined on first use.
+	 */
+	private Boolean encodedWrite;
+
+	/** Encoder of the text written to the output stream, reused for all writes */
+	private CharsetEncoder encoder;
+
+	/** The character encoding the encoder has been created for */
+	private String encoderEncoding;
+
+	/** Buffer the encoder writes to, reused for all writes */
+	private ByteBuffer encoderBuffer;
+
 	/**
 	 * Constructor for testing harness.
 	 */
@@ -174,6 +197,25 @@ public class WebResponse extends Response
 		}
 	}
 
+	/**
+	 * Returns true if raw markup should be written as pre-encoded bytes (see
+	 * {@link org.apache.wicket.settings.IRequestCycleSettings#setWriteEncodedRawMarkup(boolean)}).
+	 * As the servlet writer and output stream can not be used both, all text is encoded and
+	 * written to the output stream then. Subclasses which collect the written text instead of
+	 * writing it to the servlet response must return false.
+	 * 
+	 * @see org.apache.wicket.Response#isEncodedWriteSupported()
+	 */
+	public boolean isEncodedWriteSupported()
+	{
+		if (encodedWrite == null)
+		{
+			encodedWrite = Boolean.valueOf((httpServletResponse != null) && Application.exists() &&
+					Application.get().getRequestCycleSettings().getWriteEncodedRawMarkup());
+		}
+		return encodedWrite.booleanValue();
+	}
+
 	/**
 	 * Whether this response is going to redirect the user agent.
 	 * 
@@ -225,7 +267,14 @@ public class WebResponse extends Response
 
 						// safari chokes on empty response. but perhaps this is
 						// not the best place?
-						httpServletResponse.getWriter().write(" ");
+						if (isEncodedWriteSupported())
+						{
+							encodeAndWrite(CharBuffer.wrap(" "));
+						}
+						else
+						{
+							httpServletResponse.getWriter().write(" ");
+						}
 					}
 					else
 					{
@@ -311,7 +360,18 @@ public class WebResponse extends Response
 	 */
 	public void write(final CharSequence string)
 	{
-		if (string instanceof AppendingStringBuffer)
+		if (isEncodedWriteSupported())
+		{
+			if (string instanceof AppendingStringBuffer)
+			{
+				write((AppendingStringBuffer)string);
+			}
+			else
+			{
+				encodeAndWrite(CharBuffer.wrap(string));
+			}
+		}
+		else if (string instanceof AppendingStringBuffer)
 		{
 			write((AppendingStringBuffer)string);
 		}
@@ -350,6 +410,12 @@ public class WebResponse extends Response
 	 */
 	public void write(AppendingStringBuffer asb)
 	{
+		if (isEncodedWriteSupported())
+		{
+			encodeAndWrite(CharBuffer.wrap(asb.getValue(), 0, asb.length()));
+			return;
+		}
+
 		try
 		{
 			httpServletResponse.getWriter().write(asb.getValue(), 0, asb.length());
@@ -360,6 +426,95 @@ public class WebResponse extends Response
 		}
 	}
 
+	/**
+	 * @see org.apache.wicket.Response#writeEncoded(byte[])
+	 */
+	public void writeEncoded(final byte[] bytes)
+	{
+		try
+		{
+			httpServletResponse.getOutputStream().write(bytes);
+		}
+		catch (IOException e)
+		{
+			throw new WicketRuntimeException("Error while writing to servlet output stream.", e);
+		}
+	}
+
+	/**
+	 * Encodes the text in the character encoding of this response and writes it to the output
+	 * stream. The encoder and its buffer are reused, so no strings or byte arrays are created for
+	 * the text. Like {@link String#getBytes(String)}, characters that can't be encoded are
+	 * replaced.
+	 * 
+	 * @param text
+	 *            The text to write
+	 */
+	private void encodeAndWrite(final CharBuffer text)
+	{
+		final CharsetEncoder encoder = getEncoder();
+		try
+		{
+			final OutputStream out = httpServletResponse.getOutputStream();
+			encoder.reset();
+			CoderResult result;
+			do
+			{
+				result = encoder.encode(text, encoderBuffer, true);
+				if (!result.isUnderflow() && !result.isOverflow())
+				{
+					result.throwException();
+				}
+				out.write(encoderBuffer.array(), 0, encoderBuffer.position());
+				encoderBuffer.clear();
+			}
+			while (result.isOverflow());
+			do
+			{
+				result = encoder.flush(encoderBuffer);
+				out.write(encoderBuffer.array(), 0, encoderBuffer.position());
+				encoderBuffer.clear();
+			}
+			while (result.isOverflow());
+		}
+		catch (CharacterCodingException e)
+		{
+			throw new WicketRuntimeException("Error while encoding response text.", e);
+		}
+		catch (IOException e)
+		{
+			throw new WicketRuntimeException("Error while writing to servlet output stream.", e);
+		}
+	}
+
+	/**
+	 * @return The encoder for the character encoding of this response
+	 */
+	private CharsetEncoder getEncoder()
+	{
+		final String encoding = getCharacterEncoding();
+		if ((encoder == null) || !encoding.equals(encoderEncoding))
+		{
+			try
+			{
+				encoder = Charset.forName(encoding)
+						.newEncoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new WicketRuntimeException("Unsupported response encoding: " + encoding, e);
+			}
+			encoderEncoding = encoding;
+			if (encoderBuffer == null)
+			{
+				encoderBuffer = ByteBuffer.allocate(4096);
+			}
+		}
+		return encoder;
+	}
+
 	/**
 	 * Set a header to the date value in the servlet response stream.
 	 * 
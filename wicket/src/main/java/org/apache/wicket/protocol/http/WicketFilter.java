@@ -628,6 +628,9 @@ public class WicketFilter implements Filter
 			// component.
 			webApplication.initializeComponents();
 
+			// Preload the caches of the registered packages before the first request
+			webApplication.warmUp();
+
 			// Give the application the option to log that it is started
 			webApplication.logStarted();
 
@@ -24,12 +24,19 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.wicket.Application;
 import org.apache.wicket.Page;
+import org.apache.wicket.PageDehydrator;
 import org.apache.wicket.Session;
+import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.protocol.http.SecondLevelCacheSessionStore;
 import org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore;
 import org.apache.wicket.session.pagemap.IPageMapEntry;
+import org.apache.wicket.settings.IDebugSettings;
 import org.apache.wicket.util.collections.IntHashMap;
+import org.apache.wicket.util.io.AsyncSerializableChecker;
+import org.apache.wicket.util.io.SerializedSizeProfiler;
+import org.apache.wicket.util.lang.Bytes;
 import org.apache.wicket.util.lang.Objects;
 
 /**
@@ -40,6 +47,174 @@ import org.apache.wicket.util.lang.Objects;
  */
 public abstract class AbstractPageStore implements IPageStore
 {
+	// first byte of page data when a codec is set
+	private static final byte DATA_RAW = 0;
+	private static final byte DATA_COMPRESSED = 1;
+
+	private volatile IPageDataCodec pageDataCodec;
+
+	private volatile int compressionThreshold = (int)Bytes.kilobytes(1).bytes();
+
+	private volatile int dehydratedSubtreeSize = 0;
+
+	/**
+	 * Sets the codec used to compress serialized page data. The data is stored compressed and
+	 * kept compressed in the second level cache; it is only decompressed when the page is
+	 * deserialized.
+	 * <p>
+	 * The codec should be set before the store is used, as the data is not readable by store
+	 * with different codec settings.
+	 * 
+	 * @param pageDataCodec
+	 *            codec or <code>null</code> to store the data uncompressed
+	 */
+	public void setPageDataCodec(IPageDataCodec pageDataCodec)
+	{
+		this.pageDataCodec = pageDataCodec;
+	}
+
+	/**
+	 * @return codec used to compress page data or <code>null</code>
+	 */
+	public IPageDataCodec getPageDataCodec()
+	{
+		return pageDataCodec;
+	}
+
+	/**
+	 * Sets the minimal size of serialized page data to be compressed. Compressing small pages
+	 * usually doesn't pay off.
+	 * 
+	 * @param compressionThreshold
+	 */
+	public void setCompressionThreshold(Bytes compressionThreshold)
+	{
+		this.compressionThreshold = (int)compressionThreshold.bytes();
+	}
+
+	/**
+	 * @return minimal size of page data to be compressed
+	 */
+	public Bytes getCompressionThreshold()
+	{
+		return Bytes.bytes(compressionThreshold);
+	}
+
+	/**
+	 * Sets the minimal number of components in a subtree that is serialized separately from the
+	 * rest of the page. Such subtrees are only deserialized when they are accessed, which makes
+	 * listener requests on big pages (e.g. a link in one row of a big table) cheaper at the
+	 * price of more work when the page is stored.
+	 * <p>
+	 * The subtrees are split off the live page while it is serialized, so only pages serialized
+	 * by the request that owns them are dehydrated (see {@link #serializePage(Page, boolean)}).
+	 * Page stores don't defer the serialization of pages while this is enabled, and pages
+	 * serialized for session replication are stored as whole.
+	 * 
+	 * @see PageDehydrator
+	 * 
+	 * @param dehydratedSubtreeSize
+	 *            minimal number of components or <code>0</code> to serialize pages as whole
+	 */
+	public void setDehydratedSubtreeSize(int dehydratedSubtreeSize)
+	{
+		this.dehydratedSubtreeSize = dehydratedSubtreeSize;
+	}
+
+	/**
+	 * @return minimal number of components in separately serialized subtree or <code>0</code>
+	 */
+	public int getDehydratedSubtreeSize()
+	{
+		return dehydratedSubtreeSize;
+	}
+
+	/**
+	 * Compresses the page data if there is a codec set.
+	 * 
+	 * @param data
+	 * @return data for storing
+	 */
+	protected byte[] encodePageData(byte[] data)
+	{
+		IPageDataCodec codec = pageDataCodec;
+		if (codec == null || data == null)
+		{
+			return data;
+		}
+
+		byte[] compressed = data.length >= compressionThreshold ? codec.compress(data) : null;
+
+		byte[] result;
+		if (compressed != null)
+		{
+			result = new byte[compressed.length + 5];
+			result[0] = DATA_COMPRESSED;
+			result[1] = (byte)(data.length >>> 24);
+			result[2] = (byte)(data.length >>> 16);
+			result[3] = (byte)(data.length >>> 8);
+			result[4] = (byte)data.length;
+			System.arraycopy(compressed, 0, result, 5, compressed.length);
+		}
+		else
+		{
+			result = encodeRawPageData(data);
+		}
+		return result;
+	}
+
+	/**
+	 * Encodes the page data without compressing it.
+	 * 
+	 * @param data
+	 * @return data for storing
+	 */
+	protected byte[] encodeRawPageData(byte[] data)
+	{
+		if (pageDataCodec == null || data == null)
+		{
+			return data;
+		}
+
+		byte[] result = new byte[data.length + 1];
+		result[0] = DATA_RAW;
+		System.arraycopy(data, 0, result, 1, data.length);
+		return result;
+	}
+
+	/**
+	 * Reverts {@link #encodePageData(byte[])}.
+	 * 
+	 * @param data
+	 * @return serialized page data
+	 */
+	protected byte[] decodePageData(byte[] data)
+	{
+		IPageDataCodec codec = pageDataCodec;
+		if (codec == null || data == null)
+		{
+			return data;
+		}
+
+		byte[] result;
+		if (data[0] == DATA_COMPRESSED)
+		{
+			int length = ((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16) |
+				((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+			result = new byte[length];
+			codec.decompress(data, 5, data.length - 5, result);
+		}
+		else if (data[0] == DATA_RAW)
+		{
+			result = new byte[data.length - 1];
+			System.arraycopy(data, 1, result, 0, result.length);
+		}
+		else
+		{
+			throw new WicketRuntimeException("Unknown page data format " + data[0]);
+		}
+		return result;
+	}
 
 	/**
 	 * Immutable class that contains a serialized page instance.
@@ -177,6 +352,25 @@ public abstract class AbstractPageStore implements IPageStore
 	 * @return list of {@link SerializedPage}s
 	 */
 	protected List<SerializedPage> serializePage(Page page)
+	{
+		return serializePage(page, true);
+	}
+
+	/**
+	 * Creates a list of {@link SerializedPage} instances obtained from serializing the provided
+	 * page.
+	 * 
+	 * @see #serializePage(Page)
+	 * 
+	 * @param page
+	 *            page to be serialized
+	 * @param dehydrate
+	 *            whether the page may be {@link #setDehydratedSubtreeSize(int) dehydrated}. This
+	 *            changes the page temporarily, so it must be <code>false</code> unless the
+	 *            calling thread is the request that owns the page
+	 * @return list of {@link SerializedPage}s
+	 */
+	protected List<SerializedPage> serializePage(Page page, boolean dehydrate)
 	{
 		final List<SerializedPage> result = new ArrayList<SerializedPage>();
 
@@ -194,15 +388,48 @@ public abstract class AbstractPageStore implements IPageStore
 
 		Page.serializer.set(serializer);
 
+		PageDehydrator dehydrator = null;
 		try
 		{
+			if (dehydrate && dehydratedSubtreeSize > 0)
+			{
+				dehydrator = new PageDehydrator(dehydratedSubtreeSize);
+				dehydrator.dehydrate(page);
+			}
 			initialPage.setData(Objects.objectToByteArray(page.getPageMapEntry()));
 		}
 		finally
 		{
+			if (dehydrator != null)
+			{
+				dehydrator.restore();
+			}
 			Page.serializer.set(null);
 		}
 
+		for (int i = 0; i < result.size(); ++i)
+		{
+			SerializedPage serialized = result.get(i);
+			serialized.setData(encodePageData(serialized.getData()));
+		}
+
+		if (Application.exists())
+		{
+			IDebugSettings debugSettings = Application.get().getDebugSettings();
+			SerializedSizeProfiler profiler = debugSettings.getSerializedSizeProfiler();
+			if (profiler != null)
+			{
+				profiler.sample(page);
+			}
+
+			// pages that failed to serialize have already been reported
+			AsyncSerializableChecker checker = debugSettings.getSerializableChecker();
+			if (checker != null && initialPage.getData() != null)
+			{
+				checker.sample(page);
+			}
+		}
+
 		return result;
 	}
 
@@ -211,13 +438,30 @@ public abstract class AbstractPageStore implements IPageStore
 	 * page.
 	 * 
 	 * @param data
-	 *            Serialized page instance data as byte array
+	 *            Serialized page instance data as byte array, possibly compressed by the page
+	 *            data codec
 	 * @param versionNumber
 	 *            Requested page version or -1 if original version (the one serialized) should be
 	 *            kept
 	 * @return page instance
 	 */
 	protected Page deserializePage(byte[] data, int versionNumber)
+	{
+		return deserializeDecodedPage(decodePageData(data), versionNumber);
+	}
+
+	/**
+	 * Creates a page instance from given byte array that has already been decoded by
+	 * {@link #decodePageData(byte[])}.
+	 * 
+	 * @param data
+	 *            Serialized page instance data as byte array
+	 * @param versionNumber
+	 *            Requested page version or -1 if original version (the one serialized) should be
+	 *            kept
+	 * @return page instance
+	 */
+	protected Page deserializeDecodedPage(byte[] data, int versionNumber)
 	{
 		boolean set = Page.serializer.get() == null;
 		Page page = null;
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.wicket.WicketRuntimeException;
+
+/**
+ * {@link IPageDataCodec} using the deflate algorithm from <code>java.util.zip</code>.
+ */
+public class DeflatePageDataCodec implements IPageDataCodec
+{
+	private final int level;
+
+	/**
+	 * Construct with {@link Deflater#BEST_SPEED} compression level.
+	 */
+	public DeflatePageDataCodec()
+	{
+		this(Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * Construct.
+	 * 
+	 * @param level
+	 *            compression level from {@link Deflater#BEST_SPEED} to
+	 *            {@link Deflater#BEST_COMPRESSION}
+	 */
+	public DeflatePageDataCodec(int level)
+	{
+		if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) &&
+			level != Deflater.DEFAULT_COMPRESSION)
+		{
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		}
+		this.level = level;
+	}
+
+	/**
+	 * @return compression level
+	 */
+	public int getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.IPageDataCodec#compress(byte[])
+	 */
+	public byte[] compress(byte[] data)
+	{
+		Deflater deflater = new Deflater(level, true);
+		try
+		{
+			deflater.setInput(data);
+			deflater.finish();
+
+			// output that isn't smaller than the input is useless
+			byte[] target = new byte[data.length];
+			int pos = 0;
+			while (!deflater.finished() && pos < target.length)
+			{
+				pos += deflater.deflate(target, pos, target.length - pos);
+			}
+			if (!deflater.finished())
+			{
+				return null;
+			}
+
+			byte[] result = new byte[pos];
+			System.arraycopy(target, 0, result, 0, pos);
+			return result;
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.IPageDataCodec#decompress(byte[], int, int,
+	 *      byte[])
+	 */
+	public void decompress(byte[] source, int offset, int length, byte[] target)
+	{
+		// nowrap inflater needs an extra dummy byte at the end of input
+		byte[] input = new byte[length + 1];
+		System.arraycopy(source, offset, input, 0, length);
+
+		Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setInput(input);
+			int pos = 0;
+			while (pos < target.length && !inflater.finished())
+			{
+				int count = inflater.inflate(target, pos, target.length - pos);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					break;
+				}
+				pos += count;
+			}
+			if (pos != target.length)
+			{
+				throw new WicketRuntimeException("Corrupted page data, expected " +
+					target.length + " bytes, got " + pos);
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new WicketRuntimeException("Corrupted page data", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+}
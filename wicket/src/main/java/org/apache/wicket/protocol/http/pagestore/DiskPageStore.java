@@ -22,6 +22,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
@@ -31,15 +32,23 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
 
 import org.apache.wicket.Application;
 import org.apache.wicket.Page;
+import org.apache.wicket.RequestCycle;
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.protocol.http.WebApplication;
+import org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IDeferredSerializationPageStore;
 import org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore;
 import org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.ISerializationAwarePageStore;
 import org.apache.wicket.protocol.http.pagestore.PageWindowManager.PageWindow;
@@ -60,7 +69,10 @@ import org.slf4j.LoggerFactory;
  * 
  * @author Matej Knopp
  */
-public class DiskPageStore extends AbstractPageStore implements ISerializationAwarePageStore
+public class DiskPageStore extends AbstractPageStore
+	implements
+		ISerializationAwarePageStore,
+		IDeferredSerializationPageStore
 {
 	/**
 	 * Each PageMap is represented by this class.
@@ -75,6 +87,12 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		private String fileName;
 		private PageWindowManager manager;
 
+		// last stored version of recently stored pages, used as base for delta records
+		private transient LinkedHashMap<Integer, DeltaBase> deltaBases;
+
+		// number of bytes written to the file, used to decide when a delta chain gets too old
+		private transient long writtenBytes;
+
 		/**
 		 * @return the name of pagemap
 		 */
@@ -98,6 +116,81 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		{
 			return manager;
 		}
+
+		private LinkedHashMap<Integer, DeltaBase> getDeltaBases()
+		{
+			if (deltaBases == null)
+			{
+				deltaBases = new LinkedHashMap<Integer, DeltaBase>(16, 0.75f, true);
+			}
+			return deltaBases;
+		}
+	}
+
+	// number of pages per pagemap for which the last stored version is remembered
+	private static final int MAX_DELTA_BASES = 8;
+
+	// first byte of records in delta storage mode
+	private static final byte RECORD_FULL = 0;
+	private static final byte RECORD_DELTA = 1;
+
+	// record type, base version, base ajax version and base checksum
+	private static final int DELTA_HEADER_SIZE = 13;
+
+	private static final byte[] FULL_RECORD_HEADER = new byte[] { RECORD_FULL };
+
+	/**
+	 * Last stored version of page in delta storage mode. The decoded data is only kept while the
+	 * base is in the delta base cache, otherwise it is loaded from the pagemap file.
+	 */
+	private static final class DeltaBase
+	{
+		private final int versionNumber;
+		private final int ajaxVersionNumber;
+
+		// decoded page data, cleared when evicted from the delta base cache
+		private volatile byte[] data;
+		private final int size;
+		private final int checksum;
+
+		// number of delta records since the last full record
+		private final int chainLength;
+
+		// PageMapEntry#writtenBytes when the last full record was written
+		private final long chainStart;
+
+		private DeltaBase(int versionNumber, int ajaxVersionNumber, byte[] data,
+			int chainLength, long chainStart)
+		{
+			this.versionNumber = versionNumber;
+			this.ajaxVersionNumber = ajaxVersionNumber;
+			this.data = data;
+			size = data.length;
+			checksum = checksum(data);
+			this.chainLength = chainLength;
+			this.chainStart = chainStart;
+		}
+	}
+
+	private static int checksum(byte[] data)
+	{
+		Adler32 adler = new Adler32();
+		adler.update(data);
+		return (int)adler.getValue();
+	}
+
+	private static void writeInt(byte[] data, int offset, int value)
+	{
+		data[offset] = (byte)(value >>> 24);
+		data[offset + 1] = (byte)(value >>> 16);
+		data[offset + 2] = (byte)(value >>> 8);
+		data[offset + 3] = (byte)value;
+	}
+
+	private static int readInt(byte[] data, int offset)
+	{
+		return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) |
+			((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
 	}
 
 	/**
@@ -192,6 +285,14 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		{
 			diskPageStore.fileChannelPool.closeAndDeleteFileChannel(entry.fileName);
 			pageMapEntryList.remove(entry);
+			if (entry.deltaBases != null)
+			{
+				for (Iterator<DeltaBase> i = entry.deltaBases.values().iterator(); i.hasNext();)
+				{
+					diskPageStore.releaseDeltaBase(i.next());
+				}
+				entry.deltaBases = null;
+			}
 		}
 
 		/**
@@ -220,9 +321,22 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 			{
 				PageMapEntry entry = getPageMapEntry(page.getPageMapName(), true);
 
+				// in delta mode the record header is written separately so that the (possibly
+				// large) page data doesn't have to be copied into the record
+				byte[] header = null;
+				byte[] data = page.getData();
+				if (diskPageStore.isDeltaStorage())
+				{
+					byte[][] record = createRecord(entry, page);
+					header = record[0];
+					data = record[1];
+				}
+				int headerLength = header != null ? header.length : 0;
+
 				// allocate window for page
 				PageWindow window = entry.manager.createPageWindow(page.getPageId(),
-					page.getVersionNumber(), page.getAjaxVersionNumber(), page.getData().length);
+					page.getVersionNumber(), page.getAjaxVersionNumber(), headerLength +
+						data.length);
 
 				// remove the entry and add it to the end of entry list (to mark
 				// it as last accessed(
@@ -243,7 +357,11 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 				try
 				{
 					// write the content
-					channel.write(ByteBuffer.wrap(page.getData()), window.getFilePartOffset());
+					if (header != null)
+					{
+						channel.write(ByteBuffer.wrap(header), window.getFilePartOffset());
+					}
+					channel.write(ByteBuffer.wrap(data), window.getFilePartOffset() + headerLength);
 				}
 				catch (IOException e)
 				{
@@ -269,9 +387,160 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 			if (entry != null)
 			{
 				entry.manager.removePage(pageId);
+				diskPageStore.releaseDeltaBase(entry.getDeltaBases().remove(pageId));
 			}
 		}
 
+		/**
+		 * Creates the record for page in delta storage mode. The record is either the page data
+		 * prefixed by {@link DiskPageStore#RECORD_FULL} or a delta against the last stored version
+		 * of the page.
+		 * 
+		 * @param entry
+		 * @param page
+		 * @return record header and record body
+		 */
+		private byte[][] createRecord(PageMapEntry entry, SerializedPage page)
+		{
+			byte[] data = diskPageStore.decodePageData(page.getData());
+			DeltaBase base = entry.getDeltaBases().get(page.getPageId());
+
+			byte[] header = null;
+			byte[] body = null;
+			DeltaBase newBase = null;
+
+			// rebase after given number of deltas and before the file wraps around the full
+			// record the chain starts with. Storing the same version again would overwrite the
+			// base, so it's stored as full record as well
+			if (base != null && base.chainLength < diskPageStore.getDeltaRebaseInterval() &&
+				(base.versionNumber != page.getVersionNumber() ||
+					base.ajaxVersionNumber != page.getAjaxVersionNumber()) &&
+				entry.writtenBytes - base.chainStart < diskPageStore.getMaxSizePerPageMap() / 2)
+			{
+				byte[] baseData = getDeltaBaseData(entry, page.getPageId(), base);
+				byte[] delta = baseData != null ? PageDataDelta.create(baseData, data) : null;
+				if (delta != null && delta.length < data.length / 2)
+				{
+					header = new byte[DELTA_HEADER_SIZE];
+					header[0] = RECORD_DELTA;
+					writeInt(header, 1, base.versionNumber);
+					writeInt(header, 5, base.ajaxVersionNumber);
+					writeInt(header, 9, base.checksum);
+					body = diskPageStore.encodePageData(delta);
+					newBase = new DeltaBase(page.getVersionNumber(), page.getAjaxVersionNumber(),
+						data, base.chainLength + 1, base.chainStart);
+				}
+			}
+
+			if (header == null)
+			{
+				header = FULL_RECORD_HEADER;
+				body = page.getData();
+				newBase = new DeltaBase(page.getVersionNumber(), page.getAjaxVersionNumber(), data,
+					0, entry.writtenBytes);
+			}
+
+			entry.writtenBytes += header.length + body.length;
+
+			LinkedHashMap<Integer, DeltaBase> bases = entry.getDeltaBases();
+			diskPageStore.releaseDeltaBase(bases.put(page.getPageId(), newBase));
+			diskPageStore.cacheDeltaBase(newBase);
+			if (bases.size() > MAX_DELTA_BASES)
+			{
+				Iterator<DeltaBase> eldest = bases.values().iterator();
+				diskPageStore.releaseDeltaBase(eldest.next());
+				eldest.remove();
+			}
+
+			return new byte[][] { header, body };
+		}
+
+		/**
+		 * Returns the decoded data of delta base. If the data has been evicted from the delta base
+		 * cache, it is loaded from the pagemap file.
+		 * 
+		 * @param entry
+		 * @param pageId
+		 * @param base
+		 * @return decoded data or <code>null</code> if the base version is no longer stored
+		 */
+		private byte[] getDeltaBaseData(PageMapEntry entry, int pageId, DeltaBase base)
+		{
+			PageWindow window = entry.manager.getPageWindow(pageId, base.versionNumber,
+				base.ajaxVersionNumber);
+			if (window == null)
+			{
+				// overwritten or removed
+				return null;
+			}
+
+			byte[] data = base.data;
+			if (data != null)
+			{
+				diskPageStore.touchDeltaBase(base);
+			}
+			else
+			{
+				data = loadRecord(entry, pageId, window, 0);
+				if (data == null || checksum(data) != base.checksum)
+				{
+					return null;
+				}
+			}
+			return data;
+		}
+
+		/**
+		 * Loads the record in delta storage mode and returns the decoded page data.
+		 * 
+		 * @param entry
+		 * @param pageId
+		 * @param window
+		 * @param depth
+		 *            number of records already followed in the delta chain
+		 * @return decoded page data or <code>null</code> if the record or one of its bases is no
+		 *         longer available
+		 */
+		private byte[] loadRecord(PageMapEntry entry, int pageId, PageWindow window, int depth)
+		{
+			// read the header first, the body is then read straight into its own array
+			byte[] record = loadPage(entry.fileName, window.getFilePartOffset(), Math.min(
+				DELTA_HEADER_SIZE, window.getFilePartSize()));
+			if (record == null || record.length == 0)
+			{
+				return null;
+			}
+
+			if (record[0] == RECORD_FULL)
+			{
+				byte[] data = loadPage(entry.fileName, window.getFilePartOffset() + 1,
+					window.getFilePartSize() - 1);
+				return data != null ? diskPageStore.decodePageData(data) : null;
+			}
+
+			// the chain is never longer than the rebase interval, longer chain means the base
+			// version has been overwritten in the meanwhile
+			if (depth > diskPageStore.getDeltaRebaseInterval())
+			{
+				return null;
+			}
+
+			PageWindow baseWindow = entry.manager.getPageWindow(pageId, readInt(record, 1),
+				readInt(record, 5));
+			byte[] base = baseWindow != null ? loadRecord(entry, pageId, baseWindow, depth + 1)
+				: null;
+			if (base == null || checksum(base) != readInt(record, 9))
+			{
+				log.debug("Base of delta record of page " + pageId + " is no longer available");
+				return null;
+			}
+
+			byte[] delta = loadPage(entry.fileName, window.getFilePartOffset() + DELTA_HEADER_SIZE,
+				window.getFilePartSize() - DELTA_HEADER_SIZE);
+			return delta != null ? PageDataDelta.apply(base, diskPageStore.decodePageData(delta),
+				0) : null;
+		}
+
 		/**
 		 * Loads the part of pagemap file specified by the given PageWindow.
 		 * 
@@ -280,16 +549,29 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		 * @return serialized page data
 		 */
 		public byte[] loadPage(PageWindow window, String pageMapFileName)
+		{
+			return loadPage(pageMapFileName, window.getFilePartOffset(), window.getFilePartSize());
+		}
+
+		/**
+		 * Loads the given part of pagemap file.
+		 * 
+		 * @param pageMapFileName
+		 * @param offset
+		 * @param length
+		 * @return loaded data
+		 */
+		private byte[] loadPage(String pageMapFileName, long offset, int length)
 		{
 			byte[] result = null;
 			FileChannel channel = diskPageStore.fileChannelPool.getFileChannel(pageMapFileName,
 				false);
 			if (channel != null)
 			{
-				ByteBuffer buffer = ByteBuffer.allocate(window.getFilePartSize());
+				ByteBuffer buffer = ByteBuffer.allocate(length);
 				try
 				{
-					channel.read(buffer, window.getFilePartOffset());
+					channel.read(buffer, offset);
 					if (buffer.hasArray())
 					{
 						result = buffer.array();
@@ -318,6 +600,26 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		 */
 		public synchronized byte[] loadPage(String pageMapName, int id, int versionNumber,
 			int ajaxVersionNumber)
+		{
+			return loadPage(pageMapName, id, versionNumber, ajaxVersionNumber, false);
+		}
+
+		/**
+		 * Loads the specified page data.
+		 * 
+		 * @param pageMapName
+		 * @param id
+		 * @param versionNumber
+		 * @param ajaxVersionNumber
+		 * @param decode
+		 *            whether to return the data decoded by
+		 *            {@link AbstractPageStore#decodePageData(byte[])}. Records in delta storage
+		 *            mode are always decoded while loading, if <code>false</code> they are
+		 *            returned in the raw (uncompressed) encoding
+		 * @return page data or null if the page is no longer in pagemap file
+		 */
+		synchronized byte[] loadPage(String pageMapName, int id, int versionNumber,
+			int ajaxVersionNumber, boolean decode)
 		{
 			byte[] result = null;
 			PageMapEntry entry = getPageMapEntry(pageMapName, false);
@@ -327,7 +629,22 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 					ajaxVersionNumber);
 				if (window != null)
 				{
-					result = loadPage(window, entry.fileName);
+					if (diskPageStore.isDeltaStorage())
+					{
+						result = loadRecord(entry, id, window, 0);
+						if (result != null && !decode)
+						{
+							result = diskPageStore.encodeRawPageData(result);
+						}
+					}
+					else
+					{
+						result = loadPage(window, entry.fileName);
+						if (decode)
+						{
+							result = diskPageStore.decodePageData(result);
+						}
+					}
 				}
 			}
 			return result;
@@ -539,6 +856,12 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 				}
 				stream.close();
 			}
+			catch (InvalidClassException e)
+			{
+				// index written by incompatible version, the stored pages are not accessible
+				log.warn("DiskPageStore index " + index +
+					" has incompatible format, starting with empty index.");
+			}
 			catch (Exception e)
 			{
 				log.error("Couldn't load DiskPageStore index from file " + index + ".", e);
@@ -568,7 +891,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		}
 	}
 
-	private static File getDefaultFileStoreFolder()
+	static File getDefaultFileStoreFolder()
 	{
 		final File dir = (File)((WebApplication)Application.get()).getServletContext()
 			.getAttribute("javax.servlet.context.tempdir");
@@ -637,13 +960,17 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 			}
 		}
 
+		if (pageSavingThreads != null)
+		{
+			for (int i = 0; i < pageSavingThreads.length; ++i)
+			{
+				pageSavingThreads[i].stop();
+			}
+		}
+
 		saveIndex();
 
 		fileChannelPool.destroy();
-		if (pageSavingThread != null)
-		{
-			pageSavingThread.stop();
-		}
 	}
 
 	private Map<String, SessionEntry> sessionIdToEntryMap = new ConcurrentHashMap<String, SessionEntry>();
@@ -683,6 +1010,8 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	public <T> Page getPage(String sessionId, String pagemap, int id, int versionNumber,
 		int ajaxVersionNumber)
 	{
+		flushDeferredPages(sessionId);
+
 		SessionEntry entry = getSessionEntry(sessionId, false);
 		if (entry != null)
 		{
@@ -690,7 +1019,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 
 			if (isSynchronous())
 			{
-				data = entry.loadPage(pagemap, id, versionNumber, ajaxVersionNumber);
+				data = entry.loadPage(pagemap, id, versionNumber, ajaxVersionNumber, true);
 			}
 			else
 			{
@@ -700,13 +1029,13 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 				synchronized (pages)
 				{
 					flushPagesToSaveList(sessionId, pages);
-					data = entry.loadPage(pagemap, id, versionNumber, ajaxVersionNumber);
+					data = entry.loadPage(pagemap, id, versionNumber, ajaxVersionNumber, true);
 				}
 			}
 
 			if (data != null)
 			{
-				final Page ret = deserializePage(data, versionNumber);
+				final Page ret = deserializeDecodedPage(data, versionNumber);
 				return ret;
 			}
 		}
@@ -720,6 +1049,8 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	 */
 	public void pageAccessed(String sessionId, Page page)
 	{
+		// the page instance is going to be modified, the deferred serialization must not see it
+		flushDeferredPages(sessionId);
 	}
 
 	/**
@@ -748,6 +1079,8 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	 */
 	public void removePage(String sessionId, String pageMap, int id)
 	{
+		flushDeferredPages(sessionId);
+
 		SessionEntry entry = getSessionEntry(sessionId, false);
 		if (entry != null)
 		{
@@ -811,6 +1144,13 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	 */
 	public void storePage(String sessionId, Page page)
 	{
+		// dehydrated pages must be serialized while the request still owns them
+		if (isDeferredSerialization() && getDehydratedSubtreeSize() == 0 &&
+			RequestCycle.get() != null && deferPage(sessionId, page))
+		{
+			return;
+		}
+
 		List<SerializedPage> pages = serializePage(page);
 
 		serializedPagesCache.storePage(sessionId, page, pages);
@@ -825,6 +1165,26 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	 */
 	public void unbind(String sessionId)
 	{
+		List<DeferredPage> deferred = deferredPagesAll.remove(sessionId);
+		if (deferred != null)
+		{
+			DeferredPage[] pages;
+			synchronized (deferred)
+			{
+				pages = deferred.toArray(new DeferredPage[deferred.size()]);
+				deferred.clear();
+			}
+
+			// the request that deferred the pages must not store them after the session is gone
+			for (int i = 0; i < pages.length; ++i)
+			{
+				synchronized (pages[i])
+				{
+					pages[i].page = null;
+				}
+			}
+		}
+
 		SessionEntry entry = sessionIdToEntryMap.remove(sessionId);
 		if (entry != null)
 		{
@@ -839,7 +1199,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 				{
 					synchronized (pages)
 					{
-						pages.clear();						
+						clearPagesToSaveList(pages);
 					}
 					entry.unbind();
 				}
@@ -852,8 +1212,18 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	// this contains lists for all active sessions
 	private final Map<String, List<SerializedPage>> pagesToSaveAll = new ConcurrentHashMap<String, List<SerializedPage>>();
 
-	// contains list of serialized pages to be saved - only non empty lists
-	private final Map<String, List<SerializedPage>> pagesToSaveActive = new ConcurrentHashMap<String, List<SerializedPage>>();
+	// guards pendingBytes and pendingPages, producers blocked on full queue wait on it
+	private final Object pendingLock = new Object();
+
+	// summed size of serialized pages waiting to be saved
+	private long pendingBytes = 0;
+
+	// number of serialized pages waiting to be saved
+	private int pendingPages = 0;
+
+	// number of page lists saved by the worker threads and the summed latency
+	private final AtomicLong savedCount = new AtomicLong(0);
+	private final AtomicLong savedLatency = new AtomicLong(0);
 
 	/**
 	 * Returns the list of pages to be saved for the specified session id. If the list is not found,
@@ -880,6 +1250,57 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		return list;
 	}
 
+	/**
+	 * Returns the summed size of the serialized page data.
+	 * 
+	 * @param pages
+	 * @return size in bytes
+	 */
+	private static long getDataSize(List<SerializedPage> pages)
+	{
+		long result = 0;
+		for (Iterator<SerializedPage> i = pages.iterator(); i.hasNext();)
+		{
+			SerializedPage page = i.next();
+			if (page.getData() != null)
+			{
+				result += page.getData().length;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Updates the pending pages statistics and wakes up the threads waiting for room in the
+	 * queue.
+	 * 
+	 * @param bytes
+	 * @param pages
+	 */
+	private void updatePending(long bytes, int pages)
+	{
+		synchronized (pendingLock)
+		{
+			pendingBytes += bytes;
+			pendingPages += pages;
+			if (bytes < 0)
+			{
+				pendingLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Discards all entries from the specified list without saving them.
+	 * 
+	 * @param list
+	 */
+	private void clearPagesToSaveList(List<SerializedPage> list)
+	{
+		updatePending(-getDataSize(list), -list.size());
+		list.clear();
+	}
+
 	/**
 	 * Saves all entries from the specified list.
 	 * 
@@ -888,7 +1309,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	 */
 	protected void flushPagesToSaveList(String sessionId, List<SerializedPage> list)
 	{
-		if (list != null)
+		if (list != null && list.isEmpty() == false)
 		{
 			for (Iterator<SerializedPage> i = list.iterator(); i.hasNext();)
 			{
@@ -904,82 +1325,165 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 					log.error("Error flushing page", e);
 				}
 			}
-			list.clear();
+			clearPagesToSaveList(list);
 		}
 	}
 
 	/**
-	 * Schedules the pages to be saved by the worker thread.
+	 * Schedules the pages to be saved by the worker thread. If the amount of pending data would
+	 * exceed {@link #getMaxPendingBytes()}, the calling thread either waits for the worker threads
+	 * or saves the pages itself, depending on {@link #isBlockingWhenQueueFull()}.
 	 * 
 	 * @param sessionId
 	 * @param pages
 	 */
 	private void schedulePagesSave(String sessionId, List<SerializedPage> pages)
 	{
+		long size = getDataSize(pages);
+
+		synchronized (pendingLock)
+		{
+			if (pendingBytes > 0 && pendingBytes + size > getMaxPendingBytes())
+			{
+				if (isBlockingWhenQueueFull())
+				{
+					boolean interrupted = false;
+					while (pendingBytes > 0 && pendingBytes + size > getMaxPendingBytes())
+					{
+						try
+						{
+							pendingLock.wait();
+						}
+						catch (InterruptedException e)
+						{
+							// keep waiting, the pages must not be lost
+							interrupted = true;
+						}
+					}
+					if (interrupted)
+					{
+						// restore the status for the caller
+						Thread.currentThread().interrupt();
+					}
+				}
+				else
+				{
+					size = -1;
+				}
+			}
+		}
+
 		List<SerializedPage> list = getPagesToSaveList(sessionId);
 		synchronized (list)
 		{
-			list.addAll(pages);
-
-			if (list.size() > 0 && pagesToSaveActive.containsKey(sessionId) == false)
+			if (size == -1)
 			{
-				pagesToSaveActive.put(sessionId, list);
+				// the queue is full, save the pages in the calling thread (after the pages that
+				// are already waiting for this session, so the order is preserved)
+				flushPagesToSaveList(sessionId, list);
+				SessionEntry entry = getSessionEntry(sessionId, true);
+				for (Iterator<SerializedPage> i = pages.iterator(); i.hasNext();)
+				{
+					entry.savePage(i.next());
+				}
+			}
+			else
+			{
+				boolean wasEmpty = list.isEmpty();
+				list.addAll(pages);
+				updatePending(size, pages.size());
+
+				if (wasEmpty && list.isEmpty() == false)
+				{
+					getPageSavingThread(sessionId).schedule(sessionId);
+				}
 			}
 		}
 	}
 
+	/**
+	 * Returns the worker thread responsible for given session. All pages of one session are saved
+	 * by the same thread so that they are stored in the order they were serialized.
+	 * 
+	 * @param sessionId
+	 * @return worker thread
+	 */
+	private PageSavingThread getPageSavingThread(String sessionId)
+	{
+		int hash = sessionId.hashCode() & Integer.MAX_VALUE;
+		return pageSavingThreads[hash % pageSavingThreads.length];
+	}
+
 	/**
 	 * Worker thread that saves the serialized pages. Saving pages in the separate thread results in
 	 * smoother performance under load.
+	 * <p>
+	 * The thread waits on its queue of session ids and is woken up as soon as pages for a session
+	 * are scheduled.
 	 * 
 	 * @author Matej Knopp
 	 */
 	private class PageSavingThread implements Runnable
 	{
-		private volatile Boolean stop = Boolean.FALSE;
+		private final BlockingQueue<PendingSave> queue = new LinkedBlockingQueue<PendingSave>();
+
+		private final Thread thread;
+
+		private PageSavingThread(String name)
+		{
+			thread = new Thread(this, name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private void schedule(String sessionId)
+		{
+			queue.add(new PendingSave(sessionId));
+		}
 
 		public void run()
 		{
-			while (stop == Boolean.FALSE)
+			while (true)
 			{
-				// wait until we have something to save
-				while (pagesToSaveActive.isEmpty() && stop == false)
+				PendingSave save;
+				try
 				{
-					try
-					{
-						Thread.sleep(getSavingThreadSleepTime());
-					}
-					catch (InterruptedException ignore)
-					{
-					}
+					save = queue.take();
+				}
+				catch (InterruptedException e)
+				{
+					continue;
 				}
 
-				// iterate through lists of pages to be saved
-				for (Iterator<Entry<String, List<SerializedPage>>> i = pagesToSaveActive.entrySet()
-					.iterator(); i.hasNext();)
+				if (save == PendingSave.STOP)
 				{
-					Entry<String, List<SerializedPage>> entry = i.next();
-					String sessionId = entry.getKey();
-					List<SerializedPage> pages = entry.getValue();
+					break;
+				}
 
+				List<SerializedPage> pages = pagesToSaveAll.get(save.sessionId);
+				if (pages != null)
+				{
 					synchronized (pages)
 					{
-						try
+						// the pages might have been flushed by request thread in the meanwhile
+						if (pages.isEmpty() == false)
 						{
-							flushPagesToSaveList(sessionId, pages);
+							try
+							{
+								flushPagesToSaveList(save.sessionId, pages);
+							}
+							catch (Exception e)
+							{
+								log.error(
+									"Error flushing serialized pages from worker thread for session " +
+										save.sessionId, e);
+							}
+							savedCount.incrementAndGet();
+							savedLatency.addAndGet(System.currentTimeMillis() - save.time);
 						}
-						catch (Exception e)
-						{
-							log.error(
-								"Error flushing serialized pages from worker thread for session " +
-									sessionId, e);
-						}
-						i.remove();
 					}
 				}
 			}
-
-			stop = null;
 		}
 
 		/**
@@ -987,53 +1491,144 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		 */
 		public void stop()
 		{
-			if (stop == null)
-				return;
-
-			stop = Boolean.TRUE;
+			queue.add(PendingSave.STOP);
 
 			// Block the calling thread until this thread has really stopped running
-			while (stop != null)
+			try
+			{
+				thread.join();
+			}
+			catch (InterruptedException ignore)
 			{
-				try
-				{
-					Thread.sleep(getSavingThreadSleepTime());
-				}
-				catch (InterruptedException ignore)
-				{
-				}
 			}
 		}
 	};
 
 	/**
-	 * Initializes the worker thread.
+	 * Notification for the worker thread that there are pages to be saved for a session.
+	 */
+	private static class PendingSave
+	{
+		private static final PendingSave STOP = new PendingSave(null);
+
+		private final String sessionId;
+
+		// time when the first page was scheduled
+		private final long time = System.currentTimeMillis();
+
+		private PendingSave(String sessionId)
+		{
+			this.sessionId = sessionId;
+		}
+	}
+
+	/**
+	 * Initializes the worker threads.
 	 */
 	private void initPageSavingThread()
 	{
 		if (isSynchronous() == false)
 		{
-			pageSavingThread = new PageSavingThread();
-			Thread t = new Thread(pageSavingThread, "PageSavingThread-" + appName);
-			t.setDaemon(true);
-			t.setPriority(Thread.MAX_PRIORITY);
-			t.start();
+			int count = getSavingThreadCount();
+			if (count < 1)
+			{
+				throw new IllegalArgumentException("At least one saving thread is required.");
+			}
+			pageSavingThreads = new PageSavingThread[count];
+			for (int i = 0; i < count; ++i)
+			{
+				pageSavingThreads[i] = new PageSavingThread("PageSavingThread-" + appName + "-" +
+					i);
+			}
 		}
 	}
 
-	private PageSavingThread pageSavingThread = null;
+	private PageSavingThread[] pageSavingThreads = null;
 
 	/**
 	 * Returns the amount time in milliseconds for the saving thread to sleep between checking
 	 * whether there are pending serialized pages to be saved.
 	 * 
 	 * @return sleep time
+	 * @deprecated the saving threads no longer poll, they are woken up as soon as pages are
+	 *             scheduled
 	 */
+	@Deprecated
 	protected int getSavingThreadSleepTime()
 	{
 		return 100;
 	}
 
+	/**
+	 * Returns the number of worker threads used to save pages in asynchronous mode. Pages of one
+	 * session are always saved by the same thread.
+	 * 
+	 * @return number of saving threads
+	 */
+	protected int getSavingThreadCount()
+	{
+		return Math.min(4, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Returns the maximum summed size of serialized pages waiting to be saved in asynchronous mode.
+	 * 
+	 * @return maximum size of pending pages in bytes
+	 */
+	protected long getMaxPendingBytes()
+	{
+		return Bytes.megabytes(20).bytes();
+	}
+
+	/**
+	 * Returns whether the request thread should wait for the worker threads when the size of
+	 * pending pages exceeds {@link #getMaxPendingBytes()}. If <code>false</code>, the request
+	 * thread saves the pages synchronously instead.
+	 * 
+	 * @return <code>true</code> to block, <code>false</code> to save synchronously
+	 */
+	protected boolean isBlockingWhenQueueFull()
+	{
+		return false;
+	}
+
+	/**
+	 * Returns the number of serialized pages waiting to be saved by the worker threads.
+	 * 
+	 * @return number of pending pages
+	 */
+	public int getPendingPagesCount()
+	{
+		synchronized (pendingLock)
+		{
+			return pendingPages;
+		}
+	}
+
+	/**
+	 * Returns the summed size of serialized pages waiting to be saved by the worker threads.
+	 * 
+	 * @return size of pending pages in bytes
+	 */
+	public long getPendingBytes()
+	{
+		synchronized (pendingLock)
+		{
+			return pendingBytes;
+		}
+	}
+
+	/**
+	 * Returns the average time between scheduling pages and the worker thread saving them.
+	 * 
+	 * @return average save latency in milliseconds
+	 */
+	public long getAverageSaveLatency()
+	{
+		long count = savedCount.get();
+		return count > 0 ? savedLatency.get() / count : 0;
+	}
+
 	/**
 	 * Returns whether the {@link DiskPageStore} should work in synchronous or asynchronous mode.
 	 * Asynchronous mode uses a worker thread to save pages, which results in smoother performance.
@@ -1045,6 +1640,140 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		return false;
 	}
 
+	/**
+	 * Returns whether the serialization of pages stored during request is deferred until the end
+	 * of the request. The pages are then serialized after the pagemap locks have been released and
+	 * the response has been flushed to the client. Other requests accessing a page that is still
+	 * waiting for serialization serialize it themselves before using it.
+	 * <p>
+	 * The serialization is not deferred while pages are
+	 * {@link #setDehydratedSubtreeSize(int) dehydrated}.
+	 * 
+	 * @see IDeferredSerializationPageStore
+	 * @return <code>true</code> if the serialization is deferred
+	 */
+	protected boolean isDeferredSerialization()
+	{
+		return false;
+	}
+
+	/**
+	 * Returns the maximum number of pages of one session that can wait for the deferred
+	 * serialization. Pages stored after this number is reached are serialized immediately.
+	 * 
+	 * @see #isDeferredSerialization()
+	 * @return maximum number of deferred pages per session
+	 */
+	protected int getMaxDeferredPagesPerSession()
+	{
+		return 10;
+	}
+
+	/**
+	 * Returns whether the pages are stored in delta mode. In delta mode a new version of page is
+	 * stored as a binary delta against the previously stored version when the delta is
+	 * significantly smaller than the page. This considerably reduces the amount of written data
+	 * for pages that are updated by many ajax requests.
+	 * <p>
+	 * The mode must not be changed while there are stored pages.
+	 * 
+	 * @see #getDeltaRebaseInterval()
+	 * @return <code>true</code> if delta storage is enabled
+	 */
+	protected boolean isDeltaStorage()
+	{
+		return false;
+	}
+
+	/**
+	 * Returns the maximum number of successive delta records of a page. After that the full page
+	 * is stored again, so that loading a page never has to apply more than this number of deltas.
+	 * 
+	 * @return number of deltas between full records
+	 */
+	protected int getDeltaRebaseInterval()
+	{
+		return 10;
+	}
+
+	/**
+	 * Returns the maximum summed size of decoded page data kept in memory as base for delta
+	 * records. When exceeded, the data of least recently used bases is dropped and loaded from the
+	 * pagemap file when the next version of the page is stored.
+	 * 
+	 * @return maximum size of delta bases in bytes
+	 */
+	protected long getMaxDeltaBaseCacheBytes()
+	{
+		return Bytes.megabytes(10).bytes();
+	}
+
+	// delta bases that have their decoded data in memory, least recently used first
+	private final LinkedHashMap<DeltaBase, Boolean> deltaBaseCache = new LinkedHashMap<DeltaBase, Boolean>(
+		16, 0.75f, true);
+
+	// summed size of data of bases in deltaBaseCache, guarded by deltaBaseCache
+	private long deltaBaseCacheBytes = 0;
+
+	/**
+	 * Adds the base to the delta base cache and drops the data of least recently used bases if
+	 * the cache is too big.
+	 * 
+	 * @param base
+	 */
+	private void cacheDeltaBase(DeltaBase base)
+	{
+		synchronized (deltaBaseCache)
+		{
+			if (deltaBaseCache.put(base, Boolean.TRUE) == null)
+			{
+				deltaBaseCacheBytes += base.size;
+			}
+			for (Iterator<DeltaBase> i = deltaBaseCache.keySet().iterator(); i.hasNext() &&
+				deltaBaseCacheBytes > getMaxDeltaBaseCacheBytes();)
+			{
+				DeltaBase eldest = i.next();
+				i.remove();
+				deltaBaseCacheBytes -= eldest.size;
+				eldest.data = null;
+			}
+		}
+	}
+
+	/**
+	 * Marks the base as recently used.
+	 * 
+	 * @param base
+	 */
+	private void touchDeltaBase(DeltaBase base)
+	{
+		synchronized (deltaBaseCache)
+		{
+			deltaBaseCache.get(base);
+		}
+	}
+
+	/**
+	 * Removes the base from the delta base cache and drops its data.
+	 * 
+	 * @param base
+	 *            base or <code>null</code>
+	 */
+	private void releaseDeltaBase(DeltaBase base)
+	{
+		if (base != null)
+		{
+			synchronized (deltaBaseCache)
+			{
+				if (deltaBaseCache.remove(base) != null)
+				{
+					deltaBaseCacheBytes -= base.size;
+				}
+			}
+			base.data = null;
+		}
+	}
+
 	private int lastRecentlySerializedPagesCacheSize = 50;
 
 	/**
@@ -1066,8 +1795,213 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		return lastRecentlySerializedPagesCacheSize;
 	}
 
+	/**
+	 * Returns the maximum summed size of serialized data kept in the last recently serialized
+	 * pages cache. Least recently used pages are evicted when either this or the
+	 * {@link #getLastRecentlySerializedPagesCacheSize()} limit is exceeded.
+	 * 
+	 * @return maximum size in bytes
+	 */
+	protected long getLastRecentlySerializedPagesCacheMaxBytes()
+	{
+		return Bytes.megabytes(25).bytes();
+	}
+
+	/**
+	 * Returns the number of independently locked stripes of the last recently serialized pages
+	 * cache.
+	 * 
+	 * @return stripe count
+	 */
+	protected int getLastRecentlySerializedPagesCacheStripeCount()
+	{
+		return 16;
+	}
+
 	private final SerializedPagesCache serializedPagesCache = new SerializedPagesCache(
-		getLastRecentlySerializedPagesCacheSize());
+		getLastRecentlySerializedPagesCacheSize(), getLastRecentlySerializedPagesCacheMaxBytes(),
+		getLastRecentlySerializedPagesCacheStripeCount());
+
+	/**
+	 * @return number of last recently serialized pages cache lookups that found the page
+	 */
+	public long getSerializedPagesCacheHitCount()
+	{
+		return serializedPagesCache.getHitCount();
+	}
+
+	/**
+	 * @return number of last recently serialized pages cache lookups that didn't find the page
+	 */
+	public long getSerializedPagesCacheMissCount()
+	{
+		return serializedPagesCache.getMissCount();
+	}
+
+	/**
+	 * Page instance waiting for serialization.
+	 */
+	private static final class DeferredPage
+	{
+		private final String sessionId;
+
+		// null after the page has been stored
+		private Page page;
+
+		private DeferredPage(String sessionId, Page page)
+		{
+			this.sessionId = sessionId;
+			this.page = page;
+		}
+	}
+
+	// map from session id to the pages waiting for serialization, empty lists are removed
+	private final ConcurrentMap<String, List<DeferredPage>> deferredPagesAll = new ConcurrentHashMap<String, List<DeferredPage>>();
+
+	// pages deferred by the current request
+	private final ThreadLocal<List<DeferredPage>> deferredPagesOfRequest = new ThreadLocal<List<DeferredPage>>();
+
+	/**
+	 * Adds the page to the pages waiting for serialization.
+	 * 
+	 * @param sessionId
+	 * @param page
+	 * @return <code>false</code> if the session has too many deferred pages and the page has to be
+	 *         stored immediately
+	 */
+	private boolean deferPage(String sessionId, Page page)
+	{
+		DeferredPage deferred = new DeferredPage(sessionId, page);
+		while (true)
+		{
+			List<DeferredPage> list = deferredPagesAll.get(sessionId);
+			if (list == null)
+			{
+				list = new ArrayList<DeferredPage>();
+				List<DeferredPage> previous = deferredPagesAll.putIfAbsent(sessionId, list);
+				if (previous != null)
+				{
+					list = previous;
+				}
+			}
+
+			synchronized (list)
+			{
+				if (deferredPagesAll.get(sessionId) != list)
+				{
+					// removed as empty or unbound in the meanwhile
+					continue;
+				}
+				if (list.size() >= getMaxDeferredPagesPerSession())
+				{
+					return false;
+				}
+				list.add(deferred);
+				break;
+			}
+		}
+
+		List<DeferredPage> ofRequest = deferredPagesOfRequest.get();
+		if (ofRequest == null)
+		{
+			ofRequest = new ArrayList<DeferredPage>();
+			deferredPagesOfRequest.set(ofRequest);
+		}
+		ofRequest.add(deferred);
+		return true;
+	}
+
+	/**
+	 * Serializes and stores the deferred page unless it has been already stored by other thread.
+	 * 
+	 * @param deferred
+	 */
+	private void storeDeferredPage(DeferredPage deferred)
+	{
+		synchronized (deferred)
+		{
+			Page page = deferred.page;
+			if (page != null)
+			{
+				deferred.page = null;
+				try
+				{
+					List<SerializedPage> pages = serializePage(page, false);
+					serializedPagesCache.storePage(deferred.sessionId, page, pages);
+					onPagesSerialized(deferred.sessionId, pages);
+					storeSerializedPages(deferred.sessionId, pages);
+				}
+				catch (RuntimeException e)
+				{
+					log.error("Error storing page " + page.getClass().getName() + "[" +
+						page.getNumericId() + "]", e);
+				}
+			}
+		}
+
+		List<DeferredPage> list = deferredPagesAll.get(deferred.sessionId);
+		if (list != null)
+		{
+			synchronized (list)
+			{
+				list.remove(deferred);
+				if (list.isEmpty())
+				{
+					deferredPagesAll.remove(deferred.sessionId, list);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores all pages of given session that are waiting for serialization.
+	 * 
+	 * @param sessionId
+	 */
+	private void flushDeferredPages(String sessionId)
+	{
+		List<DeferredPage> list = sessionId != null ? deferredPagesAll.get(sessionId) : null;
+		if (list != null)
+		{
+			DeferredPage[] pages;
+			synchronized (list)
+			{
+				if (list.isEmpty())
+				{
+					return;
+				}
+				pages = list.toArray(new DeferredPage[list.size()]);
+			}
+			for (int i = 0; i < pages.length; ++i)
+			{
+				storeDeferredPage(pages[i]);
+			}
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IDeferredSerializationPageStore#hasDeferredPages()
+	 */
+	public boolean hasDeferredPages()
+	{
+		return deferredPagesOfRequest.get() != null;
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IDeferredSerializationPageStore#storeDeferredPages()
+	 */
+	public void storeDeferredPages()
+	{
+		List<DeferredPage> pages = deferredPagesOfRequest.get();
+		deferredPagesOfRequest.set(null);
+		if (pages != null)
+		{
+			for (int i = 0; i < pages.size(); ++i)
+			{
+				storeDeferredPage(pages.get(i));
+			}
+		}
+	}
 
 	/**
 	 * Strips the actual serialized page data. This is used to store
@@ -1093,6 +2027,8 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	private byte[] getPageData(String sessionId, int pageId, String pageMapName, int versionNumber,
 		int ajaxVersionNumber)
 	{
+		flushDeferredPages(sessionId);
+
 		SessionEntry entry = getSessionEntry(sessionId, false);
 		if (entry != null)
 		{
@@ -1155,10 +2091,11 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		SerializedPageWithSession result = null;
 		if (page instanceof Page)
 		{
-			result = serializedPagesCache.getPage((Page)page);
+			flushDeferredPages(sessionId);
+			result = serializedPagesCache.getPage(sessionId, (Page)page);
 			if (result == null)
 			{
-				List<SerializedPage> serialized = serializePage((Page)page);
+				List<SerializedPage> serialized = serializePage((Page)page, false);
 				result = serializedPagesCache.storePage(sessionId, (Page)page, serialized);
 			}
 		}
@@ -1252,6 +2189,8 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	 */
 	public boolean containsPage(String sessionId, String pageMapName, int pageId, int pageVersion)
 	{
+		flushDeferredPages(sessionId);
+
 		SessionEntry entry = getSessionEntry(sessionId, false);
 		if (entry != null)
 		{
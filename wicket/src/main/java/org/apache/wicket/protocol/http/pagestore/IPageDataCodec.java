@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+/**
+ * Compresses serialized page data before it is handed to the page store and the second level
+ * cache.
+ * <p>
+ * Implementations must be thread safe, the same instance is used concurrently by all threads that
+ * store or load pages.
+ * 
+ * @see AbstractPageStore#setPageDataCodec(IPageDataCodec)
+ * @see DeflatePageDataCodec
+ * @see LzfPageDataCodec
+ */
+public interface IPageDataCodec
+{
+	/**
+	 * Compresses the data.
+	 * 
+	 * @param data
+	 *            serialized page data
+	 * @return compressed data or <code>null</code> if the compressed form would not be smaller
+	 *         than the data
+	 */
+	byte[] compress(byte[] data);
+
+	/**
+	 * Decompresses the data previously compressed by {@link #compress(byte[])}.
+	 * 
+	 * @param source
+	 *            array containing the compressed data
+	 * @param offset
+	 *            offset of the compressed data in source
+	 * @param length
+	 *            length of the compressed data
+	 * @param target
+	 *            array to decompress to, its length equals the length of the original data
+	 */
+	void decompress(byte[] source, int offset, int length, byte[] target);
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.util.Arrays;
+
+import org.apache.wicket.WicketRuntimeException;
+
+/**
+ * Fast {@link IPageDataCodec} producing the LZF format. The compression ratio is lower than with
+ * {@link DeflatePageDataCodec}, but compression and decompression is several times faster, which
+ * makes it the preferred codec when the page store is bound by CPU rather than by disk.
+ * <p>
+ * The compressed data is a sequence of chunks, each starting with a control byte:
+ * <ul>
+ * <li><code>000LLLLL</code> - literal run of <code>L + 1</code> bytes follows
+ * <li><code>LLLOOOOO OOOOOOOO</code> - back reference of <code>L + 2</code> bytes at distance
+ * <code>O + 1</code>; if <code>L</code> is 7, another byte with <code>L - 7</code> follows the
+ * control byte
+ * </ul>
+ */
+public class LzfPageDataCodec implements IPageDataCodec
+{
+	private static final int HASH_BITS = 14;
+
+	private static final int MAX_LITERAL = 1 << 5;
+
+	private static final int MAX_OFFSET = 1 << 13;
+
+	private static final int MAX_REFERENCE = (1 << 8) + (1 << 3);
+
+	private static final ThreadLocal<int[]> hashTable = new ThreadLocal<int[]>()
+	{
+		@Override
+		protected int[] initialValue()
+		{
+			return new int[1 << HASH_BITS];
+		}
+	};
+
+	private static int hash(byte[] data, int index)
+	{
+		int value = ((data[index] & 0xFF) << 16) | ((data[index + 1] & 0xFF) << 8) |
+			(data[index + 2] & 0xFF);
+		return (value * 0x9E3779B1) >>> (32 - HASH_BITS);
+	}
+
+	private static int writeLiterals(byte[] source, int start, int length, byte[] target, int pos)
+	{
+		while (length > 0)
+		{
+			int run = Math.min(length, MAX_LITERAL);
+			target[pos++] = (byte)(run - 1);
+			System.arraycopy(source, start, target, pos, run);
+			pos += run;
+			start += run;
+			length -= run;
+		}
+		return pos;
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.IPageDataCodec#compress(byte[])
+	 */
+	public byte[] compress(byte[] data)
+	{
+		final int length = data.length;
+
+		// literals only would need one control byte per run, back references are always shorter
+		// than the bytes they replace
+		final int limit = length - 1;
+		byte[] target = new byte[length + length / MAX_LITERAL + 1];
+
+		// table entries are positions + 1, zero means no entry
+		int[] table = hashTable.get();
+		Arrays.fill(table, 0);
+
+		int pos = 0;
+		int literalStart = 0;
+		int index = 0;
+		while (index < length - 2)
+		{
+			int hash = hash(data, index);
+			int reference = table[hash] - 1;
+			table[hash] = index + 1;
+
+			int offset = index - reference - 1;
+			if (reference >= 0 && offset < MAX_OFFSET && data[reference] == data[index] &&
+				data[reference + 1] == data[index + 1] && data[reference + 2] == data[index + 2])
+			{
+				pos = writeLiterals(data, literalStart, index - literalStart, target, pos);
+
+				int maxLength = Math.min(MAX_REFERENCE, length - index);
+				int matchLength = 3;
+				while (matchLength < maxLength &&
+					data[reference + matchLength] == data[index + matchLength])
+				{
+					++matchLength;
+				}
+
+				int encodedLength = matchLength - 2;
+				if (encodedLength < 7)
+				{
+					target[pos++] = (byte)((encodedLength << 5) | (offset >>> 8));
+				}
+				else
+				{
+					target[pos++] = (byte)((7 << 5) | (offset >>> 8));
+					target[pos++] = (byte)(encodedLength - 7);
+				}
+				target[pos++] = (byte)offset;
+
+				// make the matched bytes available as future references
+				int matchEnd = index + matchLength;
+				int hashEnd = Math.min(matchEnd, length - 2);
+				for (++index; index < hashEnd; ++index)
+				{
+					table[hash(data, index)] = index + 1;
+				}
+				index = literalStart = matchEnd;
+
+				if (pos >= limit)
+				{
+					return null;
+				}
+			}
+			else
+			{
+				++index;
+			}
+		}
+
+		pos = writeLiterals(data, literalStart, length - literalStart, target, pos);
+		if (pos >= length)
+		{
+			return null;
+		}
+
+		byte[] result = new byte[pos];
+		System.arraycopy(target, 0, result, 0, pos);
+		return result;
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.IPageDataCodec#decompress(byte[], int, int,
+	 *      byte[])
+	 */
+	public void decompress(byte[] source, int offset, int length, byte[] target)
+	{
+		final int end = offset + length;
+		int index = offset;
+		int pos = 0;
+		try
+		{
+			while (index < end)
+			{
+				int control = source[index++] & 0xFF;
+				if (control < MAX_LITERAL)
+				{
+					int run = control + 1;
+					System.arraycopy(source, index, target, pos, run);
+					index += run;
+					pos += run;
+				}
+				else
+				{
+					int referenceLength = control >>> 5;
+					if (referenceLength == 7)
+					{
+						referenceLength += source[index++] & 0xFF;
+					}
+					referenceLength += 2;
+					int reference = pos - ((control & 0x1F) << 8) - (source[index++] & 0xFF) - 1;
+
+					// the regions may overlap, copy byte by byte
+					for (int i = 0; i < referenceLength; ++i)
+					{
+						target[pos++] = target[reference++];
+					}
+				}
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e)
+		{
+			throw new WicketRuntimeException("Corrupted page data", e);
+		}
+
+		if (pos != target.length)
+		{
+			throw new WicketRuntimeException("Corrupted page data, expected " + target.length +
+				" bytes, got " + pos);
+		}
+	}
+}
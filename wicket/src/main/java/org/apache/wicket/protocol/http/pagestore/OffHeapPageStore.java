@@ -0,0 +1,566 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.util.collections.IntHashMap;
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.lang.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore} implementation
+ * that keeps the serialized pages in direct {@link ByteBuffer}s outside of the Java heap.
+ * <p>
+ * The memory is allocated in chunks up to the global size limit and divided into fixed size
+ * blocks, each page occupies as many blocks as its serialized data needs. When there are no free
+ * blocks left, the least recently used pages of all sessions are evicted. Each session also has a
+ * quota, when it is exceeded the least recently used pages of that session are evicted.
+ * <p>
+ * As the page data doesn't live on the heap, large number of stored pages doesn't increase the
+ * garbage collection pauses, while the pages can still be loaded without any disk access. The
+ * pages are lost when the application is restarted.
+ */
+public class OffHeapPageStore extends AbstractPageStore
+{
+	/**
+	 * Stored page. Entries are compared by identity, so they can be used as keys of the LRU maps.
+	 */
+	private static final class Entry
+	{
+		private final SessionData session;
+		private final String pageMapName;
+		private final int pageId;
+		private final int versionNumber;
+		private final int ajaxVersionNumber;
+		private final int length;
+		private final int[] blocks;
+
+		private Entry(SessionData session, SerializedPage page, int[] blocks)
+		{
+			this.session = session;
+			pageMapName = page.getPageMapName();
+			pageId = page.getPageId();
+			versionNumber = page.getVersionNumber();
+			ajaxVersionNumber = page.getAjaxVersionNumber();
+			length = page.getData().length;
+			this.blocks = blocks;
+		}
+	}
+
+	/**
+	 * Pages stored for a single session.
+	 */
+	private static final class SessionData
+	{
+		private final String sessionId;
+
+		// pagemap name -> page id -> entries in the order they were stored
+		private final Map<String, IntHashMap<List<Entry>>> pageMaps = new HashMap<String, IntHashMap<List<Entry>>>();
+
+		// session entries in access order, first one is the least recently used
+		private final LinkedHashMap<Entry, Entry> lru = new LinkedHashMap<Entry, Entry>(16, 0.75f,
+			true);
+
+		// number of bytes occupied by the session entries
+		private long size = 0;
+
+		private SessionData(String sessionId)
+		{
+			this.sessionId = sessionId;
+		}
+
+		private List<Entry> getEntries(String pageMapName, int pageId, boolean create)
+		{
+			IntHashMap<List<Entry>> pages = pageMaps.get(pageMapName);
+			if (pages == null)
+			{
+				if (!create)
+				{
+					return null;
+				}
+				pages = new IntHashMap<List<Entry>>();
+				pageMaps.put(pageMapName, pages);
+			}
+			List<Entry> entries = pages.get(pageId);
+			if (entries == null && create)
+			{
+				entries = new ArrayList<Entry>(2);
+				pages.put(pageId, entries);
+			}
+			return entries;
+		}
+
+		/**
+		 * Finds the entry. Version -1 means the last stored version, ajax version -1 means the
+		 * highest ajax version of given version.
+		 */
+		private Entry find(String pageMapName, int pageId, int versionNumber,
+			int ajaxVersionNumber)
+		{
+			List<Entry> entries = getEntries(pageMapName, pageId, false);
+			if (entries == null || entries.isEmpty())
+			{
+				return null;
+			}
+			if (versionNumber == -1)
+			{
+				return entries.get(entries.size() - 1);
+			}
+			Entry result = null;
+			for (int i = entries.size() - 1; i >= 0; --i)
+			{
+				Entry entry = entries.get(i);
+				if (entry.versionNumber == versionNumber)
+				{
+					if (ajaxVersionNumber == -1)
+					{
+						if (result == null || entry.ajaxVersionNumber > result.ajaxVersionNumber)
+						{
+							result = entry;
+						}
+					}
+					else if (entry.ajaxVersionNumber == ajaxVersionNumber)
+					{
+						return entry;
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	private static final int CHUNK_SIZE = (int)Bytes.megabytes(1).bytes();
+
+	private final int blockSize;
+
+	private final int blocksPerChunk;
+
+	private final int maxBlocks;
+
+	private final long maxSizePerSession;
+
+	// allocated memory chunks, each contains blocksPerChunk blocks
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+	// stack of free block indices
+	private final int[] freeBlocks;
+	private int freeBlockCount = 0;
+
+	// number of blocks in allocated chunks
+	private int allocatedBlocks = 0;
+
+	private final Map<String, SessionData> sessions = new HashMap<String, SessionData>();
+
+	// all entries in access order, first one is the least recently used
+	private final LinkedHashMap<Entry, Entry> lru = new LinkedHashMap<Entry, Entry>(16, 0.75f,
+		true);
+
+	private long evictedCount = 0;
+
+	// guards all the state above
+	private final Object lock = new Object();
+
+	/**
+	 * Construct.
+	 * 
+	 * @param maxSize
+	 *            maximum memory used by all sessions
+	 * @param maxSizePerSession
+	 *            maximum memory used by single session
+	 * @param blockSize
+	 *            size of the allocation unit, pages occupy multiple of this size
+	 */
+	public OffHeapPageStore(Bytes maxSize, Bytes maxSizePerSession, Bytes blockSize)
+	{
+		this.blockSize = (int)blockSize.bytes();
+		if (this.blockSize <= 0 || CHUNK_SIZE % this.blockSize != 0)
+		{
+			throw new IllegalArgumentException("Block size must be a divisor of " + CHUNK_SIZE);
+		}
+		if (maxSizePerSession.greaterThan(maxSize))
+		{
+			throw new IllegalArgumentException(
+				"Provided maximum session size must not be bigger than maximum size");
+		}
+		blocksPerChunk = CHUNK_SIZE / this.blockSize;
+		maxBlocks = (int)Math.min(Integer.MAX_VALUE, maxSize.bytes() / this.blockSize);
+		this.maxSizePerSession = maxSizePerSession.bytes();
+		freeBlocks = new int[maxBlocks];
+	}
+
+	/**
+	 * Construct with 4KB blocks.
+	 * 
+	 * @param maxSize
+	 *            maximum memory used by all sessions
+	 * @param maxSizePerSession
+	 *            maximum memory used by single session
+	 */
+	public OffHeapPageStore(Bytes maxSize, Bytes maxSizePerSession)
+	{
+		this(maxSize, maxSizePerSession, Bytes.kilobytes(4));
+	}
+
+	/**
+	 * Construct with 64MB limit and 4MB per session.
+	 */
+	public OffHeapPageStore()
+	{
+		this(Bytes.megabytes(64), Bytes.megabytes(4));
+	}
+
+	/**
+	 * Allocates the given number of blocks, evicting the least recently used pages if necessary.
+	 * 
+	 * @param count
+	 * @return block indices
+	 */
+	private int[] allocateBlocks(int count)
+	{
+		while (freeBlockCount < count)
+		{
+			if (allocatedBlocks < maxBlocks)
+			{
+				// allocate new chunk
+				int blocks = Math.min(blocksPerChunk, maxBlocks - allocatedBlocks);
+				chunks.add(ByteBuffer.allocateDirect(blocks * blockSize));
+				for (int i = blocks - 1; i >= 0; --i)
+				{
+					freeBlocks[freeBlockCount++] = allocatedBlocks + i;
+				}
+				allocatedBlocks += blocks;
+			}
+			else
+			{
+				evict(lru.keySet().iterator().next());
+			}
+		}
+
+		int[] result = new int[count];
+		for (int i = 0; i < count; ++i)
+		{
+			result[i] = freeBlocks[--freeBlockCount];
+		}
+		return result;
+	}
+
+	private ByteBuffer getBlock(int block)
+	{
+		ByteBuffer result = chunks.get(block / blocksPerChunk).duplicate();
+		int offset = (block % blocksPerChunk) * blockSize;
+		result.limit(offset + blockSize);
+		result.position(offset);
+		return result;
+	}
+
+	private void write(Entry entry, byte[] data)
+	{
+		for (int i = 0; i < entry.blocks.length; ++i)
+		{
+			int offset = i * blockSize;
+			getBlock(entry.blocks[i]).put(data, offset, Math.min(blockSize, data.length - offset));
+		}
+	}
+
+	private byte[] read(Entry entry)
+	{
+		byte[] result = new byte[entry.length];
+		for (int i = 0; i < entry.blocks.length; ++i)
+		{
+			int offset = i * blockSize;
+			getBlock(entry.blocks[i]).get(result, offset,
+				Math.min(blockSize, result.length - offset));
+		}
+		return result;
+	}
+
+	private long getEntrySize(Entry entry)
+	{
+		return (long)entry.blocks.length * blockSize;
+	}
+
+	/**
+	 * Removes the entry and frees its blocks.
+	 * 
+	 * @param entry
+	 */
+	private void remove(Entry entry)
+	{
+		List<Entry> entries = entry.session.getEntries(entry.pageMapName, entry.pageId, false);
+		if (entries != null)
+		{
+			// compare by identity
+			for (int i = entries.size() - 1; i >= 0; --i)
+			{
+				if (entries.get(i) == entry)
+				{
+					entries.remove(i);
+					break;
+				}
+			}
+			if (entries.isEmpty())
+			{
+				entry.session.pageMaps.get(entry.pageMapName).remove(entry.pageId);
+			}
+		}
+		entry.session.lru.remove(entry);
+		entry.session.size -= getEntrySize(entry);
+		lru.remove(entry);
+
+		for (int i = 0; i < entry.blocks.length; ++i)
+		{
+			freeBlocks[freeBlockCount++] = entry.blocks[i];
+		}
+	}
+
+	private void evict(Entry entry)
+	{
+		remove(entry);
+		++evictedCount;
+		if (entry.session.lru.isEmpty())
+		{
+			sessions.remove(entry.session.sessionId);
+		}
+	}
+
+	private void savePage(String sessionId, SerializedPage page)
+	{
+		if (page.getData() == null)
+		{
+			return;
+		}
+
+		int blockCount = (page.getData().length + blockSize - 1) / blockSize;
+		long size = (long)blockCount * blockSize;
+		if (size > maxSizePerSession)
+		{
+			log.warn("Page " + page.getPageId() + " is too large (" + page.getData().length +
+				" bytes) to be stored");
+			return;
+		}
+
+		synchronized (lock)
+		{
+			SessionData session = sessions.get(sessionId);
+			if (session == null)
+			{
+				session = new SessionData(sessionId);
+				sessions.put(sessionId, session);
+			}
+
+			Entry existing = session.find(page.getPageMapName(), page.getPageId(),
+				page.getVersionNumber(), page.getAjaxVersionNumber());
+			if (existing != null)
+			{
+				remove(existing);
+			}
+
+			// make room within the session quota
+			while (session.size + size > maxSizePerSession)
+			{
+				evict(session.lru.keySet().iterator().next());
+			}
+
+			int[] blocks = allocateBlocks(blockCount);
+
+			// the session might have been evicted entirely when allocating
+			sessions.put(sessionId, session);
+
+			Entry entry = new Entry(session, page, blocks);
+			write(entry, page.getData());
+
+			session.getEntries(entry.pageMapName, entry.pageId, true).add(entry);
+			session.lru.put(entry, entry);
+			session.size += size;
+			lru.put(entry, entry);
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#storePage(java.lang.String,
+	 *      org.apache.wicket.Page)
+	 */
+	public void storePage(String sessionId, Page page)
+	{
+		List<SerializedPage> pages = serializePage(page);
+		for (Iterator<SerializedPage> i = pages.iterator(); i.hasNext();)
+		{
+			savePage(sessionId, i.next());
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#getPage(java.lang.String,
+	 *      java.lang.String, int, int, int)
+	 */
+	public <T> Page getPage(String sessionId, String pagemap, int id, int versionNumber,
+		int ajaxVersionNumber)
+	{
+		byte[] data = null;
+		synchronized (lock)
+		{
+			SessionData session = sessions.get(sessionId);
+			if (session != null)
+			{
+				Entry entry = session.find(pagemap, id, versionNumber, ajaxVersionNumber);
+				if (entry != null)
+				{
+					// mark as recently used
+					session.lru.get(entry);
+					lru.get(entry);
+					data = read(entry);
+				}
+			}
+		}
+		if (data != null)
+		{
+			return deserializePage(data, versionNumber);
+		}
+		return null;
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#containsPage(java.lang.String,
+	 *      java.lang.String, int, int)
+	 */
+	public boolean containsPage(String sessionId, String pageMapName, int pageId, int pageVersion)
+	{
+		synchronized (lock)
+		{
+			SessionData session = sessions.get(sessionId);
+			return session != null && session.find(pageMapName, pageId, pageVersion, -1) != null;
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#pageAccessed(java.lang.String,
+	 *      org.apache.wicket.Page)
+	 */
+	public void pageAccessed(String sessionId, Page page)
+	{
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#removePage(java.lang.String,
+	 *      java.lang.String, int)
+	 */
+	public void removePage(String sessionId, String pagemap, int id)
+	{
+		synchronized (lock)
+		{
+			SessionData session = sessions.get(sessionId);
+			if (session != null)
+			{
+				List<Entry> remove = new ArrayList<Entry>();
+				for (Iterator<Entry> i = session.lru.keySet().iterator(); i.hasNext();)
+				{
+					Entry entry = i.next();
+					if (Objects.equal(entry.pageMapName, pagemap) &&
+						(id == -1 || entry.pageId == id))
+					{
+						remove.add(entry);
+					}
+				}
+				for (Iterator<Entry> i = remove.iterator(); i.hasNext();)
+				{
+					remove(i.next());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#unbind(java.lang.String)
+	 */
+	public void unbind(String sessionId)
+	{
+		synchronized (lock)
+		{
+			SessionData session = sessions.remove(sessionId);
+			if (session != null)
+			{
+				List<Entry> entries = new ArrayList<Entry>(session.lru.keySet());
+				for (Iterator<Entry> i = entries.iterator(); i.hasNext();)
+				{
+					remove(i.next());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#destroy()
+	 */
+	public void destroy()
+	{
+		synchronized (lock)
+		{
+			sessions.clear();
+			lru.clear();
+
+			// the direct buffers are released when garbage collected
+			chunks.clear();
+			freeBlockCount = 0;
+			allocatedBlocks = 0;
+		}
+	}
+
+	/**
+	 * @return number of bytes occupied by stored pages
+	 */
+	public long getSizeInBytes()
+	{
+		synchronized (lock)
+		{
+			return (long)(allocatedBlocks - freeBlockCount) * blockSize;
+		}
+	}
+
+	/**
+	 * @return number of stored pages
+	 */
+	public int getPageCount()
+	{
+		synchronized (lock)
+		{
+			return lru.size();
+		}
+	}
+
+	/**
+	 * @return number of pages evicted because of the global or session limit
+	 */
+	public long getEvictedCount()
+	{
+		synchronized (lock)
+		{
+			return evictedCount;
+		}
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(OffHeapPageStore.class);
+}
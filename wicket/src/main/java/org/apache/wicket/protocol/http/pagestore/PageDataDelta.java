@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import org.apache.wicket.WicketRuntimeException;
+
+/**
+ * Byte level differ used to store page versions as deltas against the previously stored version.
+ * <p>
+ * Blocks of the base data are indexed by a hash, the target data is scanned with a rolling hash
+ * and matching regions are extended as far as possible. This finds both the common prefix and
+ * suffix and the unchanged regions in between, which is what typically happens when a component
+ * model changes between two versions of a page.
+ * <p>
+ * The delta starts with the length of the target and continues with a sequence of instructions,
+ * each starting with a varint header. If the lowest bit of header is zero, <code>header/2</code>
+ * literal bytes follow. Otherwise <code>header/2</code> bytes are copied from the base at offset
+ * given by the next varint.
+ */
+final class PageDataDelta
+{
+	private static final int BLOCK = 16;
+
+	private static final int MULTIPLIER = 31;
+
+	// MULTIPLIER^(BLOCK - 1), used to remove the leading byte from rolling hash
+	private static final int LEADING_MULTIPLIER;
+
+	static
+	{
+		int result = 1;
+		for (int i = 1; i < BLOCK; ++i)
+		{
+			result *= MULTIPLIER;
+		}
+		LEADING_MULTIPLIER = result;
+	}
+
+	private PageDataDelta()
+	{
+	}
+
+	private static int hash(byte[] data, int offset)
+	{
+		int result = 0;
+		for (int i = 0; i < BLOCK; ++i)
+		{
+			result = result * MULTIPLIER + data[offset + i];
+		}
+		return result;
+	}
+
+	private static int index(int hash, int shift)
+	{
+		return (hash * 0x9E3779B1) >>> shift;
+	}
+
+	/**
+	 * Growable output buffer.
+	 */
+	private static final class Output
+	{
+		private byte[] buffer;
+		private int size = 0;
+
+		private Output(int capacity)
+		{
+			buffer = new byte[Math.max(capacity, 16)];
+		}
+
+		private void ensureCapacity(int extra)
+		{
+			if (size + extra > buffer.length)
+			{
+				byte[] newBuffer = new byte[Math.max(buffer.length * 2, size + extra)];
+				System.arraycopy(buffer, 0, newBuffer, 0, size);
+				buffer = newBuffer;
+			}
+		}
+
+		private void writeVarint(int value)
+		{
+			ensureCapacity(5);
+			while ((value & ~0x7F) != 0)
+			{
+				buffer[size++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[size++] = (byte)value;
+		}
+
+		private void writeLiterals(byte[] data, int offset, int length)
+		{
+			if (length > 0)
+			{
+				writeVarint(length << 1);
+				ensureCapacity(length);
+				System.arraycopy(data, offset, buffer, size, length);
+				size += length;
+			}
+		}
+
+		private void writeCopy(int offset, int length)
+		{
+			writeVarint((length << 1) | 1);
+			writeVarint(offset);
+		}
+
+		private byte[] toByteArray()
+		{
+			byte[] result = new byte[size];
+			System.arraycopy(buffer, 0, result, 0, size);
+			return result;
+		}
+	}
+
+	/**
+	 * Creates delta that transforms base to target.
+	 * 
+	 * @param base
+	 * @param target
+	 * @return delta
+	 */
+	static byte[] create(byte[] base, byte[] target)
+	{
+		Output output = new Output(target.length / 8);
+		output.writeVarint(target.length);
+
+		if (base.length < BLOCK || target.length < BLOCK)
+		{
+			output.writeLiterals(target, 0, target.length);
+			return output.toByteArray();
+		}
+
+		// index the base blocks, table entries are offsets + 1, zero means empty
+		int bits = 32 - Integer.numberOfLeadingZeros(base.length / BLOCK * 2);
+		int shift = 32 - bits;
+		int[] table = new int[1 << bits];
+		for (int i = 0; i + BLOCK <= base.length; i += BLOCK)
+		{
+			table[index(hash(base, i), shift)] = i + 1;
+		}
+
+		int literalStart = 0;
+		int pos = 0;
+		int hash = hash(target, 0);
+		while (pos + BLOCK <= target.length)
+		{
+			int candidate = table[index(hash, shift)] - 1;
+			if (candidate >= 0 && regionMatches(base, candidate, target, pos))
+			{
+				// extend the match backwards into pending literals and forwards
+				int start = pos;
+				int baseStart = candidate;
+				while (start > literalStart && baseStart > 0 &&
+					target[start - 1] == base[baseStart - 1])
+				{
+					--start;
+					--baseStart;
+				}
+				int end = pos + BLOCK;
+				int baseEnd = candidate + BLOCK;
+				while (end < target.length && baseEnd < base.length && target[end] == base[baseEnd])
+				{
+					++end;
+					++baseEnd;
+				}
+
+				output.writeLiterals(target, literalStart, start - literalStart);
+				output.writeCopy(baseStart, end - start);
+
+				pos = literalStart = end;
+				if (pos + BLOCK <= target.length)
+				{
+					hash = hash(target, pos);
+				}
+			}
+			else
+			{
+				if (pos + BLOCK < target.length)
+				{
+					hash = (hash - target[pos] * LEADING_MULTIPLIER) * MULTIPLIER +
+						target[pos + BLOCK];
+				}
+				++pos;
+			}
+		}
+
+		output.writeLiterals(target, literalStart, target.length - literalStart);
+		return output.toByteArray();
+	}
+
+	private static boolean regionMatches(byte[] base, int baseOffset, byte[] target,
+		int targetOffset)
+	{
+		for (int i = 0; i < BLOCK; ++i)
+		{
+			if (base[baseOffset + i] != target[targetOffset + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Applies the delta created by {@link #create(byte[], byte[])} to the base.
+	 * 
+	 * @param base
+	 * @param delta
+	 * @param offset
+	 *            offset of the delta in array
+	 * @return target
+	 */
+	static byte[] apply(byte[] base, byte[] delta, int offset)
+	{
+		try
+		{
+			int[] pos = new int[] { offset };
+			byte[] result = new byte[readVarint(delta, pos)];
+			int size = 0;
+			while (pos[0] < delta.length)
+			{
+				int header = readVarint(delta, pos);
+				int length = header >>> 1;
+				if ((header & 1) == 0)
+				{
+					System.arraycopy(delta, pos[0], result, size, length);
+					pos[0] += length;
+				}
+				else
+				{
+					System.arraycopy(base, readVarint(delta, pos), result, size, length);
+				}
+				size += length;
+			}
+			if (size != result.length)
+			{
+				throw new WicketRuntimeException("Corrupted page data delta");
+			}
+			return result;
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+			throw new WicketRuntimeException("Corrupted page data delta", e);
+		}
+	}
+
+	private static int readVarint(byte[] data, int[] pos)
+	{
+		int result = 0;
+		for (int shift = 0;; shift += 7)
+		{
+			byte b = data[pos[0]++];
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return result;
+			}
+		}
+	}
+}
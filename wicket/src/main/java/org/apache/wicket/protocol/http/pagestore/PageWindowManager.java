@@ -16,385 +16,673 @@
  */
 package org.apache.wicket.protocol.http.pagestore;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
-import org.apache.wicket.util.collections.IntHashMap;
-
 /**
  * Manages positions and size of serialized pages in the pagemap file.
  * <p>
  * The pages are stored inside the file in a cyclic way. Newer pages are placed after older ones,
  * until the maximum file size is reached. After that, the next page is stored in the beginning of
  * the file.
- * 
+ * <p>
+ * The windows are kept in primitive arrays. Each window occupies a slot that doesn't change while
+ * the window exists; the file order of windows is maintained as a doubly linked list of slots.
+ * Windows are looked up through two open addressing tables, one keyed by (pageId, versionNumber,
+ * ajaxVersionNumber) and one keyed by pageId that points to a chain of all windows of the page.
+ * Removing or merging windows therefore never requires rebuilding the index.
+ *
  * @author Matej Knopp
  */
 public class PageWindowManager implements Serializable
 {
-	private static final long serialVersionUID = 1L;
+	// the serialized form differs from the one of list based manager
+	private static final long serialVersionUID = 2L;
+
+	// version of the data written by writeObject, if it doesn't match the windows are dropped
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	// window slots
+
+	// id of page or -1 if the window is empty
+	private transient int[] pageIds;
+	private transient short[] versionNumbers;
+	private transient short[] ajaxVersionNumbers;
+
+	// offset in the file where the serialized page data begins
+	private transient int[] filePartOffsets;
+
+	// size of serialized page data
+	private transient int[] filePartSizes;
+
+	// order in which the windows were written, used to find last stored version of page
+	private transient int[] stamps;
+
+	// file order of windows, next is also used to chain free slots
+	private transient int[] next;
+	private transient int[] prev;
+
+	// chain of windows for the same page id
+	private transient int[] pageNext;
+	private transient int[] pagePrev;
+
+	// first and last window in the file
+	private transient int head;
+	private transient int tail;
+
+	// first free slot
+	private transient int freeSlot;
+
+	// number of slots in use
+	private transient int slotCount;
+
+	private transient int stampCounter;
+
+	// slot of last added page
+	private transient int indexPointer;
+
+	// (pageId, versionNumber, ajaxVersionNumber) -> slot
+	private transient SlotTable versionTable;
+
+	// pageId -> first slot in the page chain
+	private transient SlotTable pageTable;
 
 	/**
-	 * Contains information about a page inside the file.
-	 * 
-	 * @author Matej Knopp
+	 * Open addressing table of slots. The keys are not stored in the table itself, they are read
+	 * from the slot arrays. Entries contain slot + 1, 0 marks an empty entry and -1 a removed one.
 	 */
-	private static class PageWindowInternal implements Serializable
+	private final class SlotTable
 	{
-		private static final long serialVersionUID = 1L;
+		private final boolean byPageIdOnly;
 
-		// id of page or -1 if the window is empty
-		private int pageId;
+		private int[] entries;
 
-		private short versionNumber;
-		private short ajaxVersionNumber;
+		// live entries
+		private int size;
 
-		// offset in the file where the serialized page data begins
-		private int filePartOffset;
+		// live and removed entries
+		private int filled;
 
-		// size of serialized page data
-		private int filePartSize;
-	}
+		private SlotTable(boolean byPageIdOnly, int capacity)
+		{
+			this.byPageIdOnly = byPageIdOnly;
+			entries = new int[capacity];
+		}
 
-	// list of PageWindowInternal objects
-	private final List<PageWindowInternal> windows = new ArrayList<PageWindowInternal>();
+		private int hash(int pageId, int versionNumber, int ajaxVersionNumber)
+		{
+			int h = pageId * 0x9E3779B9;
+			if (!byPageIdOnly)
+			{
+				h = (h ^ versionNumber) * 0x9E3779B9;
+				h = (h ^ ajaxVersionNumber) * 0x9E3779B9;
+			}
+			return h ^ (h >>> 16);
+		}
 
-	// map from page id to list of pagewindow indices (referring to the windows
-	// list) - to improve searching speed
-	// the index must be cleaned when the instances in the windows list
-	// change their indexes (e.g. items are shifted on page window removal)
-	private IntHashMap<List<Integer>> idToWindowIndices = null;
+		private boolean matches(int slot, int pageId, int versionNumber, int ajaxVersionNumber)
+		{
+			return pageIds[slot] == pageId &&
+				(byPageIdOnly || (versionNumbers[slot] == versionNumber && ajaxVersionNumbers[slot] == ajaxVersionNumber));
+		}
 
-	private void putWindowIndex(int pageId, int windowIndex)
-	{
-		if (pageId != -1 && idToWindowIndices != null)
+		/**
+		 * @return slot or -1
+		 */
+		private int get(int pageId, int versionNumber, int ajaxVersionNumber)
 		{
-			List<Integer> indices = idToWindowIndices.get(pageId);
-			Integer index = new Integer(windowIndex);
-			if (indices == null)
+			int mask = entries.length - 1;
+			int i = hash(pageId, versionNumber, ajaxVersionNumber) & mask;
+			while (true)
 			{
-				indices = new ArrayList<Integer>();
-				indices.add(index);
-				idToWindowIndices.put(pageId, indices);
+				int entry = entries[i];
+				if (entry == 0)
+				{
+					return -1;
+				}
+				else if (entry > 0 && matches(entry - 1, pageId, versionNumber, ajaxVersionNumber))
+				{
+					return entry - 1;
+				}
+				i = (i + 1) & mask;
 			}
-			else if (indices.contains(index) == false)
+		}
+
+		/**
+		 * Returns position of entry for given slot. Must be called while the slot still holds the
+		 * key it was inserted with.
+		 */
+		private int position(int slot)
+		{
+			int mask = entries.length - 1;
+			int i = hash(pageIds[slot], versionNumbers[slot], ajaxVersionNumbers[slot]) & mask;
+			while (entries[i] != slot + 1)
 			{
-				indices.add(index);
+				if (entries[i] == 0)
+				{
+					throw new IllegalStateException("Slot " + slot + " is not indexed.");
+				}
+				i = (i + 1) & mask;
 			}
+			return i;
 		}
-	}
 
-	private void removeWindowIndex(int pageId, int windowIndex)
-	{
-		if (pageId != -1 && idToWindowIndices != null)
+		/**
+		 * Inserts the slot. There must be no entry with same key in the table.
+		 */
+		private void put(int slot)
 		{
-			List<Integer> indices = idToWindowIndices.get(pageId);
-			if (indices != null)
+			if ((filled + 1) * 4 > entries.length * 3)
+			{
+				rehash();
+			}
+			int mask = entries.length - 1;
+			int i = hash(pageIds[slot], versionNumbers[slot], ajaxVersionNumbers[slot]) & mask;
+			while (entries[i] > 0)
 			{
-				indices.remove(new Integer(windowIndex));
+				i = (i + 1) & mask;
 			}
+			if (entries[i] == 0)
+			{
+				++filled;
+			}
+			entries[i] = slot + 1;
+			++size;
 		}
-	}
 
-	private void rebuildIndices()
-	{
-		idToWindowIndices = new IntHashMap<List<Integer>>();
-		for (int i = 0; i < windows.size(); ++i)
+		private void remove(int slot)
 		{
-			PageWindowInternal window = windows.get(i);
-			putWindowIndex(window.pageId, i);
+			entries[position(slot)] = -1;
+			--size;
 		}
-	}
 
-	private int getWindowIndex(List<Integer> indices, int pageId, int versionNumber,
-		int ajaxVersionNumber)
-	{
-		int result = -1;
+		/**
+		 * Replaces the slot with another slot with the same key.
+		 */
+		private void replace(int slot, int newSlot)
+		{
+			entries[position(slot)] = newSlot + 1;
+		}
 
-		if (versionNumber != -1 && ajaxVersionNumber != -1)
+		private void rehash()
 		{
-			// just find the exact page version
-			for (Iterator<Integer> i = indices.iterator(); i.hasNext();)
+			int[] old = entries;
+			int capacity = INITIAL_CAPACITY;
+			while (capacity < (size + 1) * 4)
 			{
-				int currentIndex = (i.next()).intValue();
-				PageWindowInternal window = windows.get(currentIndex);
-
-				if (window.pageId == pageId && window.versionNumber == versionNumber &&
-					window.ajaxVersionNumber == ajaxVersionNumber)
-				{
-					result = currentIndex;
-					break;
-				}
+				capacity <<= 1;
 			}
-		}
-		else if (versionNumber == -1)
-		{
-			// we need to find last recently stored page window - that is page
-			// window with index closest to the left of the indexPointer or
-			// farthest
-			// to the right.
-			for (Iterator<Integer> i = indices.iterator(); i.hasNext();)
+			entries = new int[capacity];
+			size = 0;
+			filled = 0;
+			for (int i = 0; i < old.length; ++i)
 			{
-				int currentIndex = (i.next()).intValue();
-				PageWindowInternal window = windows.get(currentIndex);
-
-				if (window.pageId == pageId)
+				if (old[i] > 0)
 				{
-					if ((result == -1) || /**/
-					(currentIndex <= indexPointer && result > indexPointer) || /**/
-					(currentIndex > result && currentIndex <= indexPointer) || /**/
-					(currentIndex > result && result > indexPointer))
+					int mask = capacity - 1;
+					int slot = old[i] - 1;
+					int j = hash(pageIds[slot], versionNumbers[slot], ajaxVersionNumbers[slot]) &
+						mask;
+					while (entries[j] != 0)
 					{
-						result = currentIndex;
+						j = (j + 1) & mask;
 					}
+					entries[j] = old[i];
+					++size;
+					++filled;
 				}
 			}
 		}
-		else if (ajaxVersionNumber == -1)
+	}
+
+	/**
+	 * Creates a new PageWindowManager.
+	 *
+	 * @param maxSize
+	 *            maximum page size. After this size is exceeded, the pages will be saved starting
+	 *            at the beginning of file
+	 */
+	public PageWindowManager(int maxSize)
+	{
+		this.maxSize = maxSize;
+		init(INITIAL_CAPACITY);
+	}
+
+	private void init(int capacity)
+	{
+		pageIds = new int[capacity];
+		versionNumbers = new short[capacity];
+		ajaxVersionNumbers = new short[capacity];
+		filePartOffsets = new int[capacity];
+		filePartSizes = new int[capacity];
+		stamps = new int[capacity];
+		next = new int[capacity];
+		prev = new int[capacity];
+		pageNext = new int[capacity];
+		pagePrev = new int[capacity];
+		head = -1;
+		tail = -1;
+		freeSlot = -1;
+		slotCount = 0;
+		stampCounter = 0;
+		indexPointer = -1;
+		versionTable = new SlotTable(false, INITIAL_CAPACITY * 2);
+		pageTable = new SlotTable(true, INITIAL_CAPACITY * 2);
+	}
+
+	private void growSlots()
+	{
+		int capacity = pageIds.length * 2;
+		pageIds = grow(pageIds, capacity);
+		versionNumbers = grow(versionNumbers, capacity);
+		ajaxVersionNumbers = grow(ajaxVersionNumbers, capacity);
+		filePartOffsets = grow(filePartOffsets, capacity);
+		filePartSizes = grow(filePartSizes, capacity);
+		stamps = grow(stamps, capacity);
+		next = grow(next, capacity);
+		prev = grow(prev, capacity);
+		pageNext = grow(pageNext, capacity);
+		pagePrev = grow(pagePrev, capacity);
+	}
+
+	private static int[] grow(int[] array, int capacity)
+	{
+		int[] result = new int[capacity];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private static short[] grow(short[] array, int capacity)
+	{
+		short[] result = new short[capacity];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	/**
+	 * Allocates an empty slot. The slot is not linked into the file order.
+	 *
+	 * @return slot
+	 */
+	private int newSlot()
+	{
+		int slot;
+		if (freeSlot != -1)
+		{
+			slot = freeSlot;
+			freeSlot = next[slot];
+		}
+		else
 		{
-			int lastAjaxVersion = -1;
-			// we need to find index with highest ajax version
-			for (Iterator<Integer> i = indices.iterator(); i.hasNext();)
+			if (slotCount == pageIds.length)
 			{
-				int currentIndex = (i.next()).intValue();
-				PageWindowInternal window = windows.get(currentIndex);
-
-				if (window.pageId == pageId && window.versionNumber == versionNumber &&
-					window.ajaxVersionNumber > lastAjaxVersion)
-				{
-					result = currentIndex;
-					lastAjaxVersion = window.ajaxVersionNumber;
-				}
+				growSlots();
 			}
+			slot = slotCount++;
+		}
+		pageIds[slot] = -1;
+		versionNumbers[slot] = 0;
+		ajaxVersionNumbers[slot] = 0;
+		filePartOffsets[slot] = 0;
+		filePartSizes[slot] = 0;
+		stamps[slot] = 0;
+		next[slot] = -1;
+		prev[slot] = -1;
+		pageNext[slot] = -1;
+		pagePrev[slot] = -1;
+		return slot;
+	}
+
+	/**
+	 * Unlinks the slot from the file order and returns it to the free list.
+	 *
+	 * @param slot
+	 */
+	private void freeSlot(int slot)
+	{
+		clearWindow(slot);
+		if (prev[slot] != -1)
+		{
+			next[prev[slot]] = next[slot];
+		}
+		else
+		{
+			head = next[slot];
 		}
+		if (next[slot] != -1)
+		{
+			prev[next[slot]] = prev[slot];
+		}
+		else
+		{
+			tail = prev[slot];
+		}
+		next[slot] = freeSlot;
+		freeSlot = slot;
+	}
 
-		return result;
+	/**
+	 * Inserts a slot to the file order after the given slot.
+	 *
+	 * @param after
+	 * @param slot
+	 */
+	private void linkAfter(int after, int slot)
+	{
+		prev[slot] = after;
+		if (after == -1)
+		{
+			next[slot] = head;
+			head = slot;
+		}
+		else
+		{
+			next[slot] = next[after];
+			next[after] = slot;
+		}
+		if (next[slot] != -1)
+		{
+			prev[next[slot]] = slot;
+		}
+		else
+		{
+			tail = slot;
+		}
 	}
 
 	/**
-	 * Returns the index of the given page in the {@link #windows} list.
-	 * 
+	 * Assigns the page to the (empty) window and adds it to the indices.
+	 *
+	 * @param slot
 	 * @param pageId
 	 * @param versionNumber
 	 * @param ajaxVersionNumber
-	 * @return window index
 	 */
-	private int getWindowIndex(int pageId, int versionNumber, int ajaxVersionNumber)
+	private void assignWindow(int slot, int pageId, int versionNumber, int ajaxVersionNumber)
 	{
-		int index = -1;
+		pageIds[slot] = pageId;
+		versionNumbers[slot] = (short)versionNumber;
+		ajaxVersionNumbers[slot] = (short)ajaxVersionNumber;
+		stamps[slot] = ++stampCounter;
+
+		versionTable.put(slot);
 
-		if (idToWindowIndices == null)
+		int first = pageTable.get(pageId, 0, 0);
+		if (first == -1)
 		{
-			rebuildIndices();
+			pageTable.put(slot);
 		}
-
-		List<Integer> indices = idToWindowIndices.get(pageId);
-		if (indices != null)
+		else
 		{
-			index = getWindowIndex(indices, pageId, versionNumber, ajaxVersionNumber);
+			// the new slot becomes first in the page chain
+			pageTable.replace(first, slot);
+			pagePrev[first] = slot;
+			pageNext[slot] = first;
 		}
-		return index;
 	}
 
-	// index of last added page
-	private int indexPointer = -1;
-
 	/**
-	 * Increments the {@link #indexPointer}. If the maximum file size has been reached, the
-	 * {@link #indexPointer} is set to 0.
-	 * 
-	 * @return new index pointer
+	 * Removes the page from the window (if there is any) and from the indices. The window itself
+	 * stays in place.
+	 *
+	 * @param slot
 	 */
-	private int incrementIndexPointer()
+	private void clearWindow(int slot)
 	{
-		if (maxSize > 0 && totalSize >= maxSize && indexPointer == windows.size() - 1)
+		if (pageIds[slot] == -1)
 		{
-			indexPointer = 0;
+			return;
+		}
+
+		versionTable.remove(slot);
+
+		if (pagePrev[slot] == -1)
+		{
+			// first in the page chain
+			if (pageNext[slot] == -1)
+			{
+				pageTable.remove(slot);
+			}
+			else
+			{
+				pageTable.replace(slot, pageNext[slot]);
+			}
 		}
 		else
 		{
-			++indexPointer;
+			pageNext[pagePrev[slot]] = pageNext[slot];
 		}
-		return indexPointer;
+		if (pageNext[slot] != -1)
+		{
+			pagePrev[pageNext[slot]] = pagePrev[slot];
+		}
+		pageNext[slot] = -1;
+		pagePrev[slot] = -1;
+
+		pageIds[slot] = -1;
+	}
+
+	/**
+	 * Returns the slot of the given page or -1. Note that the versionNumber and ajaxVersionNumber
+	 * parameters may be -1.
+	 * <ul>
+	 * <li>If ajaxVersionNumber is -1 and versionNumber is specified, the window with highest ajax
+	 * version is returned.
+	 * <li>If both versionNumber and ajaxVersioNumber are -1, the last stored window with given id
+	 * is returned.
+	 * </ul>
+	 *
+	 * @param pageId
+	 * @param versionNumber
+	 * @param ajaxVersionNumber
+	 * @return window slot
+	 */
+	private int getWindowIndex(int pageId, int versionNumber, int ajaxVersionNumber)
+	{
+		if (pageId == -1)
+		{
+			return -1;
+		}
+		if (versionNumber != -1 && ajaxVersionNumber != -1)
+		{
+			return versionTable.get(pageId, (short)versionNumber, (short)ajaxVersionNumber);
+		}
+
+		int result = -1;
+		for (int slot = pageTable.get(pageId, 0, 0); slot != -1; slot = pageNext[slot])
+		{
+			if (versionNumber == -1)
+			{
+				// last recently stored window
+				if (result == -1 || stamps[slot] > stamps[result])
+				{
+					result = slot;
+				}
+			}
+			else if (versionNumbers[slot] == versionNumber)
+			{
+				// window with highest ajax version
+				if (result == -1 || ajaxVersionNumbers[slot] > ajaxVersionNumbers[result])
+				{
+					result = slot;
+				}
+			}
+		}
+		return result;
 	}
 
 	/**
-	 * Returns the offset in file of the window on given index. The offset is counted by getting the
-	 * previous page offset and adding the previous page size to it.
-	 * 
-	 * @param index
-	 * @return window file offset
+	 * Moves the {@link #indexPointer} to the next window. If the maximum file size has been
+	 * reached, the {@link #indexPointer} is set to the first window.
+	 *
+	 * @return new index pointer or -1 if a new window should be appended to the file
 	 */
-	private int getWindowFileOffset(int index)
+	private int incrementIndexPointer()
 	{
-		if (index > 0)
+		if (maxSize > 0 && totalSize >= maxSize && indexPointer == tail)
 		{
-			PageWindowInternal window = windows.get(index - 1);
-			return window.filePartOffset + window.filePartSize;
+			indexPointer = head;
 		}
 		else
 		{
-			return 0;
+			indexPointer = indexPointer == -1 ? head : next[indexPointer];
 		}
+		return indexPointer;
 	}
 
 	/**
-	 * Splits the window with given index to two windows. First of those will have size specified by
+	 * Splits the window with given slot to two windows. First of those will have size specified by
 	 * the argument, the other one will fill up the rest of the original window.
-	 * 
-	 * @param index
+	 *
+	 * @param slot
 	 * @param size
 	 */
-	private void splitWindow(int index, int size)
+	private void splitWindow(int slot, int size)
 	{
-		PageWindowInternal window = windows.get(index);
-		int delta = window.filePartSize - size;
+		int delta = filePartSizes[slot] - size;
 
-		if (index == windows.size() - 1)
+		if (slot == tail)
 		{
 			// if this is last window
 			totalSize -= delta;
-			window.filePartSize = size;
+			filePartSizes[slot] = size;
 		}
-		else if (window.filePartSize != size)
+		else if (delta != 0)
 		{
-			PageWindowInternal newWindow = new PageWindowInternal();
-			newWindow.pageId = -1;
-			window.filePartSize = size;
+			filePartSizes[slot] = size;
 
-			windows.add(index + 1, newWindow);
-
-			newWindow.filePartOffset = getWindowFileOffset(index + 1);
-			newWindow.filePartSize = delta;
+			int newWindow = newSlot();
+			linkAfter(slot, newWindow);
+			filePartOffsets[newWindow] = filePartOffsets[slot] + size;
+			filePartSizes[newWindow] = delta;
 		}
-
-		idToWindowIndices = null;
 	}
 
 	/**
-	 * Merges the window with given index with the next window. The resulting window will have size
+	 * Merges the window with given slot with the next window. The resulting window will have size
 	 * of the two windows summed together.
-	 * 
-	 * @param index
+	 *
+	 * @param slot
 	 */
-	private void mergeWindowWithNext(int index)
+	private void mergeWindowWithNext(int slot)
 	{
-		if (index < windows.size() - 1)
+		if (slot != tail)
 		{
-			PageWindowInternal window = windows.get(index);
-			PageWindowInternal next = windows.get(index + 1);
-			window.filePartSize += next.filePartSize;
-
-			windows.remove(index + 1);
-			idToWindowIndices = null; // reset index
+			int nextSlot = next[slot];
+			filePartSizes[slot] += filePartSizes[nextSlot];
+			freeSlot(nextSlot);
 		}
 	}
 
 	/**
-	 * Adjusts the window on given index to the specified size. If the new size is smaller than the
+	 * Adjusts the window on given slot to the specified size. If the new size is smaller than the
 	 * window size, the window will be split. Otherwise the window will be merged with as many
 	 * subsequent window as necessary. In case the window is last window in the file, the size will
 	 * be adjusted without splitting or merging.
-	 * 
-	 * @param index
+	 *
+	 * @param slot
 	 * @param size
 	 */
-	private void adjustWindowSize(int index, int size)
+	private void adjustWindowSize(int slot, int size)
 	{
-		PageWindowInternal window = windows.get(index);
-
 		// last window, just adjust size
-		if (index == windows.size() - 1)
+		if (slot == tail)
 		{
-			int delta = size - window.filePartSize;
+			int delta = size - filePartSizes[slot];
 			totalSize += delta;
-			window.filePartSize = size;
+			filePartSizes[slot] = size;
 		}
 		else
 		{
 			// merge as many times as necessary
-			while (window.filePartSize < size && index < windows.size() - 1)
+			while (filePartSizes[slot] < size && slot != tail)
 			{
-				mergeWindowWithNext(index);
+				mergeWindowWithNext(slot);
 			}
 			// done merging - do we have enough room ?
-			if (window.filePartSize < size)
+			if (filePartSizes[slot] < size)
 			{
 				// no, this is the last window
-				int delta = size - window.filePartSize;
+				int delta = size - filePartSizes[slot];
 				totalSize += delta;
-				window.filePartSize = size;
+				filePartSizes[slot] = size;
 			}
 			else
 			{
 				// yes, we might want to split the window, so that we don't lose
-				// space when
-				// the created window was too big
-				splitWindow(index, size);
+				// space when the created window was too big
+				splitWindow(slot, size);
 			}
 		}
-
-		window.pageId = -1;
 	}
 
 	/**
-	 * Allocates window on given index with to size. If the index is pointing to existing window,
-	 * the window size will be adjusted. Otherwise a new window with appropriated size will be
-	 * created.
-	 * 
-	 * @param index
+	 * Allocates window on given slot with to size. If the slot is pointing to existing window,
+	 * the window size will be adjusted. Otherwise (slot is -1) a new window with appropriate size
+	 * will be appended to the file.
+	 *
+	 * @param slot
 	 * @param size
-	 * @return page window
+	 * @return window slot
 	 */
-	private PageWindowInternal allocatePageWindow(int index, int size)
+	private int allocatePageWindow(int slot, int size)
 	{
-		final PageWindowInternal window;
-
-		// new window
-		if (index == windows.size())
+		if (slot == -1)
 		{
 			// new page window
-			window = new PageWindowInternal();
-			window.filePartOffset = getWindowFileOffset(index);
+			slot = newSlot();
+			filePartOffsets[slot] = tail == -1 ? 0 : filePartOffsets[tail] +
+				filePartSizes[tail];
+			filePartSizes[slot] = size;
 			totalSize += size;
-			window.filePartSize = size;
-			windows.add(window);
+			linkAfter(tail, slot);
 		}
 		else
 		{
-			// get the window
-			window = windows.get(index);
+			// the window is going to be overwritten
+			clearWindow(slot);
 
 			// adjust if necessary
-			if (window.filePartSize != size)
+			if (filePartSizes[slot] != size)
 			{
-				adjustWindowSize(index, size);
+				adjustWindowSize(slot, size);
 			}
 		}
-
-
-		return window;
+		return slot;
 	}
 
 	/**
 	 * Public (read only) version of page window.
-	 * 
+	 *
 	 * @author Matej Knopp
 	 */
 	public static class PageWindow
 	{
-		private final PageWindowInternal pageWindowInternal;
+		private final int pageId;
+		private final int versionNumber;
+		private final int ajaxVersionNumber;
+		private final int filePartOffset;
+		private final int filePartSize;
 
 		/**
 		 * Construct.
-		 * 
-		 * @param pageWindowInternal
+		 *
+		 * @param manager
+		 * @param slot
 		 */
-		private PageWindow(PageWindowInternal pageWindowInternal)
+		private PageWindow(PageWindowManager manager, int slot)
 		{
-			this.pageWindowInternal = pageWindowInternal;
+			pageId = manager.pageIds[slot];
+			versionNumber = manager.versionNumbers[slot];
+			ajaxVersionNumber = manager.ajaxVersionNumbers[slot];
+			filePartOffset = manager.filePartOffsets[slot];
+			filePartSize = manager.filePartSizes[slot];
 		}
 
 		/**
@@ -402,7 +690,7 @@ public class PageWindowManager implements Serializable
 		 */
 		public int getPageId()
 		{
-			return pageWindowInternal.pageId;
+			return pageId;
 		}
 
 		/**
@@ -410,7 +698,7 @@ public class PageWindowManager implements Serializable
 		 */
 		public int getVersionNumber()
 		{
-			return pageWindowInternal.versionNumber;
+			return versionNumber;
 		}
 
 		/**
@@ -418,7 +706,7 @@ public class PageWindowManager implements Serializable
 		 */
 		public int getAjaxVersionNumber()
 		{
-			return pageWindowInternal.ajaxVersionNumber;
+			return ajaxVersionNumber;
 		}
 
 		/**
@@ -426,7 +714,7 @@ public class PageWindowManager implements Serializable
 		 */
 		public int getFilePartOffset()
 		{
-			return pageWindowInternal.filePartOffset;
+			return filePartOffset;
 		}
 
 		/**
@@ -434,13 +722,13 @@ public class PageWindowManager implements Serializable
 		 */
 		public int getFilePartSize()
 		{
-			return pageWindowInternal.filePartSize;
+			return filePartSize;
 		}
 	}
 
 	/**
 	 * Creates and returns a new page window for given page.
-	 * 
+	 *
 	 * @param pageId
 	 * @param versionNumber
 	 * @param ajaxVersionNumber
@@ -450,35 +738,32 @@ public class PageWindowManager implements Serializable
 	public PageWindow createPageWindow(int pageId, int versionNumber, int ajaxVersionNumber,
 		int size)
 	{
-		int index = getWindowIndex(pageId, versionNumber, ajaxVersionNumber);
+		int slot = getWindowIndex(pageId, versionNumber, ajaxVersionNumber);
 
 		// if we found the page window, mark it as invalid
-		if (index != -1)
+		if (slot != -1)
 		{
-			removeWindowIndex(pageId, index);
-			(windows.get(index)).pageId = -1;
+			clearWindow(slot);
 		}
 
 		// if we are not going to reuse a page window (because it's not on
-		// indexPointor position or because we didn't find it), increment the
+		// indexPointer position or because we didn't find it), increment the
 		// indexPointer
-		if (index == -1 || index != indexPointer)
+		if (slot == -1 || slot != indexPointer)
 		{
-			index = incrementIndexPointer();
+			slot = incrementIndexPointer();
 		}
 
-		PageWindowInternal window = allocatePageWindow(index, size);
-		window.pageId = pageId;
-		window.versionNumber = (short)versionNumber;
-		window.ajaxVersionNumber = (short)ajaxVersionNumber;
+		slot = allocatePageWindow(slot, size);
+		indexPointer = slot;
+		assignWindow(slot, pageId, versionNumber, ajaxVersionNumber);
 
-		putWindowIndex(pageId, index);
-		return new PageWindow(window);
+		return new PageWindow(this, slot);
 	}
 
 	/**
 	 * Returns the page window for given page or null if no window was found.
-	 * 
+	 *
 	 * @param pageId
 	 * @param versionNumber
 	 * @param ajaxVersionNumber
@@ -486,10 +771,10 @@ public class PageWindowManager implements Serializable
 	 */
 	public PageWindow getPageWindow(int pageId, int versionNumber, int ajaxVersionNumber)
 	{
-		int index = getWindowIndex(pageId, versionNumber, ajaxVersionNumber);
-		if (index != -1)
+		int slot = getWindowIndex(pageId, versionNumber, ajaxVersionNumber);
+		if (slot != -1)
 		{
-			return new PageWindow(windows.get(index));
+			return new PageWindow(this, slot);
 		}
 		else
 		{
@@ -497,122 +782,182 @@ public class PageWindowManager implements Serializable
 		}
 	}
 
+	/**
+	 * Removes the page window on given slot.
+	 *
+	 * @param slot
+	 */
+	private void removeWindow(int slot)
+	{
+		if (slot == tail)
+		{
+			totalSize -= filePartSizes[slot];
+			if (indexPointer == slot)
+			{
+				indexPointer = prev[slot];
+			}
+			freeSlot(slot);
+		}
+		else
+		{
+			clearWindow(slot);
+		}
+	}
+
 	/**
 	 * Removes the page window for given page.
-	 * 
+	 *
 	 * @param pageId
 	 * @param versionNumber
 	 * @param ajaxVersionNumber
 	 */
 	public void removePage(int pageId, int versionNumber, int ajaxVersionNumber)
 	{
-		int index = getWindowIndex(pageId, versionNumber, ajaxVersionNumber);
-		if (index != -1)
+		int slot = getWindowIndex(pageId, versionNumber, ajaxVersionNumber);
+		if (slot != -1)
 		{
-			PageWindowInternal window = windows.get(index);
-			removeWindowIndex(pageId, index);
-			if (index == windows.size() - 1)
-			{
-				windows.remove(index);
-				totalSize -= window.filePartSize;
-				if (indexPointer == index)
-				{
-					--indexPointer;
-				}
-			}
-			else
-			{
-				window.pageId = -1;
-			}
+			removeWindow(slot);
 		}
 	}
 
 	/**
 	 * Removes all page windows for given page. Removes all page versions.
-	 * 
+	 *
 	 * @param pageId
 	 */
 	public void removePage(int pageId)
 	{
-		if (idToWindowIndices == null)
-		{
-			rebuildIndices();
-		}
-		List<Integer> indicesList = idToWindowIndices.get(pageId);
-
-		if (indicesList != null)
+		int slot = pageId != -1 ? pageTable.get(pageId, 0, 0) : -1;
+		while (slot != -1)
 		{
-			// we need to make a copy, as the removePage removes index from indicesList
-			Object[] indices = indicesList.toArray();
-			for (int i = 0; i < indices.length; i++)
-			{
-				int index = ((Integer)indices[i]).intValue();
-				PageWindowInternal window = windows.get(index);
-				if (window.pageId == pageId)
-				{
-					removePage(window.pageId, window.versionNumber, window.ajaxVersionNumber);
-				}
-			}
+			int nextSlot = pageNext[slot];
+			removeWindow(slot);
+			slot = nextSlot;
 		}
 	}
 
 	/**
 	 * Returns last n saved page windows.
-	 * 
+	 *
 	 * @param count
 	 * @return list of page windows
 	 */
 	public synchronized List<PageWindow> getLastPageWindows(int count)
 	{
 		List<PageWindow> result = new ArrayList<PageWindow>();
-		int currentIndex = indexPointer;
+		int slot = indexPointer;
 
-		do
+		while (slot != -1 && result.size() < count)
 		{
-			if (currentIndex == -1)
+			if (pageIds[slot] != -1)
 			{
-				break;
-			}
-
-			PageWindowInternal window = windows.get(currentIndex);
-			if (window.pageId != -1)
-			{
-				result.add(new PageWindow(window));
+				result.add(new PageWindow(this, slot));
 			}
 
-			--currentIndex;
-
-			if (currentIndex == -1)
+			slot = prev[slot] != -1 ? prev[slot] : tail;
+			if (slot == indexPointer)
 			{
-				currentIndex = result.size() - 1;
+				break;
 			}
-
 		}
-		while (result.size() < count && currentIndex != indexPointer);
 
 		return result;
 	}
 
 	/**
-	 * Creates a new PageWindowManager.
-	 * 
-	 * @param maxSize
-	 *            maximum page size. After this size is exceeded, the pages will be saved starting
-	 *            at the beginning of file
+	 * Returns the size of all saved pages
+	 *
+	 * @return total size
 	 */
-	public PageWindowManager(int maxSize)
+	public int getTotalSize()
 	{
-		this.maxSize = maxSize;
+		return totalSize;
 	}
 
 	/**
-	 * Returns the size of all saved pages
-	 * 
-	 * @return total size
+	 * Writes only the windows in file order, the offsets and indices are restored on
+	 * deserialization. The windows are preceded by {@link #FORMAT_VERSION}.
+	 *
+	 * @param s
+	 * @throws IOException
 	 */
-	public int getTotalSize()
+	private void writeObject(ObjectOutputStream s) throws IOException
 	{
-		return totalSize;
+		s.defaultWriteObject();
+		s.writeInt(FORMAT_VERSION);
+
+		int windowCount = 0;
+		int pointerPosition = -1;
+		for (int slot = head; slot != -1; slot = next[slot])
+		{
+			if (slot == indexPointer)
+			{
+				pointerPosition = windowCount;
+			}
+			++windowCount;
+		}
+
+		s.writeInt(windowCount);
+		s.writeInt(pointerPosition);
+		for (int slot = head; slot != -1; slot = next[slot])
+		{
+			s.writeInt(pageIds[slot]);
+			s.writeShort(versionNumbers[slot]);
+			s.writeShort(ajaxVersionNumbers[slot]);
+			s.writeInt(filePartSizes[slot]);
+			s.writeInt(stamps[slot]);
+		}
+	}
+
+	private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException
+	{
+		s.defaultReadObject();
+
+		if (s.readInt() != FORMAT_VERSION)
+		{
+			// unknown format, start with empty file (the rest of the data is skipped by stream)
+			init(INITIAL_CAPACITY);
+			totalSize = 0;
+			return;
+		}
+
+		int windowCount = s.readInt();
+		int pointerPosition = s.readInt();
+
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < windowCount)
+		{
+			capacity <<= 1;
+		}
+		init(capacity);
+
+		int offset = 0;
+		for (int i = 0; i < windowCount; ++i)
+		{
+			int pageId = s.readInt();
+			short versionNumber = s.readShort();
+			short ajaxVersionNumber = s.readShort();
+			int size = s.readInt();
+			int stamp = s.readInt();
+
+			int slot = newSlot();
+			filePartOffsets[slot] = offset;
+			filePartSizes[slot] = size;
+			linkAfter(tail, slot);
+			offset += size;
+
+			if (pageId != -1)
+			{
+				assignWindow(slot, pageId, versionNumber, ajaxVersionNumber);
+			}
+			stamps[slot] = stamp;
+			stampCounter = Math.max(stampCounter, stamp);
+
+			if (i == pointerPosition)
+			{
+				indexPointer = slot;
+			}
+		}
 	}
 
 	private int totalSize = 0;
@@ -0,0 +1,1000 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.Page;
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.thread.ICode;
+import org.apache.wicket.util.thread.Task;
+import org.apache.wicket.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore} implementation
+ * that appends the serialized pages of all sessions to a small number of large, memory mapped
+ * segment files.
+ * <p>
+ * Unlike {@link DiskPageStore}, which keeps a separate file (and file channel) per pagemap, this
+ * store only keeps a compact offset index per session. The number of opened files is bounded by
+ * the maximum number of segments and all writes are sequential appends to the current segment.
+ * <p>
+ * The pages of a session may take at most {@link #getMaxSizePerSession()} bytes. A session that
+ * exceeds it loses its own oldest pages first. When the current segment is full, a new one is
+ * started. Only if the maximum number of segments is exceeded anyway, the oldest segment is
+ * dropped together with the pages of all sessions it contains (see
+ * {@link #getEvictedSegmentCount()}). Segments that
+ * contain mostly superseded or removed pages are compacted by a background task: the pages still
+ * referenced are copied to the current segment and the old segment file is deleted.
+ */
+public class SegmentedFilePageStore extends AbstractPageStore
+{
+	/**
+	 * A single segment file, mapped to memory. Threads accessing the buffer outside of the append
+	 * lock pin the segment, so that it is not unmapped while they read or write it.
+	 */
+	private static class Segment
+	{
+		private final int id;
+		private final File file;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+
+		// offset where the next page will be appended, guarded by the store's append lock
+		private int writeOffset = 0;
+
+		// number of bytes in this segment still referenced from a session index
+		private final AtomicInteger liveBytes = new AtomicInteger(0);
+
+		// number of threads using the buffer and whether the segment has been dropped, guarded by
+		// the segment
+		private int pins = 0;
+		private boolean dropped = false;
+
+		private Segment(int id, File file, int size) throws IOException
+		{
+			this.id = id;
+			this.file = file;
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		/**
+		 * @return <code>false</code> if the segment has already been dropped
+		 */
+		private synchronized boolean pin()
+		{
+			if (dropped)
+			{
+				return false;
+			}
+			++pins;
+			return true;
+		}
+
+		private void unpin()
+		{
+			boolean release;
+			synchronized (this)
+			{
+				release = --pins == 0 && dropped;
+			}
+			if (release)
+			{
+				closeAndDelete();
+			}
+		}
+
+		/**
+		 * Marks the segment as dropped. The file is closed and deleted once no thread uses it.
+		 */
+		private void drop()
+		{
+			boolean release;
+			synchronized (this)
+			{
+				release = !dropped && pins == 0;
+				dropped = true;
+			}
+			if (release)
+			{
+				closeAndDelete();
+			}
+		}
+
+		private void write(int offset, byte[] data)
+		{
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset);
+			view.put(data);
+		}
+
+		private byte[] read(int offset, int size)
+		{
+			byte[] result = new byte[size];
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset);
+			view.get(result);
+			return result;
+		}
+
+		private void closeAndDelete()
+		{
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				log.error("Error closing segment file " + file, e);
+			}
+			// the file can't be deleted on all platforms while it is still mapped
+			unmap(buffer);
+			if (!file.delete())
+			{
+				log.warn("Unable to delete segment file " + file);
+			}
+		}
+	}
+
+	/**
+	 * Releases the mapping of the buffer without waiting for garbage collection. There is no
+	 * public API for this, so it is done reflectively and left to the garbage collector if it
+	 * fails.
+	 *
+	 * @param buffer
+	 */
+	private static void unmap(MappedByteBuffer buffer)
+	{
+		try
+		{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner;
+			try
+			{
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			}
+			catch (NoSuchMethodException e)
+			{
+				// Java 8 and older
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null)
+				{
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+				return;
+			}
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		}
+		catch (Exception e)
+		{
+			log.debug("Unable to unmap segment buffer, leaving it to the garbage collector: " + e);
+		}
+	}
+
+	/**
+	 * Compact index of pages stored for a single session. The entries are kept in primitive arrays
+	 * in the order they were saved, so the last matching entry is always the last saved one.
+	 */
+	private static class SessionIndex
+	{
+		private final List<String> pageMapNames = new ArrayList<String>(1);
+
+		private int size = 0;
+
+		// sum of the lengths of all entries
+		private long bytes = 0;
+
+		private int[] pageMaps = new int[8];
+		private int[] pageIds = new int[8];
+		private int[] versions = new int[8];
+		private int[] ajaxVersions = new int[8];
+		private int[] lengths = new int[8];
+
+		// segment id in the upper 32 bits, offset in segment in the lower 32 bits
+		private long[] locations = new long[8];
+
+		private int getPageMapIndex(String pageMapName, boolean create)
+		{
+			int index = pageMapNames.indexOf(pageMapName);
+			if (index == -1 && create)
+			{
+				pageMapNames.add(pageMapName);
+				index = pageMapNames.size() - 1;
+			}
+			return index;
+		}
+
+		private void ensureCapacity(int capacity)
+		{
+			if (capacity > pageIds.length)
+			{
+				int newLength = Math.max(capacity, pageIds.length * 2);
+				pageMaps = grow(pageMaps, newLength);
+				pageIds = grow(pageIds, newLength);
+				versions = grow(versions, newLength);
+				ajaxVersions = grow(ajaxVersions, newLength);
+				lengths = grow(lengths, newLength);
+				long[] newLocations = new long[newLength];
+				System.arraycopy(locations, 0, newLocations, 0, size);
+				locations = newLocations;
+			}
+		}
+
+		private int[] grow(int[] array, int newLength)
+		{
+			int[] result = new int[newLength];
+			System.arraycopy(array, 0, result, 0, size);
+			return result;
+		}
+
+		private void add(int pageMap, int pageId, int version, int ajaxVersion, int length,
+			long location)
+		{
+			ensureCapacity(size + 1);
+			pageMaps[size] = pageMap;
+			pageIds[size] = pageId;
+			versions[size] = version;
+			ajaxVersions[size] = ajaxVersion;
+			lengths[size] = length;
+			locations[size] = location;
+			bytes += length;
+			++size;
+		}
+
+		private void remove(int index)
+		{
+			bytes -= lengths[index];
+			int tail = size - index - 1;
+			if (tail > 0)
+			{
+				System.arraycopy(pageMaps, index + 1, pageMaps, index, tail);
+				System.arraycopy(pageIds, index + 1, pageIds, index, tail);
+				System.arraycopy(versions, index + 1, versions, index, tail);
+				System.arraycopy(ajaxVersions, index + 1, ajaxVersions, index, tail);
+				System.arraycopy(lengths, index + 1, lengths, index, tail);
+				System.arraycopy(locations, index + 1, locations, index, tail);
+			}
+			--size;
+		}
+
+		/**
+		 * Returns the index of the entry for given page or -1. Follows the contract of
+		 * {@link org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#getPage(String, String, int, int, int)}
+		 * for version numbers set to -1.
+		 */
+		private int find(int pageMap, int pageId, int version, int ajaxVersion)
+		{
+			int result = -1;
+			for (int i = size - 1; i >= 0; --i)
+			{
+				if (pageMaps[i] != pageMap || pageIds[i] != pageId)
+				{
+					continue;
+				}
+				if (version == -1)
+				{
+					// last saved version
+					return i;
+				}
+				else if (versions[i] == version)
+				{
+					if (ajaxVersion == -1)
+					{
+						// highest ajax version
+						if (result == -1 || ajaxVersions[i] > ajaxVersions[result])
+						{
+							result = i;
+						}
+					}
+					else if (ajaxVersions[i] == ajaxVersion)
+					{
+						return i;
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	private static int getSegmentId(long location)
+	{
+		return (int)(location >>> 32);
+	}
+
+	private static int getSegmentOffset(long location)
+	{
+		return (int)location;
+	}
+
+	private static long getLocation(int segmentId, int offset)
+	{
+		return ((long)segmentId << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	private final Map<Integer, Segment> segments = new ConcurrentHashMap<Integer, Segment>();
+
+	private final Map<String, SessionIndex> sessionIndices = new ConcurrentHashMap<String, SessionIndex>();
+
+	// guards current segment, segment rolling and dropping
+	private final Object appendLock = new Object();
+
+	private Segment currentSegment = null;
+
+	private int nextSegmentId = 0;
+
+	private final File segmentFolder;
+
+	private final int segmentSize;
+
+	private final int maxSegments;
+
+	private final int maxSizePerSession;
+
+	// segments dropped while they still contained live pages and the bytes of those pages
+	private final AtomicLong evictedSegmentCount = new AtomicLong();
+	private final AtomicLong evictedBytes = new AtomicLong();
+
+	private final Task compactionTask;
+
+	/**
+	 * Creates a new {@link SegmentedFilePageStore} instance.
+	 *
+	 * @param fileStoreFolder
+	 *            folder in which the segment files will be stored
+	 * @param segmentSize
+	 *            size of a single segment file (in bytes). This is also the maximum size of a
+	 *            single serialized page.
+	 * @param maxSegments
+	 *            maximum number of segment files. After this number is exceeded, the oldest
+	 *            segment is dropped.
+	 */
+	public SegmentedFilePageStore(File fileStoreFolder, int segmentSize, int maxSegments)
+	{
+		this(fileStoreFolder, segmentSize, maxSegments, (int)Bytes.megabytes(10).bytes());
+	}
+
+	/**
+	 * Creates a new {@link SegmentedFilePageStore} instance.
+	 *
+	 * @param fileStoreFolder
+	 *            folder in which the segment files will be stored
+	 * @param segmentSize
+	 *            size of a single segment file (in bytes). This is also the maximum size of a
+	 *            single serialized page.
+	 * @param maxSegments
+	 *            maximum number of segment files. After this number is exceeded, the oldest
+	 *            segment is dropped.
+	 * @param maxSizePerSession
+	 *            the maximum size of the pages of a session (in bytes). After this size is
+	 *            exceeded, the oldest pages of the session are removed.
+	 */
+	public SegmentedFilePageStore(File fileStoreFolder, int segmentSize, int maxSegments,
+		int maxSizePerSession)
+	{
+		if (segmentSize < 1)
+		{
+			throw new IllegalArgumentException("Segment size must be positive.");
+		}
+		if (maxSegments < 2)
+		{
+			throw new IllegalArgumentException("At least two segments are required.");
+		}
+		if (maxSizePerSession < 1)
+		{
+			throw new IllegalArgumentException("Maximum session size must be positive.");
+		}
+
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		this.maxSizePerSession = maxSizePerSession;
+
+		String appName = Application.get().getApplicationKey();
+		segmentFolder = new File(fileStoreFolder, appName + "-segmentstore");
+		clearSegmentFolder();
+
+		compactionTask = new Task("SegmentedFilePageStoreCompaction-" + appName);
+		compactionTask.run(getCompactionInterval(), new ICode()
+		{
+			public void run(Logger log)
+			{
+				compact();
+			}
+		});
+	}
+
+	/**
+	 * Creates a new {@link SegmentedFilePageStore} instance.
+	 *
+	 * @param segmentSize
+	 *            size of a single segment file (in bytes)
+	 * @param maxSegments
+	 *            maximum number of segment files
+	 */
+	public SegmentedFilePageStore(int segmentSize, int maxSegments)
+	{
+		this(DiskPageStore.getDefaultFileStoreFolder(), segmentSize, maxSegments);
+	}
+
+	/**
+	 * Creates a new {@link SegmentedFilePageStore} instance with 32 segments of 16 megabytes.
+	 */
+	public SegmentedFilePageStore()
+	{
+		this((int)Bytes.megabytes(16).bytes(), 32);
+	}
+
+	private void clearSegmentFolder()
+	{
+		segmentFolder.mkdirs();
+		File[] files = segmentFolder.listFiles();
+		if (files != null)
+		{
+			for (int i = 0; i < files.length; i++)
+			{
+				files[i].delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns how often the background task looks for segments to compact.
+	 *
+	 * @return compaction interval
+	 */
+	protected Duration getCompactionInterval()
+	{
+		return Duration.seconds(10);
+	}
+
+	/**
+	 * Returns the ratio of live bytes to used bytes under which a segment gets compacted.
+	 *
+	 * @return compaction threshold between 0 and 1
+	 */
+	protected float getCompactionThreshold()
+	{
+		return 0.5f;
+	}
+
+	/**
+	 * Returns the maximum number of segment files.
+	 *
+	 * @return maximum number of segments
+	 */
+	protected int getMaxSegments()
+	{
+		return maxSegments;
+	}
+
+	/**
+	 * Returns the size of a single segment file.
+	 *
+	 * @return segment size in bytes
+	 */
+	protected int getSegmentSize()
+	{
+		return segmentSize;
+	}
+
+	/**
+	 * Returns the maximum size of the pages of a session. After the session exceeds this size,
+	 * its oldest pages are removed.
+	 *
+	 * @return max size of session in bytes
+	 */
+	protected int getMaxSizePerSession()
+	{
+		return maxSizePerSession;
+	}
+
+	/**
+	 * Returns the number of segments that were dropped while they still contained live pages,
+	 * because the store was full even though the sessions kept within their limit. A growing
+	 * number means that the maximum number of segments is too low for the number of sessions.
+	 *
+	 * @return evicted segment count
+	 */
+	public long getEvictedSegmentCount()
+	{
+		return evictedSegmentCount.get();
+	}
+
+	/**
+	 * Returns the size of the live pages lost with the {@link #getEvictedSegmentCount() evicted
+	 * segments}.
+	 *
+	 * @return evicted bytes
+	 */
+	public long getEvictedBytes()
+	{
+		return evictedBytes.get();
+	}
+
+	/**
+	 * Returns the number of segment files currently in use.
+	 *
+	 * @return segment count
+	 */
+	public int getSegmentCount()
+	{
+		return segments.size();
+	}
+
+	/**
+	 * Starts a new segment and drops the oldest segments if the maximum number of segments has
+	 * been exceeded. Must be called with the append lock held.
+	 *
+	 * @return new current segment
+	 */
+	private Segment rollSegment()
+	{
+		if (currentSegment != null && currentSegment.liveBytes.get() == 0)
+		{
+			// nothing in the current segment is referenced, just rewind it
+			currentSegment.writeOffset = 0;
+			return currentSegment;
+		}
+
+		int id = nextSegmentId++;
+		try
+		{
+			currentSegment = new Segment(id, new File(segmentFolder, "segment-" + id), segmentSize);
+		}
+		catch (IOException e)
+		{
+			log.error("Error creating segment file " + id, e);
+			currentSegment = null;
+			return null;
+		}
+		segments.put(new Integer(id), currentSegment);
+
+		// drop the oldest segments, pages stored in those are lost and removed lazily from the
+		// session indices
+		while (segments.size() > maxSegments)
+		{
+			Segment oldest = null;
+			for (Iterator<Segment> i = segments.values().iterator(); i.hasNext();)
+			{
+				Segment segment = i.next();
+				if (oldest == null || segment.id < oldest.id)
+				{
+					oldest = segment;
+				}
+			}
+			segments.remove(new Integer(oldest.id));
+			int live = oldest.liveBytes.get();
+			if (live > 0)
+			{
+				evictedSegmentCount.incrementAndGet();
+				evictedBytes.addAndGet(live);
+			}
+			oldest.drop();
+		}
+
+		return currentSegment;
+	}
+
+	/**
+	 * Appends the data to the current segment.
+	 *
+	 * @param data
+	 * @return location of the data or -1 if the data could not be stored
+	 */
+	private long append(byte[] data)
+	{
+		if (data.length > segmentSize)
+		{
+			log.warn("Serialized page size (" + data.length +
+				" bytes) exceeds the segment size, page will not be stored.");
+			return -1;
+		}
+
+		final Segment segment;
+		final int offset;
+		synchronized (appendLock)
+		{
+			if (currentSegment == null || currentSegment.writeOffset + data.length > segmentSize)
+			{
+				if (rollSegment() == null)
+				{
+					return -1;
+				}
+			}
+			segment = currentSegment;
+			offset = segment.writeOffset;
+			segment.writeOffset += data.length;
+			segment.liveBytes.addAndGet(data.length);
+
+			// the current segment can't have been dropped yet
+			segment.pin();
+		}
+
+		// the region is reserved for this thread, so the write itself doesn't need the lock
+		try
+		{
+			segment.write(offset, data);
+		}
+		finally
+		{
+			segment.unpin();
+		}
+		return getLocation(segment.id, offset);
+	}
+
+	/**
+	 * Marks the bytes of the given entry as no longer referenced.
+	 *
+	 * @param index
+	 * @param i
+	 */
+	private void release(SessionIndex index, int i)
+	{
+		Segment segment = segments.get(new Integer(getSegmentId(index.locations[i])));
+		if (segment != null)
+		{
+			segment.liveBytes.addAndGet(-index.lengths[i]);
+		}
+	}
+
+	/**
+	 * Reads the data of given entry or returns <code>null</code> if the segment has been dropped.
+	 *
+	 * @param index
+	 * @param i
+	 * @return page data or <code>null</code>
+	 */
+	private byte[] read(SessionIndex index, int i)
+	{
+		long location = index.locations[i];
+		Segment segment = segments.get(new Integer(getSegmentId(location)));
+		if (segment != null && segment.pin())
+		{
+			try
+			{
+				return segment.read(getSegmentOffset(location), index.lengths[i]);
+			}
+			finally
+			{
+				segment.unpin();
+			}
+		}
+		else
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Removes all entries that point to dropped segments.
+	 *
+	 * @param index
+	 */
+	private void removeStaleEntries(SessionIndex index)
+	{
+		for (int i = index.size - 1; i >= 0; --i)
+		{
+			if (segments.containsKey(new Integer(getSegmentId(index.locations[i]))) == false)
+			{
+				index.remove(i);
+			}
+		}
+	}
+
+	private SessionIndex getSessionIndex(String sessionId, boolean create)
+	{
+		SessionIndex index = sessionIndices.get(sessionId);
+		if (index == null && create)
+		{
+			synchronized (sessionIndices)
+			{
+				index = sessionIndices.get(sessionId);
+				if (index == null)
+				{
+					index = new SessionIndex();
+					sessionIndices.put(sessionId, index);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Removes the oldest entries of the session until there is room for given number of bytes.
+	 *
+	 * @param index
+	 * @param length
+	 */
+	private void makeRoom(SessionIndex index, int length)
+	{
+		while (index.size > 0 && index.bytes + length > maxSizePerSession)
+		{
+			release(index, 0);
+			index.remove(0);
+		}
+	}
+
+	private void savePage(String sessionId, SerializedPage page)
+	{
+		if (page.getData() == null)
+		{
+			return;
+		}
+
+		// the session gives up its own oldest pages before the segments of all sessions fill up
+		SessionIndex index = getSessionIndex(sessionId, true);
+		synchronized (index)
+		{
+			removeStaleEntries(index);
+			makeRoom(index, page.getData().length);
+		}
+
+		long location = append(page.getData());
+		if (location == -1)
+		{
+			return;
+		}
+
+		synchronized (index)
+		{
+			removeStaleEntries(index);
+
+			int pageMap = index.getPageMapIndex(page.getPageMapName(), true);
+			int existing = index.find(pageMap, page.getPageId(), page.getVersionNumber(),
+				page.getAjaxVersionNumber());
+			if (existing != -1)
+			{
+				release(index, existing);
+				index.remove(existing);
+			}
+			index.add(pageMap, page.getPageId(), page.getVersionNumber(),
+				page.getAjaxVersionNumber(), page.getData().length, location);
+		}
+	}
+
+	/**
+	 * Copies the pages still referenced from the given segment to the current segment.
+	 *
+	 * @param segment
+	 */
+	private void compactSegment(Segment segment)
+	{
+		// appending the copies may roll and drop the segment, keep it mapped until it's copied
+		if (!segment.pin())
+		{
+			return;
+		}
+		try
+		{
+			for (Iterator<SessionIndex> i = sessionIndices.values().iterator(); i.hasNext();)
+			{
+				SessionIndex index = i.next();
+				synchronized (index)
+				{
+					for (int j = 0; j < index.size; ++j)
+					{
+						if (getSegmentId(index.locations[j]) == segment.id)
+						{
+							byte[] data = segment.read(getSegmentOffset(index.locations[j]),
+								index.lengths[j]);
+							long location = append(data);
+							if (location != -1)
+							{
+								index.locations[j] = location;
+							}
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			segment.unpin();
+		}
+
+		if (segments.remove(new Integer(segment.id)) != null)
+		{
+			segment.drop();
+		}
+	}
+
+	/**
+	 * Compacts all segments (except the current one) with live data ratio under
+	 * {@link #getCompactionThreshold()}.
+	 */
+	protected void compact()
+	{
+		List<Segment> candidates = new ArrayList<Segment>();
+		synchronized (appendLock)
+		{
+			for (Iterator<Segment> i = segments.values().iterator(); i.hasNext();)
+			{
+				Segment segment = i.next();
+				if (segment != currentSegment &&
+					segment.liveBytes.get() < segment.writeOffset * getCompactionThreshold())
+				{
+					candidates.add(segment);
+				}
+			}
+		}
+
+		for (Iterator<Segment> i = candidates.iterator(); i.hasNext();)
+		{
+			Segment segment = i.next();
+			if (segments.containsKey(new Integer(segment.id)))
+			{
+				compactSegment(segment);
+			}
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#storePage(java.lang.String,
+	 *      org.apache.wicket.Page)
+	 */
+	public void storePage(String sessionId, Page page)
+	{
+		List<SerializedPage> pages = serializePage(page);
+		for (Iterator<SerializedPage> i = pages.iterator(); i.hasNext();)
+		{
+			savePage(sessionId, i.next());
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#getPage(java.lang.String,
+	 *      java.lang.String, int, int, int)
+	 */
+	public <T> Page getPage(String sessionId, String pagemap, int id, int versionNumber,
+		int ajaxVersionNumber)
+	{
+		SessionIndex index = getSessionIndex(sessionId, false);
+		if (index != null)
+		{
+			byte[] data = null;
+			synchronized (index)
+			{
+				int pageMap = index.getPageMapIndex(pagemap, false);
+				if (pageMap != -1)
+				{
+					int i = index.find(pageMap, id, versionNumber, ajaxVersionNumber);
+					if (i != -1)
+					{
+						data = read(index, i);
+					}
+				}
+			}
+			if (data != null)
+			{
+				return deserializePage(data, versionNumber);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#containsPage(java.lang.String,
+	 *      java.lang.String, int, int)
+	 */
+	public boolean containsPage(String sessionId, String pageMapName, int pageId, int pageVersion)
+	{
+		SessionIndex index = getSessionIndex(sessionId, false);
+		if (index != null)
+		{
+			synchronized (index)
+			{
+				removeStaleEntries(index);
+				int pageMap = index.getPageMapIndex(pageMapName, false);
+				return pageMap != -1 && index.find(pageMap, pageId, pageVersion, -1) != -1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#pageAccessed(java.lang.String,
+	 *      org.apache.wicket.Page)
+	 */
+	public void pageAccessed(String sessionId, Page page)
+	{
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#removePage(java.lang.String,
+	 *      java.lang.String, int)
+	 */
+	public void removePage(String sessionId, String pagemap, int id)
+	{
+		SessionIndex index = getSessionIndex(sessionId, false);
+		if (index != null)
+		{
+			synchronized (index)
+			{
+				int pageMap = index.getPageMapIndex(pagemap, false);
+				for (int i = index.size - 1; i >= 0; --i)
+				{
+					if (index.pageMaps[i] == pageMap && (id == -1 || index.pageIds[i] == id))
+					{
+						release(index, i);
+						index.remove(i);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#unbind(java.lang.String)
+	 */
+	public void unbind(String sessionId)
+	{
+		SessionIndex index = sessionIndices.remove(sessionId);
+		if (index != null)
+		{
+			synchronized (index)
+			{
+				for (int i = 0; i < index.size; ++i)
+				{
+					release(index, i);
+				}
+				index.size = 0;
+				index.bytes = 0;
+			}
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#destroy()
+	 */
+	public void destroy()
+	{
+		compactionTask.interrupt();
+		synchronized (appendLock)
+		{
+			for (Iterator<Segment> i = segments.values().iterator(); i.hasNext();)
+			{
+				i.next().drop();
+			}
+			segments.clear();
+			currentSegment = null;
+		}
+		sessionIndices.clear();
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(SegmentedFilePageStore.class);
+}
@@ -1,217 +1,519 @@
-/*
- * Licensed to the Apache Software Foundation (ASF) under one or more
- * contributor license agreements.  See the NOTICE file distributed with
- * this work for additional information regarding copyright ownership.
- * The ASF licenses this file to You under the Apache License, Version 2.0
- * (the "License"); you may not use this file except in compliance with
- * the License.  You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.apache.wicket.protocol.http.pagestore;
-
-import java.io.Serializable;
-import java.lang.ref.SoftReference;
-import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
-import org.apache.wicket.Page;
-import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
-
-/**
- * Cache that stores serialized pages. This is important to make sure that a single page is not
- * serialized twice or more when not necessary.
- * <p>
- * For example a page is serialized during request, but it might be also later serialized on session
- * replication. The purpose of this cache is to make sure that the data obtained from first
- * serialization is reused on second serialization.
- * 
- * @author Matej Knopp
- */
-class SerializedPagesCache
-{
-	/**
-	 * Construct.
-	 * 
-	 * @param size
-	 */
-	public SerializedPagesCache(final int size)
-	{
-		this.size = size;
-		cache = new ArrayList<SoftReference<SerializedPageWithSession>>(size);
-	}
-
-	private final int size;
-
-	private final List<SoftReference<SerializedPageWithSession>> cache;
-
-	SerializedPageWithSession removePage(Page page)
-	{
-		if (size > 0)
-		{
-			synchronized (cache)
-			{
-				for (Iterator<SoftReference<SerializedPageWithSession>> i = cache.iterator(); i.hasNext();)
-				{
-					SoftReference<SerializedPageWithSession> ref = i.next();
-					SerializedPageWithSession entry = ref.get();
-					if (entry != null && entry.page.get() == page)
-					{
-						i.remove();
-						return entry;
-					}
-				}
-			}
-		}
-		return null;
-	}
-
-	SerializedPageWithSession getPage(Page page)
-	{
-		SerializedPageWithSession result = null;
-		if (size > 0)
-		{
-			synchronized (cache)
-			{
-				for (Iterator<SoftReference<SerializedPageWithSession>> i = cache.iterator(); i.hasNext();)
-				{
-					SoftReference<SerializedPageWithSession> ref = i.next();
-					SerializedPageWithSession entry = ref.get();
-					if (entry != null && entry.page.get() == page)
-					{
-						i.remove();
-						result = entry;
-						break;
-					}
-				}
-
-				if (result != null)
-				{
-					cache.add(new SoftReference<SerializedPageWithSession>(result));
-				}
-			}
-		}
-		return result;
-	}
-
-	SerializedPageWithSession getPage(String sessionId, int pageId, String pageMapName,
-		int version, int ajaxVersion)
-	{
-		if (size > 0)
-		{
-			synchronized (cache)
-			{
-				for (Iterator<SoftReference<SerializedPageWithSession>> i = cache.iterator(); i.hasNext();)
-				{
-					SoftReference<SerializedPageWithSession> ref = i.next();
-					SerializedPageWithSession entry = ref.get();
-					if (entry != null && entry.sessionId.equals(sessionId) &&
-						entry.pageId == pageId && entry.pageMapName.equals(pageMapName) &&
-						entry.versionNumber == version && entry.ajaxVersionNumber == ajaxVersion)
-					{
-						return entry;
-					}
-				}
-			}
-		}
-		return null;
-	}
-
-	/**
-	 * Store the serialized page in cache
-	 * 
-	 * @return serialized page
-	 * @param sessionId
-	 * @param page
-	 * @param pagesList
-	 */
-	SerializedPageWithSession storePage(String sessionId, Page page, List<SerializedPage> pagesList)
-	{
-		SerializedPageWithSession entry = new SerializedPageWithSession(sessionId, page, pagesList);
-		SoftReference<SerializedPageWithSession> ref = new SoftReference<SerializedPageWithSession>(
-			entry);
-
-		if (size > 0)
-		{
-			synchronized (cache)
-			{
-				removePage(page);
-				cache.add(ref);
-				if (cache.size() > size)
-				{
-					cache.remove(0);
-				}
-			}
-		}
-
-		return entry;
-	}
-
-	/**
-	 * 
-	 * @author Matej Knopp
-	 */
-	static class SerializedPageWithSession implements Serializable
-	{
-		private static final long serialVersionUID = 1L;
-
-		// this is used for lookup on pagemap serialization. We don't have the
-		// session id at that point, because it can happen outside the request
-		// thread. We only have the page instance and we need to use it as a key
-		final transient WeakReference<Page> page;
-
-		// list of serialized pages
-		final List<SerializedPage> pages;
-
-		final String sessionId;
-
-		// after deserialization, we need to be able to know which page to load
-		final int pageId;
-		final String pageMapName;
-		final int versionNumber;
-		final int ajaxVersionNumber;
-
-		SerializedPageWithSession(String sessionId, Page page, List<SerializedPage> pages)
-		{
-			this.sessionId = sessionId;
-			pageId = page.getNumericId();
-			pageMapName = page.getPageMapName();
-			versionNumber = page.getCurrentVersionNumber();
-			ajaxVersionNumber = page.getAjaxVersionNumber();
-			this.pages = new ArrayList<SerializedPage>(pages);
-			this.page = new WeakReference<Page>(page);
-		}
-
-		SerializedPageWithSession(String sessionId, int pageId, String pageMapName,
-			int versionNumber, int ajaxVersionNumber, List<SerializedPage> pages)
-		{
-			this.sessionId = sessionId;
-			page = new WeakReference<Page>(NO_PAGE);
-			this.pageId = pageId;
-			this.pageMapName = pageMapName;
-			this.versionNumber = versionNumber;
-			this.ajaxVersionNumber = ajaxVersionNumber;
-			this.pages = pages;
-		}
-
-		static final Page NO_PAGE = new Page()
-		{
-		};
-
-		@Override
-		public String toString()
-		{
-			return getClass().getName() + " [ pageId:" + pageId + ", pageMapName: " + pageMapName +
-				", session: " + sessionId + "]";
-		}
-	};
-
-}
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
+import org.apache.wicket.util.lang.Objects;
+
+/**
+ * Cache that stores serialized pages. This is important to make sure that a single page is not
+ * serialized twice or more when not necessary.
+ * <p>
+ * For example a page is serialized during request, but it might be also later serialized on session
+ * replication. The purpose of this cache is to make sure that the data obtained from first
+ * serialization is reused on second serialization.
+ * <p>
+ * The cache is split into stripes, each with its own lock and least recently used order. Stripe is
+ * chosen by session id, pagemap name and page id, so concurrent requests of different sessions
+ * rarely contend. The entry count and byte size limits apply to the whole cache; when exceeded, the
+ * least recently used entry of all stripes is evicted.
+ * 
+ * @author Matej Knopp
+ */
+class SerializedPagesCache
+{
+	private static final int DEFAULT_STRIPE_COUNT = 16;
+
+	/**
+	 * Construct.
+	 * 
+	 * @param size
+	 */
+	public SerializedPagesCache(final int size)
+	{
+		this(size, Long.MAX_VALUE, DEFAULT_STRIPE_COUNT);
+	}
+
+	/**
+	 * Construct.
+	 * 
+	 * @param size
+	 *            maximum number of cached entries
+	 * @param maxBytes
+	 *            maximum summed size of serialized data in cached entries
+	 * @param stripeCount
+	 *            number of independently locked segments
+	 */
+	public SerializedPagesCache(final int size, final long maxBytes, final int stripeCount)
+	{
+		this.size = size;
+		this.maxBytes = maxBytes;
+
+		if (stripeCount < 1)
+		{
+			throw new IllegalArgumentException("At least one stripe is required.");
+		}
+
+		int count = Math.max(1, Math.min(stripeCount, size));
+		stripes = new Stripe[count];
+		for (int i = 0; i < count; ++i)
+		{
+			stripes[i] = new Stripe();
+		}
+	}
+
+	private final int size;
+
+	private final long maxBytes;
+
+	private final Stripe[] stripes;
+
+	// number of entries and summed size of all stripes
+	private final AtomicInteger entryCount = new AtomicInteger(0);
+	private final AtomicLong bytes = new AtomicLong(0);
+
+	// source of access stamps, used to find the least recently used entry across stripes
+	private final AtomicLong clock = new AtomicLong(0);
+
+	private final AtomicLong hits = new AtomicLong(0);
+
+	private final AtomicLong misses = new AtomicLong(0);
+
+	/**
+	 * Key of cached entry.
+	 */
+	private static final class Key
+	{
+		private final String sessionId;
+		private final String pageMapName;
+		private final int pageId;
+		private final int versionNumber;
+		private final int ajaxVersionNumber;
+
+		private Key(String sessionId, String pageMapName, int pageId, int versionNumber,
+			int ajaxVersionNumber)
+		{
+			this.sessionId = sessionId;
+			this.pageMapName = pageMapName;
+			this.pageId = pageId;
+			this.versionNumber = versionNumber;
+			this.ajaxVersionNumber = ajaxVersionNumber;
+		}
+
+		private Key(SerializedPageWithSession entry)
+		{
+			this(entry.sessionId, entry.pageMapName, entry.pageId, entry.versionNumber,
+				entry.ajaxVersionNumber);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return stripeHash(sessionId, pageMapName, pageId) + versionNumber * 13 +
+				ajaxVersionNumber * 301;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+			{
+				return true;
+			}
+			if (obj instanceof Key == false)
+			{
+				return false;
+			}
+			Key rhs = (Key)obj;
+			return pageId == rhs.pageId && versionNumber == rhs.versionNumber &&
+				ajaxVersionNumber == rhs.ajaxVersionNumber &&
+				Objects.equal(sessionId, rhs.sessionId) &&
+				Objects.equal(pageMapName, rhs.pageMapName);
+		}
+	}
+
+	/**
+	 * Cached entry. The serialized pages are only softly referenced, the size is kept so that the
+	 * cache size can be maintained after the reference has been cleared.
+	 */
+	private static final class Value
+	{
+		private final SoftReference<SerializedPageWithSession> reference;
+		private final long size;
+
+		// time of last access, guarded by the stripe
+		private long stamp;
+
+		private Value(SerializedPageWithSession entry, long size, long stamp)
+		{
+			reference = new SoftReference<SerializedPageWithSession>(entry);
+			this.size = size;
+			this.stamp = stamp;
+		}
+	}
+
+	/**
+	 * Independently locked part of the cache with its own LRU order. All versions of a page
+	 * instance end up in the same stripe.
+	 */
+	private final class Stripe
+	{
+		// access ordered, first entry is the least recently used one
+		private final LinkedHashMap<Key, Value> entries = new LinkedHashMap<Key, Value>(16,
+			0.75f, true);
+
+		private void remove(Iterator<Value> i, Value value)
+		{
+			i.remove();
+			removed(value);
+		}
+
+		private void removed(Value value)
+		{
+			entryCount.decrementAndGet();
+			bytes.addAndGet(-value.size);
+		}
+
+		/**
+		 * Returns the entry for given key and marks it as recently used.
+		 */
+		private SerializedPageWithSession get(Key key)
+		{
+			Value value = entries.get(key);
+			if (value != null)
+			{
+				SerializedPageWithSession result = value.reference.get();
+				if (result == null)
+				{
+					entries.remove(key);
+					removed(value);
+				}
+				else
+				{
+					value.stamp = clock.incrementAndGet();
+				}
+				return result;
+			}
+			return null;
+		}
+
+		/**
+		 * Returns the live entry for given page instance, optionally removing it.
+		 */
+		private SerializedPageWithSession find(Page page, boolean remove)
+		{
+			for (Iterator<Value> i = entries.values().iterator(); i.hasNext();)
+			{
+				Value value = i.next();
+				SerializedPageWithSession entry = value.reference.get();
+				if (entry == null)
+				{
+					remove(i, value);
+				}
+				else if (entry.page.get() == page)
+				{
+					if (remove)
+					{
+						remove(i, value);
+					}
+					return entry;
+				}
+			}
+			return null;
+		}
+
+		private void put(Key key, Value value)
+		{
+			Value previous = entries.put(key, value);
+			if (previous != null)
+			{
+				removed(previous);
+			}
+			entryCount.incrementAndGet();
+			bytes.addAndGet(value.size);
+		}
+
+		/**
+		 * @return access stamp of the least recently used entry or <code>-1</code> if the stripe
+		 *         is empty
+		 */
+		private long getEldestStamp()
+		{
+			if (entries.isEmpty())
+			{
+				return -1;
+			}
+			return entries.values().iterator().next().stamp;
+		}
+
+		private void removeEldest()
+		{
+			Iterator<Value> i = entries.values().iterator();
+			if (i.hasNext())
+			{
+				remove(i, i.next());
+			}
+		}
+	}
+
+	private static int stripeHash(String sessionId, String pageMapName, int pageId)
+	{
+		int result = pageId * 1931;
+		result = result * 31 + (sessionId != null ? sessionId.hashCode() : 0);
+		result = result * 31 + (pageMapName != null ? pageMapName.hashCode() : 0);
+		return result;
+	}
+
+	private Stripe getStripe(String sessionId, String pageMapName, int pageId)
+	{
+		int hash = stripeHash(sessionId, pageMapName, pageId);
+		hash ^= (hash >>> 16);
+		return stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+	}
+
+	private static long getDataSize(List<SerializedPage> pages)
+	{
+		long result = 0;
+		for (Iterator<SerializedPage> i = pages.iterator(); i.hasNext();)
+		{
+			byte[] data = i.next().getData();
+			if (data != null)
+			{
+				result += data.length;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Evicts the least recently used entries of all stripes until the cache fits the limits. The
+	 * last remaining entry is never evicted. Must not be called while holding a stripe lock.
+	 */
+	private void evict()
+	{
+		while (entryCount.get() > 1 && (entryCount.get() > size || bytes.get() > maxBytes))
+		{
+			Stripe eldest = null;
+			long eldestStamp = Long.MAX_VALUE;
+			for (int i = 0; i < stripes.length; ++i)
+			{
+				long stamp;
+				synchronized (stripes[i])
+				{
+					stamp = stripes[i].getEldestStamp();
+				}
+				if (stamp != -1 && stamp < eldestStamp)
+				{
+					eldest = stripes[i];
+					eldestStamp = stamp;
+				}
+			}
+
+			if (eldest == null)
+			{
+				break;
+			}
+
+			synchronized (eldest)
+			{
+				// other thread might have evicted the entry in the meanwhile
+				if (eldest.getEldestStamp() == eldestStamp)
+				{
+					eldest.removeEldest();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Looks up the entry for given page instance in the stripe of the page.
+	 */
+	private SerializedPageWithSession find(String sessionId, Page page, boolean remove)
+	{
+		Stripe stripe = getStripe(sessionId, page.getPageMapName(), page.getNumericId());
+		synchronized (stripe)
+		{
+			SerializedPageWithSession entry = stripe.find(page, remove);
+			if (entry != null && !remove)
+			{
+				// mark the entry as recently used
+				stripe.get(new Key(entry));
+			}
+			return entry;
+		}
+	}
+
+	SerializedPageWithSession removePage(String sessionId, Page page)
+	{
+		if (size > 0)
+		{
+			return find(sessionId, page, true);
+		}
+		return null;
+	}
+
+	SerializedPageWithSession getPage(String sessionId, Page page)
+	{
+		SerializedPageWithSession result = null;
+		if (size > 0)
+		{
+			result = find(sessionId, page, false);
+			(result != null ? hits : misses).incrementAndGet();
+		}
+		return result;
+	}
+
+	SerializedPageWithSession getPage(String sessionId, int pageId, String pageMapName,
+		int version, int ajaxVersion)
+	{
+		SerializedPageWithSession result = null;
+		if (size > 0)
+		{
+			Key key = new Key(sessionId, pageMapName, pageId, version, ajaxVersion);
+			Stripe stripe = getStripe(sessionId, pageMapName, pageId);
+			synchronized (stripe)
+			{
+				result = stripe.get(key);
+			}
+			(result != null ? hits : misses).incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Store the serialized page in cache
+	 * 
+	 * @return serialized page
+	 * @param sessionId
+	 * @param page
+	 * @param pagesList
+	 */
+	SerializedPageWithSession storePage(String sessionId, Page page, List<SerializedPage> pagesList)
+	{
+		SerializedPageWithSession entry = new SerializedPageWithSession(sessionId, page, pagesList);
+
+		if (size > 0)
+		{
+			Stripe stripe = getStripe(sessionId, entry.pageMapName, entry.pageId);
+			synchronized (stripe)
+			{
+				// remove the entry for previous version of the page instance
+				stripe.find(page, true);
+				stripe.put(new Key(entry), new Value(entry, getDataSize(entry.pages),
+					clock.incrementAndGet()));
+			}
+			evict();
+		}
+
+		return entry;
+	}
+
+	/**
+	 * @return number of lookups that found a cached entry
+	 */
+	long getHitCount()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return number of lookups that didn't find a cached entry
+	 */
+	long getMissCount()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @return summed size of serialized data in all cached entries
+	 */
+	long getSizeInBytes()
+	{
+		return bytes.get();
+	}
+
+	/**
+	 * 
+	 * @author Matej Knopp
+	 */
+	static class SerializedPageWithSession implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		// this is used for lookup on pagemap serialization. We don't have the
+		// session id at that point, because it can happen outside the request
+		// thread. We only have the page instance and we need to use it as a key
+		final transient WeakReference<Page> page;
+
+		// list of serialized pages
+		final List<SerializedPage> pages;
+
+		final String sessionId;
+
+		// after deserialization, we need to be able to know which page to load
+		final int pageId;
+		final String pageMapName;
+		final int versionNumber;
+		final int ajaxVersionNumber;
+
+		SerializedPageWithSession(String sessionId, Page page, List<SerializedPage> pages)
+		{
+			this.sessionId = sessionId;
+			pageId = page.getNumericId();
+			pageMapName = page.getPageMapName();
+			versionNumber = page.getCurrentVersionNumber();
+			ajaxVersionNumber = page.getAjaxVersionNumber();
+			this.pages = new ArrayList<SerializedPage>(pages);
+			this.page = new WeakReference<Page>(page);
+		}
+
+		SerializedPageWithSession(String sessionId, int pageId, String pageMapName,
+			int versionNumber, int ajaxVersionNumber, List<SerializedPage> pages)
+		{
+			this.sessionId = sessionId;
+			page = new WeakReference<Page>(NO_PAGE);
+			this.pageId = pageId;
+			this.pageMapName = pageMapName;
+			this.versionNumber = versionNumber;
+			this.ajaxVersionNumber = ajaxVersionNumber;
+			this.pages = pages;
+		}
+
+		static final Page NO_PAGE = new Page()
+		{
+		};
+
+		@Override
+		public String toString()
+		{
+			return getClass().getName() + " [ pageId:" + pageId + ", pageMapName: " + pageMapName +
+				", session: " + sessionId + "]";
+		}
+	};
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.session;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.Request;
+import org.apache.wicket.RequestCycle;
+import org.apache.wicket.Session;
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class for lock strategies built on top of explicit {@link Lock}s. Takes care of the
+ * timeouts, keeps track of the thread (and the URL it serves) holding each lock, and records the
+ * wait times in {@link SessionLockMetrics}.
+ * <p>
+ * Locks are kept in a transient field of the session instance, so they go away together with it
+ * and looking them up doesn't need any global lock.
+ * 
+ * @param <T>
+ *            type of the locks kept for single session
+ */
+public abstract class AbstractSessionLockStrategy<T> implements ISessionLockStrategy
+{
+	private static final MetaDataKey<Long> WAIT_TIME = new MetaDataKey<Long>()
+	{
+		private static final long serialVersionUID = 1L;
+	};
+
+	/**
+	 * Lock that remembers the thread that acquired it last.
+	 */
+	protected static final class TrackedLock
+	{
+		private final Lock lock;
+
+		private final boolean exclusive;
+
+		// only accessed by the thread holding the exclusive lock
+		private int holdCount;
+
+		private volatile String holderThread;
+
+		private volatile String holderUrl;
+
+		/**
+		 * Construct.
+		 * 
+		 * @param lock
+		 * @param exclusive
+		 *            <code>false</code> if the lock can be held by multiple threads
+		 */
+		public TrackedLock(Lock lock, boolean exclusive)
+		{
+			this.lock = lock;
+			this.exclusive = exclusive;
+		}
+
+		/**
+		 * @return name of the thread that acquired the lock last or <code>null</code> if the
+		 *         lock has been released
+		 */
+		public String getHolderThread()
+		{
+			return holderThread;
+		}
+
+		/**
+		 * @return URL served by the thread that acquired the lock last
+		 */
+		public String getHolderUrl()
+		{
+			return holderUrl;
+		}
+	}
+
+	private final boolean fair;
+
+	private final Duration timeout;
+
+	private final SessionLockMetrics metrics = new SessionLockMetrics();
+
+	/**
+	 * Locks of a session together with the strategy that created them.
+	 */
+	private static final class SessionData<T>
+	{
+		private final AbstractSessionLockStrategy<T> strategy;
+
+		private final T locks;
+
+		private SessionData(AbstractSessionLockStrategy<T> strategy, T locks)
+		{
+			this.strategy = strategy;
+			this.locks = locks;
+		}
+	}
+
+	/**
+	 * Construct.
+	 * 
+	 * @param fair
+	 *            whether the locks should be granted in order of arrival
+	 * @param timeout
+	 *            maximum time to wait for a lock, if <code>null</code> the request cycle
+	 *            {@link org.apache.wicket.settings.IRequestCycleSettings#getTimeout() timeout} is
+	 *            used
+	 */
+	protected AbstractSessionLockStrategy(boolean fair, Duration timeout)
+	{
+		this.fair = fair;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Creates the locks for a session.
+	 * 
+	 * @param fair
+	 *            whether the locks should be granted in order of arrival
+	 * @return locks
+	 */
+	protected abstract T newLocks(boolean fair);
+
+	/**
+	 * @return maximum time to wait for a lock
+	 */
+	protected Duration getTimeout()
+	{
+		if (timeout != null)
+		{
+			return timeout;
+		}
+		return Application.get().getRequestCycleSettings().getTimeout();
+	}
+
+	/**
+	 * @return lock wait statistics
+	 */
+	public SessionLockMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Returns the total time the given request spent waiting for session locks.
+	 * 
+	 * @param requestCycle
+	 * @return wait time in milliseconds
+	 */
+	public static long getWaitTime(RequestCycle requestCycle)
+	{
+		Long waitTime = requestCycle.getMetaData(WAIT_TIME);
+		return waitTime != null ? waitTime.longValue() : 0;
+	}
+
+	/**
+	 * @param session
+	 * @return locks of given session
+	 */
+	@SuppressWarnings("unchecked")
+	protected final T getLocks(Session session)
+	{
+		SessionData<T> created = null;
+		while (true)
+		{
+			Object current = session.getLockStrategyData();
+			if (current instanceof SessionData && ((SessionData<?>)current).strategy == this)
+			{
+				return ((SessionData<T>)current).locks;
+			}
+
+			// locks of other strategy are replaced, only the one set in application is used
+			if (created == null)
+			{
+				created = new SessionData<T>(this, newLocks(fair));
+			}
+			if (session.compareAndSetLockStrategyData(current, created))
+			{
+				return created.locks;
+			}
+		}
+	}
+
+	/**
+	 * @return time in milliseconds until which the locks must be acquired
+	 */
+	protected final long getDeadline()
+	{
+		return System.currentTimeMillis() + getTimeout().getMilliseconds();
+	}
+
+	/**
+	 * Acquires the lock.
+	 * 
+	 * @param lock
+	 * @param deadline
+	 *            time in milliseconds until which the lock must be acquired
+	 * @param description
+	 *            description of the locked resource used in the exception message
+	 * @throws WicketRuntimeException
+	 *             if the lock could not be acquired before the deadline
+	 */
+	protected final void acquire(TrackedLock lock, long deadline, String description)
+	{
+		long start = System.currentTimeMillis();
+		boolean acquired;
+		try
+		{
+			acquired = lock.lock.tryLock(Math.max(0, deadline - start), TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			throw new WicketRuntimeException(e);
+		}
+		long waitTime = System.currentTimeMillis() - start;
+
+		RequestCycle requestCycle = RequestCycle.get();
+		if (requestCycle != null)
+		{
+			requestCycle.setMetaData(WAIT_TIME, new Long(getWaitTime(requestCycle) + waitTime));
+		}
+
+		if (!acquired)
+		{
+			metrics.timedOut(waitTime);
+			String holderThread = lock.holderThread;
+			String holderUrl = lock.holderUrl;
+			throw new WicketRuntimeException("After " + getTimeout() + " the " + description +
+				" is still locked" +
+				(holderThread != null ? " by thread " + holderThread +
+					(holderUrl != null ? " serving " + holderUrl : "") : "") + ", giving up");
+		}
+
+		metrics.acquired(waitTime);
+		if (!lock.exclusive || lock.holdCount++ == 0)
+		{
+			lock.holderThread = Thread.currentThread().getName();
+			lock.holderUrl = getUrl(requestCycle);
+		}
+		if (waitTime > 0 && log.isDebugEnabled())
+		{
+			log.debug("Waited " + waitTime + "ms for the " + description);
+		}
+	}
+
+	/**
+	 * Releases the lock.
+	 * 
+	 * @param lock
+	 */
+	protected final void release(TrackedLock lock)
+	{
+		boolean released = lock.exclusive ? --lock.holdCount == 0 : Thread.currentThread()
+			.getName()
+			.equals(lock.holderThread);
+		if (released)
+		{
+			lock.holderThread = null;
+			lock.holderUrl = null;
+		}
+		lock.lock.unlock();
+	}
+
+	private static String getUrl(RequestCycle requestCycle)
+	{
+		if (requestCycle != null)
+		{
+			Request request = requestCycle.getRequest();
+			if (request != null)
+			{
+				return request.getURL();
+			}
+		}
+		return null;
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(AbstractSessionLockStrategy.class);
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.session;
+
+import org.apache.wicket.Session;
+
+/**
+ * Strategy that decides which lock guards the access to pages of a session while a request is
+ * being processed. The page lock is acquired when the request target is resolved and held until
+ * the request cycle is detached. The default {@link SessionLockStrategy} uses single lock per session, so all
+ * requests of a session are serialized. Strategy can use finer grained locks, so that requests
+ * to different pagemaps (browser windows) or pages don't wait for each other.
+ * <p>
+ * Operations that mutate the whole session (such as removing pagemap entries) must acquire the
+ * session lock. Implementations must make sure that holding the session lock excludes holders of
+ * all page locks of that session, and that the session lock is always acquired before page locks
+ * to prevent deadlocks.
+ * 
+ * @see org.apache.wicket.settings.IRequestCycleSettings#setSessionLockStrategy(ISessionLockStrategy)
+ * @see SessionLockStrategy
+ * @see PageLockStrategy
+ */
+public interface ISessionLockStrategy
+{
+	/**
+	 * Acquired lock.
+	 */
+	interface ILock
+	{
+		/**
+		 * Releases the lock.
+		 */
+		void unlock();
+	}
+
+	/**
+	 * Acquires the lock for given page. The call blocks until the lock is acquired or the timeout
+	 * elapses, in which case an exception is thrown.
+	 * 
+	 * @param session
+	 * @param pageMapName
+	 *            pagemap name
+	 * @param pageId
+	 *            page id or -1 if not known
+	 * @return acquired lock, must be released by the caller
+	 */
+	ILock lockPage(Session session, String pageMapName, int pageId);
+
+	/**
+	 * Acquires the lock for operation that mutates the session. The call blocks until the lock is
+	 * acquired or the timeout elapses, in which case an exception is thrown.
+	 * <p>
+	 * If the current thread already holds a page lock of the session the implementation must not
+	 * block on it.
+	 * 
+	 * @param session
+	 * @return acquired lock, must be released by the caller
+	 */
+	ILock lockSession(Session session);
+}
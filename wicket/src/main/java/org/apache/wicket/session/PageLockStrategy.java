@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.session;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.wicket.Session;
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * {@link ISessionLockStrategy} that locks per pagemap or per page instance.
+ * <p>
+ * Every session has a read/write lock and a fixed number of page lock stripes. Page locks are
+ * acquired after the read lock of the session, session mutating operations acquire the write lock
+ * and thus wait until all page locks are released. Pagemaps (or pages) hashed to the same stripe
+ * share the lock, which doesn't affect correctness, only concurrency.
+ * <p>
+ * Locks are acquired with a timeout, if it elapses a
+ * {@link org.apache.wicket.WicketRuntimeException} is thrown. Fair locks grant the lock in the
+ * order the requests arrived, so a request can't be starved by a burst of ajax requests.
+ */
+public class PageLockStrategy extends AbstractSessionLockStrategy<PageLockStrategy.SessionLocks>
+{
+	private static final int STRIPES = 32;
+
+	private static final ILock NO_LOCK = new ILock()
+	{
+		public void unlock()
+		{
+		}
+	};
+
+	/**
+	 * Locks of single session.
+	 */
+	static final class SessionLocks
+	{
+		private final TrackedLock readLock;
+		private final TrackedLock writeLock;
+		private final TrackedLock[] pageLocks = new TrackedLock[STRIPES];
+
+		// number of page locks held by the current thread
+		private final ThreadLocal<int[]> pageLockCount = new ThreadLocal<int[]>()
+		{
+			@Override
+			protected int[] initialValue()
+			{
+				return new int[1];
+			}
+		};
+
+		private SessionLocks(boolean fair)
+		{
+			ReentrantReadWriteLock sessionLock = new ReentrantReadWriteLock(fair);
+			readLock = new TrackedLock(sessionLock.readLock(), false);
+			writeLock = new TrackedLock(sessionLock.writeLock(), true);
+			for (int i = 0; i < STRIPES; ++i)
+			{
+				pageLocks[i] = new TrackedLock(new ReentrantLock(fair), true);
+			}
+		}
+	}
+
+	private final boolean lockPages;
+
+	/**
+	 * Construct.
+	 * 
+	 * @param lockPages
+	 *            if <code>true</code> requests lock the page instance, otherwise the whole pagemap
+	 * @param fair
+	 *            whether the locks should be granted in order of arrival
+	 * @param timeout
+	 *            maximum time to wait for a lock, if <code>null</code> the request cycle
+	 *            {@link org.apache.wicket.settings.IRequestCycleSettings#getTimeout() timeout} is
+	 *            used
+	 */
+	public PageLockStrategy(boolean lockPages, boolean fair, Duration timeout)
+	{
+		super(fair, timeout);
+		this.lockPages = lockPages;
+	}
+
+	/**
+	 * Construct strategy with fair per pagemap locks and the request cycle timeout.
+	 */
+	public PageLockStrategy()
+	{
+		this(false, true, null);
+	}
+
+	/**
+	 * @see org.apache.wicket.session.AbstractSessionLockStrategy#newLocks(boolean)
+	 */
+	@Override
+	protected SessionLocks newLocks(boolean fair)
+	{
+		return new SessionLocks(fair);
+	}
+
+	/**
+	 * @see org.apache.wicket.session.ISessionLockStrategy#lockPage(org.apache.wicket.Session,
+	 *      java.lang.String, int)
+	 */
+	public ILock lockPage(Session session, String pageMapName, int pageId)
+	{
+		final SessionLocks locks = getLocks(session);
+		long deadline = getDeadline();
+
+		final TrackedLock sessionLock = locks.readLock;
+		acquire(sessionLock, deadline, "session " + session.getId());
+
+		int hash = pageMapName != null ? pageMapName.hashCode() : 0;
+		if (lockPages && pageId != -1)
+		{
+			hash = hash * 31 + pageId;
+		}
+		hash ^= (hash >>> 16);
+		final TrackedLock pageLock = locks.pageLocks[hash & (STRIPES - 1)];
+		try
+		{
+			acquire(pageLock, deadline, "pagemap " + pageMapName +
+				(lockPages && pageId != -1 ? " page " + pageId : ""));
+		}
+		catch (RuntimeException e)
+		{
+			release(sessionLock);
+			throw e;
+		}
+		locks.pageLockCount.get()[0]++;
+
+		return new ILock()
+		{
+			public void unlock()
+			{
+				locks.pageLockCount.get()[0]--;
+				release(pageLock);
+				release(sessionLock);
+			}
+		};
+	}
+
+	/**
+	 * @see org.apache.wicket.session.ISessionLockStrategy#lockSession(org.apache.wicket.Session)
+	 */
+	public ILock lockSession(Session session)
+	{
+		SessionLocks locks = getLocks(session);
+		if (locks.pageLockCount.get()[0] > 0)
+		{
+			// read lock can't be upgraded, the thread already excludes other session mutations
+			// and the caller still synchronizes on the session
+			return NO_LOCK;
+		}
+		final TrackedLock lock = locks.writeLock;
+		acquire(lock, getDeadline(), "session " + session.getId());
+		return new ILock()
+		{
+			public void unlock()
+			{
+				release(lock);
+			}
+		};
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.session;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics of session lock waits. Wait times are collected in a histogram with fixed,
+ * exponentially growing buckets.
+ * 
+ * @see AbstractSessionLockStrategy#getMetrics()
+ */
+public class SessionLockMetrics
+{
+	/**
+	 * Upper bounds (exclusive, in milliseconds) of the histogram buckets. The last bucket has no
+	 * upper bound.
+	 */
+	private static final long[] BUCKET_BOUNDS = new long[] { 1, 5, 10, 50, 100, 500, 1000, 5000,
+			10000 };
+
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+	private final AtomicLong acquiredCount = new AtomicLong();
+
+	private final AtomicLong timeoutCount = new AtomicLong();
+
+	private final AtomicLong totalWaitTime = new AtomicLong();
+
+	private final AtomicLong maxWaitTime = new AtomicLong();
+
+	/**
+	 * Construct.
+	 */
+	public SessionLockMetrics()
+	{
+	}
+
+	private int bucket(long waitTime)
+	{
+		int i = 0;
+		while (i < BUCKET_BOUNDS.length && waitTime >= BUCKET_BOUNDS[i])
+		{
+			++i;
+		}
+		return i;
+	}
+
+	private void recordWait(long waitTime)
+	{
+		histogram.incrementAndGet(bucket(waitTime));
+		totalWaitTime.addAndGet(waitTime);
+		long max;
+		while ((max = maxWaitTime.get()) < waitTime && !maxWaitTime.compareAndSet(max, waitTime))
+		{
+			// retry
+		}
+	}
+
+	/**
+	 * Records successful lock acquisition.
+	 * 
+	 * @param waitTime
+	 *            time spent waiting for the lock in milliseconds
+	 */
+	public void acquired(long waitTime)
+	{
+		acquiredCount.incrementAndGet();
+		recordWait(waitTime);
+	}
+
+	/**
+	 * Records lock acquisition that timed out.
+	 * 
+	 * @param waitTime
+	 *            time spent waiting for the lock in milliseconds
+	 */
+	public void timedOut(long waitTime)
+	{
+		timeoutCount.incrementAndGet();
+		recordWait(waitTime);
+	}
+
+	/**
+	 * @return number of acquired locks
+	 */
+	public long getAcquiredCount()
+	{
+		return acquiredCount.get();
+	}
+
+	/**
+	 * @return number of lock acquisitions that timed out
+	 */
+	public long getTimeoutCount()
+	{
+		return timeoutCount.get();
+	}
+
+	/**
+	 * @return total time spent waiting for locks in milliseconds
+	 */
+	public long getTotalWaitTime()
+	{
+		return totalWaitTime.get();
+	}
+
+	/**
+	 * @return longest wait for a lock in milliseconds
+	 */
+	public long getMaxWaitTime()
+	{
+		return maxWaitTime.get();
+	}
+
+	/**
+	 * Returns the upper bounds of histogram buckets in milliseconds. The histogram has one more
+	 * bucket for waits longer than the last bound.
+	 * 
+	 * @return bucket bounds
+	 */
+	public long[] getBucketBounds()
+	{
+		return BUCKET_BOUNDS.clone();
+	}
+
+	/**
+	 * @return number of waits (both successful and timed out) in each bucket
+	 */
+	public long[] getHistogram()
+	{
+		long[] result = new long[histogram.length()];
+		for (int i = 0; i < result.length; ++i)
+		{
+			result[i] = histogram.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Resets all counters.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < histogram.length(); ++i)
+		{
+			histogram.set(i, 0);
+		}
+		acquiredCount.set(0);
+		timeoutCount.set(0);
+		totalWaitTime.set(0);
+		maxWaitTime.set(0);
+	}
+}
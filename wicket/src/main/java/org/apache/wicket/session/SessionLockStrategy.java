@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.session;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.wicket.Session;
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Default {@link ISessionLockStrategy}. Uses single lock per session, so requests of one session
+ * are processed one by one just like when synchronizing on the session, but the lock waits are
+ * measured, the lock holder is known and the wait is limited by a timeout.
+ * 
+ * @see PageLockStrategy
+ */
+public class SessionLockStrategy
+	extends AbstractSessionLockStrategy<AbstractSessionLockStrategy.TrackedLock>
+{
+	/**
+	 * Construct.
+	 * 
+	 * @param fair
+	 *            whether the lock should be granted in order of arrival
+	 * @param timeout
+	 *            maximum time to wait for the lock, if <code>null</code> the request cycle
+	 *            {@link org.apache.wicket.settings.IRequestCycleSettings#getTimeout() timeout} is
+	 *            used
+	 */
+	public SessionLockStrategy(boolean fair, Duration timeout)
+	{
+		super(fair, timeout);
+	}
+
+	/**
+	 * Construct strategy with fair lock and the request cycle timeout.
+	 */
+	public SessionLockStrategy()
+	{
+		this(true, null);
+	}
+
+	/**
+	 * @see org.apache.wicket.session.AbstractSessionLockStrategy#newLocks(boolean)
+	 */
+	@Override
+	protected TrackedLock newLocks(boolean fair)
+	{
+		return new TrackedLock(new ReentrantLock(fair), true);
+	}
+
+	/**
+	 * @see org.apache.wicket.session.ISessionLockStrategy#lockPage(org.apache.wicket.Session,
+	 *      java.lang.String, int)
+	 */
+	public ILock lockPage(Session session, String pageMapName, int pageId)
+	{
+		return lockSession(session);
+	}
+
+	/**
+	 * @see org.apache.wicket.session.ISessionLockStrategy#lockSession(org.apache.wicket.Session)
+	 */
+	public ILock lockSession(Session session)
+	{
+		final TrackedLock lock = getLocks(session);
+		acquire(lock, getDeadline(), "session " + session.getId());
+		return new ILock()
+		{
+			public void unlock()
+			{
+				release(lock);
+			}
+		};
+	}
+}
@@ -17,10 +17,13 @@
 package org.apache.wicket.session.pagemap;
 
 import org.apache.wicket.AccessStackPageMap;
+import org.apache.wicket.Application;
 import org.apache.wicket.IPageMap;
 import org.apache.wicket.Page;
 import org.apache.wicket.Session;
 import org.apache.wicket.AccessStackPageMap.Access;
+import org.apache.wicket.session.ISessionLockStrategy;
+import org.apache.wicket.session.ISessionLockStrategy.ILock;
 
 /**
  * A simple eviction strategy that evicts the least recently accessed page version from the given
@@ -57,48 +60,63 @@ public class LeastRecentlyAccessedEvictionStrategy implements IPageMapEvictionSt
 	{
 		if (pageMap instanceof AccessStackPageMap)
 		{
-			synchronized (Session.get())
+			Session session = Session.get();
+			ISessionLockStrategy lockStrategy = Application.get()
+				.getRequestCycleSettings()
+				.getSessionLockStrategy();
+			ILock lock = lockStrategy != null ? lockStrategy.lockSession(session) : null;
+			try
 			{
-				AccessStackPageMap accessPM = (AccessStackPageMap)pageMap;
-				// Do we need to evict under this strategy?
-				if (accessPM.getVersions() > maxVersions)
+				synchronized (session)
 				{
-					// Remove oldest entry from access stack
-					final AccessStackPageMap.Access oldestAccess = (Access)accessPM.getAccessStack()
-						.remove(0);
-					final IPageMapEntry oldestEntry = pageMap.getEntry(oldestAccess.getId());
-
-					// If entry is a page (cannot be null if we're evicting)
-					if (oldestEntry instanceof Page)
+					AccessStackPageMap accessPM = (AccessStackPageMap)pageMap;
+					// Do we need to evict under this strategy?
+					if (accessPM.getVersions() > maxVersions)
 					{
-						Page page = (Page)oldestEntry;
+						// Remove oldest entry from access stack
+						final AccessStackPageMap.Access oldestAccess = (Access)accessPM
+							.getAccessStack().remove(0);
+						final IPageMapEntry oldestEntry = pageMap.getEntry(oldestAccess.getId());
 
-						// If there is more than one version of this page
-						if (page.getVersions() > 1)
+						// If entry is a page (cannot be null if we're evicting)
+						if (oldestEntry instanceof Page)
 						{
-							// expire the oldest version
-							page.expireOldestVersion();
+							Page page = (Page)oldestEntry;
+
+							// If there is more than one version of this page
+							if (page.getVersions() > 1)
+							{
+								// expire the oldest version
+								page.expireOldestVersion();
+							}
+							else
+							{
+								// expire whole page
+								accessPM.removeEntry(page);
+							}
 						}
 						else
 						{
-							// expire whole page
-							accessPM.removeEntry(page);
-						}
-					}
-					else
-					{
-						// If oldestEntry is not an instance of Page, then it is
-						// some
-						// custom, user-defined IPageMapEntry class and cannot
-						// contain
-						// versioning information, so we just remove the entry.
-						if (oldestEntry != null)
-						{
-							accessPM.removeEntry(oldestEntry);
+							// If oldestEntry is not an instance of Page, then it is
+							// some
+							// custom, user-defined IPageMapEntry class and cannot
+							// contain
+							// versioning information, so we just remove the entry.
+							if (oldestEntry != null)
+							{
+								accessPM.removeEntry(oldestEntry);
+							}
 						}
 					}
 				}
 			}
+			finally
+			{
+				if (lock != null)
+				{
+					lock.unlock();
+				}
+			}
 		}
 	}
 
@@ -16,6 +16,8 @@
  */
 package org.apache.wicket.settings;
 
+import java.util.List;
+
 import org.apache.wicket.Page;
 import org.apache.wicket.application.IClassResolver;
 import org.apache.wicket.markup.html.form.Form;
@@ -38,6 +40,17 @@ import org.apache.wicket.util.lang.Bytes;
  */
 public interface IApplicationSettings
 {
+	/**
+	 * Registers a package for the warm-up phase at application start. The components of the
+	 * package and its sub packages have their markup and properties loaded into the caches, and
+	 * the other resources of the packages are bound as package resources, before the first request
+	 * is served. No warm-up is done unless a package is registered.
+	 * 
+	 * @param packageName
+	 *            name of the package, e.g. <code>com.mycompany.pages</code>
+	 */
+	void addWarmupPackage(String packageName);
+
 	/**
 	 * Gets the access denied page class.
 	 * 
@@ -77,6 +90,12 @@ public interface IApplicationSettings
 	 */
 	Class<? extends Page> getPageExpiredErrorPage();
 
+	/**
+	 * @return the packages registered for the warm-up phase, never <code>null</code>
+	 * @see IApplicationSettings#addWarmupPackage(String)
+	 */
+	List<String> getWarmupPackages();
+
 	/**
 	 * Sets the access denied page class. The class must be bookmarkable and must extend Page.
 	 * 
@@ -16,6 +16,9 @@
  */
 package org.apache.wicket.settings;
 
+import org.apache.wicket.util.io.AsyncSerializableChecker;
+import org.apache.wicket.util.io.SerializedSizeProfiler;
+
 /**
  * Settings interface for various debug settings
  * <p>
@@ -25,6 +28,12 @@ package org.apache.wicket.settings;
  * <i>serializeSessionAttributes</i> (defaults to true in development mode) - Causes the framework
  * to serialize any attribute put into session - this helps find Not Serializable errors early
  * <p>
+ * <i>serializableChecker</i> (defaults to null) - Checker that looks for non-serializable objects
+ * in a sample of pages stored in the session or the page store, on a background thread
+ * <p>
+ * <i>serializedSizeProfiler</i> (defaults to null) - Profiler that attributes the serialized size
+ * of a sample of the stored pages to component paths and model classes
+ * <p>
  * 
  * 
  * @author Igor Vaynberg (ivaynberg)
@@ -129,4 +138,39 @@ public interface IDebugSettings
 	 * @param enable
 	 */
 	public void setLinePreciseReportingOnNewComponentEnabled(boolean enable);
+
+	/**
+	 * Sets the checker that looks for non-serializable objects in a sample of pages stored in the
+	 * session or serialized by the page store. It checks bounded snapshots of the pages on a
+	 * background thread and caches what it learned about classes, so it can be used in
+	 * production. Pages that fail to serialize are still
+	 * reported synchronously by the serialization. The checker is destroyed with the application.
+	 * 
+	 * @param checker
+	 *            the checker or <code>null</code> to disable it
+	 */
+	public void setSerializableChecker(AsyncSerializableChecker checker);
+
+	/**
+	 * @see #setSerializableChecker(AsyncSerializableChecker)
+	 * @return the checker or <code>null</code> if disabled
+	 */
+	public AsyncSerializableChecker getSerializableChecker();
+
+	/**
+	 * Sets the profiler that attributes the serialized size of a sample of the pages stored by the
+	 * {@link org.apache.wicket.protocol.http.pagestore.AbstractPageStore page store} to the paths
+	 * of their components and to the classes of their models. The sampled pages are serialized
+	 * once more on the request thread, so choose the sample rate accordingly.
+	 * 
+	 * @param profiler
+	 *            the profiler or <code>null</code> to disable it
+	 */
+	public void setSerializedSizeProfiler(SerializedSizeProfiler profiler);
+
+	/**
+	 * @see #setSerializedSizeProfiler(SerializedSizeProfiler)
+	 * @return the profiler or <code>null</code> if disabled
+	 */
+	public SerializedSizeProfiler getSerializedSizeProfiler();
 }
@@ -19,6 +19,7 @@ package org.apache.wicket.settings;
 import org.apache.wicket.markup.IMarkupCache;
 import org.apache.wicket.markup.IMarkupParserFactory;
 import org.apache.wicket.markup.MarkupParserFactory;
+import org.apache.wicket.markup.PrecompiledMarkup;
 
 /**
  * Interface for markup related settings.
@@ -78,6 +79,17 @@ public interface IMarkupSettings
 	 */
 	IMarkupCache getMarkupCache();
 
+	/**
+	 * @return maximum size of the markup cache in characters, 0 if the cache is not bounded
+	 * @see IMarkupSettings#setMarkupCacheMaxSize(long)
+	 */
+	long getMarkupCacheMaxSize();
+
+	/**
+	 * @return markup parsed at build time or <code>null</code>
+	 */
+	PrecompiledMarkup getPrecompiledMarkup();
+
 	/**
 	 * @return Returns the stripComments.
 	 * @see IMarkupSettings#setStripComments(boolean)
@@ -172,6 +184,28 @@ public interface IMarkupSettings
 	 */
 	void setMarkupCache(IMarkupCache markupCache);
 
+	/**
+	 * Sets the maximum size of the default markup cache, the sum of the length in characters of the
+	 * cached markup files. When exceeded, the least recently used markup is evicted together with
+	 * the markup that inherits from it. The limit applies to the cached markup and, separately, to
+	 * the cached markup keys. Must be set before the markup cache is first used.
+	 * 
+	 * @param maxSize
+	 *            maximum size in characters or 0 (default) for an unbounded cache
+	 */
+	void setMarkupCacheMaxSize(long maxSize);
+
+	/**
+	 * Sets the markup parsed at build time. Markup files found in it are not parsed again unless
+	 * they or the markup settings have changed since. By default the precompiled markup is loaded
+	 * from all {@link PrecompiledMarkup#RESOURCE_NAME} resources on the classpath when the
+	 * application starts.
+	 * 
+	 * @param precompiledMarkup
+	 *            precompiled markup or <code>null</code> to always parse the markup
+	 */
+	void setPrecompiledMarkup(PrecompiledMarkup precompiledMarkup);
+
 	/**
 	 * Enables stripping of markup comments denoted in markup by HTML comment tagging.
 	 * 
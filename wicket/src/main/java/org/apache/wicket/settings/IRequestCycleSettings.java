@@ -23,6 +23,7 @@ import org.apache.wicket.RequestCycle;
 import org.apache.wicket.Session;
 import org.apache.wicket.markup.html.pages.BrowserInfoPage;
 import org.apache.wicket.protocol.http.WebRequestCycle;
+import org.apache.wicket.session.ISessionLockStrategy;
 import org.apache.wicket.settings.IExceptionSettings.UnexpectedExceptionDisplay;
 import org.apache.wicket.util.lang.EnumeratedType;
 import org.apache.wicket.util.time.Duration;
@@ -187,6 +188,13 @@ public interface IRequestCycleSettings
 	 */
 	String getResponseRequestEncoding();
 
+	/**
+	 * Gets the strategy that locks the session pages while a request is being resolved.
+	 * 
+	 * @return the strategy or <code>null</code> if requests synchronize on the session
+	 */
+	ISessionLockStrategy getSessionLockStrategy();
+
 	/**
 	 * Gets the time that a request will by default be waiting for the previous request to be
 	 * handled before giving up.
@@ -202,6 +210,13 @@ public interface IRequestCycleSettings
 	 */
 	UnexpectedExceptionDisplay getUnexpectedExceptionDisplay();
 
+	/**
+	 * @see #setWriteEncodedRawMarkup(boolean)
+	 * 
+	 * @return True if raw markup is written to unbuffered responses as pre-encoded bytes
+	 */
+	boolean getWriteEncodedRawMarkup();
+
 	/**
 	 * @param bufferResponse
 	 *            True if this application should buffer responses.
@@ -284,6 +299,18 @@ public interface IRequestCycleSettings
 	 */
 	void setResponseRequestEncoding(final String responseRequestEncoding);
 
+	/**
+	 * Sets the strategy that locks the session pages while a request is being resolved. The
+	 * default {@link org.apache.wicket.session.SessionLockStrategy} serializes all requests of a
+	 * session, {@link org.apache.wicket.session.PageLockStrategy} lets requests to different
+	 * pagemaps or pages proceed concurrently. When set to <code>null</code> requests synchronize
+	 * on the session instance, without timeout and lock wait statistics.
+	 * 
+	 * @param sessionLockStrategy
+	 *            the strategy or <code>null</code>
+	 */
+	void setSessionLockStrategy(ISessionLockStrategy sessionLockStrategy);
+
 	/**
 	 * Sets the time that a request will by default be waiting for the previous request to be
 	 * handled before giving up.
@@ -298,4 +325,17 @@ public interface IRequestCycleSettings
 	 * @param unexpectedExceptionDisplay
 	 */
 	void setUnexpectedExceptionDisplay(final UnexpectedExceptionDisplay unexpectedExceptionDisplay);
+
+	/**
+	 * Sets whether raw markup is written to unbuffered responses as bytes. The bytes of the raw
+	 * markup, with adjacent raw markup elements merged, are encoded once per markup in the response
+	 * encoding and then written to the servlet output stream on every render. All other text of
+	 * such a response is encoded by Wicket and written to the output stream as well, so the servlet
+	 * writer must not be used. Buffered responses (see {@link #setBufferResponse(boolean)}) always
+	 * write chars, as the response filters work on the buffered chars. Default is false.
+	 * 
+	 * @param writeEncodedRawMarkup
+	 *            True to write raw markup as pre-encoded bytes
+	 */
+	void setWriteEncodedRawMarkup(boolean writeEncodedRawMarkup);
 }
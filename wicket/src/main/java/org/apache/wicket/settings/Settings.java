@@ -39,6 +39,7 @@ import org.apache.wicket.markup.IMarkupCache;
 import org.apache.wicket.markup.IMarkupParserFactory;
 import org.apache.wicket.markup.MarkupCache;
 import org.apache.wicket.markup.MarkupParserFactory;
+import org.apache.wicket.markup.PrecompiledMarkup;
 import org.apache.wicket.markup.html.IPackageResourceGuard;
 import org.apache.wicket.markup.html.PackageResourceGuard;
 import org.apache.wicket.markup.html.form.persistence.CookieValuePersisterSettings;
@@ -50,6 +51,8 @@ import org.apache.wicket.resource.loader.ClassStringResourceLoader;
 import org.apache.wicket.resource.loader.ComponentStringResourceLoader;
 import org.apache.wicket.resource.loader.IStringResourceLoader;
 import org.apache.wicket.resource.loader.PackageStringResourceLoader;
+import org.apache.wicket.session.ISessionLockStrategy;
+import org.apache.wicket.session.SessionLockStrategy;
 import org.apache.wicket.session.DefaultPageFactory;
 import org.apache.wicket.session.pagemap.IPageMapEvictionStrategy;
 import org.apache.wicket.session.pagemap.LeastRecentlyAccessedEvictionStrategy;
@@ -58,6 +61,8 @@ import org.apache.wicket.util.crypt.KeyInSessionSunJceCryptFactory;
 import org.apache.wicket.util.file.IResourceFinder;
 import org.apache.wicket.util.file.IResourcePath;
 import org.apache.wicket.util.file.Path;
+import org.apache.wicket.util.io.AsyncSerializableChecker;
+import org.apache.wicket.util.io.SerializedSizeProfiler;
 import org.apache.wicket.util.lang.Bytes;
 import org.apache.wicket.util.resource.locator.IResourceStreamLocator;
 import org.apache.wicket.util.resource.locator.ResourceStreamLocator;
@@ -184,6 +189,12 @@ public final class Settings
 	/** A markup cache which will load the markup if required. */
 	private IMarkupCache markupCache;
 
+	/** Maximum size of the markup cache in characters, 0 for unbounded */
+	private long markupCacheMaxSize = 0;
+
+	/** Markup parsed at build time */
+	private PrecompiledMarkup precompiledMarkup;
+
 	/** if true than throw an exception if the xml declaration is missing from the markup file */
 	private boolean throwExceptionOnMissingXmlDeclaration = false;
 
@@ -268,6 +279,9 @@ public final class Settings
 	 */
 	private Duration timeout = Duration.ONE_MINUTE;
 
+	/** Strategy locking the session pages, null means synchronizing on the session */
+	private ISessionLockStrategy sessionLockStrategy = new SessionLockStrategy();
+
 	/** Authorizer for component instantiations */
 	private IUnauthorizedComponentInstantiationListener unauthorizedComponentInstantiationListener = new IUnauthorizedComponentInstantiationListener()
 	{
@@ -293,6 +307,12 @@ public final class Settings
 	/** Determines if pages should be managed by a version manager by default */
 	private boolean versionPagesByDefault = true;
 
+	/** Packages whose caches are preloaded at application start */
+	private final List<String> warmupPackages = new ArrayList<String>();
+
+	/** True if raw markup is written to unbuffered responses as pre-encoded bytes */
+	private boolean writeEncodedRawMarkup = false;
+
 	private boolean recordSessionSize = true;
 
 	private int requestsWindowSize = 0;
@@ -309,6 +329,12 @@ public final class Settings
 	 */
 	private boolean outputMarkupContainerClassName = false;
 
+	/** checker of non-serializable objects, disabled by default */
+	private AsyncSerializableChecker serializableChecker;
+
+	/** profiler of serialized page sizes, disabled by default */
+	private SerializedSizeProfiler serializedSizeProfiler;
+
 	private boolean addLastModifiedTimeToResourceReferenceUrl = false;
 
 	/** */
@@ -398,6 +424,18 @@ public final class Settings
 		stringResourceLoaders.add(index, loader);
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IApplicationSettings#addWarmupPackage(java.lang.String)
+	 */
+	public void addWarmupPackage(final String packageName)
+	{
+		if (packageName == null)
+		{
+			throw new IllegalArgumentException("Argument packageName may not be null");
+		}
+		warmupPackages.add(packageName);
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.IApplicationSettings#getAccessDeniedPage()
 	 */
@@ -581,6 +619,22 @@ public final class Settings
 		return markupParserFactory;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IMarkupSettings#getMarkupCacheMaxSize()
+	 */
+	public long getMarkupCacheMaxSize()
+	{
+		return markupCacheMaxSize;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IMarkupSettings#getPrecompiledMarkup()
+	 */
+	public PrecompiledMarkup getPrecompiledMarkup()
+	{
+		return precompiledMarkup;
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.ISessionSettings#getMaxPageMaps()
 	 */
@@ -758,6 +812,14 @@ public final class Settings
 		return throwExceptionOnMissingResource;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IRequestCycleSettings#getSessionLockStrategy()
+	 */
+	public ISessionLockStrategy getSessionLockStrategy()
+	{
+		return sessionLockStrategy;
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.IRequestCycleSettings#getTimeout()
 	 */
@@ -813,6 +875,22 @@ public final class Settings
 		return versionPagesByDefault;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IApplicationSettings#getWarmupPackages()
+	 */
+	public List<String> getWarmupPackages()
+	{
+		return Collections.unmodifiableList(warmupPackages);
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IRequestCycleSettings#getWriteEncodedRawMarkup()
+	 */
+	public boolean getWriteEncodedRawMarkup()
+	{
+		return writeEncodedRawMarkup;
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.IDebugSettings#isAjaxDebugModeEnabled()
 	 */
@@ -999,6 +1077,22 @@ public final class Settings
 		markupParserFactory = factory;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IMarkupSettings#setMarkupCacheMaxSize(long)
+	 */
+	public void setMarkupCacheMaxSize(long maxSize)
+	{
+		markupCacheMaxSize = maxSize;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IMarkupSettings#setPrecompiledMarkup(org.apache.wicket.markup.PrecompiledMarkup)
+	 */
+	public void setPrecompiledMarkup(PrecompiledMarkup precompiledMarkup)
+	{
+		this.precompiledMarkup = precompiledMarkup;
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.ISessionSettings#setMaxPageMaps(int)
 	 */
@@ -1132,6 +1226,14 @@ public final class Settings
 		this.throwExceptionOnMissingResource = throwExceptionOnMissingResource;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IRequestCycleSettings#setSessionLockStrategy(org.apache.wicket.session.ISessionLockStrategy)
+	 */
+	public void setSessionLockStrategy(ISessionLockStrategy sessionLockStrategy)
+	{
+		this.sessionLockStrategy = sessionLockStrategy;
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.IRequestCycleSettings#setTimeout(org.apache.wicket.util.time.Duration)
 	 */
@@ -1178,6 +1280,14 @@ public final class Settings
 		versionPagesByDefault = pagesVersionedByDefault;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IRequestCycleSettings#setWriteEncodedRawMarkup(boolean)
+	 */
+	public void setWriteEncodedRawMarkup(boolean writeEncodedRawMarkup)
+	{
+		this.writeEncodedRawMarkup = writeEncodedRawMarkup;
+	}
+
 	/**
 	 * Throws an IllegalArgumentException if the given class is not a subclass of Page.
 	 * 
@@ -1374,6 +1484,38 @@ public final class Settings
 		linePreciseReportingOnNewComponentEnabled = enable;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IDebugSettings#setSerializableChecker(org.apache.wicket.util.io.AsyncSerializableChecker)
+	 */
+	public void setSerializableChecker(AsyncSerializableChecker checker)
+	{
+		serializableChecker = checker;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IDebugSettings#getSerializableChecker()
+	 */
+	public AsyncSerializableChecker getSerializableChecker()
+	{
+		return serializableChecker;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IDebugSettings#setSerializedSizeProfiler(org.apache.wicket.util.io.SerializedSizeProfiler)
+	 */
+	public void setSerializedSizeProfiler(SerializedSizeProfiler profiler)
+	{
+		serializedSizeProfiler = profiler;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IDebugSettings#getSerializedSizeProfiler()
+	 */
+	public SerializedSizeProfiler getSerializedSizeProfiler()
+	{
+		return serializedSizeProfiler;
+	}
+
 	/**
 	 * 
 	 * @see org.apache.wicket.settings.IResourceSettings#setAddLastModifiedTimeToResourceReferenceUrl(boolean)
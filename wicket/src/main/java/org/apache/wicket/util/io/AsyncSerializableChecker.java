@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.util.io.SerializableChecker.WicketNotSerializableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Looks for non-serializable objects in a sample of objects on a background thread, so that the
+ * diagnostics of {@link SerializableChecker} can stay enabled in production. All checkers share the
+ * {@link SerializableCheckerCache#getDefault() default cache} with the synchronous checks of the
+ * object streams, so the fields of every class are looked up only once.
+ * <p>
+ * Every {@link #getSampleRate() n-th} object offered by {@link #sample(Object)} is checked. The
+ * calling thread takes a {@link ObjectCloner#snapshot(Object) snapshot} of the object, the
+ * background thread then only walks the snapshot, never the object graph the request threads
+ * work with. Sampling is disabled if the snapshots can't be made on this JVM. To bound the cost for
+ * the calling thread, samples with more than {@link #getMaxSnapshotObjects()} objects are
+ * dropped, as are samples offered while the queue of pending checks is full.
+ * <p>
+ * Objects that fail to serialize are not checked here, the serialization reports the offending
+ * field synchronously in that case.
+ * <p>
+ * Offending field paths are logged by {@link #onNotSerializable(Object,
+ * WicketNotSerializableException)}, override it to report them elsewhere. The counters can be used
+ * as metrics.
+ * 
+ * @see org.apache.wicket.settings.IDebugSettings#setSerializableChecker(AsyncSerializableChecker)
+ */
+public class AsyncSerializableChecker
+{
+	private final SerializableCheckerCache cache = SerializableCheckerCache.getDefault();
+
+	private final int sampleRate;
+
+	private final int maxSnapshotObjects;
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong sampledCount = new AtomicLong();
+
+	private final AtomicLong checkedCount = new AtomicLong();
+
+	private final AtomicLong failureCount = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	/**
+	 * Construct that checks every 100th sampled object, keeps at most 16 pending checks and
+	 * drops samples with more than 10000 objects.
+	 */
+	public AsyncSerializableChecker()
+	{
+		this(100, 16);
+	}
+
+	/**
+	 * Construct that drops samples with more than 10000 objects.
+	 * 
+	 * @param sampleRate
+	 *            every n-th sampled object is checked, 1 checks all of them
+	 * @param maxPending
+	 *            maximum number of objects waiting for the check
+	 */
+	public AsyncSerializableChecker(int sampleRate, int maxPending)
+	{
+		this(sampleRate, maxPending, 10000);
+	}
+
+	/**
+	 * Construct.
+	 * 
+	 * @param sampleRate
+	 *            every n-th sampled object is checked, 1 checks all of them
+	 * @param maxPending
+	 *            maximum number of objects waiting for the check
+	 * @param maxSnapshotObjects
+	 *            maximum number of objects in the snapshot of a sample
+	 */
+	public AsyncSerializableChecker(int sampleRate, int maxPending, int maxSnapshotObjects)
+	{
+		if (sampleRate < 1)
+		{
+			throw new IllegalArgumentException("Argument 'sampleRate' must be at least 1.");
+		}
+		if (maxPending < 1)
+		{
+			throw new IllegalArgumentException("Argument 'maxPending' must be at least 1.");
+		}
+		if (maxSnapshotObjects < 1)
+		{
+			throw new IllegalArgumentException("Argument 'maxSnapshotObjects' must be at least 1.");
+		}
+		this.sampleRate = sampleRate;
+		this.maxSnapshotObjects = maxSnapshotObjects;
+		executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(maxPending), new ThreadFactory()
+			{
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "Wicket-SerializableChecker");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+	}
+
+	/**
+	 * Offers a sample, every {@link #getSampleRate() n-th} sample is checked.
+	 * 
+	 * @param object
+	 * @return whether the object was queued for the check
+	 */
+	public boolean sample(Object object)
+	{
+		if (sampledCount.incrementAndGet() % sampleRate != 0 || object == null ||
+			!ObjectCloner.isAvailable())
+		{
+			return false;
+		}
+
+		// nothing is queued when the queue is full, so don't spend time with the snapshot
+		if (executor.getQueue().remainingCapacity() == 0)
+		{
+			droppedCount.incrementAndGet();
+			return false;
+		}
+
+		final Object snapshot;
+		try
+		{
+			snapshot = ObjectCloner.snapshot(object, maxSnapshotObjects);
+		}
+		catch (Exception e)
+		{
+			log.debug("Error taking snapshot of " + object.getClass().getName(), e);
+			return false;
+		}
+		if (snapshot == null)
+		{
+			droppedCount.incrementAndGet();
+			return false;
+		}
+
+		try
+		{
+			executor.execute(new Runnable()
+			{
+				public void run()
+				{
+					checkNow(snapshot);
+				}
+			});
+			return true;
+		}
+		catch (RejectedExecutionException e)
+		{
+			droppedCount.incrementAndGet();
+			return false;
+		}
+	}
+
+	private void checkNow(Object object)
+	{
+		checkedCount.incrementAndGet();
+		try
+		{
+			new SerializableChecker(null, cache).writeObject(object);
+		}
+		catch (WicketNotSerializableException e)
+		{
+			failureCount.incrementAndGet();
+			onNotSerializable(object, e);
+		}
+		catch (Exception e)
+		{
+			log.debug("Error checking " + object.getClass().getName(), e);
+		}
+	}
+
+	/**
+	 * Called on the background thread when a non-serializable object was found. The message of
+	 * the exception contains the path to the offending field.
+	 * 
+	 * @param object
+	 *            snapshot of the checked object
+	 * @param e
+	 */
+	protected void onNotSerializable(Object object, WicketNotSerializableException e)
+	{
+		log.warn(e.getMessage());
+	}
+
+	/**
+	 * Stops the background thread, pending checks are finished first.
+	 */
+	public void destroy()
+	{
+		executor.shutdown();
+		try
+		{
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return every n-th sampled object is checked
+	 */
+	public int getSampleRate()
+	{
+		return sampleRate;
+	}
+
+	/**
+	 * @return maximum number of objects in the snapshot of a sample
+	 */
+	public int getMaxSnapshotObjects()
+	{
+		return maxSnapshotObjects;
+	}
+
+	/**
+	 * @return number of objects offered by {@link #sample(Object)}
+	 */
+	public long getSampledCount()
+	{
+		return sampledCount.get();
+	}
+
+	/**
+	 * @return number of finished and running checks
+	 */
+	public long getCheckedCount()
+	{
+		return checkedCount.get();
+	}
+
+	/**
+	 * @return number of checks that found a non-serializable object
+	 */
+	public long getFailureCount()
+	{
+		return failureCount.get();
+	}
+
+	/**
+	 * @return number of objects not checked because the queue was full or they had too many
+	 *         objects
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return number of classes with cached verdict
+	 */
+	public int getCachedClassCount()
+	{
+		return cache.size();
+	}
+
+	/** log. */
+	private static final Logger log = LoggerFactory.getLogger(AsyncSerializableChecker.class);
+}
@@ -189,14 +189,21 @@ public class ByteArrayOutputStream extends OutputStream
 	}
 
 	/**
-	 * Calls the write(byte[]) method.
+	 * Writes single byte.
 	 * 
 	 * @see java.io.OutputStream#write(int)
 	 */
 	@Override
 	public synchronized void write(int b)
 	{
-		write(new byte[] { (byte)b }, 0, 1);
+		int inBufferPos = count - filledBufferSum;
+		if (inBufferPos == currentBuffer.length)
+		{
+			needNewBuffer(count + 1);
+			inBufferPos = 0;
+		}
+		currentBuffer[inBufferPos] = (byte)b;
+		count++;
 	}
 
 	/**
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of reusable {@link ByteArrayOutputStream}s. Serializing a page into a fresh stream
+ * allocates its buffers again for every page; streams taken from the pool keep the buffers grown
+ * by the previous use.
+ * <p>
+ * At most {@link #getMaxPooled()} streams are kept. Streams that grew over
+ * {@link #getMaxRetainedSize()} bytes are not returned to the pool, so a single huge page doesn't
+ * keep its memory forever.
+ */
+public class ByteArrayOutputStreamPool
+{
+	private final Queue<ByteArrayOutputStream> pool = new ConcurrentLinkedQueue<ByteArrayOutputStream>();
+
+	private final AtomicInteger pooled = new AtomicInteger(0);
+
+	private final int maxPooled;
+
+	private final int maxRetainedSize;
+
+	private final int initialSize;
+
+	/**
+	 * Construct.
+	 * 
+	 * @param maxPooled
+	 *            maximum number of pooled streams, usually about the number of request threads
+	 * @param initialSize
+	 *            initial capacity of newly created streams
+	 * @param maxRetainedSize
+	 *            streams that contain more bytes than this when released are discarded
+	 */
+	public ByteArrayOutputStreamPool(int maxPooled, int initialSize, int maxRetainedSize)
+	{
+		if (maxPooled < 0)
+		{
+			throw new IllegalArgumentException("Argument 'maxPooled' may not be negative.");
+		}
+		this.maxPooled = maxPooled;
+		this.initialSize = initialSize;
+		this.maxRetainedSize = maxRetainedSize;
+	}
+
+	/**
+	 * Returns an empty stream. The stream should be {@link #release(ByteArrayOutputStream)
+	 * released} when no longer needed.
+	 * 
+	 * @return stream
+	 */
+	public ByteArrayOutputStream acquire()
+	{
+		ByteArrayOutputStream stream = pool.poll();
+		if (stream == null)
+		{
+			return new ByteArrayOutputStream(initialSize);
+		}
+		pooled.decrementAndGet();
+		return stream;
+	}
+
+	/**
+	 * Returns the stream to the pool. The stream must not be used after it has been released.
+	 * 
+	 * @param stream
+	 */
+	public void release(ByteArrayOutputStream stream)
+	{
+		if (stream.size() > maxRetainedSize)
+		{
+			return;
+		}
+		if (pooled.incrementAndGet() > maxPooled)
+		{
+			pooled.decrementAndGet();
+			return;
+		}
+		stream.reset();
+		pool.offer(stream);
+	}
+
+	/**
+	 * @return number of streams currently in the pool
+	 */
+	public int getPooledCount()
+	{
+		return pooled.get();
+	}
+
+	/**
+	 * @return maximum number of pooled streams
+	 */
+	public int getMaxPooled()
+	{
+		return maxPooled;
+	}
+
+	/**
+	 * @return maximum size of stream that is returned to the pool
+	 */
+	public int getMaxRetainedSize()
+	{
+		return maxRetainedSize;
+	}
+}
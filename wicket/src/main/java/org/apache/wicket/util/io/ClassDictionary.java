@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.util.lang.Classes;
+
+/**
+ * Dictionary assigning numeric ids to the classes written by {@link WicketObjectOutputStream}.
+ * The serialized stream then only contains the ids, never the class names.
+ * <p>
+ * Dictionary created with the {@link #ClassDictionary() default constructor} lives only in
+ * memory, so the ids are valid only within the JVM. Dictionary backed by a file is persistent:
+ * ids once assigned never change, so the serialized data can be read after a restart. The file
+ * is only appended to and every append is done under file lock, so the file can be shared by
+ * multiple nodes (e.g. on a network filesystem next to the page store) which then assign the
+ * same ids to the same classes.
+ * <p>
+ * File format: 4 byte header (magic and format version) followed by class names written with
+ * {@link DataOutputStream#writeUTF(String)}, the n-th name has id n.
+ * 
+ * @see WicketObjectStreamFactory#WicketObjectStreamFactory(ClassDictionary)
+ */
+public class ClassDictionary
+{
+	/** 'W' 'C' 'D' followed by the format version */
+	private static final int HEADER = 0x57434401;
+
+	private static final ClassDictionary DEFAULT = new ClassDictionary();
+
+	// file locks are held by the JVM, so the threads must not try to lock the same file at once
+	private static final Object FILE_LOCK = new Object();
+
+	private final File file;
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	// names and resolved classes indexed by id, id 0 is reserved
+	private volatile String[] names = new String[64];
+
+	private volatile ClassReference[] classes = new ClassReference[64];
+
+	private volatile int size = 1;
+
+	// number of bytes of the file already read
+	private long fileLength;
+
+	/**
+	 * Construct in-memory dictionary.
+	 */
+	public ClassDictionary()
+	{
+		file = null;
+	}
+
+	/**
+	 * Construct dictionary backed by the given file. If the file doesn't exist it will be created
+	 * when the first class is registered.
+	 * 
+	 * @param file
+	 */
+	public ClassDictionary(File file)
+	{
+		this.file = file;
+		synchronized (this)
+		{
+			if (file.exists())
+			{
+				readFile();
+			}
+		}
+	}
+
+	/**
+	 * @return shared in-memory dictionary used by streams created without explicit dictionary
+	 */
+	public static ClassDictionary getDefault()
+	{
+		return DEFAULT;
+	}
+
+	/**
+	 * @return file backing this dictionary or <code>null</code> if the dictionary lives in memory
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * @return number of registered classes
+	 */
+	public int size()
+	{
+		return size - 1;
+	}
+
+	/**
+	 * Returns the id of given class. Classes that are not yet in the dictionary are registered.
+	 * 
+	 * @param cls
+	 * @return class id, always greater than zero
+	 */
+	public int getId(Class<?> cls)
+	{
+		Integer id = ids.get(cls.getName());
+		if (id == null)
+		{
+			id = new Integer(register(cls));
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Returns the class with given id.
+	 * 
+	 * @param id
+	 * @return class
+	 * @throws ClassNotFoundException
+	 *             if the id is unknown or the class can't be loaded
+	 */
+	public Class<?> getClass(int id) throws ClassNotFoundException
+	{
+		ClassReference[] classes = this.classes;
+		if (id > 0 && id < classes.length)
+		{
+			ClassReference reference = classes[id];
+			Class<?> cls = reference != null ? reference.getValid() : null;
+			if (cls != null)
+			{
+				return cls;
+			}
+		}
+		String name = getClassName(id);
+		if (name == null)
+		{
+			throw new ClassNotFoundException("Unknown class id " + id);
+		}
+		Class<?> cls = resolve(name);
+		if (cls == null)
+		{
+			throw new ClassNotFoundException(name);
+		}
+		synchronized (this)
+		{
+			this.classes[id] = new ClassReference(cls);
+		}
+		return cls;
+	}
+
+	/**
+	 * Returns the name of class with given id.
+	 * 
+	 * @param id
+	 * @return class name or <code>null</code> if the id is unknown
+	 */
+	public String getClassName(int id)
+	{
+		if (id <= 0)
+		{
+			return null;
+		}
+		if (id >= size && file != null)
+		{
+			// the class might have been registered by other node
+			synchronized (this)
+			{
+				readFile();
+			}
+		}
+		String[] names = this.names;
+		return id < size ? names[id] : null;
+	}
+
+	private static Class<?> resolve(String name) throws ClassNotFoundException
+	{
+		if (name.length() < 8)
+		{
+			// primitive types
+			Class<?>[] primitives = new Class<?>[] { boolean.class, byte.class, char.class,
+					short.class, int.class, long.class, float.class, double.class, void.class };
+			for (int i = 0; i < primitives.length; i++)
+			{
+				if (primitives[i].getName().equals(name))
+				{
+					return primitives[i];
+				}
+			}
+		}
+		return Classes.resolveClass(name);
+	}
+
+	private synchronized int register(Class<?> cls)
+	{
+		String name = cls.getName();
+		Integer id = ids.get(name);
+		if (id != null)
+		{
+			return id.intValue();
+		}
+
+		if (file == null)
+		{
+			return add(name, cls);
+		}
+
+		RandomAccessFile raf = null;
+		try
+		{
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			raf = new RandomAccessFile(file, "rw");
+			synchronized (FILE_LOCK)
+			{
+				FileChannel channel = raf.getChannel();
+				FileLock lock = channel.lock();
+				try
+				{
+					// pick up the classes registered by other nodes first
+					read(channel);
+					id = ids.get(name);
+					if (id != null)
+					{
+						return id.intValue();
+					}
+
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					DataOutputStream out = new DataOutputStream(bytes);
+					if (fileLength == 0)
+					{
+						out.writeInt(HEADER);
+					}
+					out.writeUTF(name);
+					out.close();
+
+					ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+					long position = fileLength;
+					while (buffer.hasRemaining())
+					{
+						position += channel.write(buffer, position);
+					}
+					channel.force(false);
+					fileLength = position;
+					return add(name, cls);
+				}
+				finally
+				{
+					lock.release();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new WicketRuntimeException("Error registering class " + name +
+				" in class dictionary " + file, e);
+		}
+		finally
+		{
+			close(raf);
+		}
+	}
+
+	private int add(String name, Class<?> cls)
+	{
+		int id = size;
+		if (id == names.length)
+		{
+			String[] newNames = new String[id * 2];
+			System.arraycopy(names, 0, newNames, 0, id);
+			ClassReference[] newClasses = new ClassReference[id * 2];
+			System.arraycopy(classes, 0, newClasses, 0, id);
+			names = newNames;
+			classes = newClasses;
+		}
+		names[id] = name;
+		classes[id] = cls != null ? new ClassReference(cls) : null;
+		ids.put(name, new Integer(id));
+		// publishes the entry
+		size = id + 1;
+		return id;
+	}
+
+	private void readFile()
+	{
+		RandomAccessFile raf = null;
+		try
+		{
+			raf = new RandomAccessFile(file, "r");
+			synchronized (FILE_LOCK)
+			{
+				FileChannel channel = raf.getChannel();
+				FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+				try
+				{
+					read(channel);
+				}
+				finally
+				{
+					lock.release();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new WicketRuntimeException("Error reading class dictionary " + file, e);
+		}
+		finally
+		{
+			close(raf);
+		}
+	}
+
+	private static void close(RandomAccessFile raf)
+	{
+		if (raf != null)
+		{
+			try
+			{
+				raf.close();
+			}
+			catch (IOException e)
+			{
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Weak reference to resolved class, so that the dictionary doesn't keep classes of discarded
+	 * class loaders. The class is only valid until a class loader is unregistered.
+	 * 
+	 * @see ClassStreamHandler#unregister(ClassLoader)
+	 */
+	private static final class ClassReference extends WeakReference<Class<?>>
+	{
+		private final int generation;
+
+		private ClassReference(Class<?> cls)
+		{
+			super(cls);
+			generation = ClassStreamHandler.getGeneration();
+		}
+
+		private Class<?> getValid()
+		{
+			return generation == ClassStreamHandler.getGeneration() ? get() : null;
+		}
+	}
+
+	/**
+	 * Reads the entries appended since the last read.
+	 * 
+	 * @param channel
+	 * @throws IOException
+	 */
+	private void read(FileChannel channel) throws IOException
+	{
+		long length = channel.size();
+		if (length <= fileLength)
+		{
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int)(length - fileLength));
+		long position = fileLength;
+		while (buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position);
+			if (read < 0)
+			{
+				throw new EOFException();
+			}
+			position += read;
+		}
+
+		ByteArrayInputStream bytes = new ByteArrayInputStream(buffer.array());
+		DataInputStream in = new DataInputStream(bytes);
+		if (fileLength == 0 && in.readInt() != HEADER)
+		{
+			throw new IOException(file + " is not a class dictionary or has unsupported format");
+		}
+		while (bytes.available() > 0)
+		{
+			add(in.readUTF(), null);
+		}
+		fileLength = length;
+	}
+}
@@ -22,6 +22,10 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -32,6 +36,8 @@ import java.lang.reflect.Proxy;
 import java.security.AccessController;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.wicket.util.lang.Generics;
 
@@ -74,13 +80,37 @@ public final class ClassStreamHandler
 		}
 	}
 
+	/**
+	 * @return whether the non-standard features this class depends on are available
+	 */
+	static boolean isAvailable()
+	{
+		return unsafe != null;
+	}
+
 	@SuppressWarnings("unchecked")
 	private static final ReflectionFactory reflFactory = (ReflectionFactory)AccessController.doPrivileged(new ReflectionFactory.GetReflectionFactoryAction());
 
 
-	private static Map<Object, ClassStreamHandler> handlesClasses = Generics.newHashMap();
+	/**
+	 * Handlers per class loader. The class loaders are only weakly referenced and the handlers of a
+	 * class loader are softly referenced (the handlers reference the classes, and so the class
+	 * loader), so the classes of a discarded class loader (e.g. a
+	 * {@link org.apache.wicket.application.ReloadingClassLoader} generation) can be garbage
+	 * collected. The lookups are lock free.
+	 */
+	private static final ConcurrentMap<LoaderKey, Handlers> handlesClasses = new ConcurrentHashMap<LoaderKey, Handlers>();
 
-	private static short classCounter = 0;
+	private static final ReferenceQueue<ClassLoader> staleLoaders = new ReferenceQueue<ClassLoader>();
+
+	/** key used for the classes of the bootstrap class loader */
+	private static final LoaderKey BOOTSTRAP_LOADER = new LoaderKey(null, null);
+
+	/** handlers of the most recently used class loader */
+	private static volatile Handlers lastHandlers;
+
+	/** incremented every time a class loader is unregistered */
+	private static volatile int generation = 0;
 
 	/**
 	 * 
@@ -114,32 +144,169 @@ public final class ClassStreamHandler
 
 	static ClassStreamHandler lookup(Class<?> cls) throws NotSerializableException
 	{
-		ClassStreamHandler classHandler = handlesClasses.get(cls.getName());
+		ConcurrentMap<String, ClassStreamHandler> handlers = getHandlers(cls.getClassLoader());
+		ClassStreamHandler classHandler = handlers.get(cls.getName());
 		if (classHandler == null)
 		{
 			classHandler = new ClassStreamHandler(cls);
-			handlesClasses.put(cls.getName(), classHandler);
-			handlesClasses.put(new Short(classHandler.getClassId()), classHandler);
+			ClassStreamHandler existing = handlers.putIfAbsent(cls.getName(), classHandler);
+			if (existing != null)
+			{
+				// other thread was faster
+				classHandler = existing;
+			}
 		}
 		return classHandler;
 	}
 
-	static ClassStreamHandler lookup(short s)
+	private static ConcurrentMap<String, ClassStreamHandler> getHandlers(ClassLoader loader)
 	{
-		ClassStreamHandler classHandler = handlesClasses.get(new Short(s));
-		if (classHandler == null)
+		// fast path, usually all classes come from the same class loader
+		Handlers handlers = lastHandlers;
+		if (handlers != null && handlers.isFor(loader))
 		{
-			throw new RuntimeException("class not found for: " + s);
+			ConcurrentMap<String, ClassStreamHandler> map = handlers.get();
+			if (map != null)
+			{
+				return map;
+			}
+		}
+
+		handlers = handlesClasses.get(loader == null ? BOOTSTRAP_LOADER : new LoaderKey(loader));
+		ConcurrentMap<String, ClassStreamHandler> map = handlers != null ? handlers.get() : null;
+		if (map == null)
+		{
+			expungeStaleLoaders();
+			LoaderKey key = loader == null ? BOOTSTRAP_LOADER : new LoaderKey(loader,
+				staleLoaders);
+			map = new ConcurrentHashMap<String, ClassStreamHandler>();
+			Handlers newHandlers = new Handlers(key, map);
+			while (true)
+			{
+				handlers = handlesClasses.putIfAbsent(key, newHandlers);
+				if (handlers == null)
+				{
+					handlers = newHandlers;
+					break;
+				}
+				ConcurrentMap<String, ClassStreamHandler> existing = handlers.get();
+				if (existing != null)
+				{
+					map = existing;
+					break;
+				}
+				// the handlers have been cleared by garbage collector
+				if (handlesClasses.replace(key, handlers, newHandlers))
+				{
+					handlers = newHandlers;
+					break;
+				}
+			}
+		}
+		lastHandlers = handlers;
+		return map;
+	}
+
+	private static void expungeStaleLoaders()
+	{
+		Reference<? extends ClassLoader> ref;
+		while ((ref = staleLoaders.poll()) != null)
+		{
+			handlesClasses.remove(ref);
+		}
+	}
+
+	/**
+	 * Removes the cached handlers of classes loaded by given class loader. Should be called when
+	 * the class loader is discarded, e.g. when
+	 * {@link org.apache.wicket.application.ReloadingClassLoader} is replaced by a new one.
+	 * 
+	 * @param loader
+	 */
+	public static void unregister(ClassLoader loader)
+	{
+		lastHandlers = null;
+		handlesClasses.remove(loader == null ? BOOTSTRAP_LOADER : new LoaderKey(loader));
+		generation++;
+		expungeStaleLoaders();
+	}
+
+	/**
+	 * @return number that changes every time a class loader is {@link #unregister(ClassLoader)
+	 *         unregistered}
+	 */
+	static int getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * Weak reference to class loader usable as map key. Keys created without reference queue are
+	 * only used for lookups.
+	 */
+	private static final class LoaderKey extends WeakReference<ClassLoader>
+	{
+		private final int hash;
+
+		private LoaderKey(ClassLoader loader)
+		{
+			super(loader);
+			hash = System.identityHashCode(loader);
+		}
+
+		private LoaderKey(ClassLoader loader, ReferenceQueue<ClassLoader> queue)
+		{
+			super(loader, queue);
+			hash = System.identityHashCode(loader);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (obj == this)
+			{
+				return true;
+			}
+			if (obj instanceof LoaderKey)
+			{
+				ClassLoader loader = get();
+				return loader != null && loader == ((LoaderKey)obj).get();
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Soft reference to the handlers of one class loader.
+	 */
+	private static final class Handlers extends
+		SoftReference<ConcurrentMap<String, ClassStreamHandler>>
+	{
+		private final LoaderKey key;
+
+		private Handlers(LoaderKey key, ConcurrentMap<String, ClassStreamHandler> map)
+		{
+			super(map);
+			this.key = key;
+		}
+
+		private boolean isFor(ClassLoader loader)
+		{
+			return loader == null ? key == BOOTSTRAP_LOADER : key.get() == loader;
 		}
-		return classHandler;
 	}
 
 	/**
 	 * 
 	 */
 	private final Class<?> clz;
-	private final List<FieldAndIndex> fields;
-	private final short classId;
+	private final FieldLayout fields;
 
 	private final Constructor<?> cons;
 
@@ -163,7 +330,6 @@ public final class ClassStreamHandler
 	 */
 	private ClassStreamHandler(Class<?> cls) throws WicketSerializeableException
 	{
-		classId = classCounter++;
 		clz = cls;
 		if (cls.isPrimitive())
 		{
@@ -234,7 +400,6 @@ public final class ClassStreamHandler
 		}
 		else
 		{
-			fields = Generics.newArrayList();
 			primitiveArray = null;
 			writeObjectMethods = Generics.newArrayList(2);
 			readObjectMethods = Generics.newArrayList(2);
@@ -273,7 +438,7 @@ public final class ClassStreamHandler
 
 				parent = parent.getSuperclass();
 			}
-			fillFields(cls);
+			fields = new FieldLayout(cls);
 		}
 	}
 
@@ -285,14 +450,6 @@ public final class ClassStreamHandler
 		return clz;
 	}
 
-	/**
-	 * @return class id
-	 */
-	public short getClassId()
-	{
-		return classId;
-	}
-
 	/**
 	 * @return new instance of class
 	 * @throws InvocationTargetException
@@ -306,73 +463,6 @@ public final class ClassStreamHandler
 		return cons.newInstance((Object[])null);
 	}
 
-	/**
-	 * @param cls
-	 */
-	private void fillFields(Class<?> cls)
-	{
-		if (cls == null)
-		{
-			return;
-		}
-		Field[] fields = cls.getDeclaredFields();
-		for (int i = 0; i < fields.length; i++)
-		{
-			Field field = fields[i];
-			field.setAccessible(true);
-			if (!Modifier.isStatic(field.getModifiers()) &&
-				!Modifier.isTransient(field.getModifiers()))
-			{
-				FieldAndIndex fai = null;
-				Class<?> clz = field.getType();
-				long offset = unsafe.objectFieldOffset(field);
-				if (clz == boolean.class)
-				{
-					fai = new BooleanFieldAndIndex(field);
-				}
-				else if (clz == byte.class)
-				{
-					fai = new ByteFieldAndIndex(field);
-				}
-				else if (clz == short.class)
-				{
-					fai = new ShortFieldAndIndex(field);
-				}
-				else if (clz == char.class)
-				{
-					fai = new CharFieldAndIndex(field);
-				}
-				else if (clz == int.class)
-				{
-					fai = new IntFieldAndIndex(field);
-				}
-				else if (clz == long.class)
-				{
-					fai = new LongFieldAndIndex(field);
-				}
-				else if (clz == float.class)
-				{
-					fai = new FloatFieldAndIndex(field);
-				}
-				else if (clz == double.class)
-				{
-					fai = new DoubleFieldAndIndex(field);
-				}
-				else
-				{
-					fai = new ObjectFieldAndIndex(field);
-				}
-				this.fields.add(fai);
-			}
-		}
-		cls = cls.getSuperclass();
-		if (cls != Object.class)
-		{
-			fillFields(cls);
-		}
-		return;
-	}
-
 	/**
 	 * @param woos
 	 * @param obj
@@ -381,27 +471,10 @@ public final class ClassStreamHandler
 	public void writeFields(WicketObjectOutputStream woos, Object obj)
 		throws WicketSerializeableException
 	{
-		FieldAndIndex fai = null;
-		try
-		{
-			for (int i = 0; fields != null && i < fields.size(); i++)
-			{
-				fai = fields.get(i);
-				fai.writeField(obj, woos);
-			}
-		}
-		catch (WicketSerializeableException wse)
-		{
-			wse.addTrace(fai.field.getName());
-			throw wse;
-		}
-		catch (Exception ex)
+		if (fields != null)
 		{
-			String field = fai == null || fai.field == null ? "" : fai.field.getName();
-			String msg = "Error writing field: " + field + " for object class: " + obj.getClass();
-			throw new WicketSerializeableException(msg, ex);
+			fields.write(woos, obj);
 		}
-
 	}
 
 	/**
@@ -412,25 +485,112 @@ public final class ClassStreamHandler
 	public void readFields(WicketObjectInputStream wois, Object object)
 		throws WicketSerializeableException
 	{
-		FieldAndIndex fai = null;
-		try
+		fields.read(wois, object);
+	}
+
+	/**
+	 * Writes the fields, taking the values of the fields present in given map from the map rather
+	 * than from the object. Used for {@link ObjectOutputStream#writeFields()} so that the fields
+	 * put by a <code>writeObject</code> method can be read by
+	 * {@link ObjectInputStream#defaultReadObject()} and vice versa.
+	 * 
+	 * @param woos
+	 * @param obj
+	 * @param values
+	 * @throws WicketSerializeableException
+	 */
+	void writeFields(WicketObjectOutputStream woos, Object obj, Map<String, Object> values)
+		throws WicketSerializeableException
+	{
+		fields.write(woos, obj, values);
+	}
+
+	/**
+	 * Puts the values of the fields of given object to the map.
+	 * 
+	 * @param obj
+	 * @param values
+	 * @throws IllegalAccessException
+	 */
+	void getFieldValues(Object obj, Map<String, Object> values) throws IllegalAccessException
+	{
+		fields.getValues(obj, values);
+	}
+
+	/**
+	 * @return whether a class of the hierarchy declares <code>serialPersistentFields</code>, in
+	 *         which case the fields put and read by <code>writeObject</code> and
+	 *         <code>readObject</code> methods need not match the declared fields
+	 */
+	boolean hasPersistentFields()
+	{
+		return fields == null || fields.persistentFields;
+	}
+
+	/**
+	 * @return serializable classes of the class hierarchy, superclass first
+	 */
+	Class<?>[] getSerializableClasses()
+	{
+		return fields.classes;
+	}
+
+	/**
+	 * @return whether any class of the hierarchy has private <code>writeObject</code> or
+	 *         <code>readObject</code> method
+	 */
+	boolean hasSerializationMethods()
+	{
+		return (writeObjectMethods != null && !writeObjectMethods.isEmpty()) ||
+			(readObjectMethods != null && !readObjectMethods.isEmpty());
+	}
+
+	/**
+	 * @param declaringClass
+	 * @return private <code>writeObject</code> method of given class or <code>null</code>
+	 */
+	Method getWriteObjectMethod(Class<?> declaringClass)
+	{
+		return getMethod(writeObjectMethods, declaringClass);
+	}
+
+	/**
+	 * @param declaringClass
+	 * @return private <code>readObject</code> method of given class or <code>null</code>
+	 */
+	Method getReadObjectMethod(Class<?> declaringClass)
+	{
+		return getMethod(readObjectMethods, declaringClass);
+	}
+
+	private static Method getMethod(List<Method> methods, Class<?> declaringClass)
+	{
+		for (int i = 0; methods != null && i < methods.size(); i++)
 		{
-			for (int i = 0; i < fields.size(); i++)
+			if (methods.get(i).getDeclaringClass() == declaringClass)
 			{
-				fai = fields.get(i);
-				fai.readField(object, wois);
+				return methods.get(i);
 			}
 		}
-		catch (WicketSerializeableException wse)
-		{
-			wse.addTrace(fai.field.getName());
-			throw wse;
-		}
-		catch (Exception ex)
-		{
-			throw new WicketSerializeableException("Error reading field: " + fai.field.getName() +
-				" for object class: " + object.getClass(), ex);
-		}
+		return null;
+	}
+
+	/**
+	 * Copies the field values of given object to its copy. Objects referenced by the fields are
+	 * copied by the cloner.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param declaringClass
+	 *            class whose fields should be copied or <code>null</code> to copy the fields of
+	 *            all serializable classes
+	 * @param cloner
+	 * @throws IOException
+	 */
+	void copyFields(Object from, Object to, Class<?> declaringClass, ObjectCloner cloner)
+		throws IOException
+	{
+		fields.copy(from, to, declaringClass, cloner);
 	}
 
 	/**
@@ -659,288 +819,379 @@ public final class ClassStreamHandler
 		return (i >= 0) ? s.substring(0, i) : "";
 	}
 
-	private abstract class FieldAndIndex
-	{
-		final Field field;
-		final long index;
-
-		FieldAndIndex(Field field)
-		{
-			this.field = field;
-			index = unsafe.objectFieldOffset(field);
-		}
-
-		public abstract void writeField(Object object, WicketObjectOutputStream dos)
-			throws IOException;
-
-		public abstract void readField(Object object, WicketObjectInputStream dos)
-			throws IOException, ClassNotFoundException;
-	}
-
-	private final class BooleanFieldAndIndex extends FieldAndIndex
-	{
-		BooleanFieldAndIndex(Field field)
-		{
-			super(field);
-		}
-
-		/**
-		 * @throws IOException
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#writeField(Object,
-		 *      WicketObjectOutputStream)
-		 */
-		@Override
-		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
-		{
-			dos.writeBoolean(unsafe.getBoolean(object, index));
-		}
-
-		/**
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#readField(Object,
-		 *      WicketObjectInputStream)
-		 */
-		@Override
-		public void readField(Object object, WicketObjectInputStream dos) throws IOException
-		{
-			unsafe.putBoolean(object, index, dos.readBoolean());
-		}
-	}
-
-	private final class ByteFieldAndIndex extends FieldAndIndex
-	{
-		ByteFieldAndIndex(Field field)
-		{
-			super(field);
-		}
-
-		/**
-		 * @throws IOException
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#writeField(Object,
-		 *      WicketObjectOutputStream)
-		 */
-		@Override
-		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
-		{
-			dos.writeByte(unsafe.getByte(object, index));
-		}
-
-		/**
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#readField(Object,
-		 *      WicketObjectInputStream)
-		 */
-		@Override
-		public void readField(Object object, WicketObjectInputStream dos) throws IOException
-		{
-			unsafe.putByte(object, index, dos.readByte());
-		}
-	}
-
-	private final class ShortFieldAndIndex extends FieldAndIndex
-	{
-		ShortFieldAndIndex(Field field)
-		{
-			super(field);
-		}
-
-		/**
-		 * @throws IOException
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#writeField(Object,
-		 *      WicketObjectOutputStream)
-		 */
-		@Override
-		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
-		{
-			dos.writeShort(unsafe.getShort(object, index));
-		}
-
-		/**
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#readField(Object,
-		 *      WicketObjectInputStream)
-		 */
-		@Override
-		public void readField(Object object, WicketObjectInputStream dos) throws IOException
-		{
-			unsafe.putShort(object, index, dos.readShort());
-		}
-	}
-
-	private final class CharFieldAndIndex extends FieldAndIndex
-	{
-		CharFieldAndIndex(Field field)
-		{
-			super(field);
-		}
-
-		/**
-		 * @throws IOException
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#writeField(Object,
-		 *      WicketObjectOutputStream)
-		 */
-		@Override
-		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
-		{
-			dos.writeChar(unsafe.getChar(object, index));
-		}
-
-		/**
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#readField(java.lang.Object,
-		 *      WicketObjectInputStream)
-		 */
-		@Override
-		public void readField(Object object, WicketObjectInputStream dos) throws IOException
-		{
-			unsafe.putChar(object, index, dos.readChar());
-		}
-	}
-
-	private final class IntFieldAndIndex extends FieldAndIndex
-	{
-		IntFieldAndIndex(Field field)
-		{
-			super(field);
-		}
-
-		/**
-		 * @throws IOException
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#writeField(Object,
-		 *      WicketObjectOutputStream)
-		 */
-		@Override
-		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
-		{
-			dos.writeInt(unsafe.getInt(object, index));
-		}
-
-		/**
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#readField(java.lang.Object,
-		 *      WicketObjectInputStream)
-		 */
-		@Override
-		public void readField(Object object, WicketObjectInputStream dos) throws IOException
-		{
-			unsafe.putInt(object, index, dos.readInt());
-		}
-	}
-
-	private final class LongFieldAndIndex extends FieldAndIndex
+	/**
+	 * Serializable fields of a class (including the fields of superclasses) flattened to arrays of
+	 * field offsets and type codes. Reading and writing the fields is one loop with a switch over the
+	 * type codes rather than a virtual call per field, so the JIT can inline the {@link Unsafe}
+	 * accesses.
+	 */
+	private static final class FieldLayout
 	{
-		LongFieldAndIndex(Field field)
-		{
-			super(field);
-		}
-
-		/**
-		 * @throws IOException
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#writeField(Object,
-		 *      WicketObjectOutputStream)
-		 */
-		@Override
-		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
-		{
-			dos.writeLong(unsafe.getLong(object, index));
-		}
+		private static final byte BOOLEAN = 0;
+		private static final byte BYTE = 1;
+		private static final byte SHORT = 2;
+		private static final byte CHAR = 3;
+		private static final byte INT = 4;
+		private static final byte LONG = 5;
+		private static final byte FLOAT = 6;
+		private static final byte DOUBLE = 7;
+		private static final byte OBJECT = 8;
+
+		private final Field[] fields;
+		private final long[] offsets;
+		private final byte[] types;
+
+		// serializable classes of the hierarchy (superclass first) and the ranges of their fields
+		private final Class<?>[] classes;
+		private final int[] starts;
+		private final int[] ends;
+		private final int serializableEnd;
+
+		// whether a class of the hierarchy declares serialPersistentFields
+		private final boolean persistentFields;
+
+		FieldLayout(Class<?> cls)
+		{
+			List<Field> list = Generics.newArrayList();
+			List<Class<?>> serializable = Generics.newArrayList();
+			List<Integer> ranges = Generics.newArrayList();
+			boolean persistent = false;
+			while (cls != null && cls != Object.class)
+			{
+				int start = list.size();
+				Field[] declared = cls.getDeclaredFields();
+				for (int i = 0; i < declared.length; i++)
+				{
+					Field field = declared[i];
+					field.setAccessible(true);
+					if (!Modifier.isStatic(field.getModifiers()) &&
+						!Modifier.isTransient(field.getModifiers()))
+					{
+						list.add(field);
+					}
+					else if (Modifier.isStatic(field.getModifiers()) &&
+						field.getName().equals("serialPersistentFields"))
+					{
+						persistent = true;
+					}
+				}
+				if (Serializable.class.isAssignableFrom(cls))
+				{
+					serializable.add(0, cls);
+					ranges.add(0, new Integer(list.size()));
+					ranges.add(0, new Integer(start));
+				}
+				cls = cls.getSuperclass();
+			}
 
-		/**
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#readField(java.lang.Object,
-		 *      WicketObjectInputStream)
-		 */
-		@Override
-		public void readField(Object object, WicketObjectInputStream dos) throws IOException
-		{
-			unsafe.putLong(object, index, dos.readLong());
-		}
-	}
+			persistentFields = persistent;
+			classes = serializable.toArray(new Class<?>[serializable.size()]);
+			starts = new int[classes.length];
+			ends = new int[classes.length];
+			for (int i = 0; i < classes.length; i++)
+			{
+				starts[i] = ranges.get(i * 2).intValue();
+				ends[i] = ranges.get(i * 2 + 1).intValue();
+			}
+			// the fields of subclasses come first
+			serializableEnd = classes.length > 0 ? ends[0] : 0;
 
-	private final class FloatFieldAndIndex extends FieldAndIndex
-	{
-		FloatFieldAndIndex(Field field)
-		{
-			super(field);
+			fields = list.toArray(new Field[list.size()]);
+			offsets = new long[fields.length];
+			types = new byte[fields.length];
+			for (int i = 0; i < fields.length; i++)
+			{
+				offsets[i] = unsafe.objectFieldOffset(fields[i]);
+				types[i] = getType(fields[i].getType());
+			}
 		}
 
-		/**
-		 * @throws IOException
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#writeField(Object,
-		 *      WicketObjectOutputStream)
-		 */
-		@Override
-		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		private static byte getType(Class<?> type)
 		{
-			dos.writeFloat(unsafe.getFloat(object, index));
+			if (type == boolean.class)
+			{
+				return BOOLEAN;
+			}
+			else if (type == byte.class)
+			{
+				return BYTE;
+			}
+			else if (type == short.class)
+			{
+				return SHORT;
+			}
+			else if (type == char.class)
+			{
+				return CHAR;
+			}
+			else if (type == int.class)
+			{
+				return INT;
+			}
+			else if (type == long.class)
+			{
+				return LONG;
+			}
+			else if (type == float.class)
+			{
+				return FLOAT;
+			}
+			else if (type == double.class)
+			{
+				return DOUBLE;
+			}
+			else
+			{
+				return OBJECT;
+			}
 		}
 
 		/**
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#readField(java.lang.Object,
-		 *      WicketObjectInputStream)
+		 * Copies the fields declared by given class, or the fields of all serializable classes if
+		 * the class is <code>null</code>. Objects are copied by the cloner.
 		 */
-		@Override
-		public void readField(Object object, WicketObjectInputStream dos) throws IOException
+		void copy(Object from, Object to, Class<?> declaringClass, ObjectCloner cloner)
+			throws IOException
 		{
-			unsafe.putFloat(object, index, dos.readFloat());
+			int start = 0;
+			int end = serializableEnd;
+			if (declaringClass != null)
+			{
+				int index = indexOf(declaringClass);
+				if (index == -1)
+				{
+					return;
+				}
+				start = starts[index];
+				end = ends[index];
+			}
+			for (int i = start; i < end; i++)
+			{
+				long offset = offsets[i];
+				switch (types[i])
+				{
+					case BOOLEAN :
+						unsafe.putBoolean(to, offset, unsafe.getBoolean(from, offset));
+						break;
+					case BYTE :
+						unsafe.putByte(to, offset, unsafe.getByte(from, offset));
+						break;
+					case SHORT :
+						unsafe.putShort(to, offset, unsafe.getShort(from, offset));
+						break;
+					case CHAR :
+						unsafe.putChar(to, offset, unsafe.getChar(from, offset));
+						break;
+					case INT :
+						unsafe.putInt(to, offset, unsafe.getInt(from, offset));
+						break;
+					case LONG :
+						unsafe.putLong(to, offset, unsafe.getLong(from, offset));
+						break;
+					case FLOAT :
+						unsafe.putFloat(to, offset, unsafe.getFloat(from, offset));
+						break;
+					case DOUBLE :
+						unsafe.putDouble(to, offset, unsafe.getDouble(from, offset));
+						break;
+					default :
+						unsafe.putObject(to, offset, cloner.copy(unsafe.getObject(from, offset)));
+				}
+			}
 		}
-	}
 
-	private final class DoubleFieldAndIndex extends FieldAndIndex
-	{
-		DoubleFieldAndIndex(Field field)
+		private int indexOf(Class<?> cls)
 		{
-			super(field);
+			for (int i = 0; i < classes.length; i++)
+			{
+				if (classes[i] == cls)
+				{
+					return i;
+				}
+			}
+			return -1;
 		}
 
-		/**
-		 * @throws IOException
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#writeField(Object,
-		 *      WicketObjectOutputStream)
-		 */
-		@Override
-		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		void write(WicketObjectOutputStream out, Object object)
+			throws WicketSerializeableException
 		{
-			dos.writeDouble(unsafe.getDouble(object, index));
+			int i = 0;
+			try
+			{
+				for (; i < types.length; i++)
+				{
+					long offset = offsets[i];
+					switch (types[i])
+					{
+						case BOOLEAN :
+							out.writeBoolean(unsafe.getBoolean(object, offset));
+							break;
+						case BYTE :
+							out.writeByte(unsafe.getByte(object, offset));
+							break;
+						case SHORT :
+							out.writeShort(unsafe.getShort(object, offset));
+							break;
+						case CHAR :
+							out.writeChar(unsafe.getChar(object, offset));
+							break;
+						case INT :
+							out.writeInt(unsafe.getInt(object, offset));
+							break;
+						case LONG :
+							out.writeLong(unsafe.getLong(object, offset));
+							break;
+						case FLOAT :
+							out.writeFloat(unsafe.getFloat(object, offset));
+							break;
+						case DOUBLE :
+							out.writeDouble(unsafe.getDouble(object, offset));
+							break;
+						default :
+							out.writeObject(unsafe.getObject(object, offset));
+					}
+				}
+			}
+			catch (WicketSerializeableException wse)
+			{
+				wse.addTrace(fields[i].getName());
+				throw wse;
+			}
+			catch (Exception ex)
+			{
+				String msg = "Error writing field: " + fields[i].getName() +
+					" for object class: " + object.getClass();
+				throw new WicketSerializeableException(msg, ex);
+			}
 		}
 
 		/**
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#readField(java.lang.Object,
-		 *      WicketObjectInputStream)
+		 * Writes the fields like {@link #write(WicketObjectOutputStream, Object)}, but takes the
+		 * values of the fields present in given map from the map.
 		 */
-		@Override
-		public void readField(Object object, WicketObjectInputStream dos) throws IOException
-		{
-			unsafe.putDouble(object, index, dos.readDouble());
-		}
-	}
-
-	private final class ObjectFieldAndIndex extends FieldAndIndex
-	{
-		ObjectFieldAndIndex(Field field)
+		void write(WicketObjectOutputStream out, Object object, Map<String, Object> values)
+			throws WicketSerializeableException
 		{
-			super(field);
+			int i = 0;
+			try
+			{
+				for (; i < types.length; i++)
+				{
+					String name = fields[i].getName();
+					Object value = values.containsKey(name) ? values.get(name)
+						: fields[i].get(object);
+					switch (types[i])
+					{
+						case BOOLEAN :
+							out.writeBoolean(((Boolean)value).booleanValue());
+							break;
+						case BYTE :
+							out.writeByte(((Byte)value).byteValue());
+							break;
+						case SHORT :
+							out.writeShort(((Short)value).shortValue());
+							break;
+						case CHAR :
+							out.writeChar(((Character)value).charValue());
+							break;
+						case INT :
+							out.writeInt(((Integer)value).intValue());
+							break;
+						case LONG :
+							out.writeLong(((Long)value).longValue());
+							break;
+						case FLOAT :
+							out.writeFloat(((Float)value).floatValue());
+							break;
+						case DOUBLE :
+							out.writeDouble(((Double)value).doubleValue());
+							break;
+						default :
+							out.writeObject(value);
+					}
+				}
+			}
+			catch (WicketSerializeableException wse)
+			{
+				wse.addTrace(fields[i].getName());
+				throw wse;
+			}
+			catch (Exception ex)
+			{
+				String msg = "Error writing field: " + fields[i].getName() +
+					" for object class: " + object.getClass();
+				throw new WicketSerializeableException(msg, ex);
+			}
 		}
 
 		/**
-		 * @throws IOException
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#writeField(Object,
-		 *      WicketObjectOutputStream)
+		 * Puts the (boxed) values of the fields to given map. Fields of subclasses hide the
+		 * fields of superclasses with the same name.
 		 */
-		@Override
-		public void writeField(Object object, WicketObjectOutputStream dos) throws IOException
+		void getValues(Object object, Map<String, Object> values) throws IllegalAccessException
 		{
-			dos.writeObject(unsafe.getObject(object, index));
+			for (int i = 0; i < fields.length; i++)
+			{
+				String name = fields[i].getName();
+				if (!values.containsKey(name))
+				{
+					values.put(name, fields[i].get(object));
+				}
+			}
 		}
 
-		/**
-		 * @throws ClassNotFoundException
-		 * @see org.apache.wicket.util.io.ClassStreamHandler.FieldAndIndex#readField(java.lang.Object,
-		 *      WicketObjectInputStream)
-		 */
-		@Override
-		public void readField(Object object, WicketObjectInputStream dos) throws IOException,
-			ClassNotFoundException
+		void read(WicketObjectInputStream in, Object object) throws WicketSerializeableException
 		{
-			unsafe.putObject(object, index, dos.readObject());
+			int i = 0;
+			try
+			{
+				for (; i < types.length; i++)
+				{
+					long offset = offsets[i];
+					switch (types[i])
+					{
+						case BOOLEAN :
+							unsafe.putBoolean(object, offset, in.readBoolean());
+							break;
+						case BYTE :
+							unsafe.putByte(object, offset, in.readByte());
+							break;
+						case SHORT :
+							unsafe.putShort(object, offset, in.readShort());
+							break;
+						case CHAR :
+							unsafe.putChar(object, offset, in.readChar());
+							break;
+						case INT :
+							unsafe.putInt(object, offset, in.readInt());
+							break;
+						case LONG :
+							unsafe.putLong(object, offset, in.readLong());
+							break;
+						case FLOAT :
+							unsafe.putFloat(object, offset, in.readFloat());
+							break;
+						case DOUBLE :
+							unsafe.putDouble(object, offset, in.readDouble());
+							break;
+						default :
+							unsafe.putObject(object, offset, in.readObject());
+					}
+				}
+			}
+			catch (WicketSerializeableException wse)
+			{
+				wse.addTrace(fields[i].getName());
+				throw wse;
+			}
+			catch (Exception ex)
+			{
+				throw new WicketSerializeableException("Error reading field: " +
+					fields[i].getName() + " for object class: " + object.getClass(), ex);
+			}
 		}
 	}
 
-
 	private abstract class PrimitiveArray
 	{
 		public abstract void writeArray(Object object, WicketObjectOutputStream dos)
@@ -262,4 +262,20 @@ public final class FullyBufferedReader
 	{
 		return input.charAt(pos);
 	}
+
+	/**
+	 * Tests if the input at the position provided starts with the given string.
+	 * 
+	 * @param pos
+	 *            The position
+	 * @param str
+	 *            The string to compare with
+	 * @param ignoreCase
+	 *            If true, ignore case when comparing characters
+	 * @return true if the input at <code>pos</code> matches <code>str</code>
+	 */
+	public final boolean startsWith(final int pos, final String str, final boolean ignoreCase)
+	{
+		return input.regionMatches(ignoreCase, pos, str, 0, str.length());
+	}
 }
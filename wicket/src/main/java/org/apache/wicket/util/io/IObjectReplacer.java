@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Substitutes objects while they are written to or read from the streams of an
+ * {@link IReplacingObjectStreamFactory}, the same way as
+ * {@link ObjectOutputStream#replaceObject(Object)} and
+ * {@link ObjectInputStream#resolveObject(Object)} do for the JDK's streams.
+ */
+public interface IObjectReplacer
+{
+	/**
+	 * Called for every object before it is written.
+	 * 
+	 * @param object
+	 *            object to be written, never <code>null</code>
+	 * @return the object to write instead
+	 */
+	Object replaceObject(Object object);
+
+	/**
+	 * Called for every object after it has been read.
+	 * 
+	 * @param object
+	 *            object that has been read
+	 * @return the object to return instead
+	 */
+	Object resolveObject(Object object);
+}
@@ -47,7 +47,7 @@ public interface IObjectStreamFactory
 	/**
 	 * Default implementation that uses the JDK's plain implementations.
 	 */
-	public static final class DefaultObjectStreamFactory implements IObjectStreamFactory
+	public static final class DefaultObjectStreamFactory implements IReplacingObjectStreamFactory
 	{
 		private static final Logger log = LoggerFactory.getLogger(DefaultObjectStreamFactory.class);
 
@@ -55,9 +55,29 @@ public interface IObjectStreamFactory
 		 * @see org.apache.wicket.util.io.IObjectStreamFactory#newObjectInputStream(java.io.InputStream)
 		 */
 		public ObjectInputStream newObjectInputStream(InputStream in) throws IOException
+		{
+			return newObjectInputStream(in, null);
+		}
+
+		/**
+		 * @see org.apache.wicket.util.io.IReplacingObjectStreamFactory#newObjectInputStream(java.io.InputStream,
+		 *      org.apache.wicket.util.io.IObjectReplacer)
+		 */
+		public ObjectInputStream newObjectInputStream(InputStream in, final IObjectReplacer replacer)
+			throws IOException
 		{
 			return new ObjectInputStream(in)
 			{
+				{
+					enableResolveObject(replacer != null);
+				}
+
+				@Override
+				protected Object resolveObject(Object obj) throws IOException
+				{
+					return replacer.resolveObject(obj);
+				}
+
 				// This override is required to resolve classes inside in different bundle, i.e.
 				// The classes can be resolved by OSGI classresolver implementation
 				@Override
@@ -108,7 +128,28 @@ public interface IObjectStreamFactory
 		 */
 		public ObjectOutputStream newObjectOutputStream(final OutputStream out) throws IOException
 		{
-			final ObjectOutputStream oos = new ObjectOutputStream(out);
+			return newObjectOutputStream(out, null);
+		}
+
+		/**
+		 * @see org.apache.wicket.util.io.IReplacingObjectStreamFactory#newObjectOutputStream(java.io.OutputStream,
+		 *      org.apache.wicket.util.io.IObjectReplacer)
+		 */
+		public ObjectOutputStream newObjectOutputStream(final OutputStream out,
+			final IObjectReplacer replacer) throws IOException
+		{
+			final ObjectOutputStream oos = new ObjectOutputStream(out)
+			{
+				{
+					enableReplaceObject(replacer != null);
+				}
+
+				@Override
+				protected Object replaceObject(Object obj) throws IOException
+				{
+					return replacer.replaceObject(obj);
+				}
+			};
 			return new ObjectOutputStream()
 			{
 				@Override
@@ -124,7 +165,8 @@ public interface IObjectStreamFactory
 						{
 							// trigger serialization again, but this time gather
 							// some more info
-							new SerializableChecker((NotSerializableException)e).writeObject(obj);
+							new SerializableChecker((NotSerializableException)e,
+								SerializableCheckerCache.getDefault()).writeObject(obj);
 							// if we get here, we didn't fail, while we
 							// should;
 							throw e;
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.apache.wicket.util.lang.Objects;
+
+/**
+ * Object stream factory that can create streams substituting objects with an
+ * {@link IObjectReplacer}. Factories that don't implement it are bypassed by
+ * {@link Objects#newObjectOutputStream(OutputStream, IObjectReplacer)} and
+ * {@link Objects#newObjectInputStream(InputStream, IObjectReplacer)}, which then use the
+ * {@link IObjectStreamFactory.DefaultObjectStreamFactory default} streams.
+ */
+public interface IReplacingObjectStreamFactory extends IObjectStreamFactory
+{
+	/**
+	 * Gets a new instance of an {@link ObjectInputStream} that resolves the read objects with the
+	 * replacer.
+	 * 
+	 * @param in
+	 *            The input stream that should be used for the reading
+	 * @param replacer
+	 *            replacer or <code>null</code>
+	 * @return a new object input stream instance
+	 * @throws IOException
+	 *             if an I/O error occurs while reading stream header
+	 */
+	ObjectInputStream newObjectInputStream(InputStream in, IObjectReplacer replacer)
+		throws IOException;
+
+	/**
+	 * Gets a new instance of an {@link ObjectOutputStream} that replaces the written objects with
+	 * the replacer.
+	 * 
+	 * @param out
+	 *            The output stream that should be used for the writing
+	 * @param replacer
+	 *            replacer or <code>null</code>
+	 * @return a new object output stream instance
+	 * @throws IOException
+	 *             if an I/O error occurs while writing stream header
+	 */
+	ObjectOutputStream newObjectOutputStream(OutputStream out, IObjectReplacer replacer)
+		throws IOException;
+}
@@ -0,0 +1,1169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.NotActiveException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectInputValidation;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wicket.util.lang.Generics;
+
+/**
+ * Makes deep copies of serializable object graphs without serializing them to bytes. The graph is
+ * walked once and every object is copied directly into a new instance created the same way
+ * deserialization would create it, using the field layout cached by {@link ClassStreamHandler}.
+ * <p>
+ * The copy follows the serialization semantics: shared references and cycles are preserved,
+ * transient fields are reset, <code>writeReplace</code>, <code>readResolve</code>, private
+ * <code>writeObject</code>/<code>readObject</code> methods and {@link Externalizable} objects are
+ * honored. Custom methods write to a stream that copies the written objects and records the
+ * primitive data, the matching read method then reads them back on the copy.
+ * <p>
+ * Immutable objects (strings, boxed primitives, big numbers, locales, enum constants and classes)
+ * are shared by the original and the copy.
+ */
+public final class ObjectCloner
+{
+	private static final Set<Class<?>> IMMUTABLE_CLASSES = new HashSet<Class<?>>();
+
+	static
+	{
+		IMMUTABLE_CLASSES.add(String.class);
+		IMMUTABLE_CLASSES.add(Boolean.class);
+		IMMUTABLE_CLASSES.add(Byte.class);
+		IMMUTABLE_CLASSES.add(Short.class);
+		IMMUTABLE_CLASSES.add(Character.class);
+		IMMUTABLE_CLASSES.add(Integer.class);
+		IMMUTABLE_CLASSES.add(Long.class);
+		IMMUTABLE_CLASSES.add(Float.class);
+		IMMUTABLE_CLASSES.add(Double.class);
+		IMMUTABLE_CLASSES.add(BigInteger.class);
+		IMMUTABLE_CLASSES.add(BigDecimal.class);
+		IMMUTABLE_CLASSES.add(Locale.class);
+	}
+
+	// Proxy.h made accessible, looked up when the first proxy is copied
+	private static volatile Field proxyHandler;
+
+	/**
+	 * @return whether the cloner can be used on this JVM. It depends on the same non-standard
+	 *         features as {@link ClassStreamHandler}.
+	 */
+	public static boolean isAvailable()
+	{
+		return ClassStreamHandler.isAvailable();
+	}
+
+	/**
+	 * Makes a deep copy of given object.
+	 * 
+	 * @param object
+	 *            serializable object
+	 * @return copy of the object
+	 * @throws IOException
+	 *             if the object graph is not serializable or a custom serialization method fails
+	 * @throws IllegalStateException
+	 *             if the cloner is not {@link #isAvailable() available}
+	 */
+	public static Object cloneObject(Object object) throws IOException
+	{
+		if (!isAvailable())
+		{
+			throw new IllegalStateException("ObjectCloner is not supported by this JVM");
+		}
+		ObjectCloner cloner = new ObjectCloner(false, Integer.MAX_VALUE);
+		Object copy = cloner.copy(object);
+		cloner.validate();
+		return copy;
+	}
+
+	/**
+	 * Makes a copy of given object that can be inspected by other thread while the original is
+	 * still in use. Unlike {@link #cloneObject(Object)}, objects that are not serializable are not
+	 * copied and don't fail the copy, the snapshot references them instead.
+	 * 
+	 * @param object
+	 * @param maxObjects
+	 *            maximum number of copied objects, so that the cost of the snapshot is bounded
+	 * @return snapshot of the object or <code>null</code> if the object graph has more than
+	 *         maxObjects objects
+	 * @throws IOException
+	 *             if a custom serialization method fails
+	 * @throws IllegalStateException
+	 *             if the cloner is not {@link #isAvailable() available}
+	 */
+	public static Object snapshot(Object object, int maxObjects) throws IOException
+	{
+		if (!isAvailable())
+		{
+			throw new IllegalStateException("ObjectCloner is not supported by this JVM");
+		}
+		ObjectCloner cloner = new ObjectCloner(true, maxObjects);
+		Object copy;
+		try
+		{
+			copy = cloner.copy(object);
+		}
+		catch (TooManyObjectsException e)
+		{
+			return null;
+		}
+		cloner.validate();
+		return copy;
+	}
+
+	// originals (after write replacement) to their copies
+	private final Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+	// originals to the result of their writeReplace method
+	private final Map<Object, Object> substitutes = new IdentityHashMap<Object, Object>();
+
+	private List<Validation> validations;
+
+	// whether not serializable objects are shared instead of failing the copy
+	private final boolean keepNotSerializable;
+
+	private final int maxObjects;
+
+	private ObjectCloner(boolean keepNotSerializable, int maxObjects)
+	{
+		this.keepNotSerializable = keepNotSerializable;
+		this.maxObjects = maxObjects;
+	}
+
+	/**
+	 * Returns copy of given object. Every object is copied only once, further calls return the
+	 * same copy.
+	 * 
+	 * @param object
+	 * @return copy
+	 * @throws IOException
+	 */
+	Object copy(Object object) throws IOException
+	{
+		if (object == null)
+		{
+			return null;
+		}
+
+		boolean replaced = false;
+		if (!substitutes.isEmpty())
+		{
+			Object substitute = substitutes.get(object);
+			if (substitute != null)
+			{
+				object = substitute;
+				replaced = true;
+			}
+		}
+
+		if (isImmutable(object))
+		{
+			return object;
+		}
+
+		Object copy = copies.get(object);
+		if (copy != null)
+		{
+			return copy;
+		}
+		if (copies.size() >= maxObjects)
+		{
+			throw new TooManyObjectsException();
+		}
+
+		Class<?> cls = object.getClass();
+		if (cls.isArray())
+		{
+			return copyArray(object, cls);
+		}
+		if (!(object instanceof Serializable))
+		{
+			if (keepNotSerializable)
+			{
+				return object;
+			}
+			throw new NotSerializableException(cls.getName());
+		}
+
+		try
+		{
+			ClassStreamHandler handler = ClassStreamHandler.lookup(cls);
+			if (!replaced)
+			{
+				Object replacement = writeReplace(object, handler);
+				if (replacement != null && replacement != object)
+				{
+					substitutes.put(object, replacement);
+					if (replacement.getClass() != cls)
+					{
+						return copy(replacement);
+					}
+					// replacement of the same class is not replaced again
+					object = replacement;
+					copy = copies.get(object);
+					if (copy != null)
+					{
+						return copy;
+					}
+				}
+			}
+
+			if (Proxy.isProxyClass(cls))
+			{
+				return copyProxy(object, cls);
+			}
+			else if (object instanceof Externalizable)
+			{
+				copy = copyExternalizable((Externalizable)object, cls);
+			}
+			else
+			{
+				copy = copyObject(object, handler);
+			}
+
+			Object resolved = handler.readResolve(copy);
+			if (resolved != copy)
+			{
+				copies.put(object, resolved);
+			}
+			return resolved;
+		}
+		catch (WicketSerializeableException e)
+		{
+			e.addTrace(cls.getName());
+			throw e;
+		}
+	}
+
+	private static boolean isImmutable(Object object)
+	{
+		return IMMUTABLE_CLASSES.contains(object.getClass()) || object instanceof Enum ||
+			object instanceof Class;
+	}
+
+	private static Object writeReplace(Object object, ClassStreamHandler handler)
+		throws IOException
+	{
+		if (Proxy.isProxyClass(object.getClass()))
+		{
+			// proxies can declare writeReplace through one of their interfaces
+			try
+			{
+				Method method = object.getClass().getMethod("writeReplace", (Class[])null);
+				return method.invoke(object, (Object[])null);
+			}
+			catch (NoSuchMethodException e)
+			{
+				return null;
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new WicketSerializeableException("Error calling writeReplace of proxy", e);
+			}
+			catch (InvocationTargetException e)
+			{
+				throw rethrow("writeReplace", e);
+			}
+		}
+		return handler.writeReplace(object);
+	}
+
+	private Object copyArray(Object array, Class<?> cls) throws IOException
+	{
+		Class<?> componentType = cls.getComponentType();
+		int length = Array.getLength(array);
+		Object copy = Array.newInstance(componentType, length);
+		copies.put(array, copy);
+		if (componentType.isPrimitive())
+		{
+			System.arraycopy(array, 0, copy, 0, length);
+		}
+		else
+		{
+			Object[] from = (Object[])array;
+			Object[] to = (Object[])copy;
+			for (int i = 0; i < length; i++)
+			{
+				to[i] = copy(from[i]);
+			}
+		}
+		return copy;
+	}
+
+	private static Field getProxyHandlerField() throws IOException
+	{
+		Field field = proxyHandler;
+		if (field == null)
+		{
+			try
+			{
+				field = Proxy.class.getDeclaredField("h");
+				field.setAccessible(true);
+			}
+			catch (Exception e)
+			{
+				// field not present or not accessible on this JVM
+				throw new WicketSerializeableException("Proxies can't be copied on this JVM", e);
+			}
+			proxyHandler = field;
+		}
+		return field;
+	}
+
+	private Object copyProxy(Object proxy, Class<?> cls) throws IOException
+	{
+		// create the proxy first so that the invocation handler can reference it
+		InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+		Object copy = Proxy.newProxyInstance(cls.getClassLoader(), cls.getInterfaces(), handler);
+		copies.put(proxy, copy);
+		try
+		{
+			getProxyHandlerField().set(copy, copy(handler));
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new WicketSerializeableException("Error copying proxy " + cls.getName(), e);
+		}
+		return copy;
+	}
+
+	private Object copyExternalizable(Externalizable object, Class<?> cls) throws IOException
+	{
+		Externalizable copy;
+		try
+		{
+			Constructor<?> constructor = cls.getConstructor((Class[])null);
+			copy = (Externalizable)constructor.newInstance((Object[])null);
+		}
+		catch (NoSuchMethodException e)
+		{
+			throw new WicketSerializeableException("No public no-arg constructor found for " +
+				cls.getName(), e);
+		}
+		catch (InstantiationException e)
+		{
+			throw new WicketSerializeableException("Error creating " + cls.getName(), e);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new WicketSerializeableException("Error creating " + cls.getName(), e);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw rethrow("constructor", e);
+		}
+		copies.put(object, copy);
+
+		CopyingOutputStream out = new CopyingOutputStream(this, object, copy, null, null);
+		object.writeExternal(out);
+		try
+		{
+			copy.readExternal(out.replay());
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new WicketSerializeableException("Error in readExternal of " + cls.getName(), e);
+		}
+		return copy;
+	}
+
+	private Object copyObject(Object object, ClassStreamHandler handler) throws IOException
+	{
+		Object copy;
+		try
+		{
+			copy = handler.createObject();
+		}
+		catch (InstantiationException e)
+		{
+			throw new WicketSerializeableException("Error creating " + object.getClass(), e);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new WicketSerializeableException("Error creating " + object.getClass(), e);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw rethrow("constructor", e);
+		}
+		copies.put(object, copy);
+
+		if (!handler.hasSerializationMethods())
+		{
+			handler.copyFields(object, copy, null, this);
+			return copy;
+		}
+
+		Class<?>[] classes = handler.getSerializableClasses();
+		for (int i = 0; i < classes.length; i++)
+		{
+			Class<?> declaringClass = classes[i];
+			Method writeMethod = handler.getWriteObjectMethod(declaringClass);
+			Method readMethod = handler.getReadObjectMethod(declaringClass);
+			if (writeMethod == null && readMethod == null)
+			{
+				handler.copyFields(object, copy, declaringClass, this);
+				continue;
+			}
+
+			CopyingOutputStream out = new CopyingOutputStream(this, object, copy, declaringClass,
+				handler);
+			if (writeMethod != null)
+			{
+				invoke(writeMethod, object, out);
+			}
+			else
+			{
+				out.defaultWriteObject();
+			}
+
+			ReplayInputStream in = out.replay();
+			if (readMethod != null)
+			{
+				invoke(readMethod, copy, in);
+			}
+			else
+			{
+				in.defaultReadObject();
+			}
+		}
+		return copy;
+	}
+
+	private static void invoke(Method method, Object target, Object stream) throws IOException
+	{
+		try
+		{
+			method.invoke(target, new Object[] { stream });
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new WicketSerializeableException("Error calling " + method, e);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw rethrow(method.getDeclaringClass().getName() + "." + method.getName(), e);
+		}
+	}
+
+	private static IOException rethrow(String method, InvocationTargetException e)
+	{
+		Throwable cause = e.getCause();
+		if (cause instanceof IOException)
+		{
+			return (IOException)cause;
+		}
+		else if (cause instanceof RuntimeException)
+		{
+			throw (RuntimeException)cause;
+		}
+		else if (cause instanceof Error)
+		{
+			throw (Error)cause;
+		}
+		return new WicketSerializeableException("Error in " + method, cause);
+	}
+
+	private void registerValidation(ObjectInputValidation validation, int priority)
+		throws InvalidObjectException
+	{
+		if (validation == null)
+		{
+			throw new InvalidObjectException("Validation object may not be null.");
+		}
+		if (validations == null)
+		{
+			validations = Generics.newArrayList();
+		}
+		validations.add(new Validation(validation, priority));
+	}
+
+	private void validate() throws InvalidObjectException
+	{
+		if (validations != null)
+		{
+			// higher priorities first, the sort is stable for equal priorities
+			Collections.sort(validations, new Comparator<Validation>()
+			{
+				public int compare(Validation v1, Validation v2)
+				{
+					return v1.priority > v2.priority ? -1 : (v1.priority == v2.priority ? 0 : 1);
+				}
+			});
+			for (int i = 0; i < validations.size(); i++)
+			{
+				validations.get(i).validation.validateObject();
+			}
+		}
+	}
+
+	/**
+	 * @return serializable fields declared by given class
+	 */
+	private static List<Field> getSerializableFields(Class<?> declaringClass)
+	{
+		Field[] declared = declaringClass.getDeclaredFields();
+		List<Field> fields = Generics.newArrayList(declared.length);
+		for (int i = 0; i < declared.length; i++)
+		{
+			int modifiers = declared[i].getModifiers();
+			if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers))
+			{
+				declared[i].setAccessible(true);
+				fields.add(declared[i]);
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * Thrown when the copy would have more than the allowed number of objects.
+	 */
+	private static final class TooManyObjectsException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static final class Validation
+	{
+		private final ObjectInputValidation validation;
+		private final int priority;
+
+		private Validation(ObjectInputValidation validation, int priority)
+		{
+			this.validation = validation;
+			this.priority = priority;
+		}
+	}
+
+	/**
+	 * Field values written with {@link ObjectOutputStream#putFields()}.
+	 */
+	private static final class FieldValues extends ObjectOutputStream.PutField
+	{
+		private final Map<String, Object> values = Generics.newHashMap();
+
+		@Override
+		public void put(String name, boolean val)
+		{
+			values.put(name, Boolean.valueOf(val));
+		}
+
+		@Override
+		public void put(String name, byte val)
+		{
+			values.put(name, new Byte(val));
+		}
+
+		@Override
+		public void put(String name, char val)
+		{
+			values.put(name, new Character(val));
+		}
+
+		@Override
+		public void put(String name, short val)
+		{
+			values.put(name, new Short(val));
+		}
+
+		@Override
+		public void put(String name, int val)
+		{
+			values.put(name, new Integer(val));
+		}
+
+		@Override
+		public void put(String name, long val)
+		{
+			values.put(name, new Long(val));
+		}
+
+		@Override
+		public void put(String name, float val)
+		{
+			values.put(name, new Float(val));
+		}
+
+		@Override
+		public void put(String name, double val)
+		{
+			values.put(name, new Double(val));
+		}
+
+		@Override
+		public void put(String name, Object val)
+		{
+			values.put(name, val);
+		}
+
+		/**
+		 * @deprecated
+		 */
+		@Deprecated
+		@Override
+		public void write(ObjectOutput out) throws IOException
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Field values read with {@link ObjectInputStream#readFields()}.
+	 */
+	private static final class RecordedFields extends ObjectInputStream.GetField
+	{
+		private final Class<?> declaringClass;
+		private final Map<String, Object> values;
+
+		private RecordedFields(Class<?> declaringClass, Map<String, Object> values)
+		{
+			this.declaringClass = declaringClass;
+			this.values = values;
+		}
+
+		@Override
+		public ObjectStreamClass getObjectStreamClass()
+		{
+			return ObjectStreamClass.lookup(declaringClass);
+		}
+
+		@Override
+		public boolean defaulted(String name)
+		{
+			return !values.containsKey(name);
+		}
+
+		@Override
+		public boolean get(String name, boolean val)
+		{
+			return values.containsKey(name) ? ((Boolean)values.get(name)).booleanValue() : val;
+		}
+
+		@Override
+		public byte get(String name, byte val)
+		{
+			return values.containsKey(name) ? ((Byte)values.get(name)).byteValue() : val;
+		}
+
+		@Override
+		public char get(String name, char val)
+		{
+			return values.containsKey(name) ? ((Character)values.get(name)).charValue() : val;
+		}
+
+		@Override
+		public short get(String name, short val)
+		{
+			return values.containsKey(name) ? ((Short)values.get(name)).shortValue() : val;
+		}
+
+		@Override
+		public int get(String name, int val)
+		{
+			return values.containsKey(name) ? ((Integer)values.get(name)).intValue() : val;
+		}
+
+		@Override
+		public long get(String name, long val)
+		{
+			return values.containsKey(name) ? ((Long)values.get(name)).longValue() : val;
+		}
+
+		@Override
+		public float get(String name, float val)
+		{
+			return values.containsKey(name) ? ((Float)values.get(name)).floatValue() : val;
+		}
+
+		@Override
+		public double get(String name, double val)
+		{
+			return values.containsKey(name) ? ((Double)values.get(name)).doubleValue() : val;
+		}
+
+		@Override
+		public Object get(String name, Object val)
+		{
+			return values.containsKey(name) ? values.get(name) : val;
+		}
+	}
+
+	/**
+	 * Stream passed to <code>writeObject</code> and <code>writeExternal</code> methods. Written
+	 * objects are copied right away, primitive data is recorded for the {@link ReplayInputStream}.
+	 */
+	private static final class CopyingOutputStream extends ObjectOutputStream
+	{
+		private final ObjectCloner cloner;
+		private final Object from;
+		private final Object to;
+		private final Class<?> declaringClass;
+		private final ClassStreamHandler handler;
+
+		private ByteArrayOutputStream bytes;
+		private DataOutputStream data;
+		private List<Object> objects;
+		private FieldValues fieldValues;
+		private boolean fieldsWritten;
+
+		private CopyingOutputStream(ObjectCloner cloner, Object from, Object to,
+			Class<?> declaringClass, ClassStreamHandler handler) throws IOException
+		{
+			super();
+			this.cloner = cloner;
+			this.from = from;
+			this.to = to;
+			this.declaringClass = declaringClass;
+			this.handler = handler;
+		}
+
+		private DataOutputStream data()
+		{
+			if (data == null)
+			{
+				bytes = new ByteArrayOutputStream(64);
+				data = new DataOutputStream(bytes);
+			}
+			return data;
+		}
+
+		private ReplayInputStream replay() throws IOException
+		{
+			return new ReplayInputStream(this);
+		}
+
+		@Override
+		protected void writeObjectOverride(Object obj) throws IOException
+		{
+			if (objects == null)
+			{
+				objects = Generics.newArrayList(4);
+			}
+			objects.add(cloner.copy(obj));
+		}
+
+		@Override
+		public void writeUnshared(Object obj) throws IOException
+		{
+			writeObjectOverride(obj);
+		}
+
+		@Override
+		public void defaultWriteObject() throws IOException
+		{
+			if (declaringClass == null)
+			{
+				throw new NotActiveException("not in call to writeObject");
+			}
+			handler.copyFields(from, to, declaringClass, cloner);
+		}
+
+		@Override
+		public PutField putFields() throws IOException
+		{
+			if (declaringClass == null)
+			{
+				throw new NotActiveException("not in call to writeObject");
+			}
+			if (fieldValues == null)
+			{
+				fieldValues = new FieldValues();
+			}
+			return fieldValues;
+		}
+
+		@Override
+		public void writeFields() throws IOException
+		{
+			if (fieldValues == null)
+			{
+				throw new NotActiveException("no current PutField object");
+			}
+			Map<String, Object> values = fieldValues.values;
+			for (Map.Entry<String, Object> entry : values.entrySet())
+			{
+				entry.setValue(cloner.copy(entry.getValue()));
+			}
+			fieldsWritten = true;
+		}
+
+		@Override
+		public void write(int val) throws IOException
+		{
+			data().write(val);
+		}
+
+		@Override
+		public void write(byte[] buf) throws IOException
+		{
+			data().write(buf);
+		}
+
+		@Override
+		public void write(byte[] buf, int off, int len) throws IOException
+		{
+			data().write(buf, off, len);
+		}
+
+		@Override
+		public void writeBoolean(boolean val) throws IOException
+		{
+			data().writeBoolean(val);
+		}
+
+		@Override
+		public void writeByte(int val) throws IOException
+		{
+			data().writeByte(val);
+		}
+
+		@Override
+		public void writeShort(int val) throws IOException
+		{
+			data().writeShort(val);
+		}
+
+		@Override
+		public void writeChar(int val) throws IOException
+		{
+			data().writeChar(val);
+		}
+
+		@Override
+		public void writeInt(int val) throws IOException
+		{
+			data().writeInt(val);
+		}
+
+		@Override
+		public void writeLong(long val) throws IOException
+		{
+			data().writeLong(val);
+		}
+
+		@Override
+		public void writeFloat(float val) throws IOException
+		{
+			data().writeFloat(val);
+		}
+
+		@Override
+		public void writeDouble(double val) throws IOException
+		{
+			data().writeDouble(val);
+		}
+
+		@Override
+		public void writeBytes(String str) throws IOException
+		{
+			data().writeBytes(str);
+		}
+
+		@Override
+		public void writeChars(String str) throws IOException
+		{
+			data().writeChars(str);
+		}
+
+		@Override
+		public void writeUTF(String str) throws IOException
+		{
+			data().writeUTF(str);
+		}
+
+		@Override
+		public void useProtocolVersion(int version)
+		{
+		}
+
+		@Override
+		public void reset()
+		{
+		}
+
+		@Override
+		public void flush()
+		{
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+	/**
+	 * Stream passed to <code>readObject</code> and <code>readExternal</code> methods of the copy.
+	 * Returns the objects copied and the data recorded by the {@link CopyingOutputStream}.
+	 */
+	private static final class ReplayInputStream extends ObjectInputStream
+	{
+		private final CopyingOutputStream out;
+		private final DataInputStream data;
+		private int objectIndex;
+
+		private ReplayInputStream(CopyingOutputStream out) throws IOException
+		{
+			super();
+			this.out = out;
+			byte[] recorded = out.bytes != null ? out.bytes.toByteArray() : new byte[0];
+			data = new DataInputStream(new ByteArrayInputStream(recorded));
+		}
+
+		@Override
+		protected Object readObjectOverride() throws IOException
+		{
+			if (out.objects == null || objectIndex >= out.objects.size())
+			{
+				throw new EOFException();
+			}
+			return out.objects.get(objectIndex++);
+		}
+
+		@Override
+		public Object readUnshared() throws IOException
+		{
+			return readObjectOverride();
+		}
+
+		@Override
+		public void defaultReadObject() throws IOException
+		{
+			if (out.declaringClass == null)
+			{
+				throw new NotActiveException("not in call to readObject");
+			}
+			// fields written by defaultWriteObject are already copied
+			if (out.fieldsWritten)
+			{
+				List<Field> fields = getSerializableFields(out.declaringClass);
+				Map<String, Object> values = out.fieldValues.values;
+				for (int i = 0; i < fields.size(); i++)
+				{
+					Field field = fields.get(i);
+					if (values.containsKey(field.getName()))
+					{
+						setField(field, values.get(field.getName()));
+					}
+				}
+			}
+		}
+
+		private void setField(Field field, Object value) throws IOException
+		{
+			try
+			{
+				field.set(out.to, value);
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new WicketSerializeableException("Error setting field " + field, e);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new WicketSerializeableException("Error setting field " + field, e);
+			}
+		}
+
+		@Override
+		public GetField readFields() throws IOException
+		{
+			if (out.declaringClass == null)
+			{
+				throw new NotActiveException("not in call to readObject");
+			}
+			if (out.fieldsWritten)
+			{
+				return new RecordedFields(out.declaringClass, out.fieldValues.values);
+			}
+
+			// fields were written by defaultWriteObject and are already set on the copy
+			List<Field> fields = getSerializableFields(out.declaringClass);
+			Map<String, Object> values = Generics.newHashMap(fields.size());
+			for (int i = 0; i < fields.size(); i++)
+			{
+				Field field = fields.get(i);
+				try
+				{
+					values.put(field.getName(), field.get(out.to));
+				}
+				catch (IllegalAccessException e)
+				{
+					throw new WicketSerializeableException("Error reading field " + field, e);
+				}
+			}
+			return new RecordedFields(out.declaringClass, values);
+		}
+
+		@Override
+		public void registerValidation(ObjectInputValidation obj, int prio)
+			throws InvalidObjectException
+		{
+			out.cloner.registerValidation(obj, prio);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			return data.read();
+		}
+
+		@Override
+		public int read(byte[] buf, int off, int len) throws IOException
+		{
+			return data.read(buf, off, len);
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			return data.available();
+		}
+
+		@Override
+		public boolean readBoolean() throws IOException
+		{
+			return data.readBoolean();
+		}
+
+		@Override
+		public byte readByte() throws IOException
+		{
+			return data.readByte();
+		}
+
+		@Override
+		public int readUnsignedByte() throws IOException
+		{
+			return data.readUnsignedByte();
+		}
+
+		@Override
+		public char readChar() throws IOException
+		{
+			return data.readChar();
+		}
+
+		@Override
+		public short readShort() throws IOException
+		{
+			return data.readShort();
+		}
+
+		@Override
+		public int readUnsignedShort() throws IOException
+		{
+			return data.readUnsignedShort();
+		}
+
+		@Override
+		public int readInt() throws IOException
+		{
+			return data.readInt();
+		}
+
+		@Override
+		public long readLong() throws IOException
+		{
+			return data.readLong();
+		}
+
+		@Override
+		public float readFloat() throws IOException
+		{
+			return data.readFloat();
+		}
+
+		@Override
+		public double readDouble() throws IOException
+		{
+			return data.readDouble();
+		}
+
+		@Override
+		public void readFully(byte[] buf) throws IOException
+		{
+			data.readFully(buf);
+		}
+
+		@Override
+		public void readFully(byte[] buf, int off, int len) throws IOException
+		{
+			data.readFully(buf, off, len);
+		}
+
+		@Override
+		public int skipBytes(int len) throws IOException
+		{
+			return data.skipBytes(len);
+		}
+
+		/**
+		 * @deprecated
+		 */
+		@Deprecated
+		@Override
+		public String readLine() throws IOException
+		{
+			return data.readLine();
+		}
+
+		@Override
+		public String readUTF() throws IOException
+		{
+			return data.readUTF();
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
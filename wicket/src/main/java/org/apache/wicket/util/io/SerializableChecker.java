@@ -56,6 +56,11 @@ import org.slf4j.LoggerFactory;
  * doesn't, you should fall back to e.g. re-throwing/ printing the {@link NotSerializableException}
  * you probably got before using this class.
  * </p>
+ * <p>
+ * Checkers constructed with a {@link SerializableCheckerCache} look the serializable fields up only
+ * once per class and skip the objects that can't hold non-serializable values, which makes checking
+ * cheap enough for production use, see {@link AsyncSerializableChecker}.
+ * </p>
  * 
  * @author eelcohillenius
  * @author Al Maw
@@ -305,6 +310,9 @@ public final class SerializableChecker extends ObjectOutputStream
 	/** Exception that should be set as the cause when throwing a new exception. */
 	private final NotSerializableException exception;
 
+	/** per-class verdicts, may be null */
+	private final SerializableCheckerCache cache;
+
 	/**
 	 * Construct.
 	 * 
@@ -314,8 +322,25 @@ public final class SerializableChecker extends ObjectOutputStream
 	 * @throws IOException
 	 */
 	public SerializableChecker(NotSerializableException exception) throws IOException
+	{
+		this(exception, null);
+	}
+
+	/**
+	 * Construct.
+	 * 
+	 * @param exception
+	 *            exception that should be set as the cause when throwing a new exception
+	 * @param cache
+	 *            per-class verdicts shared by checkers or <code>null</code>
+	 * 
+	 * @throws IOException
+	 */
+	public SerializableChecker(NotSerializableException exception, SerializableCheckerCache cache)
+		throws IOException
 	{
 		this.exception = exception;
+		this.cache = cache;
 	}
 
 	/**
@@ -350,6 +375,16 @@ public final class SerializableChecker extends ObjectOutputStream
 				toPrettyPrintedStack(obj.getClass().getName()), exception);
 		}
 
+		Field[] fieldsToCheck = cache != null ? cache.getFieldsToCheck(cls) : null;
+		if (fieldsToCheck != null)
+		{
+			checked.put(obj, null);
+			checkFields(obj, fieldsToCheck);
+			traceStack.removeLast();
+			nameStack.removeLast();
+			return;
+		}
+
 		ObjectStreamClass desc;
 		for (;;)
 		{
@@ -620,6 +655,39 @@ public final class SerializableChecker extends ObjectOutputStream
 		}
 	}
 
+	private void checkFields(Object obj, Field[] fields)
+	{
+		for (int i = 0; i < fields.length; i++)
+		{
+			Object value;
+			try
+			{
+				value = fields[i].get(obj);
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new RuntimeException(e);
+			}
+
+			if (value == null || value instanceof String || value instanceof Number ||
+				value instanceof Date || value instanceof Boolean || value instanceof Class)
+			{
+				// filter out common cases
+				continue;
+			}
+
+			// Check for circular reference.
+			if (checked.containsKey(value))
+			{
+				continue;
+			}
+
+			simpleName = fields[i].getName();
+			fieldDescription = fields[i].toString();
+			check(value);
+		}
+	}
+
 	/**
 	 * @return name from root to current node concatenated with slashes
 	 */
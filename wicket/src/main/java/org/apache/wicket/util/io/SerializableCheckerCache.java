@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.Externalizable;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.wicket.util.lang.Generics;
+
+/**
+ * Per-class structural verdicts shared by {@link SerializableChecker} instances. The verdict of a
+ * class lists the fields whose values still have to be checked. Fields of primitive, immutable or
+ * final types whose own fields are all of such types can never hold a non-serializable object, so
+ * they are left out and instances of classes without any other fields are not walked at all.
+ * <p>
+ * The fields are looked up only once per class, so checking further instances of already seen
+ * classes only reads the field values. Classes that customize their serialization (
+ * <code>writeObject</code>, <code>writeReplace</code>, {@link Externalizable}, proxies) and arrays
+ * have no verdict and are checked the usual way.
+ */
+public class SerializableCheckerCache
+{
+	private static final Field[] CUSTOM = new Field[0];
+
+	private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>();
+
+	static
+	{
+		IMMUTABLE_TYPES.add(String.class);
+		IMMUTABLE_TYPES.add(Boolean.class);
+		IMMUTABLE_TYPES.add(Byte.class);
+		IMMUTABLE_TYPES.add(Character.class);
+		IMMUTABLE_TYPES.add(Short.class);
+		IMMUTABLE_TYPES.add(Integer.class);
+		IMMUTABLE_TYPES.add(Long.class);
+		IMMUTABLE_TYPES.add(Float.class);
+		IMMUTABLE_TYPES.add(Double.class);
+		IMMUTABLE_TYPES.add(Class.class);
+	}
+
+	private static final SerializableCheckerCache DEFAULT = new SerializableCheckerCache();
+
+	private final ConcurrentMap<Class<?>, Field[]> verdicts = new ConcurrentHashMap<Class<?>, Field[]>();
+
+	/**
+	 * @return cache shared by the checks of the object streams and the
+	 *         {@link AsyncSerializableChecker}s
+	 */
+	public static SerializableCheckerCache getDefault()
+	{
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the fields of given serializable class whose values have to be checked.
+	 * 
+	 * @param cls
+	 * @return fields to check, empty array if no instance of the class can hold a non-serializable
+	 *         object or <code>null</code> if the class customizes its serialization
+	 */
+	Field[] getFieldsToCheck(Class<?> cls)
+	{
+		Field[] fields = verdicts.get(cls);
+		if (fields == null)
+		{
+			fields = computeFieldsToCheck(cls, new HashSet<Class<?>>());
+			verdicts.putIfAbsent(cls, fields);
+		}
+		return fields != CUSTOM ? fields : null;
+	}
+
+	/**
+	 * @return number of classes with cached verdict
+	 */
+	public int size()
+	{
+		return verdicts.size();
+	}
+
+	/**
+	 * Removes all cached verdicts.
+	 */
+	public void clear()
+	{
+		verdicts.clear();
+	}
+
+	private Field[] computeFieldsToCheck(Class<?> cls, Set<Class<?>> inProgress)
+	{
+		if (Enum.class.isAssignableFrom(cls))
+		{
+			// enum constants are serialized by name
+			return new Field[0];
+		}
+		if (cls.isArray() || Externalizable.class.isAssignableFrom(cls) || Proxy.isProxyClass(cls) ||
+			hasWriteReplace(cls))
+		{
+			return CUSTOM;
+		}
+
+		inProgress.add(cls);
+		try
+		{
+			List<Field> fields = Generics.newArrayList();
+			Class<?> c = cls;
+			while (c != null && Serializable.class.isAssignableFrom(c))
+			{
+				if (declares(c, "writeObject", new Class[] { ObjectOutputStream.class }))
+				{
+					return CUSTOM;
+				}
+				Field[] declared = c.getDeclaredFields();
+				for (int i = 0; i < declared.length; i++)
+				{
+					Field field = declared[i];
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers))
+					{
+						if ("serialPersistentFields".equals(field.getName()))
+						{
+							return CUSTOM;
+						}
+					}
+					else if (!Modifier.isTransient(modifiers) &&
+						!isClosedType(field.getType(), inProgress))
+					{
+						field.setAccessible(true);
+						fields.add(field);
+					}
+				}
+				c = c.getSuperclass();
+			}
+			return fields.toArray(new Field[fields.size()]);
+		}
+		catch (SecurityException e)
+		{
+			return CUSTOM;
+		}
+		finally
+		{
+			inProgress.remove(cls);
+		}
+	}
+
+	/**
+	 * @return whether no value of given declared type can be a non-serializable object
+	 */
+	private boolean isClosedType(Class<?> type, Set<Class<?>> inProgress)
+	{
+		if (type.isPrimitive() || type.isEnum() || IMMUTABLE_TYPES.contains(type))
+		{
+			return true;
+		}
+		if (type.isArray())
+		{
+			return isClosedType(type.getComponentType(), inProgress);
+		}
+		if (!Modifier.isFinal(type.getModifiers()) || !Serializable.class.isAssignableFrom(type) ||
+			inProgress.contains(type))
+		{
+			// classes on the current path are treated as open, it keeps the verdicts sound
+			return false;
+		}
+		Field[] fields = verdicts.get(type);
+		if (fields == null)
+		{
+			fields = computeFieldsToCheck(type, inProgress);
+			verdicts.putIfAbsent(type, fields);
+		}
+		return fields.length == 0 && fields != CUSTOM;
+	}
+
+	private static boolean hasWriteReplace(Class<?> cls)
+	{
+		for (Class<?> c = cls; c != null; c = c.getSuperclass())
+		{
+			if (declares(c, "writeReplace", null))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean declares(Class<?> cls, String name, Class<?>[] parameterTypes)
+	{
+		try
+		{
+			cls.getDeclaredMethod(name, parameterTypes);
+			return true;
+		}
+		catch (NoSuchMethodException e)
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,551 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.Page;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.util.lang.Objects;
+import org.apache.wicket.util.lang.Objects.IObjectSizeOfStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Attributes the serialized size of pages to the paths of their components and to the classes of
+ * their models, so that it can be found out what makes the stored pages big.
+ * <p>
+ * Every {@link #getSampleRate() n-th} page offered by {@link #sample(Page)} is serialized once more
+ * with {@link WicketObjectOutputStream} to a stream that only counts the bytes. The bytes written
+ * between the start and the end of a component are added to the component's path, excluding the
+ * bytes of its child components; the same is done for models. Repeater item ids (numeric path
+ * segments) are replaced by <code>*</code>, so all items of a repeater add up to one entry. The
+ * statistics are kept for at most {@link #getMaxEntries()} distinct paths and model classes.
+ * <p>
+ * If {@link #setObjectSizeRecorded(boolean) enabled}, the size of the sampled pages is also
+ * computed by the {@link Objects#sizeof(Object) object size of strategy}; with the
+ * <code>wicket-objectssizeof-agent</code> installed that is the size of the page in memory.
+ *
+ * @see org.apache.wicket.settings.IDebugSettings#setSerializedSizeProfiler(SerializedSizeProfiler)
+ */
+public class SerializedSizeProfiler
+{
+	/**
+	 * Statistics of one component path, model class or page class.
+	 */
+	public static final class Entry implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+
+		private final long count;
+
+		private final long bytes;
+
+		private final long maxBytes;
+
+		private final long objectSize;
+
+		Entry(String name, long count, long bytes, long maxBytes, long objectSize)
+		{
+			this.name = name;
+			this.count = count;
+			this.bytes = bytes;
+			this.maxBytes = maxBytes;
+			this.objectSize = objectSize;
+		}
+
+		/**
+		 * @return component path prefixed with the page class, model class or page class
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return number of sampled pages that contained the entry
+		 */
+		public long getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * @return serialized bytes in all sampled pages
+		 */
+		public long getBytes()
+		{
+			return bytes;
+		}
+
+		/**
+		 * @return most serialized bytes in one sampled page
+		 */
+		public long getMaxBytes()
+		{
+			return maxBytes;
+		}
+
+		/**
+		 * @return average serialized bytes per sampled page that contained the entry
+		 */
+		public long getAverageBytes()
+		{
+			return count > 0 ? bytes / count : 0;
+		}
+
+		/**
+		 * @return most recently computed object size of the page, -1 if not known (always -1 for
+		 *         components and models)
+		 */
+		public long getObjectSize()
+		{
+			return objectSize;
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString()
+		{
+			return name + ": " + bytes + " bytes in " + count + " pages (max " + maxBytes + ")";
+		}
+	}
+
+	/**
+	 * Mutable statistics.
+	 */
+	private static final class Stats
+	{
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong bytes = new AtomicLong();
+
+		private final AtomicLong maxBytes = new AtomicLong();
+
+		private volatile long objectSize = -1;
+
+		private void add(long size)
+		{
+			count.incrementAndGet();
+			bytes.addAndGet(size);
+			long max = maxBytes.get();
+			while (size > max && !maxBytes.compareAndSet(max, size))
+			{
+				max = maxBytes.get();
+			}
+		}
+	}
+
+	/**
+	 * Records the bytes of one serialized page.
+	 */
+	private static final class Recorder implements WicketObjectOutputStream.IWriteListener
+	{
+		private final ByteCountingOutputStream counter;
+
+		private final String prefix;
+
+		private final List<long[]> componentFrames = new ArrayList<long[]>();
+
+		private final List<long[]> modelFrames = new ArrayList<long[]>();
+
+		private final Map<String, long[]> components = new HashMap<String, long[]>();
+
+		private final Map<String, long[]> models = new HashMap<String, long[]>();
+
+		private Recorder(ByteCountingOutputStream counter, Page page)
+		{
+			this.counter = counter;
+			prefix = page.getClass().getName();
+		}
+
+		public void objectStart(Object object)
+		{
+			if (object instanceof Component)
+			{
+				// start position and bytes of the nested frames
+				componentFrames.add(new long[] { counter.size(), 0 });
+			}
+			else if (object instanceof IModel)
+			{
+				modelFrames.add(new long[] { counter.size(), 0 });
+			}
+		}
+
+		public void objectEnd(Object object)
+		{
+			if (object instanceof Component)
+			{
+				add(components, componentFrames, getKey((Component)object));
+			}
+			else if (object instanceof IModel)
+			{
+				add(models, modelFrames, object.getClass().getName());
+			}
+		}
+
+		private void add(Map<String, long[]> sizes, List<long[]> frames, String key)
+		{
+			long[] frame = frames.remove(frames.size() - 1);
+			long total = counter.size() - frame[0];
+			if (!frames.isEmpty())
+			{
+				frames.get(frames.size() - 1)[1] += total;
+			}
+			long[] size = sizes.get(key);
+			if (size == null)
+			{
+				size = new long[1];
+				sizes.put(key, size);
+			}
+			size[0] += total - frame[1];
+		}
+
+		private String getKey(Component component)
+		{
+			String path = component.getPageRelativePath();
+			if (path.length() == 0)
+			{
+				return prefix;
+			}
+			StringBuilder key = new StringBuilder(prefix.length() + path.length() + 1);
+			key.append(prefix);
+			key.append(Component.PATH_SEPARATOR);
+			int start = 0;
+			while (start <= path.length())
+			{
+				int end = path.indexOf(Component.PATH_SEPARATOR, start);
+				if (end == -1)
+				{
+					end = path.length();
+				}
+				if (start > 0)
+				{
+					key.append(Component.PATH_SEPARATOR);
+				}
+				if (isNumber(path, start, end))
+				{
+					key.append('*');
+				}
+				else
+				{
+					key.append(path, start, end);
+				}
+				start = end + 1;
+			}
+			return key.toString();
+		}
+
+		private static boolean isNumber(String path, int start, int end)
+		{
+			if (start == end)
+			{
+				return false;
+			}
+			for (int i = start; i < end; i++)
+			{
+				if (!Character.isDigit(path.charAt(i)))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final int sampleRate;
+
+	private final int maxEntries;
+
+	private volatile boolean objectSizeRecorded = false;
+
+	private final AtomicLong sampledCount = new AtomicLong();
+
+	private final AtomicLong profiledCount = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final ConcurrentMap<String, Stats> components = new ConcurrentHashMap<String, Stats>();
+
+	private final ConcurrentMap<String, Stats> models = new ConcurrentHashMap<String, Stats>();
+
+	private final ConcurrentMap<String, Stats> pages = new ConcurrentHashMap<String, Stats>();
+
+	/**
+	 * Construct that profiles every 100th sampled page and keeps at most 1000 entries of each kind.
+	 */
+	public SerializedSizeProfiler()
+	{
+		this(100, 1000);
+	}
+
+	/**
+	 * Construct.
+	 *
+	 * @param sampleRate
+	 *            every n-th sampled page is profiled, 1 profiles all of them
+	 * @param maxEntries
+	 *            maximum number of distinct component paths (and of model and page classes) to
+	 *            keep statistics for
+	 */
+	public SerializedSizeProfiler(int sampleRate, int maxEntries)
+	{
+		if (sampleRate < 1)
+		{
+			throw new IllegalArgumentException("Argument 'sampleRate' must be at least 1.");
+		}
+		if (maxEntries < 1)
+		{
+			throw new IllegalArgumentException("Argument 'maxEntries' must be at least 1.");
+		}
+		this.sampleRate = sampleRate;
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Offers a sample, every {@link #getSampleRate() n-th} sample is profiled on the calling
+	 * thread.
+	 *
+	 * @param page
+	 * @return whether the page was profiled
+	 */
+	public boolean sample(Page page)
+	{
+		if (page == null || sampledCount.incrementAndGet() % sampleRate != 0)
+		{
+			return false;
+		}
+		return profile(page);
+	}
+
+	/**
+	 * Profiles the page now.
+	 *
+	 * @param page
+	 * @return whether the page was profiled, <code>false</code> if it failed to serialize
+	 */
+	public boolean profile(Page page)
+	{
+		ByteCountingOutputStream counter = new ByteCountingOutputStream();
+		Recorder recorder = new Recorder(counter, page);
+		try
+		{
+			WicketObjectOutputStream out = new WicketObjectOutputStream(counter);
+			out.setWriteListener(recorder);
+			out.writeObject(page);
+			out.close();
+		}
+		catch (Exception e)
+		{
+			log.debug("Error profiling " + page.getClass().getName(), e);
+			return false;
+		}
+		profiledCount.incrementAndGet();
+
+		add(components, recorder.components);
+		add(models, recorder.models);
+
+		Stats stats = getStats(pages, recorder.prefix);
+		if (stats != null)
+		{
+			stats.add(counter.size());
+			if (objectSizeRecorded)
+			{
+				stats.objectSize = Objects.sizeof(page);
+			}
+		}
+		return true;
+	}
+
+	private void add(ConcurrentMap<String, Stats> map, Map<String, long[]> sizes)
+	{
+		Iterator<Map.Entry<String, long[]>> it = sizes.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry<String, long[]> entry = it.next();
+			Stats stats = getStats(map, entry.getKey());
+			if (stats != null)
+			{
+				stats.add(entry.getValue()[0]);
+			}
+		}
+	}
+
+	private Stats getStats(ConcurrentMap<String, Stats> map, String key)
+	{
+		Stats stats = map.get(key);
+		if (stats == null)
+		{
+			if (map.size() >= maxEntries)
+			{
+				droppedCount.incrementAndGet();
+				return null;
+			}
+			stats = new Stats();
+			Stats existing = map.putIfAbsent(key, stats);
+			if (existing != null)
+			{
+				stats = existing;
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * @param count
+	 *            maximum number of entries to return
+	 * @return component paths with most serialized bytes, largest first
+	 */
+	public List<Entry> getTopComponents(int count)
+	{
+		return getTop(components, count);
+	}
+
+	/**
+	 * @param count
+	 *            maximum number of entries to return
+	 * @return model classes with most serialized bytes, largest first
+	 */
+	public List<Entry> getTopModels(int count)
+	{
+		return getTop(models, count);
+	}
+
+	/**
+	 * @param count
+	 *            maximum number of entries to return
+	 * @return page classes with most serialized bytes, largest first
+	 */
+	public List<Entry> getTopPages(int count)
+	{
+		return getTop(pages, count);
+	}
+
+	private List<Entry> getTop(ConcurrentMap<String, Stats> map, int count)
+	{
+		List<Entry> entries = new ArrayList<Entry>(map.size());
+		Iterator<Map.Entry<String, Stats>> it = map.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry<String, Stats> entry = it.next();
+			Stats stats = entry.getValue();
+			entries.add(new Entry(entry.getKey(), stats.count.get(), stats.bytes.get(),
+				stats.maxBytes.get(), stats.objectSize));
+		}
+		Collections.sort(entries, new Comparator<Entry>()
+		{
+			public int compare(Entry o1, Entry o2)
+			{
+				return o1.bytes < o2.bytes ? 1 : (o1.bytes == o2.bytes ? 0 : -1);
+			}
+		});
+		return entries.size() > count ? new ArrayList<Entry>(entries.subList(0, count))
+			: entries;
+	}
+
+	/**
+	 * Removes all statistics.
+	 */
+	public void clear()
+	{
+		components.clear();
+		models.clear();
+		pages.clear();
+		sampledCount.set(0);
+		profiledCount.set(0);
+		droppedCount.set(0);
+	}
+
+	/**
+	 * Sets whether the size of the sampled pages is also computed by the
+	 * {@link IObjectSizeOfStrategy}. That serializes the page once more with the default strategy,
+	 * so it is disabled by default.
+	 *
+	 * @param objectSizeRecorded
+	 */
+	public void setObjectSizeRecorded(boolean objectSizeRecorded)
+	{
+		this.objectSizeRecorded = objectSizeRecorded;
+	}
+
+	/**
+	 * @return whether the size of the sampled pages is also computed by the
+	 *         {@link IObjectSizeOfStrategy}
+	 */
+	public boolean isObjectSizeRecorded()
+	{
+		return objectSizeRecorded;
+	}
+
+	/**
+	 * @return every n-th sampled page is profiled
+	 */
+	public int getSampleRate()
+	{
+		return sampleRate;
+	}
+
+	/**
+	 * @return maximum number of entries of each kind
+	 */
+	public int getMaxEntries()
+	{
+		return maxEntries;
+	}
+
+	/**
+	 * @return number of pages offered by {@link #sample(Page)}
+	 */
+	public long getSampledCount()
+	{
+		return sampledCount.get();
+	}
+
+	/**
+	 * @return number of profiled pages
+	 */
+	public long getProfiledCount()
+	{
+		return profiledCount.get();
+	}
+
+	/**
+	 * @return number of sizes not recorded because the maximum number of entries was reached
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+
+	/** log. */
+	private static final Logger log = LoggerFactory.getLogger(SerializedSizeProfiler.class);
+}
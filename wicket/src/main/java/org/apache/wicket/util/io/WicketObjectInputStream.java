@@ -42,20 +42,78 @@ public final class WicketObjectInputStream extends ObjectInputStream
 
 
 	private final DataInputStream in;
+	private final ClassDictionary dictionary;
 	private ClassStreamHandler currentStreamHandler;
 	private HandleArrayListStack<Object> stack = new HandleArrayListStack<Object>();
 	private HandleArrayListStack<Object> defaultRead = new HandleArrayListStack<Object>();
+	private IObjectReplacer replacer;
 
 	/**
-	 * Construct.
+	 * Construct stream using the {@link ClassDictionary#getDefault() default} class dictionary.
 	 * 
 	 * @param in
 	 * @throws IOException
 	 */
 	public WicketObjectInputStream(InputStream in) throws IOException
+	{
+		this(in, ClassDictionary.getDefault());
+	}
+
+	/**
+	 * Construct.
+	 * 
+	 * @param in
+	 * @param dictionary
+	 *            dictionary the stream has been written with
+	 * @throws IOException
+	 */
+	public WicketObjectInputStream(InputStream in, ClassDictionary dictionary) throws IOException
 	{
 		super();
 		this.in = new DataInputStream(in);
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * @param replacer
+	 *            replacer resolving the read objects, <code>null</code> to remove it
+	 */
+	void setReplacer(IObjectReplacer replacer)
+	{
+		this.replacer = replacer;
+	}
+
+	/**
+	 * Reads class id written as variable length integer.
+	 * 
+	 * @return class id
+	 * @throws IOException
+	 */
+	private int readClassId() throws IOException
+	{
+		int id = 0;
+		int shift = 0;
+		int b;
+		do
+		{
+			b = in.readUnsignedByte();
+			id |= (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while ((b & 0x80) != 0);
+		return id;
+	}
+
+	/**
+	 * Reads class id and returns the handler of that class.
+	 * 
+	 * @return class stream handler
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private ClassStreamHandler readClassHandler() throws IOException, ClassNotFoundException
+	{
+		return ClassStreamHandler.lookup(dictionary.getClass(readClassId()));
 	}
 
 	/**
@@ -81,9 +139,8 @@ public final class WicketObjectInputStream extends ObjectInputStream
 		}
 		else if (token == ClassStreamHandler.CLASS_DEF)
 		{
-			short classDef = in.readShort();
 			ClassStreamHandler oldStreamHandler = currentStreamHandler;
-			currentStreamHandler = ClassStreamHandler.lookup(classDef);
+			currentStreamHandler = readClassHandler();
 			if (currentStreamHandler.getStreamClass() == String.class)
 			{
 				value = in.readUTF();
@@ -124,14 +181,11 @@ public final class WicketObjectInputStream extends ObjectInputStream
 		}
 		else if (token == ClassStreamHandler.CLASS)
 		{
-			short classDef = in.readShort();
-			ClassStreamHandler lookup = ClassStreamHandler.lookup(classDef);
-			value = lookup.getStreamClass();
+			value = dictionary.getClass(readClassId());
 		}
 		else if (token == ClassStreamHandler.ARRAY)
 		{
-			short classDef = in.readShort();
-			ClassStreamHandler lookup = ClassStreamHandler.lookup(classDef);
+			ClassStreamHandler lookup = readClassHandler();
 			int length = in.readInt();
 			Object[] array = (Object[])Array.newInstance(lookup.getStreamClass(), length);
 			handledObjects.put(handleCounter++, array);
@@ -143,8 +197,7 @@ public final class WicketObjectInputStream extends ObjectInputStream
 		}
 		else if (token == ClassStreamHandler.PRIMITIVE_ARRAY)
 		{
-			short classDef = in.readShort();
-			ClassStreamHandler lookup = ClassStreamHandler.lookup(classDef);
+			ClassStreamHandler lookup = readClassHandler();
 			value = lookup.readArray(this);
 			handledObjects.put(handleCounter++, value);
 		}
@@ -152,7 +205,7 @@ public final class WicketObjectInputStream extends ObjectInputStream
 		{
 			throw new RuntimeException("not a valid token found: " + token);
 		}
-		return value;
+		return replacer != null ? replacer.resolveObject(value) : value;
 	}
 
 	/**
@@ -428,9 +481,25 @@ public final class WicketObjectInputStream extends ObjectInputStream
 
 		private void read() throws IOException, ClassNotFoundException
 		{
-			short token = readShort();
-			ClassStreamHandler lookup = ClassStreamHandler.lookup(boolean.class);
-			if (token == lookup.getClassId())
+			if (!currentStreamHandler.hasPersistentFields())
+			{
+				// the fields were written as by defaultWriteObject(), see
+				// WicketObjectOutputStream.PutFieldImpl
+				defaultReadObject();
+				try
+				{
+					currentStreamHandler.getFieldValues(stack.peek(), values);
+				}
+				catch (IllegalAccessException e)
+				{
+					throw new WicketSerializeableException("Error reading fields of " +
+						currentStreamHandler.getStreamClass().getName(), e);
+				}
+				return;
+			}
+
+			int token = readClassId();
+			if (token == dictionary.getId(boolean.class))
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -438,14 +507,13 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					String key = (String)readObjectOverride();
 					values.put(key, readBoolean() ? Boolean.TRUE : Boolean.FALSE);
 				}
-				token = readShort();
+				token = readClassId();
 				if (token == ClassStreamHandler.NULL)
 				{
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(byte.class);
-			if (token == lookup.getClassId())
+			if (token == dictionary.getId(byte.class))
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -453,14 +521,13 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					String key = (String)readObjectOverride();
 					values.put(key, new Byte(readByte()));
 				}
-				token = readShort();
+				token = readClassId();
 				if (token == ClassStreamHandler.NULL)
 				{
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(short.class);
-			if (token == lookup.getClassId())
+			if (token == dictionary.getId(short.class))
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -468,14 +535,13 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					String key = (String)readObjectOverride();
 					values.put(key, new Short(readShort()));
 				}
-				token = readShort();
+				token = readClassId();
 				if (token == ClassStreamHandler.NULL)
 				{
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(char.class);
-			if (token == lookup.getClassId())
+			if (token == dictionary.getId(char.class))
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -483,14 +549,13 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					String key = (String)readObjectOverride();
 					values.put(key, new Character(readChar()));
 				}
-				token = readShort();
+				token = readClassId();
 				if (token == ClassStreamHandler.NULL)
 				{
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(int.class);
-			if (token == lookup.getClassId())
+			if (token == dictionary.getId(int.class))
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -498,14 +563,13 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					String key = (String)readObjectOverride();
 					values.put(key, new Integer(readInt()));
 				}
-				token = readShort();
+				token = readClassId();
 				if (token == ClassStreamHandler.NULL)
 				{
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(long.class);
-			if (token == lookup.getClassId())
+			if (token == dictionary.getId(long.class))
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -513,14 +577,13 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					String key = (String)readObjectOverride();
 					values.put(key, new Long(readLong()));
 				}
-				token = readShort();
+				token = readClassId();
 				if (token == ClassStreamHandler.NULL)
 				{
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(float.class);
-			if (token == lookup.getClassId())
+			if (token == dictionary.getId(float.class))
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -528,14 +591,13 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					String key = (String)readObjectOverride();
 					values.put(key, new Float(readFloat()));
 				}
-				token = readShort();
+				token = readClassId();
 				if (token == ClassStreamHandler.NULL)
 				{
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(double.class);
-			if (token == lookup.getClassId())
+			if (token == dictionary.getId(double.class))
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -543,14 +605,13 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					String key = (String)readObjectOverride();
 					values.put(key, new Double(readDouble()));
 				}
-				token = readShort();
+				token = readClassId();
 				if (token == ClassStreamHandler.NULL)
 				{
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(Serializable.class);
-			if (token == lookup.getClassId())
+			if (token == dictionary.getId(Serializable.class))
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -558,7 +619,7 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					String key = (String)readObjectOverride();
 					values.put(key, readObjectOverride());
 				}
-				token = readShort();
+				token = readClassId();
 			}
 			if (token != ClassStreamHandler.NULL)
 			{
@@ -37,6 +37,23 @@ import org.apache.wicket.util.lang.Generics;
  */
 public final class WicketObjectOutputStream extends ObjectOutputStream
 {
+	/**
+	 * Notified before and after an object (other than a handle to an already written object) is
+	 * written to the stream.
+	 */
+	interface IWriteListener
+	{
+		/**
+		 * @param object
+		 */
+		void objectStart(Object object);
+
+		/**
+		 * @param object
+		 */
+		void objectEnd(Object object);
+	}
+
 	/**
 	 * Lightweight identity hash table which maps objects to integer handles, assigned in ascending
 	 * order (comes from {@link ObjectOutputStream}).
@@ -304,14 +321,27 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 		@Override
 		public void write(ObjectOutput out) throws IOException
 		{
+			ClassStreamHandler handler = ClassStreamHandler.lookup(curObject.getClass());
+			if (!handler.hasPersistentFields())
+			{
+				// the put fields are the declared fields, write them the same way as
+				// defaultWriteObject() does so that the stream can be read by both
+				// defaultReadObject() and readFields()
+				if (!defaultWrite.contains(curObject))
+				{
+					defaultWrite.add(curObject);
+					handler.writeFields(WicketObjectOutputStream.this, curObject, getValues());
+				}
+				return;
+			}
+
 			// i don't know if all the fields (names in the map)
 			// are really also always real fields.. So i just
 			// write them by name->value
 			// maybe in the further we can really calculate an offset?
 			if (mapBoolean != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(boolean.class);
-				writeShort(lookup.getClassId());
+				writeClassId(dictionary.getId(boolean.class));
 				writeShort(mapBoolean.size());
 				Iterator<Entry<String, Boolean>> it = mapBoolean.entrySet().iterator();
 				while (it.hasNext())
@@ -324,8 +354,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapBytes != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(byte.class);
-				writeShort(lookup.getClassId());
+				writeClassId(dictionary.getId(byte.class));
 				writeShort(mapBytes.size());
 				Iterator<Entry<String, Byte>> it = mapBytes.entrySet().iterator();
 				while (it.hasNext())
@@ -338,8 +367,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapShort != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(short.class);
-				writeShort(lookup.getClassId());
+				writeClassId(dictionary.getId(short.class));
 				writeShort(mapShort.size());
 				Iterator<Entry<String, Short>> it = mapShort.entrySet().iterator();
 				while (it.hasNext())
@@ -352,8 +380,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapChar != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(char.class);
-				writeShort(lookup.getClassId());
+				writeClassId(dictionary.getId(char.class));
 				writeShort(mapChar.size());
 				Iterator<Entry<String, Character>> it = mapChar.entrySet().iterator();
 				while (it.hasNext())
@@ -366,8 +393,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapInt != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(int.class);
-				writeShort(lookup.getClassId());
+				writeClassId(dictionary.getId(int.class));
 				writeShort(mapInt.size());
 				Iterator<Entry<String, Integer>> it = mapInt.entrySet().iterator();
 				while (it.hasNext())
@@ -380,8 +406,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapLong != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(long.class);
-				writeShort(lookup.getClassId());
+				writeClassId(dictionary.getId(long.class));
 				writeShort(mapLong.size());
 				Iterator<Entry<String, Long>> it = mapLong.entrySet().iterator();
 				while (it.hasNext())
@@ -394,8 +419,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapFloat != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(float.class);
-				writeShort(lookup.getClassId());
+				writeClassId(dictionary.getId(float.class));
 				writeShort(mapFloat.size());
 				Iterator<Entry<String, Float>> it = mapFloat.entrySet().iterator();
 				while (it.hasNext())
@@ -408,8 +432,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapDouble != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(double.class);
-				writeShort(lookup.getClassId());
+				writeClassId(dictionary.getId(double.class));
 				writeShort(mapDouble.size());
 				Iterator<Entry<String, Double>> it = mapDouble.entrySet().iterator();
 				while (it.hasNext())
@@ -422,8 +445,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapObject != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(Serializable.class);
-				writeShort(lookup.getClassId());
+				writeClassId(dictionary.getId(Serializable.class));
 				writeShort(mapObject.size());
 				Iterator<Entry<String, Object>> it = mapObject.entrySet().iterator();
 				while (it.hasNext())
@@ -435,7 +457,30 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 				}
 			}
 			// end byte.
-			writeShort(ClassStreamHandler.NULL);
+			writeClassId(ClassStreamHandler.NULL);
+		}
+
+		private Map<String, Object> getValues()
+		{
+			Map<String, Object> values = Generics.newHashMap();
+			putAll(values, mapBoolean);
+			putAll(values, mapBytes);
+			putAll(values, mapShort);
+			putAll(values, mapChar);
+			putAll(values, mapInt);
+			putAll(values, mapLong);
+			putAll(values, mapFloat);
+			putAll(values, mapDouble);
+			putAll(values, mapObject);
+			return values;
+		}
+
+		private void putAll(Map<String, Object> values, Map<String, ?> map)
+		{
+			if (map != null)
+			{
+				values.putAll(map);
+			}
 		}
 
 	}
@@ -445,23 +490,77 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 	private final HandleArrayListStack<Object> defaultWrite = new HandleArrayListStack<Object>();
 	private final DataOutputStream out;
 
+	private final ClassDictionary dictionary;
+
 	private ClassStreamHandler classHandler;
 
 	private PutField curPut;
 
 	private Object curObject;
 
+	private IWriteListener writeListener;
+
+	private IObjectReplacer replacer;
+
 	/**
-	 * Construct.
+	 * Construct stream using the {@link ClassDictionary#getDefault() default} class dictionary.
 	 * 
 	 * @param out
 	 * @throws IOException
 	 */
 	public WicketObjectOutputStream(OutputStream out) throws IOException
+	{
+		this(out, ClassDictionary.getDefault());
+	}
+
+	/**
+	 * Construct.
+	 * 
+	 * @param out
+	 * @param dictionary
+	 *            dictionary assigning ids to the written classes
+	 * @throws IOException
+	 */
+	public WicketObjectOutputStream(OutputStream out, ClassDictionary dictionary)
+		throws IOException
 	{
 		super();
 		this.out = new DataOutputStream(out);
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Writes the class id as variable length integer.
+	 * 
+	 * @param id
+	 * @throws IOException
+	 */
+	private void writeClassId(int id) throws IOException
+	{
+		while ((id & ~0x7F) != 0)
+		{
+			out.write((id & 0x7F) | 0x80);
+			id >>>= 7;
+		}
+		out.write(id);
+	}
 
+	/**
+	 * @param writeListener
+	 *            listener notified about the written objects, <code>null</code> to remove it
+	 */
+	void setWriteListener(IWriteListener writeListener)
+	{
+		this.writeListener = writeListener;
+	}
+
+	/**
+	 * @param replacer
+	 *            replacer of the written objects, <code>null</code> to remove it
+	 */
+	void setReplacer(IObjectReplacer replacer)
+	{
+		this.replacer = replacer;
 	}
 
 	/**
@@ -713,6 +812,10 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 	@Override
 	protected final void writeObjectOverride(Object obj) throws IOException
 	{
+		if (obj != null && replacer != null)
+		{
+			obj = replacer.replaceObject(obj);
+		}
 		if (obj == null)
 		{
 			out.write(ClassStreamHandler.NULL);
@@ -728,9 +831,8 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 		{
 			if (obj instanceof Class)
 			{
-				ClassStreamHandler classHandler = ClassStreamHandler.lookup((Class<?>)obj);
 				out.write(ClassStreamHandler.CLASS);
-				out.writeShort(classHandler.getClassId());
+				writeClassId(dictionary.getId((Class<?>)obj));
 			}
 			else
 			{
@@ -746,7 +848,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 						try
 						{
 							out.write(ClassStreamHandler.PRIMITIVE_ARRAY);
-							out.writeShort(classHandler.getClassId());
+							writeClassId(dictionary.getId(componentType));
 							classHandler.writeArray(obj, this);
 						}
 						catch (WicketSerializeableException wse)
@@ -767,7 +869,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 						try
 						{
 							out.write(ClassStreamHandler.ARRAY);
-							out.writeShort(classHandler.getClassId());
+							writeClassId(dictionary.getId(componentType));
 							out.writeInt(length);
 							for (int i = 0; i < length; i++)
 							{
@@ -800,8 +902,12 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 						classHandler = ClassStreamHandler.lookup(realClz);
 					}
 
+					if (writeListener != null)
+					{
+						writeListener.objectStart(obj);
+					}
 					out.write(ClassStreamHandler.CLASS_DEF);
-					out.writeShort(classHandler.getClassId());
+					writeClassId(dictionary.getId(realClz));
 					// handle strings directly.
 					if (obj instanceof String)
 					{
@@ -853,6 +959,10 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 							curPut = old;
 						}
 					}
+					if (writeListener != null)
+					{
+						writeListener.objectEnd(obj);
+					}
 				}
 			}
 		}
@@ -25,20 +25,74 @@ import java.io.OutputStream;
 
 /**
  * Object stream factory for Wicket's custom serialization.
+ * <p>
+ * By default the class ids written to the streams are only valid within the current JVM. To keep
+ * persisted pages readable after a restart or on other cluster nodes, pass a file backed
+ * {@link ClassDictionary} shared by all nodes, e.g.
+ * 
+ * <pre>
+ * Objects.setObjectStreamFactory(new WicketObjectStreamFactory(new ClassDictionary(new File(
+ * 	storeFolder, &quot;classes.dict&quot;))));
+ * </pre>
  * 
  * @see WicketObjectInputStream
  * @see WicketObjectOutputStream
  * 
  * @author eelcohillenius
  */
-public class WicketObjectStreamFactory implements IObjectStreamFactory
+public class WicketObjectStreamFactory implements IReplacingObjectStreamFactory
 {
+	private final ClassDictionary dictionary;
+
+	/**
+	 * Construct using the {@link ClassDictionary#getDefault() default} in-memory class dictionary.
+	 */
+	public WicketObjectStreamFactory()
+	{
+		this(ClassDictionary.getDefault());
+	}
+
+	/**
+	 * Construct.
+	 * 
+	 * @param dictionary
+	 *            dictionary assigning ids to serialized classes
+	 */
+	public WicketObjectStreamFactory(ClassDictionary dictionary)
+	{
+		if (dictionary == null)
+		{
+			throw new IllegalArgumentException("Argument 'dictionary' may not be null.");
+		}
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * @return class dictionary used by the created streams
+	 */
+	public ClassDictionary getDictionary()
+	{
+		return dictionary;
+	}
+
 	/**
 	 * @see org.apache.wicket.util.io.IObjectStreamFactory#newObjectInputStream(java.io.InputStream)
 	 */
 	public ObjectInputStream newObjectInputStream(InputStream in) throws IOException
 	{
-		return new WicketObjectInputStream(in);
+		return new WicketObjectInputStream(in, dictionary);
+	}
+
+	/**
+	 * @see org.apache.wicket.util.io.IReplacingObjectStreamFactory#newObjectInputStream(java.io.InputStream,
+	 *      org.apache.wicket.util.io.IObjectReplacer)
+	 */
+	public ObjectInputStream newObjectInputStream(InputStream in, IObjectReplacer replacer)
+		throws IOException
+	{
+		WicketObjectInputStream stream = new WicketObjectInputStream(in, dictionary);
+		stream.setReplacer(replacer);
+		return stream;
 	}
 
 	/**
@@ -46,6 +100,18 @@ public class WicketObjectStreamFactory implements IObjectStreamFactory
 	 */
 	public ObjectOutputStream newObjectOutputStream(OutputStream out) throws IOException
 	{
-		return new WicketObjectOutputStream(out);
+		return new WicketObjectOutputStream(out, dictionary);
+	}
+
+	/**
+	 * @see org.apache.wicket.util.io.IReplacingObjectStreamFactory#newObjectOutputStream(java.io.OutputStream,
+	 *      org.apache.wicket.util.io.IObjectReplacer)
+	 */
+	public ObjectOutputStream newObjectOutputStream(OutputStream out, IObjectReplacer replacer)
+		throws IOException
+	{
+		WicketObjectOutputStream stream = new WicketObjectOutputStream(out, dictionary);
+		stream.setReplacer(replacer);
+		return stream;
 	}
 }
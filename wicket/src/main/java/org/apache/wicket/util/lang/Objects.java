@@ -34,9 +34,13 @@ import org.apache.wicket.Component;
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.application.IClassResolver;
 import org.apache.wicket.settings.IApplicationSettings;
+import org.apache.wicket.util.io.ByteArrayOutputStreamPool;
 import org.apache.wicket.util.io.ByteCountingOutputStream;
 import org.apache.wicket.util.io.IObjectStreamFactory;
+import org.apache.wicket.util.io.IObjectReplacer;
 import org.apache.wicket.util.io.IObjectStreamFactory.DefaultObjectStreamFactory;
+import org.apache.wicket.util.io.IReplacingObjectStreamFactory;
+import org.apache.wicket.util.io.ObjectCloner;
 import org.apache.wicket.util.string.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -256,6 +260,15 @@ public final class Objects
 	 */
 	private static IObjectSizeOfStrategy objectSizeOfStrategy = new SerializingObjectSizeOfStrategy();
 
+	/** Whether {@link #cloneObject(Object)} uses {@link ObjectCloner}. */
+	private static volatile boolean inMemoryCloning = false;
+
+	/**
+	 * Pool of the buffers {@link #objectToByteArray(Object)} serializes into, so that serializing
+	 * pages doesn't allocate the buffers again and again.
+	 */
+	private static volatile ByteArrayOutputStreamPool bufferPool = newDefaultBufferPool();
+
 	static
 	{
 		primitiveDefaults.put(Boolean.TYPE, Boolean.FALSE);
@@ -459,6 +472,10 @@ public final class Objects
 	/**
 	 * Makes a deep clone of an object by serializing and deserializing it. The object must be fully
 	 * serializable to be cloned. No extra debug info is gathered.
+	 * <p>
+	 * If {@link #setInMemoryCloning(boolean) in-memory cloning} is enabled, the copy is made
+	 * directly by {@link ObjectCloner}. When the cloner is not available on this JVM or fails, the
+	 * object is cloned by serialization.
 	 * 
 	 * @param object
 	 *            The object to clone
@@ -473,58 +490,23 @@ public final class Objects
 		}
 		else
 		{
-			try
+			if (inMemoryCloning && ObjectCloner.isAvailable())
 			{
-				final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
-				ObjectOutputStream oos = new ObjectOutputStream(out);
-				oos.writeObject(object);
-				ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
-					out.toByteArray()))
+				try
 				{
-					// This override is required to resolve classes inside in different bundle, i.e.
-					// The classes can be resolved by OSGI classresolver implementation
-					@Override
-					protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
-						ClassNotFoundException
-					{
-						String className = desc.getName();
-
-						try
-						{
-							return Class.forName(className, true, object.getClass()
-								.getClassLoader());
-						}
-						catch (ClassNotFoundException ex1)
-						{
-							// ignore this exception.
-							log.debug("Class not found by using objects own classloader, trying the IClassResolver");
-						}
-
-
-						Application application = Application.get();
-						IApplicationSettings applicationSettings = application.getApplicationSettings();
-						IClassResolver classResolver = applicationSettings.getClassResolver();
+					return ObjectCloner.cloneObject(object);
+				}
+				catch (Exception e)
+				{
+					// the serialization will either succeed or report the problem
+					log.debug("In-memory cloning of " + object.getClass().getName() +
+						" failed, cloning by serialization", e);
+				}
+			}
 
-						Class<?> candidate = null;
-						try
-						{
-							candidate = classResolver.resolveClass(className);
-							if (candidate == null)
-							{
-								candidate = super.resolveClass(desc);
-							}
-						}
-						catch (WicketRuntimeException ex)
-						{
-							if (ex.getCause() instanceof ClassNotFoundException)
-							{
-								throw (ClassNotFoundException)ex.getCause();
-							}
-						}
-						return candidate;
-					}
-				};
-				return ois.readObject();
+			try
+			{
+				return cloneObjectBySerialization(object);
 			}
 			catch (ClassNotFoundException e)
 			{
@@ -537,6 +519,85 @@ public final class Objects
 		}
 	}
 
+	private static Object cloneObjectBySerialization(final Object object) throws IOException,
+		ClassNotFoundException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(object);
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
+			out.toByteArray()))
+		{
+			// This override is required to resolve classes inside in different bundle, i.e.
+			// The classes can be resolved by OSGI classresolver implementation
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+				ClassNotFoundException
+			{
+				String className = desc.getName();
+
+				try
+				{
+					return Class.forName(className, true, object.getClass()
+						.getClassLoader());
+				}
+				catch (ClassNotFoundException ex1)
+				{
+					// ignore this exception.
+					log.debug("Class not found by using objects own classloader, trying the IClassResolver");
+				}
+
+
+				Application application = Application.get();
+				IApplicationSettings applicationSettings = application.getApplicationSettings();
+				IClassResolver classResolver = applicationSettings.getClassResolver();
+
+				Class<?> candidate = null;
+				try
+				{
+					candidate = classResolver.resolveClass(className);
+					if (candidate == null)
+					{
+						candidate = super.resolveClass(desc);
+					}
+				}
+				catch (WicketRuntimeException ex)
+				{
+					if (ex.getCause() instanceof ClassNotFoundException)
+					{
+						throw (ClassNotFoundException)ex.getCause();
+					}
+				}
+				return candidate;
+			}
+		};
+		return ois.readObject();
+	}
+
+	/**
+	 * Sets whether {@link #cloneObject(Object)} copies the objects directly in memory by
+	 * {@link ObjectCloner} instead of serializing and deserializing them. The in-memory copy is
+	 * considerably faster, but it depends on non-standard JVM features and doesn't resolve classes
+	 * through the application's {@link IClassResolver}, as the copy uses the classes of the
+	 * original. It's disabled by default.
+	 * 
+	 * @param inMemoryCloning
+	 */
+	public static void setInMemoryCloning(boolean inMemoryCloning)
+	{
+		Objects.inMemoryCloning = inMemoryCloning;
+		log.info((inMemoryCloning ? "enabled" : "disabled") + " in-memory object cloning");
+	}
+
+	/**
+	 * @return whether the objects are cloned in memory
+	 * @see #setInMemoryCloning(boolean)
+	 */
+	public static boolean isInMemoryCloning()
+	{
+		return inMemoryCloning;
+	}
+
 	/**
 	 * Compares two objects for equality, even if it has to convert one of them to the other type.
 	 * If both objects are numeric they are converted to the widest type and compared. If one is
@@ -1087,9 +1148,10 @@ public final class Objects
 	 */
 	public static byte[] objectToByteArray(final Object object)
 	{
+		final ByteArrayOutputStreamPool pool = bufferPool;
+		final org.apache.wicket.util.io.ByteArrayOutputStream out = pool.acquire();
 		try
 		{
-			final ByteArrayOutputStream out = new ByteArrayOutputStream();
 			ObjectOutputStream oos = null;
 			try
 			{
@@ -1104,7 +1166,9 @@ public final class Objects
 				}
 				out.close();
 			}
-			return out.toByteArray();
+			byte[] result = out.toByteArray();
+			pool.release(out);
+			return result;
 		}
 		catch (Exception e)
 		{
@@ -1114,6 +1178,62 @@ public final class Objects
 		return null;
 	}
 
+	/**
+	 * Creates an object output stream with the configured {@link IObjectStreamFactory}, replacing
+	 * the written objects with the given replacer. If the factory is not an
+	 * {@link IReplacingObjectStreamFactory}, the {@link DefaultObjectStreamFactory default} stream
+	 * is used.
+	 * 
+	 * @param out
+	 *            The output stream that should be used for the writing
+	 * @param replacer
+	 *            replacer or <code>null</code>
+	 * @return a new object output stream instance
+	 * @throws IOException
+	 */
+	public static ObjectOutputStream newObjectOutputStream(OutputStream out,
+		IObjectReplacer replacer) throws IOException
+	{
+		IObjectStreamFactory factory = objectStreamFactory;
+		if (!(factory instanceof IReplacingObjectStreamFactory))
+		{
+			factory = new IObjectStreamFactory.DefaultObjectStreamFactory();
+		}
+		return ((IReplacingObjectStreamFactory)factory).newObjectOutputStream(out, replacer);
+	}
+
+	/**
+	 * Creates an object input stream with the configured {@link IObjectStreamFactory}, resolving
+	 * the read objects with the given replacer. If the factory is not an
+	 * {@link IReplacingObjectStreamFactory}, the {@link DefaultObjectStreamFactory default} stream
+	 * is used.
+	 * 
+	 * @param in
+	 *            The input stream that should be used for the reading
+	 * @param replacer
+	 *            replacer or <code>null</code>
+	 * @return a new object input stream instance
+	 * @throws IOException
+	 */
+	public static ObjectInputStream newObjectInputStream(InputStream in, IObjectReplacer replacer)
+		throws IOException
+	{
+		IObjectStreamFactory factory = objectStreamFactory;
+		if (!(factory instanceof IReplacingObjectStreamFactory))
+		{
+			factory = new IObjectStreamFactory.DefaultObjectStreamFactory();
+		}
+		return ((IReplacingObjectStreamFactory)factory).newObjectInputStream(in, replacer);
+	}
+
+	/**
+	 * @return the pool of buffers used by {@link #objectToByteArray(Object)}
+	 */
+	public static ByteArrayOutputStreamPool getSerializationBufferPool()
+	{
+		return bufferPool;
+	}
+
 	/**
 	 * Sets the strategy for determining the sizes of objects.
 	 * 
@@ -1133,6 +1253,22 @@ public final class Objects
 		log.info("using " + objectSizeOfStrategy + " for calculating object sizes");
 	}
 
+	/**
+	 * Sets the pool of buffers used by {@link #objectToByteArray(Object)}.
+	 * 
+	 * @param bufferPool
+	 *            the pool. Pass null to reset to the default (16 buffers, up to 1MB each).
+	 */
+	public static void setSerializationBufferPool(ByteArrayOutputStreamPool bufferPool)
+	{
+		Objects.bufferPool = bufferPool != null ? bufferPool : newDefaultBufferPool();
+	}
+
+	private static ByteArrayOutputStreamPool newDefaultBufferPool()
+	{
+		return new ByteArrayOutputStreamPool(16, 4096, 1024 * 1024);
+	}
+
 	/**
 	 * Configure this utility class to use the provided {@link IObjectStreamFactory} instance.
 	 * 
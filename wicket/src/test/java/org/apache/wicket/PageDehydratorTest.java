@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket;
+
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.repeater.RepeatingView;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.model.PropertyModel;
+import org.apache.wicket.util.io.WicketObjectStreamFactory;
+import org.apache.wicket.util.lang.Objects;
+
+/**
+ * Tests for {@link PageDehydrator}
+ */
+public class PageDehydratorTest extends WicketTestCase
+{
+	/**
+	 * Page with rows sharing a model and referencing the page.
+	 */
+	public static class RowsPage extends WebPage
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final IModel<String> shared = new Model<String>("shared");
+
+		private final String text = "text";
+
+		private Component pinned;
+
+		/**
+		 * Construct.
+		 * 
+		 * @param pin
+		 *            whether the page should reference a component in the first row
+		 */
+		public RowsPage(boolean pin)
+		{
+			RepeatingView rows = new RepeatingView("rows");
+			add(rows);
+			for (int i = 0; i < 3; i++)
+			{
+				WebMarkupContainer row = new WebMarkupContainer(String.valueOf(i));
+				rows.add(row);
+				row.add(new Label("shared", shared));
+				row.add(new Label("text", new PropertyModel<String>(this, "text")));
+				row.add(new Label("own", "row " + i));
+			}
+			add(new Label("label", shared));
+			if (pin)
+			{
+				pinned = rows.get("0:own");
+			}
+		}
+	}
+
+	private RowsPage serialize(RowsPage page, int minComponents, int expectedCount)
+	{
+		PageDehydrator dehydrator = new PageDehydrator(minComponents);
+		dehydrator.dehydrate(page);
+		byte[] data;
+		try
+		{
+			assertEquals(expectedCount, dehydrator.getDehydratedCount());
+			data = Objects.objectToByteArray(page);
+		}
+		finally
+		{
+			dehydrator.restore();
+		}
+		return (RowsPage)Objects.byteArrayToObject(data);
+	}
+
+	/**
+	 * Rows must be restored one by one with identities of shared objects preserved.
+	 */
+	public void testDehydrate()
+	{
+		RowsPage page = new RowsPage(false);
+		RowsPage copy = serialize(page, 4, 3);
+
+		// the live page is intact
+		MarkupContainer rows = (MarkupContainer)page.get("rows");
+		for (int i = 0; i < 3; i++)
+		{
+			assertTrue(rows.getChildEntry(i) instanceof Component);
+		}
+
+		MarkupContainer copyRows = (MarkupContainer)copy.get("rows");
+		for (int i = 0; i < 3; i++)
+		{
+			assertFalse(copyRows.getChildEntry(i) instanceof Component);
+		}
+
+		Component label = copy.get("rows:1:shared");
+		assertNotNull(label);
+		assertTrue(copyRows.getChildEntry(1) instanceof Component);
+		assertFalse(copyRows.getChildEntry(0) instanceof Component);
+		assertFalse(copyRows.getChildEntry(2) instanceof Component);
+
+		assertSame(copy.shared, label.getDefaultModel());
+		assertSame(copy.get("label").getDefaultModel(), label.getDefaultModel());
+		assertSame(copyRows, label.getParent().getParent());
+		assertSame(copy, label.getPage());
+		assertEquals("text", copy.get("rows:1:text").getDefaultModelObjectAsString());
+		assertEquals("row 2", copy.get("rows:2:own").getDefaultModelObjectAsString());
+		assertSame(copy.shared, copy.get("rows:2:shared").getDefaultModel());
+	}
+
+	/**
+	 * Rows referenced from outside must stay in the page.
+	 */
+	public void testReferencedSubtree()
+	{
+		RowsPage copy = serialize(new RowsPage(true), 4, 2);
+
+		MarkupContainer copyRows = (MarkupContainer)copy.get("rows");
+		assertTrue(copyRows.getChildEntry(0) instanceof Component);
+		assertFalse(copyRows.getChildEntry(1) instanceof Component);
+		assertSame(copy.pinned, copy.get("rows:0:own"));
+	}
+
+	/**
+	 * The subtrees are written with the configured object streams.
+	 */
+	public void testDehydrateWithWicketStreams()
+	{
+		Objects.setObjectStreamFactory(new WicketObjectStreamFactory());
+		try
+		{
+			RowsPage copy = serialize(new RowsPage(false), 4, 3);
+
+			Component label = copy.get("rows:2:shared");
+			assertSame(copy.shared, label.getDefaultModel());
+			assertSame(copy, label.getPage());
+			assertEquals("text", copy.get("rows:2:text").getDefaultModelObjectAsString());
+		}
+		finally
+		{
+			Objects.setObjectStreamFactory(null);
+		}
+	}
+}
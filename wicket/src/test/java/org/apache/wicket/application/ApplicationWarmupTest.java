@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.application;
+
+import java.util.Collections;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.markup.MarkupCache;
+import org.apache.wicket.markup.html.form.imagebutton.Home;
+import org.apache.wicket.markup.html.form.imagebutton.InvalidImageButtonPage;
+
+/**
+ * Tests for {@link ApplicationWarmup}
+ */
+public class ApplicationWarmupTest extends WicketTestCase
+{
+	/**
+	 * The markup and resources of the scanned package must be in the caches after the warm-up.
+	 */
+	public void testWarmUp()
+	{
+		Application application = tester.getApplication();
+		MarkupCache markupCache = (MarkupCache)application.getMarkupSettings().getMarkupCache();
+		int cached = markupCache.size();
+
+		ApplicationWarmup warmup = new ApplicationWarmup(application, 2);
+		warmup.warmUp(Collections.singletonList(Home.class.getPackage().getName()));
+
+		assertEquals(2, warmup.getMarkupCount());
+		assertEquals(cached + 2, markupCache.size());
+		assertEquals(6, warmup.getResourceCount());
+		assertNotNull(application.getSharedResources().get(Home.class, "Beer.gif", null, null,
+			true));
+		assertNotNull(application.getSharedResources().get(Home.class, "Beer_de_DE.gif", null,
+			null, true));
+
+		// resources are bound once, scoped by the first component class of the package
+		assertNull(application.getSharedResources().get(InvalidImageButtonPage.class, "Beer.gif",
+			null, null, true));
+
+		// markup already in the cache is not loaded again
+		warmup = new ApplicationWarmup(application, 2);
+		warmup.warmUp(Collections.singletonList(Home.class.getPackage().getName()));
+		assertEquals(0, warmup.getMarkupCount());
+		assertEquals(cached + 2, markupCache.size());
+	}
+}
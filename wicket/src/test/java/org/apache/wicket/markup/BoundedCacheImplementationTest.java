@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.markup.BoundedCacheImplementation.IEvictionListener;
+import org.apache.wicket.markup.BoundedCacheImplementation.IWeigher;
+
+/**
+ * Tests for {@link BoundedCacheImplementation}
+ */
+public class BoundedCacheImplementationTest extends WicketTestCase
+{
+	private static final IWeigher<String, String> WEIGHER = new IWeigher<String, String>()
+	{
+		public int weigh(String key, String value)
+		{
+			return value.length();
+		}
+	};
+
+	/**
+	 * The least recently used entries must be evicted when the maximum weight is exceeded.
+	 */
+	public void testEviction()
+	{
+		BoundedCacheImplementation<String, String> cache = new BoundedCacheImplementation<String, String>(
+			10, WEIGHER);
+		cache.put("a", "aaaa");
+		cache.put("b", "bbbb");
+		assertEquals("aaaa", cache.get("a"));
+		cache.put("c", "cccc");
+
+		assertFalse(cache.containsKey("b"));
+		assertTrue(cache.containsKey("a"));
+		assertTrue(cache.containsKey("c"));
+		assertEquals(8, cache.getWeight());
+		assertEquals(1, cache.getEvictionCount());
+
+		// peek doesn't mark the entry as used
+		assertEquals("aaaa", cache.peek("a"));
+		cache.put("d", "dddd");
+		assertFalse(cache.containsKey("a"));
+
+		// an entry heavier than the maximum weight is kept until the next put
+		cache.put("e", "eeeeeeeeeeee");
+		assertEquals(1, cache.size());
+		assertEquals(12, cache.getWeight());
+	}
+
+	/**
+	 * The listener must be notified once for all entries evicted by a put, in the order they have
+	 * been used.
+	 */
+	public void testEvictionListener()
+	{
+		BoundedCacheImplementation<String, String> cache = new BoundedCacheImplementation<String, String>(
+			10, WEIGHER);
+		final List<Map<String, String>> notifications = new ArrayList<Map<String, String>>();
+		cache.setEvictionListener(new IEvictionListener<String, String>()
+		{
+			public void onEvicted(Map<String, String> evicted)
+			{
+				notifications.add(evicted);
+			}
+		});
+
+		for (int i = 0; i < 10; i++)
+		{
+			cache.put("k" + i, "v");
+		}
+		cache.get("k0");
+		cache.put("big", "bbbbbbbb");
+
+		assertEquals(1, notifications.size());
+		Iterator<String> evicted = notifications.get(0).keySet().iterator();
+		for (int i = 1; i < 9; i++)
+		{
+			assertEquals("k" + i, evicted.next());
+		}
+		assertFalse(evicted.hasNext());
+		assertTrue(cache.containsKey("k0"));
+		assertTrue(cache.containsKey("k9"));
+		assertEquals(10, cache.getWeight());
+	}
+
+	/**
+	 * Hits and misses must be counted and keys must be removable through the key snapshot.
+	 */
+	public void testStatistics()
+	{
+		BoundedCacheImplementation<String, String> cache = new BoundedCacheImplementation<String, String>(
+			10, WEIGHER);
+		cache.put("a", "a");
+		cache.put("b", "bb");
+		cache.get("a");
+		cache.get("x");
+		cache.peek("b");
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		Iterator<String> keys = cache.getKeys().iterator();
+		assertEquals("b", keys.next());
+		keys.remove();
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getWeight());
+
+		cache.resetStatistics();
+		assertEquals(0, cache.getHitCount());
+	}
+
+	/**
+	 * Markup inheriting from evicted markup must be removed too.
+	 */
+	public void testInheritedMarkupEvicted()
+	{
+		long maxSize = 100000;
+		tester.getApplication().getMarkupSettings().setMarkupCacheMaxSize(maxSize);
+		MarkupCache markupCache = new MarkupCache(tester.getApplication());
+		tester.getApplication().getMarkupSettings().setMarkupCache(markupCache);
+		BoundedCacheImplementation<CharSequence, Markup> cache = (BoundedCacheImplementation<CharSequence, Markup>)markupCache.getMarkupCache();
+
+		tester.setupRequestAndResponse();
+		markupCache.getMarkup(new MarkupInheritanceExtension_1(), null, false);
+		assertEquals(2, cache.size());
+
+		// evict just the base markup, which has been used least recently (the key weighs 3)
+		Markup markup = new Markup(new MarkupResourceData());
+		markup.addMarkupElement(new RawMarkup(new String(new char[(int)(maxSize -
+			cache.getWeight() - 2)])));
+		cache.put("new", markup);
+
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(1, cache.size());
+		assertTrue(cache.containsKey("new"));
+	}
+}
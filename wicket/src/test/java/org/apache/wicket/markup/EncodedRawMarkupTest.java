@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup;
+
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.markup.parser.XmlTag;
+
+/**
+ * Tests for writing raw markup as pre-encoded bytes.
+ */
+public class EncodedRawMarkupTest extends WicketTestCase
+{
+	/**
+	 * Adjacent raw markup must be merged and the bytes cached per encoding.
+	 * 
+	 * @throws Exception
+	 */
+	public void testEncodedRawMarkup() throws Exception
+	{
+		Markup markup = new Markup(MarkupResourceData.NO_MARKUP_RESOURCE_DATA);
+		markup.addMarkupElement(new RawMarkup("<p>gr\u00fc"));
+		markup.addMarkupElement(new RawMarkup("\u00dfe</p>"));
+		markup.addMarkupElement(new ComponentTag("br", XmlTag.OPEN_CLOSE));
+		markup.addMarkupElement(new RawMarkup("<p>\u00e4</p>"));
+		markup.makeImmutable();
+
+		byte[] bytes = markup.getEncodedRawMarkup(0, "UTF-8");
+		assertEquals("<p>gr\u00fc\u00dfe</p>", new String(bytes, "UTF-8"));
+		assertSame(bytes, markup.getEncodedRawMarkup(0, "UTF-8"));
+		assertEquals("\u00dfe</p>", new String(markup.getEncodedRawMarkup(1, "UTF-8"), "UTF-8"));
+
+		bytes = markup.getEncodedRawMarkup(3, "ISO-8859-1");
+		assertEquals(8, bytes.length);
+		assertEquals("<p>\u00e4</p>", new String(bytes, "ISO-8859-1"));
+	}
+
+	/**
+	 * Raw markup and the other text of a page must be written to the output stream in the response
+	 * encoding.
+	 * 
+	 * @throws Exception
+	 */
+	public void testRenderPage() throws Exception
+	{
+		tester.getApplication().getRequestCycleSettings().setWriteEncodedRawMarkup(true);
+		tester.getApplication().getRequestCycleSettings().setResponseRequestEncoding("ISO-8859-1");
+
+		tester.startPage(EncodedRawMarkupPage.class);
+		tester.assertRenderedPage(EncodedRawMarkupPage.class);
+
+		String document = new String(tester.getServletResponse().getBinaryContent(), "ISO-8859-1");
+		assertTrue(document.startsWith("<html>"));
+		assertTrue(document.indexOf("<p>raw</p><span wicket:id=\"label\">gr\u00fc\u00dfe</span>" +
+			"<p>more raw</p>") != -1);
+	}
+}
@@ -19,6 +19,7 @@ package org.apache.wicket.markup;
 import junit.framework.TestCase;
 import org.apache.wicket.Application;
 import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.markup.html.header.inheritance.ConcretePage2;
 import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.util.resource.IResourceStream;
@@ -29,12 +30,13 @@ import org.apache.wicket.util.tester.WicketTester;
  */
 public class MarkupCacheTest extends TestCase
 {
+	private WebApplication application;
 	private MarkupCache cache;
 	private MarkupCachingAssumingComponent component;
 
 	@Override
 	public void setUp() {
-		WebApplication application = new WicketTester.DummyWebApplication() {
+		application = new WicketTester.DummyWebApplication() {
 			@Override
 			public String getConfigurationType()
 			{
@@ -56,6 +58,25 @@ public class MarkupCacheTest extends TestCase
 		assertEquals(Markup.NO_MARKUP, markup);
 	}
 
+	/**
+	 * Removing base markup must remove the markup derived from it.
+	 */
+	public void testDerivedMarkupIsRemovedWithBaseMarkup()
+	{
+		MarkupCache markupCache = (MarkupCache)application.getMarkupSettings().getMarkupCache();
+		ConcretePage2 page = new ConcretePage2();
+		Markup markup = markupCache.getMarkup(page, null, false);
+		String cacheKey = markup.getMarkupResourceData().getResource().getCacheKey();
+		String baseCacheKey = markup.getMarkupResourceData()
+			.getBaseMarkupResourceData()
+			.getResource()
+			.getCacheKey();
+		assertSame(markup, markupCache.getMarkupFromCache(cacheKey, page));
+
+		assertNotNull(markupCache.removeMarkup(baseCacheKey));
+		assertNull(markupCache.getMarkupFromCache(cacheKey, page));
+	}
+
 	private class MarkupCachingAssumingComponent extends Panel implements IMarkupResourceStreamProvider {
 		private static final long serialVersionUID = -6743937191677599322L;
 		private boolean firstCall = true;
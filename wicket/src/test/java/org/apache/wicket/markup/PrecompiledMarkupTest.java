@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.util.io.Streams;
+import org.apache.wicket.util.resource.UrlResourceStream;
+
+/**
+ * Tests for {@link PrecompiledMarkup}
+ */
+public class PrecompiledMarkupTest extends WicketTestCase
+{
+	private PrecompiledMarkup precompiled;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		precompiled = new PrecompiledMarkup();
+		add(MarkupInheritanceBase_1.class, MarkupInheritanceBase_1.class, null);
+		add(MarkupInheritanceExtension_1.class, MarkupInheritanceBase_1.class, null);
+		add(MarkupInheritanceExtension_1.class, MarkupInheritanceExtension_1.class, null);
+	}
+
+	private void add(Class<?> containerClass, Class<?> markupClass, byte[] content)
+		throws Exception
+	{
+		URL url = getURL(markupClass);
+		if (content == null)
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			InputStream in = url.openStream();
+			Streams.copy(in, out);
+			in.close();
+			content = out.toByteArray();
+		}
+		precompiled.add(containerClass, markupClass.getName().replace('.', '/') + ".html", content,
+			parse(containerClass, markupClass));
+	}
+
+	private URL getURL(Class<?> markupClass)
+	{
+		return markupClass.getResource(markupClass.getName().substring(
+			markupClass.getName().lastIndexOf('.') + 1) +
+			".html");
+	}
+
+	private MarkupResourceStream newResourceStream(Class<?> containerClass, Class<?> markupClass)
+	{
+		return new MarkupResourceStream(new UrlResourceStream(getURL(markupClass)),
+			new ContainerInfo(containerClass, null, null, null, "html"), markupClass);
+	}
+
+	private Markup parse(Class<?> containerClass, Class<?> markupClass) throws Exception
+	{
+		return Application.get()
+			.getMarkupSettings()
+			.getMarkupParserFactory()
+			.newMarkupParser(newResourceStream(containerClass, markupClass))
+			.parse();
+	}
+
+	/**
+	 * Precompiled markup must be equal to parsed markup and survive writing and reading.
+	 * 
+	 * @throws Exception
+	 */
+	public void testRoundTrip() throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		precompiled.write(out);
+		precompiled = new PrecompiledMarkup();
+		precompiled.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(3, precompiled.size());
+
+		Markup markup = precompiled.getMarkup(newResourceStream(
+			MarkupInheritanceExtension_1.class, MarkupInheritanceBase_1.class));
+		assertNotNull(markup);
+		Markup parsed = parse(MarkupInheritanceExtension_1.class, MarkupInheritanceBase_1.class);
+		assertTrue(markup.equalTo(parsed));
+		assertEquals(parsed.toString(), markup.toString());
+
+		// markup is precompiled per container
+		assertNull(precompiled.getMarkup(newResourceStream(MarkupInheritanceExtension_2.class,
+			MarkupInheritanceBase_1.class)));
+		assertNull(precompiled.getMarkup(newResourceStream(MarkupInheritanceExtension_2.class,
+			MarkupInheritanceExtension_2.class)));
+	}
+
+	/**
+	 * Pages must render the same with precompiled markup.
+	 * 
+	 * @throws Exception
+	 */
+	public void testRender() throws Exception
+	{
+		tester.getApplication().getMarkupSettings().setPrecompiledMarkup(precompiled);
+		executeTest(MarkupInheritanceExtension_1.class, "MarkupInheritanceExpectedResult_1.html");
+	}
+
+	/**
+	 * Changed markup or settings must cause the markup to be parsed.
+	 * 
+	 * @throws Exception
+	 */
+	public void testOutdated() throws Exception
+	{
+		Class<?> c = MarkupInheritanceBase_1.class;
+		precompiled = new PrecompiledMarkup();
+		add(c, c, "<html></html>".getBytes());
+		assertNull(precompiled.getMarkup(newResourceStream(c, c)));
+
+		precompiled = new PrecompiledMarkup();
+		add(c, c, null);
+		assertNotNull(precompiled.getMarkup(newResourceStream(c, c)));
+		tester.getApplication().getMarkupSettings().setStripWicketTags(
+			!tester.getApplication().getMarkupSettings().getStripWicketTags());
+		assertNull(precompiled.getMarkup(newResourceStream(c, c)));
+	}
+}
@@ -362,4 +362,157 @@ public class XmlPullParserTest extends TestCase
 		assertTrue(tag.isOpen());
 		assertEquals("filter_mapping", tag.getName());
 	}
+
+	/**
+	 * An attribute value with an unterminated quote ends at the closing bracket of the tag.
+	 * 
+	 * @throws Exception
+	 */
+	public final void testUnterminatedQuotes() throws Exception
+	{
+		final XmlPullParser parser = new XmlPullParser();
+		parser.parse("<tag attr='12 34><p>");
+		XmlTag tag = (XmlTag)parser.nextTag();
+		assertTrue(tag.isOpen());
+		assertEquals("tag", tag.getName());
+		assertEquals(1, tag.getAttributes().size());
+		assertEquals("", tag.getAttributes().getString("attr"));
+		tag = (XmlTag)parser.nextTag();
+		assertEquals("p", tag.getName());
+		assertNull(parser.nextTag());
+
+		parser.parse("<tag a='1' b=\"2>");
+		tag = (XmlTag)parser.nextTag();
+		assertEquals(2, tag.getAttributes().size());
+		assertEquals("1", tag.getAttributes().getString("a"));
+		assertEquals("", tag.getAttributes().getString("b"));
+	}
+
+	/**
+	 * Characters that can't start an attribute are skipped, words without value are attributes
+	 * with an empty value.
+	 * 
+	 * @throws Exception
+	 */
+	public final void testJunkBetweenAttributes() throws Exception
+	{
+		final XmlPullParser parser = new XmlPullParser();
+		parser.parse("<tag a='1' ,;# b='2'>");
+		XmlTag tag = (XmlTag)parser.nextTag();
+		assertEquals(2, tag.getAttributes().size());
+		assertEquals("1", tag.getAttributes().getString("a"));
+		assertEquals("2", tag.getAttributes().getString("b"));
+
+		parser.parse("<tag $$ a=1 %% b=2 />");
+		tag = (XmlTag)parser.nextTag();
+		assertTrue(tag.isOpenClose());
+		assertEquals(2, tag.getAttributes().size());
+		assertEquals("1", tag.getAttributes().getString("a"));
+		assertEquals("2", tag.getAttributes().getString("b"));
+
+		parser.parse("<tag a='1'junk b='2'>");
+		tag = (XmlTag)parser.nextTag();
+		assertEquals(3, tag.getAttributes().size());
+		assertEquals("1", tag.getAttributes().getString("a"));
+		assertEquals("", tag.getAttributes().getString("junk"));
+		assertEquals("2", tag.getAttributes().getString("b"));
+	}
+
+	/**
+	 * Tags in conditional comments must be parsed, a conditional comment without
+	 * <code>&lt;![endif]--&gt;</code> is an ordinary comment.
+	 * 
+	 * @throws Exception
+	 */
+	public final void testConditionalCommentsContent() throws Exception
+	{
+		final XmlPullParser parser = new XmlPullParser();
+		parser.parse("<!--[if lt IE 7]><script>a<b</script><![endif]-->");
+		XmlTag tag = (XmlTag)parser.nextTag();
+		assertTrue(tag.isOpen());
+		assertEquals("script", tag.getName());
+		tag = (XmlTag)parser.nextTag();
+		assertTrue(tag.isClose());
+		assertEquals("script", tag.getName());
+		assertNull(parser.nextTag());
+
+		parser.parse("<!--[if IE]>no end--><p>");
+		tag = (XmlTag)parser.nextTag();
+		assertEquals("p", tag.getName());
+		assertNull(parser.nextTag());
+
+		parser.parse("<!--[if IE]>");
+		try
+		{
+			parser.nextTag();
+			fail("ParseException expected");
+		}
+		catch (ParseException e)
+		{
+			// expected
+		}
+	}
+
+	/**
+	 * CDATA sections end at <code>]]&gt;</code> only.
+	 * 
+	 * @throws Exception
+	 */
+	public final void testCDATA() throws Exception
+	{
+		final XmlPullParser parser = new XmlPullParser();
+		parser.parse("<![CDATA[ a > b && c <d> ]]><tag>");
+		XmlTag tag = (XmlTag)parser.nextTag();
+		assertTrue(tag.isOpen());
+		assertEquals("tag", tag.getName());
+		assertNull(parser.nextTag());
+
+		parser.parse("<![CDATA[>]]><tag/>");
+		tag = (XmlTag)parser.nextTag();
+		assertTrue(tag.isOpenClose());
+		assertEquals("tag", tag.getName());
+
+		parser.parse("<![cdata[ x > y ]]><tag>");
+		tag = (XmlTag)parser.nextTag();
+		assertEquals("tag", tag.getName());
+		assertNull(parser.nextTag());
+	}
+
+	/**
+	 * The body of script and style tags must be skipped regardless of the case of the tag names.
+	 * 
+	 * @throws Exception
+	 */
+	public final void testUppercaseScriptAndStyle() throws Exception
+	{
+		final XmlPullParser parser = new XmlPullParser();
+		parser.parse("<SCRIPT type='x'>if (a<b) <x></SCRIPT><p>");
+		XmlTag tag = (XmlTag)parser.nextTag();
+		assertTrue(tag.isOpen());
+		assertEquals("SCRIPT", tag.getName());
+		tag = (XmlTag)parser.nextTag();
+		assertTrue(tag.isClose());
+		assertEquals("SCRIPT", tag.getName());
+		tag = (XmlTag)parser.nextTag();
+		assertEquals("p", tag.getName());
+
+		parser.parse("<Script>a<b</sCrIpT><p>");
+		tag = (XmlTag)parser.nextTag();
+		assertEquals("Script", tag.getName());
+		tag = (XmlTag)parser.nextTag();
+		assertTrue(tag.isClose());
+		assertEquals("sCrIpT", tag.getName());
+		tag = (XmlTag)parser.nextTag();
+		assertEquals("p", tag.getName());
+
+		parser.parse("<STYLE type='text/css'>a<b</STYLE><p>");
+		tag = (XmlTag)parser.nextTag();
+		assertEquals("STYLE", tag.getName());
+		tag = (XmlTag)parser.nextTag();
+		assertTrue(tag.isClose());
+		assertEquals("STYLE", tag.getName());
+		tag = (XmlTag)parser.nextTag();
+		assertEquals("p", tag.getName());
+		assertNull(parser.nextTag());
+	}
 }
@@ -16,8 +16,14 @@
  */
 package org.apache.wicket.protocol.http.pagestore;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import junit.framework.TestCase;
 
+import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
+import org.apache.wicket.protocol.http.pagestore.DiskPageStore.SessionEntry;
+import org.apache.wicket.util.io.PageB;
 import org.apache.wicket.util.tester.WicketTester;
 
 /**
@@ -31,7 +37,7 @@ public class DiskPageStoreTest extends TestCase
 	 * main thread being terminated before the PageSavingThread.
 	 * 
 	 * This test doesn't do anything but making sure that destroying the {@link DiskPageStore} also
-	 * stops the PageSavingThread.
+	 * stops all the PageSavingThreads.
 	 */
 	public void testStoppingPageSavingThread()
 	{
@@ -47,16 +53,18 @@ public class DiskPageStoreTest extends TestCase
 			}
 		};
 
-		// Assume that the PageSavingThread is in the same ThreadGroup as the current thread.
+		// Assume that the PageSavingThreads are in the same ThreadGroup as the current thread.
 		int activeThreadsBefore = Thread.activeCount();
+		int savingThreads = store.getSavingThreadCount();
 
 		store.destroy();
 
 		int activeThreadsAfter = Thread.activeCount();
 
 		// it can be that we are a bit to fast in this test.
-		// if it is not down by 1 yet sleep for 2 seconds to give it time to kill itself.
-		if (activeThreadsAfter != (activeThreadsBefore - 1))
+		// if it is not down by the number of saving threads yet sleep for 2 seconds to give them
+		// time to kill themselves.
+		if (activeThreadsAfter != (activeThreadsBefore - savingThreads))
 		{
 			try
 			{
@@ -69,6 +77,359 @@ public class DiskPageStoreTest extends TestCase
 			activeThreadsAfter = Thread.activeCount();
 		}
 
-		assertEquals(activeThreadsBefore - 1, activeThreadsAfter);
+		assertEquals(activeThreadsBefore - savingThreads, activeThreadsAfter);
+	}
+
+	/**
+	 * When the save queue is full, the pages must be saved by the calling thread and the pending
+	 * statistics must not leak.
+	 */
+	public void testSaveQueueFull()
+	{
+		WicketTester tester = new WicketTester();
+		tester.setupRequestAndResponse();
+
+		DiskPageStore store = new DiskPageStore()
+		{
+			@Override
+			protected long getMaxPendingBytes()
+			{
+				return 1;
+			}
+		};
+
+		try
+		{
+			PageB[] pages = new PageB[5];
+			for (int i = 0; i < pages.length; i++)
+			{
+				pages[i] = new PageB("test" + i);
+				store.storePage("session", pages[i]);
+			}
+
+			for (int i = 0; i < pages.length; i++)
+			{
+				assertTrue(store.containsPage("session", pages[i].getPageMapName(),
+					pages[i].getNumericId(), pages[i].getCurrentVersionNumber()));
+			}
+
+			// the pages that were not saved synchronously may still be queued
+			waitForPendingPages(store);
+
+			assertEquals(0, store.getPendingPagesCount());
+			assertEquals(0, store.getPendingBytes());
+		}
+		finally
+		{
+			store.destroy();
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * Waits (at most 10 seconds) until the worker threads have saved all pending pages.
+	 * 
+	 * @param store
+	 */
+	private static void waitForPendingPages(DiskPageStore store)
+	{
+		long deadline = System.currentTimeMillis() + 10000;
+		while (store.getPendingPagesCount() > 0 && System.currentTimeMillis() < deadline)
+		{
+			try
+			{
+				Thread.sleep(10);
+			}
+			catch (InterruptedException e)
+			{
+				fail("Interrupted while waiting for the pending pages");
+			}
+		}
+	}
+
+	/**
+	 * In delta storage mode all versions must be loadable, including those stored as deltas and
+	 * the ones stored after rebase.
+	 */
+	public void testDeltaStorage()
+	{
+		WicketTester tester = new WicketTester();
+		tester.setupRequestAndResponse();
+
+		DiskPageStore store = new DiskPageStore()
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+
+			@Override
+			protected boolean isDeltaStorage()
+			{
+				return true;
+			}
+
+			@Override
+			protected int getDeltaRebaseInterval()
+			{
+				return 3;
+			}
+		};
+
+		// the index of previous test run might be loaded
+		store.unbind("deltaSession");
+		try
+		{
+			Random random = new Random(1);
+			byte[] data = new byte[5000];
+			random.nextBytes(data);
+
+			SessionEntry entry = store.getSessionEntry("deltaSession", true);
+			byte[][] versions = new byte[10][];
+			for (int i = 0; i < versions.length; i++)
+			{
+				// change a few bytes in each version
+				data = (byte[])data.clone();
+				data[random.nextInt(data.length)] = (byte)i;
+				versions[i] = data;
+				entry.savePage(new SerializedPage(1, null, i, 0, data));
+			}
+
+			for (int i = 0; i < versions.length; i++)
+			{
+				assertTrue(Arrays.equals(versions[i], entry.loadPage(null, 1, i, 0)));
+			}
+			assertTrue(Arrays.equals(versions[versions.length - 1], entry.loadPage(null, 1, -1,
+				-1)));
+
+			// full records after each 3 deltas
+			assertTrue(entry.getTotalSize() < data.length * 4);
+
+			// storing the same version again must not break the delta chain
+			data = (byte[])data.clone();
+			data[0]++;
+			entry.savePage(new SerializedPage(1, null, versions.length - 1, 0, data));
+			assertTrue(Arrays.equals(data, entry.loadPage(null, 1, versions.length - 1, 0)));
+		}
+		finally
+		{
+			store.unbind("deltaSession");
+			store.destroy();
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * When the data of delta bases doesn't fit in memory, the bases must be loaded from the file.
+	 */
+	public void testDeltaStorageWithEvictedBases()
+	{
+		WicketTester tester = new WicketTester();
+		tester.setupRequestAndResponse();
+
+		DiskPageStore store = new DiskPageStore()
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+
+			@Override
+			protected boolean isDeltaStorage()
+			{
+				return true;
+			}
+
+			@Override
+			protected long getMaxDeltaBaseCacheBytes()
+			{
+				return 1;
+			}
+		};
+
+		store.unbind("deltaSession");
+		try
+		{
+			Random random = new Random(2);
+			byte[] data = new byte[5000];
+			random.nextBytes(data);
+
+			SessionEntry entry = store.getSessionEntry("deltaSession", true);
+			byte[][] versions = new byte[5][];
+			for (int i = 0; i < versions.length; i++)
+			{
+				data = (byte[])data.clone();
+				data[random.nextInt(data.length)] = (byte)i;
+				versions[i] = data;
+				entry.savePage(new SerializedPage(1, null, i, 0, data));
+			}
+
+			for (int i = 0; i < versions.length; i++)
+			{
+				assertTrue(Arrays.equals(versions[i], entry.loadPage(null, 1, i, 0)));
+			}
+
+			// only the first version is stored as full record
+			assertTrue(entry.getTotalSize() < data.length * 2);
+		}
+		finally
+		{
+			store.unbind("deltaSession");
+			store.destroy();
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * Deferred pages must be stored at the end of request or when accessed before that.
+	 */
+	public void testDeferredSerialization()
+	{
+		WicketTester tester = new WicketTester();
+		tester.setupRequestAndResponse();
+
+		DiskPageStore store = new DiskPageStore()
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+
+			@Override
+			protected boolean isDeferredSerialization()
+			{
+				return true;
+			}
+		};
+
+		// the index of previous test run might be loaded
+		store.unbind("deferredSession");
+		try
+		{
+			PageB page1 = new PageB("1");
+			store.storePage("deferredSession", page1);
+			assertTrue(store.hasDeferredPages());
+			assertNull(store.getSessionEntry("deferredSession", false));
+
+			store.storeDeferredPages();
+			assertFalse(store.hasDeferredPages());
+			assertEquals(page1, store.getPage("deferredSession", page1.getPageMapName(),
+				page1.getNumericId(), -1, -1));
+
+			// page accessed by other request before the end of request
+			PageB page2 = new PageB("2");
+			store.storePage("deferredSession", page2);
+			assertEquals(page2, store.getPage("deferredSession", page2.getPageMapName(),
+				page2.getNumericId(), -1, -1));
+			store.storeDeferredPages();
+			assertFalse(store.hasDeferredPages());
+		}
+		finally
+		{
+			store.unbind("deferredSession");
+			store.destroy();
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * Pages over the deferred pages limit must be stored immediately, deferred pages of unbound
+	 * session must not be stored.
+	 */
+	public void testDeferredPagesLimitAndUnbind()
+	{
+		WicketTester tester = new WicketTester();
+		tester.setupRequestAndResponse();
+
+		DiskPageStore store = new DiskPageStore()
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+
+			@Override
+			protected boolean isDeferredSerialization()
+			{
+				return true;
+			}
+
+			@Override
+			protected int getMaxDeferredPagesPerSession()
+			{
+				return 1;
+			}
+		};
+
+		store.unbind("deferredSession");
+		try
+		{
+			PageB page1 = new PageB("1");
+			PageB page2 = new PageB("2");
+			store.storePage("deferredSession", page1);
+			store.storePage("deferredSession", page2);
+
+			// the second page didn't fit
+			assertNotNull(store.getSessionEntry("deferredSession", false));
+			assertTrue(store.hasDeferredPages());
+
+			store.unbind("deferredSession");
+			store.storeDeferredPages();
+			assertFalse(store.hasDeferredPages());
+			assertNull(store.getSessionEntry("deferredSession", false));
+		}
+		finally
+		{
+			store.unbind("deferredSession");
+			store.destroy();
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * Pages must not be deferred while they are dehydrated, the dehydration changes the live
+	 * page.
+	 */
+	public void testNoDeferredSerializationOfDehydratedPages()
+	{
+		WicketTester tester = new WicketTester();
+		tester.setupRequestAndResponse();
+
+		DiskPageStore store = new DiskPageStore()
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+
+			@Override
+			protected boolean isDeferredSerialization()
+			{
+				return true;
+			}
+		};
+		store.setDehydratedSubtreeSize(2);
+
+		store.unbind("deferredSession");
+		try
+		{
+			PageB page = new PageB("1");
+			store.storePage("deferredSession", page);
+			assertFalse(store.hasDeferredPages());
+			assertNotNull(store.getSessionEntry("deferredSession", false));
+			assertEquals(page, store.getPage("deferredSession", page.getPageMapName(),
+				page.getNumericId(), -1, -1));
+		}
+		finally
+		{
+			store.unbind("deferredSession");
+			store.destroy();
+			tester.destroy();
+		}
 	}
 }
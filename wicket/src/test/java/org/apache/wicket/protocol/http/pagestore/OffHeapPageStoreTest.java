@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.util.io.PageB;
+import org.apache.wicket.util.lang.Bytes;
+
+/**
+ * Tests for {@link OffHeapPageStore}
+ */
+public class OffHeapPageStoreTest extends WicketTestCase
+{
+	private OffHeapPageStore store;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		tester.setupRequestAndResponse();
+
+		// serialized PageB fits into one 1KB block
+		store = new OffHeapPageStore(Bytes.kilobytes(8), Bytes.kilobytes(4), Bytes.kilobytes(1));
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		store.destroy();
+		super.tearDown();
+	}
+
+	private boolean contains(String sessionId, Page page)
+	{
+		return store.containsPage(sessionId, page.getPageMapName(), page.getNumericId(),
+			page.getCurrentVersionNumber());
+	}
+
+	/**
+	 * Stored page must be loadable by exact version as well as by the -1 wildcards.
+	 */
+	public void testStoreAndLoad()
+	{
+		PageB page = new PageB("test");
+		store.storePage("session1", page);
+
+		assertEquals(page, store.getPage("session1", page.getPageMapName(), page.getNumericId(),
+			page.getCurrentVersionNumber(), page.getAjaxVersionNumber()));
+		assertEquals(page, store.getPage("session1", page.getPageMapName(), page.getNumericId(),
+			-1, -1));
+		assertNull(store.getPage("session2", page.getPageMapName(), page.getNumericId(), -1, -1));
+		assertEquals(1, store.getPageCount());
+
+		// storing the same version again replaces the page
+		store.storePage("session1", page);
+		assertEquals(1, store.getPageCount());
+	}
+
+	/**
+	 * Removed pages and unbound sessions must release their memory.
+	 */
+	public void testRemoveAndUnbind()
+	{
+		PageB page = new PageB("test");
+		store.storePage("session1", page);
+		store.storePage("session2", page);
+
+		store.removePage("session1", page.getPageMapName(), page.getNumericId());
+		assertFalse(contains("session1", page));
+		assertTrue(contains("session2", page));
+
+		store.unbind("session2");
+		assertFalse(contains("session2", page));
+		assertEquals(0, store.getSizeInBytes());
+	}
+
+	/**
+	 * Session exceeding its quota must lose its least recently used pages.
+	 */
+	public void testSessionQuota()
+	{
+		PageB[] pages = new PageB[5];
+		for (int i = 0; i < pages.length; i++)
+		{
+			pages[i] = new PageB("test" + i);
+			store.storePage("session1", pages[i]);
+		}
+
+		assertFalse(contains("session1", pages[0]));
+		for (int i = 1; i < pages.length; i++)
+		{
+			assertTrue(contains("session1", pages[i]));
+		}
+		assertEquals(1, store.getEvictedCount());
+	}
+
+	/**
+	 * When the global limit is reached, the least recently used pages of all sessions must be
+	 * evicted.
+	 */
+	public void testGlobalLimit()
+	{
+		PageB[] pages = new PageB[9];
+		for (int i = 0; i < pages.length; i++)
+		{
+			pages[i] = new PageB("test" + i);
+			store.storePage("session" + (i % 3), pages[i]);
+
+			if (i == 0)
+			{
+				// keep the first page recently used
+				continue;
+			}
+			store.getPage("session0", pages[0].getPageMapName(), pages[0].getNumericId(), -1, -1);
+		}
+
+		assertTrue(contains("session0", pages[0]));
+		assertFalse(contains("session1", pages[1]));
+		assertTrue(contains("session2", pages[8]));
+		assertEquals(8, store.getPageCount());
+		assertEquals(Bytes.kilobytes(8).bytes(), store.getSizeInBytes());
+	}
+}
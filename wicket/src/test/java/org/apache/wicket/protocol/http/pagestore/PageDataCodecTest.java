@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.util.io.PageB;
+import org.apache.wicket.util.lang.Bytes;
+
+/**
+ * Tests for {@link IPageDataCodec} implementations and compressed page storing.
+ */
+public class PageDataCodecTest extends WicketTestCase
+{
+	private byte[] repetitiveData(int length)
+	{
+		byte[] result = new byte[length];
+		byte[] pattern = "org.apache.wicket.markup.html.basic.Label:label".getBytes();
+		Random random = new Random(1);
+		for (int i = 0; i < length; ++i)
+		{
+			result[i] = random.nextInt(10) == 0 ? (byte)random.nextInt() : pattern[i %
+				pattern.length];
+		}
+		return result;
+	}
+
+	private byte[] randomData(int length)
+	{
+		byte[] result = new byte[length];
+		new Random(2).nextBytes(result);
+		return result;
+	}
+
+	private void assertRoundTrip(IPageDataCodec codec, byte[] data, boolean compressible)
+	{
+		byte[] compressed = codec.compress(data);
+		if (!compressible)
+		{
+			assertNull(compressed);
+			return;
+		}
+		assertNotNull(compressed);
+		assertTrue(compressed.length < data.length);
+
+		byte[] decompressed = new byte[data.length];
+		codec.decompress(compressed, 0, compressed.length, decompressed);
+		assertTrue(Arrays.equals(data, decompressed));
+	}
+
+	private void assertCodec(IPageDataCodec codec)
+	{
+		assertRoundTrip(codec, repetitiveData(100000), true);
+		assertRoundTrip(codec, repetitiveData(100), true);
+		assertRoundTrip(codec, new byte[10000], true);
+		assertRoundTrip(codec, randomData(10000), false);
+	}
+
+	/**
+	 * Tests {@link LzfPageDataCodec}
+	 */
+	public void testLzf()
+	{
+		assertCodec(new LzfPageDataCodec());
+	}
+
+	/**
+	 * Tests {@link DeflatePageDataCodec}
+	 */
+	public void testDeflate()
+	{
+		assertCodec(new DeflatePageDataCodec());
+		assertCodec(new DeflatePageDataCodec(9));
+	}
+
+	/**
+	 * Pages must survive storing with compression, both above and below the threshold.
+	 */
+	public void testCompressedStore()
+	{
+		tester.setupRequestAndResponse();
+
+		SegmentedFilePageStore store = new SegmentedFilePageStore(64 * 1024, 3);
+		try
+		{
+			store.setPageDataCodec(new LzfPageDataCodec());
+			store.setCompressionThreshold(Bytes.bytes(0));
+
+			PageB page = new PageB("compressed");
+			store.storePage("session1", page);
+			Page loaded = store.getPage("session1", page.getPageMapName(), page.getNumericId(),
+				-1, -1);
+			assertEquals(page, loaded);
+
+			store.setCompressionThreshold(Bytes.megabytes(1));
+			page = new PageB("raw");
+			store.storePage("session1", page);
+			loaded = store.getPage("session1", page.getPageMapName(), page.getNumericId(), -1, -1);
+			assertEquals(page, loaded);
+		}
+		finally
+		{
+			store.destroy();
+		}
+	}
+}
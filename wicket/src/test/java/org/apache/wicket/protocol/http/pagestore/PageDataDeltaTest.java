@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link PageDataDelta}
+ */
+public class PageDataDeltaTest extends TestCase
+{
+	private void assertDelta(byte[] base, byte[] target)
+	{
+		byte[] delta = PageDataDelta.create(base, target);
+		assertTrue(Arrays.equals(target, PageDataDelta.apply(base, delta, 0)));
+	}
+
+	/**
+	 * Small change in large data must result in small delta.
+	 */
+	public void testSmallChange()
+	{
+		byte[] base = new byte[10000];
+		new Random(1).nextBytes(base);
+		byte[] target = (byte[])base.clone();
+		target[5000] = (byte)(target[5000] + 1);
+
+		byte[] delta = PageDataDelta.create(base, target);
+		assertTrue(delta.length < 50);
+		assertTrue(Arrays.equals(target, PageDataDelta.apply(base, delta, 0)));
+	}
+
+	/**
+	 * Inserted, removed and moved regions.
+	 */
+	public void testRoundTrip()
+	{
+		Random random = new Random(2);
+		for (int i = 0; i < 200; i++)
+		{
+			byte[] base = new byte[random.nextInt(3000)];
+			random.nextBytes(base);
+
+			// build the target from pieces of base and random bytes
+			byte[] target = new byte[random.nextInt(3000)];
+			int pos = 0;
+			while (pos < target.length)
+			{
+				int length = Math.min(random.nextInt(200) + 1, target.length - pos);
+				if (random.nextBoolean() && base.length > length)
+				{
+					System.arraycopy(base, random.nextInt(base.length - length), target, pos,
+						length);
+				}
+				else
+				{
+					for (int j = 0; j < length; j++)
+					{
+						target[pos + j] = (byte)random.nextInt();
+					}
+				}
+				pos += length;
+			}
+			assertDelta(base, target);
+		}
+		assertDelta(new byte[0], new byte[0]);
+		assertDelta(new byte[0], new byte[100]);
+		assertDelta(new byte[100], new byte[0]);
+	}
+}
@@ -16,6 +16,11 @@
  */
 package org.apache.wicket.protocol.http.pagestore;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import org.apache.wicket.protocol.http.pagestore.PageWindowManager.PageWindow;
 
 import junit.framework.TestCase;
@@ -176,6 +181,61 @@ public class PageWindowManagerTest extends TestCase
 		assertWindow(window, 1, 1, 5);
 	}
 
+	/**
+	 * Removing all versions of a page must not affect other pages.
+	 */
+	public void testRemoveAllVersions()
+	{
+		PageWindowManager manager = new PageWindowManager(1000);
+
+		for (int i = 0; i < 100; i++)
+		{
+			manager.createPageWindow(1, i / 10, i % 10, 5);
+			manager.createPageWindow(2, i / 10, i % 10, 5);
+		}
+
+		assertWindow(manager.getPageWindow(1, 9, -1), 1, 9, 9);
+		assertWindow(manager.getPageWindow(2, 5, 3), 2, 5, 3);
+
+		manager.removePage(1);
+
+		assertNull(manager.getPageWindow(1, -1, -1));
+		assertNull(manager.getPageWindow(1, 5, 3));
+		assertWindow(manager.getPageWindow(2, -1, -1), 2, 9, 9);
+		assertWindow(manager.getPageWindow(2, 5, 3), 2, 5, 3);
+	}
+
+	/**
+	 * Deserialized manager must find the same windows and continue on the same position.
+	 * 
+	 * @throws Exception
+	 */
+	public void testSerialization() throws Exception
+	{
+		PageWindowManager manager = new PageWindowManager(100);
+		manager.createPageWindow(1, 1, 1, 30);
+		manager.createPageWindow(1, 1, 2, 30);
+		manager.createPageWindow(2, 1, 1, 30);
+		manager.createPageWindow(1, 1, 3, 30);
+		manager.removePage(1, 1, 2);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(manager);
+		out.close();
+		manager = (PageWindowManager)new ObjectInputStream(new ByteArrayInputStream(
+			bytes.toByteArray())).readObject();
+
+		assertEquals(120, manager.getTotalSize());
+		assertWindow(manager.getPageWindow(1, -1, -1), 1, 1, 3, 90, 30);
+		assertWindow(manager.getPageWindow(2, 1, 1), 2, 1, 1, 60, 30);
+		assertNull(manager.getPageWindow(1, 1, 2));
+
+		// the file is full, next window starts at the beginning
+		assertWindow(manager.createPageWindow(3, 1, 1, 20), 3, 1, 1, 0, 20);
+		assertNull(manager.getPageWindow(1, 1, 1));
+	}
+
 	private void assertWindow(PageWindow window, int pageId, int versionNumber,
 			int ajaxVersionNumber, int filePartOffset, int filePartSize)
 	{
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.util.io.PageB;
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Tests for {@link SegmentedFilePageStore}
+ */
+public class SegmentedFilePageStoreTest extends WicketTestCase
+{
+	private SegmentedFilePageStore store;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		tester.setupRequestAndResponse();
+		store = new SegmentedFilePageStore(getTempFolder(), 64 * 1024, 3)
+		{
+			@Override
+			protected Duration getCompactionInterval()
+			{
+				// compaction is triggered explicitly by the tests
+				return Duration.hours(1);
+			}
+		};
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		store.destroy();
+		super.tearDown();
+	}
+
+	private File getTempFolder() throws IOException
+	{
+		return File.createTempFile("file-prefix", null).getParentFile();
+	}
+
+	/**
+	 * Stored page must be loadable by exact version as well as by the -1 wildcards.
+	 */
+	public void testStoreAndLoad()
+	{
+		PageB page = new PageB("test");
+		store.storePage("session1", page);
+
+		Page loaded = store.getPage("session1", page.getPageMapName(), page.getNumericId(),
+			page.getCurrentVersionNumber(), page.getAjaxVersionNumber());
+		assertEquals(page, loaded);
+
+		loaded = store.getPage("session1", page.getPageMapName(), page.getNumericId(), -1, -1);
+		assertEquals(page, loaded);
+
+		assertTrue(store.containsPage("session1", page.getPageMapName(), page.getNumericId(),
+			page.getCurrentVersionNumber()));
+		assertFalse(store.containsPage("session2", page.getPageMapName(), page.getNumericId(),
+			page.getCurrentVersionNumber()));
+	}
+
+	/**
+	 * Removed pages and unbound sessions must not be found anymore.
+	 */
+	public void testRemoveAndUnbind()
+	{
+		PageB page = new PageB("test");
+		store.storePage("session1", page);
+		store.storePage("session2", page);
+
+		store.removePage("session1", page.getPageMapName(), page.getNumericId());
+		assertNull(store.getPage("session1", page.getPageMapName(), page.getNumericId(), -1, -1));
+		assertNotNull(store.getPage("session2", page.getPageMapName(), page.getNumericId(), -1, -1));
+
+		store.unbind("session2");
+		assertNull(store.getPage("session2", page.getPageMapName(), page.getNumericId(), -1, -1));
+	}
+
+	/**
+	 * The number of segment files must stay bounded.
+	 */
+	public void testSegmentCountIsBounded()
+	{
+		for (int i = 0; i < 500; i++)
+		{
+			store.storePage("session" + i, new PageB("test" + i));
+		}
+		assertTrue(store.getSegmentCount() <= 3);
+		assertTrue(store.getEvictedSegmentCount() > 0);
+	}
+
+	/**
+	 * A session exceeding its limit must lose its own oldest pages, not the pages of others.
+	 *
+	 * @throws IOException
+	 */
+	public void testSessionLimit() throws IOException
+	{
+		store.destroy();
+		store = new SegmentedFilePageStore(getTempFolder(), 64 * 1024, 3, 2048)
+		{
+			@Override
+			protected Duration getCompactionInterval()
+			{
+				return Duration.hours(1);
+			}
+		};
+
+		PageB other = new PageB("other");
+		store.storePage("session2", other);
+
+		PageB first = new PageB("first");
+		store.storePage("session1", first);
+		PageB last = null;
+		for (int i = 0; i < 20; i++)
+		{
+			last = new PageB("test" + i);
+			store.storePage("session1", last);
+		}
+
+		assertNull(store.getPage("session1", first.getPageMapName(), first.getNumericId(), -1,
+			-1));
+		assertEquals(last, store.getPage("session1", last.getPageMapName(),
+			last.getNumericId(), -1, -1));
+		assertEquals(other, store.getPage("session2", other.getPageMapName(),
+			other.getNumericId(), -1, -1));
+		assertEquals(0, store.getEvictedSegmentCount());
+	}
+
+	/**
+	 * Compaction must keep the live pages loadable.
+	 */
+	public void testCompaction()
+	{
+		PageB page = new PageB("test");
+		store.storePage("session1", page);
+
+		// overwrite the same page version until the first segment is filled with garbage
+		PageB other = new PageB("other");
+		for (int i = 0; i < 120; i++)
+		{
+			store.storePage("session2", other);
+		}
+		assertEquals(2, store.getSegmentCount());
+		store.compact();
+
+		assertEquals(1, store.getSegmentCount());
+		assertEquals(page, store.getPage("session1", page.getPageMapName(), page.getNumericId(),
+			-1, -1));
+	}
+
+	/**
+	 * Dropped segments must be unmapped and deleted right away.
+	 *
+	 * @throws IOException
+	 */
+	public void testDestroyDeletesSegmentFiles() throws IOException
+	{
+		for (int i = 0; i < 50; i++)
+		{
+			store.storePage("session" + i, new PageB("test" + i));
+		}
+		File folder = new File(getTempFolder(), tester.getApplication().getApplicationKey() +
+			"-segmentstore");
+		assertEquals(store.getSegmentCount(), folder.list().length);
+
+		store.destroy();
+		assertEquals(0, folder.list().length);
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
+import org.apache.wicket.protocol.http.pagestore.SerializedPagesCache.SerializedPageWithSession;
+import org.apache.wicket.util.io.PageB;
+
+/**
+ * Tests for {@link SerializedPagesCache}
+ */
+public class SerializedPagesCacheTest extends WicketTestCase
+{
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		tester.setupRequestAndResponse();
+	}
+
+	private List<SerializedPage> serialize(Page page, int size)
+	{
+		List<SerializedPage> result = new ArrayList<SerializedPage>();
+		result.add(new SerializedPage(page.getNumericId(), page.getPageMapName(),
+			page.getCurrentVersionNumber(), page.getAjaxVersionNumber(), new byte[size]));
+		return result;
+	}
+
+	/**
+	 * Stored page must be found both by instance and by id, hits and misses must be counted.
+	 */
+	public void testStoreAndGet()
+	{
+		SerializedPagesCache cache = new SerializedPagesCache(10);
+		PageB page = new PageB("test");
+
+		assertNull(cache.getPage("session1", page));
+		SerializedPageWithSession stored = cache.storePage("session1", page, serialize(page, 10));
+
+		assertSame(stored, cache.getPage("session1", page));
+		assertSame(stored, cache.getPage("session1", page.getNumericId(), page.getPageMapName(),
+			page.getCurrentVersionNumber(), page.getAjaxVersionNumber()));
+		assertNull(cache.getPage("session2", page.getNumericId(), page.getPageMapName(),
+			page.getCurrentVersionNumber(), page.getAjaxVersionNumber()));
+
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+
+		assertSame(stored, cache.removePage("session1", page));
+		assertNull(cache.getPage("session1", page));
+	}
+
+	/**
+	 * Storing page instance again must replace the previous entry.
+	 */
+	public void testStoreReplacesPreviousVersion()
+	{
+		SerializedPagesCache cache = new SerializedPagesCache(10);
+		PageB page = new PageB("test");
+
+		cache.storePage("session1", page, serialize(page, 10));
+		SerializedPageWithSession stored = cache.storePage("session1", page, serialize(page, 20));
+
+		assertSame(stored, cache.getPage("session1", page));
+		assertEquals(20, cache.getSizeInBytes());
+	}
+
+	/**
+	 * Least recently used entries must be evicted when the byte limit is exceeded.
+	 */
+	public void testEvictionBySize()
+	{
+		SerializedPagesCache cache = new SerializedPagesCache(10, 100, 1);
+		PageB page1 = new PageB("1");
+		PageB page2 = new PageB("2");
+		PageB page3 = new PageB("3");
+
+		cache.storePage("session1", page1, serialize(page1, 40));
+		cache.storePage("session1", page2, serialize(page2, 40));
+
+		// touch the first page so that the second one becomes eldest
+		assertNotNull(cache.getPage("session1", page1));
+
+		cache.storePage("session1", page3, serialize(page3, 40));
+
+		assertNotNull(cache.getPage("session1", page1));
+		assertNull(cache.getPage("session1", page2));
+		assertNotNull(cache.getPage("session1", page3));
+		assertEquals(80, cache.getSizeInBytes());
+	}
+
+	/**
+	 * Least recently used entries must be evicted when the entry limit is exceeded.
+	 */
+	public void testEvictionByCount()
+	{
+		SerializedPagesCache cache = new SerializedPagesCache(2, Long.MAX_VALUE, 1);
+		PageB page1 = new PageB("1");
+		PageB page2 = new PageB("2");
+		PageB page3 = new PageB("3");
+
+		cache.storePage("session1", page1, serialize(page1, 1));
+		cache.storePage("session1", page2, serialize(page2, 1));
+		cache.storePage("session1", page3, serialize(page3, 1));
+
+		assertNull(cache.getPage("session1", page1));
+		assertNotNull(cache.getPage("session1", page2));
+		assertNotNull(cache.getPage("session1", page3));
+	}
+
+	/**
+	 * The limits apply to the whole cache, not to the single stripes. When exceeded, the least
+	 * recently used entry of all stripes must be evicted.
+	 */
+	public void testEvictionAcrossStripes()
+	{
+		SerializedPagesCache cache = new SerializedPagesCache(10, 100, 4);
+		PageB[] pages = new PageB[3];
+		for (int i = 0; i < pages.length; i++)
+		{
+			pages[i] = new PageB("" + i);
+			cache.storePage("session" + i, pages[i], serialize(pages[i], 40));
+		}
+
+		assertNull(cache.getPage("session0", pages[0]));
+		assertNotNull(cache.getPage("session1", pages[1]));
+		assertNotNull(cache.getPage("session2", pages[2]));
+		assertEquals(80, cache.getSizeInBytes());
+
+		cache = new SerializedPagesCache(3, Long.MAX_VALUE, 3);
+		pages = new PageB[6];
+		for (int i = 0; i < pages.length; i++)
+		{
+			pages[i] = new PageB("" + i);
+			cache.storePage("session" + i, pages[i], serialize(pages[i], 1));
+		}
+		for (int i = 0; i < pages.length; i++)
+		{
+			assertEquals(i >= 3, cache.getPage("session" + i, pages[i]) != null);
+		}
+	}
+}
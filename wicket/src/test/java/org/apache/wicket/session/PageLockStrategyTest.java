@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.session;
+
+import org.apache.wicket.Session;
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.session.ISessionLockStrategy.ILock;
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Tests for {@link PageLockStrategy}
+ */
+public class PageLockStrategyTest extends WicketTestCase
+{
+	private Session session;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		tester.setupRequestAndResponse();
+		session = tester.getWicketSession();
+	}
+
+	/**
+	 * Runs the action in another thread and returns the exception it threw or null.
+	 */
+	private Throwable runInThread(final Runnable action) throws InterruptedException
+	{
+		final Throwable[] result = new Throwable[1];
+		Thread thread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					action.run();
+				}
+				catch (Throwable e)
+				{
+					result[0] = e;
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		return result[0];
+	}
+
+	/**
+	 * Different pagemaps must be lockable concurrently, the same pagemap must not.
+	 * 
+	 * @throws Exception
+	 */
+	public void testPageMapLocks() throws Exception
+	{
+		final PageLockStrategy strategy = new PageLockStrategy(false, true,
+			Duration.milliseconds(100));
+		ILock lock = strategy.lockPage(session, null, 1);
+		try
+		{
+			assertNull(runInThread(new Runnable()
+			{
+				public void run()
+				{
+					strategy.lockPage(session, "other", 1).unlock();
+				}
+			}));
+			Throwable e = runInThread(new Runnable()
+			{
+				public void run()
+				{
+					strategy.lockPage(session, null, 2).unlock();
+				}
+			});
+			assertTrue(e instanceof WicketRuntimeException);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * With page locking different pages of the same pagemap must be lockable concurrently.
+	 * 
+	 * @throws Exception
+	 */
+	public void testPageLocks() throws Exception
+	{
+		final PageLockStrategy strategy = new PageLockStrategy(true, true,
+			Duration.milliseconds(100));
+		ILock lock = strategy.lockPage(session, null, 1);
+		try
+		{
+			assertNull(runInThread(new Runnable()
+			{
+				public void run()
+				{
+					strategy.lockPage(session, null, 2).unlock();
+				}
+			}));
+			assertTrue(runInThread(new Runnable()
+			{
+				public void run()
+				{
+					strategy.lockPage(session, null, 1).unlock();
+				}
+			}) instanceof WicketRuntimeException);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Session lock must wait for the page locks, but must not block the thread holding a page
+	 * lock.
+	 * 
+	 * @throws Exception
+	 */
+	public void testSessionLock() throws Exception
+	{
+		final PageLockStrategy strategy = new PageLockStrategy(false, true,
+			Duration.milliseconds(100));
+		ILock lock = strategy.lockPage(session, "pagemap", -1);
+		try
+		{
+			assertTrue(runInThread(new Runnable()
+			{
+				public void run()
+				{
+					strategy.lockSession(session).unlock();
+				}
+			}) instanceof WicketRuntimeException);
+
+			strategy.lockSession(session).unlock();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		lock = strategy.lockSession(session);
+		try
+		{
+			// session lock is reentrant
+			strategy.lockSession(session).unlock();
+			assertTrue(runInThread(new Runnable()
+			{
+				public void run()
+				{
+					strategy.lockPage(session, "other", -1).unlock();
+				}
+			}) instanceof WicketRuntimeException);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+}
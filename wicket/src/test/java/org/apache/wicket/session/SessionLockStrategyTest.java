@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.session;
+
+import org.apache.wicket.Session;
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.session.ISessionLockStrategy.ILock;
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Tests for {@link SessionLockStrategy}
+ */
+public class SessionLockStrategyTest extends WicketTestCase
+{
+	private Session session;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		tester.setupRequestAndResponse();
+		session = tester.getWicketSession();
+	}
+
+	/**
+	 * Waiting thread must give up after the timeout and report the lock holder, waits must be
+	 * recorded.
+	 * 
+	 * @throws Exception
+	 */
+	public void testTimeout() throws Exception
+	{
+		final SessionLockStrategy strategy = new SessionLockStrategy(true,
+			Duration.milliseconds(50));
+		ILock lock = strategy.lockPage(session, null, 1);
+
+		// the lock is reentrant
+		strategy.lockSession(session).unlock();
+
+		final Throwable[] result = new Throwable[1];
+		Thread thread = new Thread("waiting")
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					strategy.lockPage(session, "other", 2).unlock();
+				}
+				catch (Throwable e)
+				{
+					result[0] = e;
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		lock.unlock();
+
+		assertTrue(result[0] instanceof WicketRuntimeException);
+		assertTrue(result[0].getMessage(), result[0].getMessage().indexOf(
+			"by thread " + Thread.currentThread().getName()) != -1);
+
+		SessionLockMetrics metrics = strategy.getMetrics();
+		assertEquals(2, metrics.getAcquiredCount());
+		assertEquals(1, metrics.getTimeoutCount());
+		assertTrue(metrics.getMaxWaitTime() >= 40);
+
+		long total = 0;
+		long[] histogram = metrics.getHistogram();
+		for (int i = 0; i < histogram.length; ++i)
+		{
+			total += histogram[i];
+		}
+		assertEquals(3, total);
+		assertEquals(metrics.getBucketBounds().length + 1, histogram.length);
+
+		metrics.reset();
+		assertEquals(0, metrics.getAcquiredCount());
+	}
+
+	/**
+	 * Released lock must be acquirable by other threads.
+	 * 
+	 * @throws Exception
+	 */
+	public void testRelease() throws Exception
+	{
+		final SessionLockStrategy strategy = new SessionLockStrategy(false,
+			Duration.milliseconds(50));
+		strategy.lockPage(session, null, 1).unlock();
+
+		final Throwable[] result = new Throwable[1];
+		Thread thread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					strategy.lockSession(session).unlock();
+				}
+				catch (Throwable e)
+				{
+					result[0] = e;
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		assertNull(result[0]);
+	}
+}
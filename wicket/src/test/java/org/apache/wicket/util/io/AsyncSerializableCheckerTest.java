@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.wicket.util.io.SerializableChecker.WicketNotSerializableException;
+
+/**
+ * Tests for {@link AsyncSerializableChecker} and {@link SerializableCheckerCache}
+ */
+public class AsyncSerializableCheckerTest extends TestCase
+{
+	/**
+	 * Only the fields that can hold non-serializable objects must be checked.
+	 */
+	public void testFieldsToCheck()
+	{
+		SerializableCheckerCache cache = new SerializableCheckerCache();
+
+		assertEquals(0, cache.getFieldsToCheck(Leaf.class).length);
+
+		Field[] fields = cache.getFieldsToCheck(Holder.class);
+		assertEquals(1, fields.length);
+		assertEquals("value", fields[0].getName());
+
+		// customized serialization is left to the full check
+		assertNull(cache.getFieldsToCheck(ArrayList.class));
+		assertNull(cache.getFieldsToCheck(Object[].class));
+		assertTrue(cache.size() >= 2);
+	}
+
+	/**
+	 * Path of the non-serializable field must be reported.
+	 */
+	public void testReportsOffendingField()
+	{
+		final List<String> messages = new ArrayList<String>();
+		AsyncSerializableChecker checker = new AsyncSerializableChecker(1, 16)
+		{
+			@Override
+			protected void onNotSerializable(Object object, WicketNotSerializableException e)
+			{
+				messages.add(e.getMessage());
+			}
+		};
+
+		List<Object> list = new ArrayList<Object>();
+		list.add(new Holder(new Object()));
+		assertTrue(checker.sample(new Holder(list)));
+		assertTrue(checker.sample(new Holder("ok")));
+		checker.destroy();
+
+		assertEquals(2, checker.getCheckedCount());
+		assertEquals(1, checker.getFailureCount());
+		assertEquals(1, messages.size());
+		String message = messages.get(0);
+		assertTrue(message, message.indexOf("java.lang.Object") != -1);
+		assertTrue(message, message.indexOf("Holder.value") != -1);
+	}
+
+	/**
+	 * Only every n-th sample must be checked.
+	 */
+	public void testSampling()
+	{
+		AsyncSerializableChecker checker = new AsyncSerializableChecker(3, 16);
+		for (int i = 0; i < 7; i++)
+		{
+			checker.sample(new Holder(new Leaf()));
+		}
+		checker.destroy();
+
+		assertEquals(7, checker.getSampledCount());
+		assertEquals(2, checker.getCheckedCount());
+		assertEquals(0, checker.getFailureCount());
+		assertFalse(checker.sample(new Holder(null)));
+		assertFalse(checker.sample(new Holder(null)));
+		assertFalse(checker.sample(new Holder(null)));
+		assertEquals(1, checker.getDroppedCount());
+	}
+
+	private static final class Leaf implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String name = "leaf";
+		private final int[] numbers = new int[] { 1 };
+		private transient Object cache = new Object();
+	}
+
+	private static class Holder implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Object value;
+		private final Leaf leaf = new Leaf();
+
+		private Holder(Object value)
+		{
+			this.value = value;
+		}
+	}
+}
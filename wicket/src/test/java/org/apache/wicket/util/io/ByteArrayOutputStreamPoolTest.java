@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ByteArrayOutputStreamPool}
+ */
+public class ByteArrayOutputStreamPoolTest extends TestCase
+{
+	/**
+	 * Released streams must be reused empty, the pool must not exceed its size.
+	 */
+	public void testReuse()
+	{
+		ByteArrayOutputStreamPool pool = new ByteArrayOutputStreamPool(1, 16, 1024);
+
+		ByteArrayOutputStream first = pool.acquire();
+		ByteArrayOutputStream second = pool.acquire();
+		for (int i = 0; i < 100; i++)
+		{
+			first.write(i);
+		}
+		pool.release(first);
+		pool.release(second);
+		assertEquals(1, pool.getPooledCount());
+
+		ByteArrayOutputStream reused = pool.acquire();
+		assertSame(first, reused);
+		assertEquals(0, reused.size());
+		assertEquals(0, pool.getPooledCount());
+
+		reused.write(new byte[] { 1, 2, 3 }, 0, 3);
+		reused.write(4);
+		byte[] bytes = reused.toByteArray();
+		assertEquals(4, bytes.length);
+		assertEquals(4, bytes[3]);
+	}
+
+	/**
+	 * Streams that grew too large must not be retained.
+	 */
+	public void testOversizedStreamIsDiscarded()
+	{
+		ByteArrayOutputStreamPool pool = new ByteArrayOutputStreamPool(4, 16, 64);
+
+		ByteArrayOutputStream stream = pool.acquire();
+		stream.write(new byte[65], 0, 65);
+		pool.release(stream);
+
+		assertEquals(0, pool.getPooledCount());
+		assertNotSame(stream, pool.acquire());
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Locale;
+
+import org.apache.wicket.WicketTestCase;
+
+/**
+ * Tests for {@link ClassDictionary}
+ */
+public class ClassDictionaryTest extends WicketTestCase
+{
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		file = File.createTempFile("classes", ".dict");
+		file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		file.delete();
+		super.tearDown();
+	}
+
+	/**
+	 * Ids must survive reopening the dictionary file.
+	 */
+	public void testIdsArePersistent()
+	{
+		ClassDictionary dictionary = new ClassDictionary(file);
+		int stringId = dictionary.getId(String.class);
+		int intId = dictionary.getId(int.class);
+		assertTrue(stringId > 0);
+		assertTrue(stringId != intId);
+		assertEquals(stringId, dictionary.getId(String.class));
+
+		ClassDictionary reopened = new ClassDictionary(file);
+		assertEquals(2, reopened.size());
+		assertEquals(stringId, reopened.getId(String.class));
+		assertEquals(intId, reopened.getId(int.class));
+		assertEquals(String.class.getName(), reopened.getClassName(stringId));
+	}
+
+	/**
+	 * Dictionaries sharing one file must assign the same ids regardless of the registration order.
+	 * 
+	 * @throws Exception
+	 */
+	public void testSharedFile() throws Exception
+	{
+		ClassDictionary node1 = new ClassDictionary(file);
+		ClassDictionary node2 = new ClassDictionary(file);
+
+		int localeId = node1.getId(Locale.class);
+		int stringId = node2.getId(String.class);
+
+		assertEquals(localeId, node2.getId(Locale.class));
+		assertEquals(stringId, node1.getId(String.class));
+		assertEquals(Locale.class, node2.getClass(localeId));
+		assertEquals(2, node1.size());
+	}
+
+	/**
+	 * Data written before restart must be readable with a new dictionary on the same file.
+	 * 
+	 * @throws Exception
+	 */
+	public void testReadAfterRestart() throws Exception
+	{
+		PageB b = new PageB("test");
+		PageA a = new PageA(b);
+		b.setA(a);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		WicketObjectOutputStream out = new WicketObjectOutputStream(baos, new ClassDictionary(
+			file));
+		out.writeObject(a);
+		out.close();
+
+		WicketObjectInputStream in = new WicketObjectInputStream(new ByteArrayInputStream(
+			baos.toByteArray()), new ClassDictionary(file));
+		PageA a2 = (PageA)in.readObject();
+
+		assertEquals(a, a2);
+		assertSame(a2, a2.getB().getA());
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ClassStreamHandler}
+ */
+public class ClassStreamHandlerTest extends TestCase
+{
+	private static final int THREADS = 64;
+
+	/**
+	 * Serialized object, every class loader of the test defines its own copy of this class.
+	 */
+	public static class Data implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int number;
+
+		private final String text;
+
+		private final List<String> list = new ArrayList<String>();
+
+		/**
+		 * Construct.
+		 */
+		public Data()
+		{
+			number = 42;
+			text = "text";
+			list.add(text);
+		}
+	}
+
+	/**
+	 * Class loader defining its own {@link Data} class.
+	 */
+	private static class DataClassLoader extends ClassLoader
+	{
+		private DataClassLoader()
+		{
+			super(DataClassLoader.class.getClassLoader());
+		}
+
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve)
+			throws ClassNotFoundException
+		{
+			if (!name.equals(Data.class.getName()))
+			{
+				return super.loadClass(name, resolve);
+			}
+			Class<?> cls = findLoadedClass(name);
+			if (cls == null)
+			{
+				try
+				{
+					InputStream in = getParent().getResourceAsStream(
+						name.replace('.', '/') + ".class");
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					Streams.copy(in, bytes);
+					in.close();
+					byte[] data = bytes.toByteArray();
+					cls = defineClass(name, data, 0, data.length);
+				}
+				catch (Exception e)
+				{
+					throw new ClassNotFoundException(name, e);
+				}
+			}
+			return cls;
+		}
+	}
+
+	private static Class<?> newDataClass() throws ClassNotFoundException
+	{
+		return new DataClassLoader().loadClass(Data.class.getName());
+	}
+
+	/**
+	 * Classes with the same name from different class loaders must get different handlers.
+	 * 
+	 * @throws Exception
+	 */
+	public void testHandlersPerClassLoader() throws Exception
+	{
+		Class<?> cls1 = newDataClass();
+		Class<?> cls2 = newDataClass();
+		assertNotSame(cls1, cls2);
+
+		ClassStreamHandler handler1 = ClassStreamHandler.lookup(cls1);
+		ClassStreamHandler handler2 = ClassStreamHandler.lookup(cls2);
+		assertSame(cls1, handler1.getStreamClass());
+		assertSame(cls2, handler2.getStreamClass());
+		assertSame(handler1, ClassStreamHandler.lookup(cls1));
+	}
+
+	/**
+	 * Unregistered class loader must not be served from the cache anymore.
+	 * 
+	 * @throws Exception
+	 */
+	public void testUnregister() throws Exception
+	{
+		Class<?> cls = newDataClass();
+		ClassStreamHandler handler = ClassStreamHandler.lookup(cls);
+		ClassStreamHandler.unregister(cls.getClassLoader());
+		assertNotSame(handler, ClassStreamHandler.lookup(cls));
+	}
+
+	/**
+	 * Many threads serializing distinct classes at once, all must succeed and share the handlers.
+	 * 
+	 * @throws Exception
+	 */
+	public void testConcurrentSerialization() throws Exception
+	{
+		final Class<?>[] classes = new Class<?>[THREADS];
+		for (int i = 0; i < THREADS; i++)
+		{
+			classes[i] = newDataClass();
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final ClassStreamHandler[][] handlers = new ClassStreamHandler[THREADS][THREADS];
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++)
+		{
+			final int thread = i;
+			threads[i] = new Thread("serializer-" + i)
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+						for (int j = 0; j < THREADS; j++)
+						{
+							// every thread starts with different class
+							int index = (thread + j) % THREADS;
+							WicketObjectOutputStream out = new WicketObjectOutputStream(
+								new ByteArrayOutputStream());
+							out.writeObject(classes[index].newInstance());
+							out.close();
+							handlers[thread][index] = ClassStreamHandler.lookup(classes[index]);
+						}
+					}
+					catch (Throwable e)
+					{
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (int i = 0; i < THREADS; i++)
+		{
+			threads[i].join();
+		}
+
+		if (error.get() != null)
+		{
+			throw new AssertionError(error.get());
+		}
+		for (int i = 0; i < THREADS; i++)
+		{
+			assertSame(classes[i], handlers[0][i].getStreamClass());
+			for (int j = 1; j < THREADS; j++)
+			{
+				assertSame(handlers[0][i], handlers[j][i]);
+			}
+		}
+	}
+}
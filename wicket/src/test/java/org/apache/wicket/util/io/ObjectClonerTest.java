@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.util.lang.Objects;
+
+/**
+ * Tests for {@link ObjectCloner}
+ */
+public class ObjectClonerTest extends WicketTestCase
+{
+	/**
+	 * Shared references and cycles must be preserved, immutable objects shared.
+	 * 
+	 * @throws Exception
+	 */
+	public void testIdentityAndImmutables() throws Exception
+	{
+		Node first = new Node("first", new BigDecimal("1.5"));
+		Node second = new Node("second", new Integer(2));
+		first.next = second;
+		second.next = first;
+		Node[] nodes = new Node[] { first, second, first };
+
+		Node[] copy = (Node[])ObjectCloner.cloneObject(nodes);
+
+		assertNotSame(nodes, copy);
+		assertNotSame(first, copy[0]);
+		assertSame(copy[0], copy[2]);
+		assertSame(copy[1], copy[0].next);
+		assertSame(copy[0], copy[1].next);
+		assertSame(first.name, copy[0].name);
+		assertSame(first.value, copy[0].value);
+		assertSame(second.value, copy[1].value);
+		assertEquals(0, copy[0].cached);
+		assertNotSame(first.date, copy[0].date);
+		assertEquals(first.date, copy[0].date);
+		assertEquals(3, copy[0].numbers[2]);
+		assertNotSame(first.numbers, copy[0].numbers);
+	}
+
+	/**
+	 * Classes with custom serialization methods must be copied through the methods.
+	 * 
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public void testCustomSerialization() throws Exception
+	{
+		Node node = new Node("node", null);
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("node", node);
+		List<Object> list = new ArrayList<Object>();
+		list.add(node);
+		list.add(map);
+		Custom custom = new Custom();
+		custom.list = list;
+		list.add(custom);
+
+		Custom copy = (Custom)ObjectCloner.cloneObject(custom);
+
+		assertEquals(42, copy.written);
+		assertEquals("custom", copy.label);
+		List<Object> listCopy = copy.list;
+		assertNotSame(list, listCopy);
+		assertEquals(3, listCopy.size());
+		assertSame(copy, listCopy.get(2));
+		Node nodeCopy = (Node)listCopy.get(0);
+		assertNotSame(node, nodeCopy);
+		assertSame(nodeCopy, ((Map<String, Object>)listCopy.get(1)).get("node"));
+	}
+
+	/**
+	 * Replaced and resolved objects must be copied the way serialization would do it.
+	 * 
+	 * @throws Exception
+	 */
+	public void testReplaceAndResolve() throws Exception
+	{
+		Node node = new Node("node", Singleton.INSTANCE);
+		node.next = new Node("replaced", new Replaceable("value"));
+
+		Node copy = (Node)ObjectCloner.cloneObject(node);
+
+		assertSame(Singleton.INSTANCE, copy.value);
+		Object replaced = copy.next.value;
+		assertTrue(replaced instanceof Replaceable);
+		assertEquals("value", ((Replaceable)replaced).value);
+		assertTrue(((Replaceable)replaced).resolved);
+	}
+
+	/**
+	 * Pages must be cloned with their components.
+	 * 
+	 * @throws Exception
+	 */
+	public void testClonePage() throws Exception
+	{
+		PageB b = new PageB("test");
+		PageA a = new PageA(b);
+		b.setA(a);
+
+		PageA copy = (PageA)ObjectCloner.cloneObject(a);
+
+		assertNotSame(a, copy);
+		assertEquals(a, copy);
+		assertSame(copy, copy.getB().getA());
+	}
+
+	/**
+	 * Non serializable objects must be rejected.
+	 */
+	public void testNotSerializable()
+	{
+		Node node = new Node("node", new Object());
+		try
+		{
+			ObjectCloner.cloneObject(node);
+			fail("Exception expected");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+
+	/**
+	 * Snapshots must share not serializable objects instead of failing.
+	 * 
+	 * @throws Exception
+	 */
+	public void testSnapshot() throws Exception
+	{
+		Object value = new Object();
+		Node node = new Node("node", value);
+		node.next = new Node("next", new BigDecimal("1"));
+
+		Node snapshot = (Node)ObjectCloner.snapshot(node, 100);
+		assertNotSame(node, snapshot);
+		assertSame(value, snapshot.value);
+		assertNotSame(node.next, snapshot.next);
+
+		// too large object graphs are not copied
+		assertNull(ObjectCloner.snapshot(node, 1));
+
+		// changes of the original don't affect the snapshot
+		node.next = null;
+		assertEquals("next", snapshot.next.name);
+	}
+
+	/**
+	 * {@link Objects#cloneObject(Object)} must only use the cloner when enabled and report
+	 * problems the same way in both modes.
+	 */
+	public void testObjectsCloneObject()
+	{
+		Node node = new Node("node", new BigDecimal("1"));
+		assertFalse(Objects.isInMemoryCloning());
+		assertEquals("node", ((Node)Objects.cloneObject(node)).name);
+
+		Objects.setInMemoryCloning(true);
+		try
+		{
+			Node copy = (Node)Objects.cloneObject(node);
+			assertNotSame(node, copy);
+			assertSame(node.name, copy.name);
+
+			try
+			{
+				Objects.cloneObject(new Node("node", new Object()));
+				fail("Exception expected");
+			}
+			catch (WicketRuntimeException e)
+			{
+				assertTrue(e.getCause() instanceof NotSerializableException);
+			}
+		}
+		finally
+		{
+			Objects.setInMemoryCloning(false);
+		}
+	}
+
+	private static class Node implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final Object value;
+		private final Date date = new Date();
+		private final int[] numbers = new int[] { 1, 2, 3 };
+		private transient int cached = 10;
+		private Node next;
+
+		private Node(String name, Object value)
+		{
+			this.name = name;
+			this.value = value;
+		}
+	}
+
+	private static class Custom implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private transient int written;
+		private String label = "custom";
+		private List<Object> list;
+
+		private void writeObject(ObjectOutputStream out) throws IOException
+		{
+			out.defaultWriteObject();
+			out.writeInt(42);
+		}
+
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+		{
+			in.defaultReadObject();
+			written = in.readInt();
+		}
+	}
+
+	private static class Singleton implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private static final Singleton INSTANCE = new Singleton();
+
+		private Object readResolve() throws ObjectStreamException
+		{
+			return INSTANCE;
+		}
+	}
+
+	private static class Replaceable implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String value;
+		private transient boolean resolved;
+
+		private Replaceable(String value)
+		{
+			this.value = value;
+		}
+
+		private Object writeReplace() throws ObjectStreamException
+		{
+			return new Replacement(value);
+		}
+	}
+
+	private static class Replacement implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String value;
+
+		private Replacement(String value)
+		{
+			this.value = value;
+		}
+
+		private Object readResolve() throws ObjectStreamException
+		{
+			Replaceable replaceable = new Replaceable(value);
+			replaceable.resolved = true;
+			return replaceable;
+		}
+	}
+}
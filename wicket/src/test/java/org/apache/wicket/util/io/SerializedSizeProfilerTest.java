@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.util.List;
+
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.repeater.RepeatingView;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.util.io.SerializedSizeProfiler.Entry;
+
+/**
+ * Tests for {@link SerializedSizeProfiler}
+ */
+public class SerializedSizeProfilerTest extends WicketTestCase
+{
+	/**
+	 * Page with a repeater of labels with big models.
+	 */
+	public static class ProfiledPage extends WebPage
+	{
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Construct.
+		 */
+		public ProfiledPage()
+		{
+			WebMarkupContainer container = new WebMarkupContainer("container");
+			add(container);
+			RepeatingView rows = new RepeatingView("rows");
+			container.add(rows);
+			for (int i = 0; i < 3; i++)
+			{
+				rows.add(new Label(rows.newChildId(), new Model<String>(new String(new char[1000]) +
+					i)));
+			}
+			add(new Label("small", "small"));
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		tester.setupRequestAndResponse();
+	}
+
+	/**
+	 * Bytes must be attributed to component paths (with repeater items merged) and to models.
+	 */
+	public void testProfile()
+	{
+		SerializedSizeProfiler profiler = new SerializedSizeProfiler(1, 100);
+		assertTrue(profiler.profile(new ProfiledPage()));
+
+		String prefix = ProfiledPage.class.getName() + ":";
+		List<Entry> components = profiler.getTopComponents(10);
+		Entry top = components.get(0);
+		assertEquals(prefix + "container:rows:*", top.getName());
+		assertEquals(1, top.getCount());
+		assertTrue(top.getBytes() > 3000);
+
+		Entry container = find(components, prefix + "container");
+		Entry rows = find(components, prefix + "container:rows");
+		assertNotNull(container);
+		assertNotNull(rows);
+		// child components are not included
+		assertTrue(container.getBytes() < 1000);
+		assertTrue(rows.getBytes() < 1000);
+
+		List<Entry> models = profiler.getTopModels(10);
+		assertEquals(Model.class.getName(), models.get(0).getName());
+		assertTrue(models.get(0).getBytes() > 3000);
+
+		List<Entry> pages = profiler.getTopPages(10);
+		assertEquals(1, pages.size());
+		assertTrue(pages.get(0).getBytes() > top.getBytes());
+		assertEquals(-1, pages.get(0).getObjectSize());
+
+		assertEquals(1, profiler.getTopComponents(1).size());
+	}
+
+	/**
+	 * Only every n-th sample must be profiled.
+	 */
+	public void testSampleRate()
+	{
+		SerializedSizeProfiler profiler = new SerializedSizeProfiler(2, 100);
+		ProfiledPage page = new ProfiledPage();
+		for (int i = 0; i < 4; i++)
+		{
+			profiler.sample(page);
+		}
+		assertEquals(4, profiler.getSampledCount());
+		assertEquals(2, profiler.getProfiledCount());
+		assertEquals(2, profiler.getTopPages(1).get(0).getCount());
+
+		profiler.clear();
+		assertEquals(0, profiler.getTopComponents(10).size());
+	}
+
+	/**
+	 * Sizes of new entries must be dropped when the maximum is reached.
+	 */
+	public void testMaxEntries()
+	{
+		SerializedSizeProfiler profiler = new SerializedSizeProfiler(1, 2);
+		profiler.profile(new ProfiledPage());
+		assertEquals(2, profiler.getTopComponents(10).size());
+		assertTrue(profiler.getDroppedCount() > 0);
+	}
+
+	private Entry find(List<Entry> entries, String name)
+	{
+		for (Entry entry : entries)
+		{
+			if (entry.getName().equals(name))
+			{
+				return entry;
+			}
+		}
+		return null;
+	}
+}
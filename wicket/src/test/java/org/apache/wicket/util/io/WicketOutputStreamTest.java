@@ -19,7 +19,10 @@ package org.apache.wicket.util.io;
 import java.io.ByteArrayInputStream;
 import java.math.BigInteger;
 import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Vector;
 
 import junit.framework.Assert;
 
@@ -105,6 +108,37 @@ public class WicketOutputStreamTest extends WicketTestCase
 		}
 	}
 
+	/**
+	 * Tests serialization of a class that writes its fields with defaultWriteObject() and reads
+	 * them with readFields() (and one that uses putFields()).
+	 * 
+	 * @throws Exception
+	 */
+	public void testFieldsWrittenAndReadDifferently() throws Exception
+	{
+		Map<String, String> map = new LinkedHashMap<String, String>(16, 0.75f, true);
+		map.put("a", "1");
+		map.put("b", "2");
+		Vector<String> vector = new Vector<String>();
+		vector.add("c");
+		woos.writeObject(map);
+		woos.writeObject(vector);
+
+		ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+
+		WicketObjectInputStream wois = new WicketObjectInputStream(bais);
+		@SuppressWarnings("unchecked")
+		Map<String, String> map2 = (Map<String, String>)wois.readObject();
+		Object vector2 = wois.readObject();
+
+		Assert.assertEquals(map, map2);
+		Assert.assertEquals(vector, vector2);
+
+		// access order must have been read too
+		map2.get("a");
+		Assert.assertEquals("b", map2.keySet().iterator().next());
+	}
+
 	public void testLocale() throws Exception
 	{
 		Locale locale = new Locale("nl", "NL");